@@ -16,18 +16,23 @@ import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 /**
  * Like Guava's {@link com.google.common.base.CharMatcher}, but handles codepoints outside the BMP.
- * Right now this is implemented rather inefficiently, but we can do fancy things with lookup
- * tables, etc. to speed things up in the future.
+ * Most matchers evaluate a predicate (often {@link Character#getType(int)}) for each codepoint. If
+ * a matcher will be applied to a lot of text, call {@link #precompute()} to get an equivalent
+ * table-driven matcher.
  *
  * This class is heavily indebted to Guava's {@code CharMatcher} for its design and part of its
  * implementation.
  *
- * Unlike {@code CharMatcher} this operates over {@link String}s rather than more generic {@link
- * CharSequence}s because in pre-8 Java you can't easily get the code points of a {@code
- * CharSequence}.
+ * The bulk operations accept any {@link CharSequence}; {@link #indexIn(char[], int, int)} and
+ * {@link #countIn(char[], int, int)} are also provided for raw {@code char} buffers.  None of the
+ * bulk operations allocate unless they need to return a new string, and those which return
+ * strings return the input unchanged if it is a {@link String} with nothing to remove or
+ * collapse.
  *
  * Behavior in the presence of unpaired surrogates is undefined.
  *
@@ -218,19 +223,42 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
 
   public abstract boolean matches(int codepoint);
 
+  /**
+   * Returns a matcher which matches exactly the same codepoints as this one but does so by table
+   * lookup: a bitset for the BMP and a sorted table of matching ranges for the astral planes.
+   * Building the tables requires evaluating this matcher on every Unicode codepoint, so this is
+   * only worthwhile for matchers which will be applied to a lot of text. The result should be
+   * cached and reused.
+   */
+  public CodepointMatcher precompute() {
+    return new Precomputed(this);
+  }
+
   public final boolean matchesNoneOf(String s) {
-    return offsetIn(s) == NO_MATCH_OFFSET;
+    return matchesNoneOf((CharSequence) s);
+  }
+
+  public final boolean matchesNoneOf(CharSequence s) {
+    return indexIn(s, 0) == NO_MATCH_OFFSET;
   }
 
   public final boolean matchesAnyOf(String s) {
     return !matchesNoneOf(s);
   }
 
+  public final boolean matchesAnyOf(CharSequence s) {
+    return !matchesNoneOf(s);
+  }
+
   public final boolean matchesAllOf(String s) {
+    return matchesAllOf((CharSequence) s);
+  }
+
+  public final boolean matchesAllOf(CharSequence s) {
     // why this loop? Java stores strings as UTF-16, so logical characters may be one or two
     // chars. We need to be careful in case we get e.g. Asian language input
     for (int offset = 0; offset < s.length(); ) {
-      final int codePoint = s.codePointAt(offset);
+      final int codePoint = Character.codePointAt(s, offset);
       if (!matches(codePoint)) {
         return false;
       }
@@ -249,8 +277,44 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
    * code point which is matched.  If there is no match, {@link #NO_MATCH_OFFSET} is returned.
    */
   public final int offsetIn(String s) {
-    for (int offset = 0; offset < s.length(); ) {
-      final int codePoint = s.codePointAt(offset);
+    return indexIn(s, 0);
+  }
+
+  /**
+   * Returns the UTF-16 code unit offset (not the code point index!) of the first matching code
+   * point in {@code s}.  If there is no match, {@link #NO_MATCH_OFFSET} is returned.
+   */
+  public final int indexIn(CharSequence s) {
+    return indexIn(s, 0);
+  }
+
+  /**
+   * Returns the UTF-16 code unit offset (not the code point index!) of the first matching code
+   * point in {@code s} which starts at or after {@code start}.  If there is no match, {@link
+   * #NO_MATCH_OFFSET} is returned.
+   */
+  public final int indexIn(CharSequence s, int start) {
+    checkPositionIndex(start, s.length());
+    for (int offset = start; offset < s.length(); ) {
+      final int codePoint = Character.codePointAt(s, offset);
+      if (matches(codePoint)) {
+        return offset;
+      }
+      offset += Character.charCount(codePoint);
+    }
+    return NO_MATCH_OFFSET;
+  }
+
+  /**
+   * Returns the offset in {@code chars} of the first matching code point in the range from
+   * {@code start} (inclusive) to {@code end} (exclusive). If there is no match, {@link
+   * #NO_MATCH_OFFSET} is returned.  A surrogate pair split by {@code end} is treated as an unpaired
+   * surrogate.
+   */
+  public final int indexIn(char[] chars, int start, int end) {
+    checkPositionIndexes(start, end, chars.length);
+    for (int offset = start; offset < end; ) {
+      final int codePoint = Character.codePointAt(chars, offset, end);
       if (matches(codePoint)) {
         return offset;
       }
@@ -260,9 +324,33 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
   }
 
   public final int countIn(String s) {
+    return countIn((CharSequence) s);
+  }
+
+  /**
+   * Returns the number of matching code points in {@code s}.
+   */
+  public final int countIn(CharSequence s) {
     int count = 0;
     for (int offset = 0; offset < s.length(); ) {
-      final int codePoint = s.codePointAt(offset);
+      final int codePoint = Character.codePointAt(s, offset);
+      if (matches(codePoint)) {
+        ++count;
+      }
+      offset += Character.charCount(codePoint);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of matching code points in {@code chars} between {@code start} (inclusive)
+   * and {@code end} (exclusive).
+   */
+  public final int countIn(char[] chars, int start, int end) {
+    checkPositionIndexes(start, end, chars.length);
+    int count = 0;
+    for (int offset = start; offset < end; ) {
+      final int codePoint = Character.codePointAt(chars, offset, end);
       if (matches(codePoint)) {
         ++count;
       }
@@ -275,10 +363,23 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
    * Returns a copy of the input string with all Unicode codepoints matching this matcher removed
    */
   public final String removeFrom(String s) {
-    final StringBuilder sb = new StringBuilder();
+    return removeFrom((CharSequence) s);
+  }
 
-    for (int offset = 0; offset < s.length(); ) {
-      final int codePoint = s.codePointAt(offset);
+  /**
+   * Returns a copy of the input with all Unicode codepoints matching this matcher removed. If
+   * nothing matches, {@code s.toString()} is returned.
+   */
+  public final String removeFrom(CharSequence s) {
+    final int firstMatch = indexIn(s, 0);
+    if (firstMatch == NO_MATCH_OFFSET) {
+      return s.toString();
+    }
+    final StringBuilder sb = new StringBuilder(s.length());
+    sb.append(s, 0, firstMatch);
+
+    for (int offset = firstMatch; offset < s.length(); ) {
+      final int codePoint = Character.codePointAt(s, offset);
       if (!matches(codePoint)) {
         sb.appendCodePoint(codePoint);
       }
@@ -293,12 +394,20 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
    * matcher removed
    */
   public final String trimFrom(String s) {
+    return trimFrom((CharSequence) s);
+  }
+
+  /**
+   * Returns a copy of the input with all leading and trailing codepoints matching this matcher
+   * removed.
+   */
+  public final String trimFrom(CharSequence s) {
     int first;
     int last;
 
     // removes leading matches
     for (first = 0; first < s.length(); ) {
-      final int codePoint = s.codePointAt(first);
+      final int codePoint = Character.codePointAt(s, first);
       if (!matches(codePoint)) {
         break;
       }
@@ -310,12 +419,13 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
       if (Character.isLowSurrogate(s.charAt(last))) {
         --last;
       }
-      if (!matches(s.codePointAt(last))) {
+      if (!matches(Character.codePointAt(s, last))) {
         break;
       }
     }
 
-    return s.substring(first, last + 1);
+    // for Strings, this returns the input itself if nothing was trimmed
+    return s.subSequence(first, last + 1).toString();
   }
 
   /**
@@ -343,11 +453,25 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
    * are replaced with {@code replacementCharacter}.
    */
   public final String collapseFrom(String s, char replacementCharacter) {
-    final StringBuilder sb = new StringBuilder();
+    return collapseFrom((CharSequence) s, replacementCharacter);
+  }
+
+  /**
+   * Returns a copy of the input with all groups of 1 or more successive matching characters are
+   * replaced with {@code replacementCharacter}. If nothing matches, {@code s.toString()} is
+   * returned.
+   */
+  public final String collapseFrom(CharSequence s, char replacementCharacter) {
+    final int firstMatch = indexIn(s, 0);
+    if (firstMatch == NO_MATCH_OFFSET) {
+      return s.toString();
+    }
+    final StringBuilder sb = new StringBuilder(s.length());
+    sb.append(s, 0, firstMatch);
     boolean follows = false;
 
-    for (int offset = 0; offset < s.length(); ) {
-      final int codePoint = s.codePointAt(offset);
+    for (int offset = firstMatch; offset < s.length(); ) {
+      final int codePoint = Character.codePointAt(s, offset);
       if (matches(codePoint)) {
         if (!follows) {
           sb.append(replacementCharacter);
@@ -818,6 +942,96 @@ public abstract class CodepointMatcher implements Predicate<Integer> {
   }
 
 
+  /**
+   * See {@link #precompute()}.
+   */
+  private static final class Precomputed extends CodepointMatcher {
+
+    private static final int BMP_SIZE = Character.MAX_VALUE + 1;
+
+    @JsonProperty("source")
+    private final CodepointMatcher source;
+    // bit i is set iff source matches the BMP codepoint i
+    private final long[] bmpBits;
+    // the inclusive starts and ends of the maximal ranges of astral codepoints matched by source
+    private final int[] astralRangeStarts;
+    private final int[] astralRangeEnds;
+
+    @JsonCreator
+    Precomputed(@JsonProperty("source") final CodepointMatcher source) {
+      this.source = checkNotNull(source);
+      this.bmpBits = new long[BMP_SIZE / Long.SIZE];
+      for (int codepoint = 0; codepoint < BMP_SIZE; ++codepoint) {
+        if (source.matches(codepoint)) {
+          bmpBits[codepoint >>> 6] |= 1L << codepoint;
+        }
+      }
+
+      final List<Integer> rangeStarts = new ArrayList<>();
+      final List<Integer> rangeEnds = new ArrayList<>();
+      int rangeStart = -1;
+      for (int codepoint = BMP_SIZE; codepoint <= Character.MAX_CODE_POINT; ++codepoint) {
+        final boolean matches = source.matches(codepoint);
+        if (matches && rangeStart < 0) {
+          rangeStart = codepoint;
+        } else if (!matches && rangeStart >= 0) {
+          rangeStarts.add(rangeStart);
+          rangeEnds.add(codepoint - 1);
+          rangeStart = -1;
+        }
+      }
+      if (rangeStart >= 0) {
+        rangeStarts.add(rangeStart);
+        rangeEnds.add(Character.MAX_CODE_POINT);
+      }
+      this.astralRangeStarts = Ints.toArray(rangeStarts);
+      this.astralRangeEnds = Ints.toArray(rangeEnds);
+    }
+
+    @Override
+    public boolean matches(final int codepoint) {
+      if (codepoint >= 0 && codepoint < BMP_SIZE) {
+        return (bmpBits[codepoint >>> 6] & (1L << codepoint)) != 0;
+      } else if (codepoint >= BMP_SIZE && codepoint <= Character.MAX_CODE_POINT) {
+        // find the last range starting at or before this codepoint
+        final int searchResult = Arrays.binarySearch(astralRangeStarts, codepoint);
+        final int rangeIdx = searchResult >= 0 ? searchResult : -searchResult - 2;
+        return rangeIdx >= 0 && codepoint <= astralRangeEnds[rangeIdx];
+      } else {
+        // not a valid codepoint, so we have nothing precomputed
+        return source.matches(codepoint);
+      }
+    }
+
+    @Override
+    public CodepointMatcher precompute() {
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return source + ".precompute()";
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(source);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      final Precomputed other = (Precomputed) obj;
+      return Objects.equals(this.source, other.source);
+    }
+  }
+
+
   private static final CodepointMatcher ANY =
       CodepointMatcher.forPredicate(Predicates.alwaysTrue());
   private static final CodepointMatcher NONE =
@@ -0,0 +1,282 @@
+package com.bbn.bue.common;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.ibm.icu.lang.UCharacter;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Applies a sequence of codepoint-by-codepoint {@link StringNormalizer}s in a single pass over the
+ * input.  Each codepoint is pushed through all the stages in turn, so no intermediate strings are
+ * built, and output is only copied into a (per-thread, reused) buffer once some stage actually
+ * changes something. The state of collapsing stages is kept per thread as well, so inputs which
+ * are already normalized are returned as-is without allocating anything.
+ *
+ * Only the stages accepted by {@link #canFuse(StringNormalizer)} may be used, and a {@link
+ * StripFromEnd} may only appear last. Case mapping is only fused for locales without
+ * language-specific casing rules, and if a codepoint is encountered whose case mapping is
+ * context-sensitive or not one-to-one (e.g. Greek capital sigma or Turkish dotted capital I), the
+ * whole input is processed by applying the stages one after another instead, so the output is
+ * always identical to {@link StringNormalizers#compose(Iterable)} over the same stages.
+ *
+ * See {@link StringNormalizers#compile(StringNormalizer)}.
+ */
+final class FusedCodepointStringNormalizer implements StringNormalizer {
+
+  private static final int TRANSLATE = 0;
+  private static final int COLLAPSE = 1;
+  private static final int LOWERCASE = 2;
+  private static final int UPPERCASE = 3;
+
+  // a stage's output for a codepoint it deletes.  -1 is out-of-range for Unicode
+  private static final int DELETED = -1;
+  // a case mapping's output for a codepoint it can't handle one codepoint at a time
+  private static final int NEEDS_STAGED = -2;
+
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  // languages with special casing rules according to Unicode's SpecialCasing.txt.  ICU also
+  // applies special uppercasing rules for Greek
+  private static final ImmutableSet<String> SPECIAL_LOWERCASING_LANGUAGES =
+      ImmutableSet.of("tr", "az", "lt");
+  private static final ImmutableSet<String> SPECIAL_UPPERCASING_LANGUAGES =
+      ImmutableSet.of("tr", "az", "lt", "el");
+
+  private static final int LATIN_CAPITAL_I_WITH_DOT_ABOVE = 0x130;
+  private static final int GREEK_CAPITAL_SIGMA = 0x3A3;
+
+  private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
+  // the working state of a call to normalize, reused between calls on the same thread
+  private static final class Scratch {
+
+    final StringBuilder out = new StringBuilder();
+    // the last codepoint seen by each collapsing stage, indexed by stage
+    int[] lastSeen = new int[0];
+  }
+
+  private final ImmutableList<StringNormalizer> stages;
+  // the codepoint-level stages, compiled into parallel arrays
+  private final int[] kinds;
+  private final CodepointMatcher[] matchers;
+  private final int[] replacements;
+  private final boolean hasCollapse;
+  // null if no stripping is done
+  private final CharMatcher toStripFromEnd;
+
+  private FusedCodepointStringNormalizer(final Iterable<? extends StringNormalizer> stages) {
+    this.stages = ImmutableList.copyOf(stages);
+    checkArgument(!this.stages.isEmpty(), "Cannot fuse an empty sequence of normalizers");
+
+    int numCodepointStages = this.stages.size();
+    final StringNormalizer lastStage = this.stages.get(this.stages.size() - 1);
+    if (lastStage instanceof StripFromEnd) {
+      this.toStripFromEnd = ((StripFromEnd) lastStage).toStripMatcher();
+      --numCodepointStages;
+    } else {
+      this.toStripFromEnd = null;
+    }
+
+    this.kinds = new int[numCodepointStages];
+    this.matchers = new CodepointMatcher[numCodepointStages];
+    this.replacements = new int[numCodepointStages];
+    boolean hasCollapse = false;
+    for (int i = 0; i < numCodepointStages; ++i) {
+      final StringNormalizer stage = this.stages.get(i);
+      checkArgument(canFuse(stage) && !(stage instanceof StripFromEnd),
+          "Cannot fuse %s at position %s", stage, i);
+      if (stage instanceof CodepointTranslatorStringNormalizer) {
+        final CodepointTranslatorStringNormalizer translator =
+            (CodepointTranslatorStringNormalizer) stage;
+        kinds[i] = TRANSLATE;
+        matchers[i] = translator.codepointMatcher().precompute();
+        replacements[i] = translator.replacementCharacter();
+      } else if (stage instanceof CollapseConsecutiveCharacters) {
+        kinds[i] = COLLAPSE;
+        matchers[i] = ((CollapseConsecutiveCharacters) stage).toCollapseMatcher().precompute();
+        hasCollapse = true;
+      } else if (stage instanceof ToLowerCase) {
+        kinds[i] = LOWERCASE;
+      } else {
+        kinds[i] = UPPERCASE;
+      }
+    }
+    this.hasCollapse = hasCollapse;
+  }
+
+  @JsonCreator
+  static FusedCodepointStringNormalizer of(
+      @JsonProperty("stages") final Iterable<? extends StringNormalizer> stages) {
+    return new FusedCodepointStringNormalizer(stages);
+  }
+
+  /**
+   * Whether {@code normalizer} can be a stage of a fused normalizer.
+   */
+  static boolean canFuse(final StringNormalizer normalizer) {
+    if (normalizer instanceof CodepointTranslatorStringNormalizer
+        || normalizer instanceof CollapseConsecutiveCharacters
+        || normalizer instanceof StripFromEnd) {
+      return true;
+    } else if (normalizer instanceof ToLowerCase) {
+      return !SPECIAL_LOWERCASING_LANGUAGES.contains(
+          ((ToLowerCase) normalizer).locale().asIcuLocale().getLanguage());
+    } else if (normalizer instanceof ToUpperCase) {
+      return !SPECIAL_UPPERCASING_LANGUAGES.contains(
+          ((ToUpperCase) normalizer).locale().asIcuLocale().getLanguage());
+    }
+    return false;
+  }
+
+  @JsonProperty("stages")
+  ImmutableList<StringNormalizer> stages() {
+    return stages;
+  }
+
+  @Override
+  public String normalize(final String input) {
+    final Scratch scratch = SCRATCH.get();
+    final StringBuilder out = scratch.out;
+    out.setLength(0);
+    // until some stage changes something, the output is a prefix of the input, so we
+    // don't need to copy anything
+    boolean copying = false;
+    final int[] lastSeen;
+    if (hasCollapse) {
+      if (scratch.lastSeen.length < kinds.length) {
+        scratch.lastSeen = new int[kinds.length];
+      }
+      lastSeen = scratch.lastSeen;
+      Arrays.fill(lastSeen, 0, kinds.length, DELETED);
+    } else {
+      lastSeen = null;
+    }
+
+    for (int offset = 0; offset < input.length(); ) {
+      final int inputCodepoint = input.codePointAt(offset);
+      int cur = inputCodepoint;
+      for (int stage = 0; stage < kinds.length && cur != DELETED; ++stage) {
+        switch (kinds[stage]) {
+          case TRANSLATE:
+            if (matchers[stage].matches(cur)) {
+              cur = replacements[stage];
+            }
+            break;
+          case COLLAPSE:
+            if (cur == lastSeen[stage] && matchers[stage].matches(cur)) {
+              cur = DELETED;
+            } else {
+              lastSeen[stage] = cur;
+            }
+            break;
+          case LOWERCASE:
+            cur = lowercase(cur);
+            break;
+          case UPPERCASE:
+            cur = uppercase(cur);
+            break;
+          default:
+            throw new IllegalStateException("Unknown stage kind " + kinds[stage]);
+        }
+        if (cur == NEEDS_STAGED) {
+          return normalizeStaged(input);
+        }
+      }
+
+      if (!copying && cur != inputCodepoint) {
+        out.append(input, 0, offset);
+        copying = true;
+      }
+      if (copying && cur != DELETED) {
+        out.appendCodePoint(cur);
+      }
+      offset += Character.charCount(inputCodepoint);
+    }
+
+    final String ret;
+    if (copying) {
+      if (toStripFromEnd != null) {
+        int end = out.length();
+        while (end > 0 && toStripFromEnd.matches(out.charAt(end - 1))) {
+          --end;
+        }
+        out.setLength(end);
+      }
+      ret = out.toString();
+    } else if (toStripFromEnd != null) {
+      // substring returns the input itself if nothing is stripped
+      ret = toStripFromEnd.trimTrailingFrom(input);
+    } else {
+      ret = input;
+    }
+
+    if (out.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+      // don't hang on to a huge buffer after an unusually long input
+      SCRATCH.remove();
+    }
+    return ret;
+  }
+
+  private static int lowercase(final int codepoint) {
+    if (codepoint < 0x80) {
+      return (codepoint >= 'A' && codepoint <= 'Z') ? codepoint + ('a' - 'A') : codepoint;
+    } else if (codepoint == LATIN_CAPITAL_I_WITH_DOT_ABOVE || codepoint == GREEK_CAPITAL_SIGMA) {
+      // these lowercase to multiple codepoints or depend on context
+      return NEEDS_STAGED;
+    } else {
+      return UCharacter.toLowerCase(codepoint);
+    }
+  }
+
+  private static int uppercase(final int codepoint) {
+    if (codepoint < 0x80) {
+      return (codepoint >= 'a' && codepoint <= 'z') ? codepoint - ('a' - 'A') : codepoint;
+    } else {
+      // many non-ASCII codepoints uppercase to multiple codepoints, so we don't try to fuse
+      // these
+      return NEEDS_STAGED;
+    }
+  }
+
+  private String normalizeStaged(final String input) {
+    String cur = input;
+    for (final StringNormalizer stage : stages) {
+      cur = stage.normalize(cur);
+    }
+    return cur;
+  }
+
+  @Override
+  public String toString() {
+    return "fused(" + stages + ")";
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(stages);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    final FusedCodepointStringNormalizer other = (FusedCodepointStringNormalizer) obj;
+    return Objects.equals(this.stages, other.stages);
+  }
+}
@@ -0,0 +1,33 @@
+package com.bbn.bue.common;
+
+import com.bbn.bue.common.strings.offsets.CharOffset;
+import com.bbn.bue.common.strings.offsets.HasOffsetRange;
+import com.bbn.bue.common.strings.offsets.OffsetRange;
+
+import org.immutables.value.Value;
+
+/**
+ * A match of a {@link GazetteerMatcher} entry against some text.
+ */
+@TextGroupImmutable
+@Value.Immutable
+public abstract class GazetteerMatch implements HasOffsetRange<CharOffset> {
+
+  /**
+   * The codepoint offsets of the matched text in the original (un-normalized) input.
+   */
+  @Override
+  @Value.Parameter
+  public abstract OffsetRange<CharOffset> offsetRange();
+
+  /**
+   * The index of the matched entry in the order entries were added to the {@link
+   * GazetteerMatcher.Builder}. Use {@link GazetteerMatcher#entry(int)} to get its text.
+   */
+  @Value.Parameter
+  public abstract int entryId();
+
+  public static GazetteerMatch of(OffsetRange<CharOffset> offsetRange, int entryId) {
+    return ImmutableGazetteerMatch.of(offsetRange, entryId);
+  }
+}
@@ -0,0 +1,574 @@
+package com.bbn.bue.common;
+
+import com.bbn.bue.common.strings.offsets.CharOffset;
+import com.bbn.bue.common.strings.offsets.OffsetRange;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+import com.google.common.primitives.Ints;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds all occurrences of the entries of a (possibly very large) dictionary in text using an
+ * Aho-Corasick automaton, so matching takes time linear in the length of the text (plus the number
+ * of matches) regardless of the number of entries.
+ *
+ * If a {@link StringNormalizer} is provided, it is applied to each entry and to the text before
+ * matching, so e.g. lower-casing can be used to match case-insensitively.  In order to be able to
+ * report offsets in the original text, the normalizer is applied one codepoint at a time, to both
+ * the entries and the text. It should therefore be one which makes sense codepoint-by-codepoint,
+ * like case-mapping, Unicode normalization, or {@link StringNormalizers#translate(CodepointMatcher,
+ * char)}. A codepoint may normalize to several codepoints (e.g. {@code ß} upper-cases to {@code
+ * SS}), but matches are only reported if they begin and end on boundaries of codepoints of the
+ * original text.  Entries which normalize to the empty string never match.
+ *
+ * Matches are reported as {@link CharOffset} (that is, codepoint) offsets, so they are correct for
+ * text with non-BMP characters. All matches are reported, including overlapping ones.
+ *
+ * The automaton is stored as a handful of {@code int} arrays, and can be written with {@link
+ * #writeTo(ByteSink)} and loaded again with {@link #loadFrom(ByteSource, StringNormalizer)} much
+ * faster than it can be rebuilt. Instances are thread-safe.
+ */
+@Beta
+public final class GazetteerMatcher {
+
+  private static final int MAGIC = 0x42474154; // "BGAT"
+  private static final int VERSION = 1;
+
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+  // transitions from the root on codepoints below this are looked up in a table
+  private static final int ROOT_TABLE_SIZE = 0x800;
+  // marks a codepoint which does not normalize to exactly one codepoint
+  private static final int NOT_SINGLE = -1;
+
+  private final StringNormalizer normalizer;
+  private final boolean normalizes;
+
+  // transitions, sorted by label within each state: those out of state s are at indices
+  // firstTransition[s] (inclusive) to firstTransition[s+1] (exclusive)
+  private final int[] firstTransition;
+  private final int[] transitionLabels;
+  private final int[] transitionTargets;
+  private final int[] fail;
+  // the nearest state along the failure chain which matches some entry, or NONE
+  private final int[] outputLink;
+  // length in (normalized) codepoints of the string spelled by each state
+  private final int[] depth;
+  // the ids of the entries matched by state s are at firstEntry[s] to firstEntry[s+1] in
+  // entryIdsByState
+  private final int[] firstEntry;
+  private final int[] entryIdsByState;
+  private final int maxDepth;
+
+  // the UTF-8 bytes of the original text of each entry
+  private final int[] entryTextOffsets;
+  private final byte[] entryText;
+
+  // derived from the above
+  private final int[] rootTable;
+  // caches how normalizer maps BMP codepoints: 0 means unknown, NOT_SINGLE means it does not map
+  // to exactly one codepoint, and otherwise it maps to one less than the stored value. Races
+  // writing this are harmless since every thread would compute the same value.
+  private final int[] bmpNormalizationCache;
+
+  private GazetteerMatcher(final StringNormalizer normalizer, final int[] firstTransition,
+      final int[] transitionLabels, final int[] transitionTargets, final int[] fail,
+      final int[] outputLink, final int[] depth, final int[] firstEntry,
+      final int[] entryIdsByState, final int maxDepth, final int[] entryTextOffsets,
+      final byte[] entryText) {
+    this.normalizer = checkNotNull(normalizer);
+    this.normalizes = normalizer != StringNormalizers.identity();
+    this.firstTransition = checkNotNull(firstTransition);
+    this.transitionLabels = checkNotNull(transitionLabels);
+    this.transitionTargets = checkNotNull(transitionTargets);
+    this.fail = checkNotNull(fail);
+    this.outputLink = checkNotNull(outputLink);
+    this.depth = checkNotNull(depth);
+    this.firstEntry = checkNotNull(firstEntry);
+    this.entryIdsByState = checkNotNull(entryIdsByState);
+    this.maxDepth = maxDepth;
+    this.entryTextOffsets = checkNotNull(entryTextOffsets);
+    this.entryText = checkNotNull(entryText);
+
+    this.rootTable = new int[ROOT_TABLE_SIZE];
+    Arrays.fill(rootTable, ROOT);
+    for (int i = firstTransition[ROOT]; i < firstTransition[ROOT + 1]; ++i) {
+      if (transitionLabels[i] < ROOT_TABLE_SIZE) {
+        rootTable[transitionLabels[i]] = transitionTargets[i];
+      }
+    }
+    this.bmpNormalizationCache = normalizes ? new int[Character.MIN_SUPPLEMENTARY_CODE_POINT]
+                                            : null;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * The number of entries added to the builder, including any which can never match.
+   */
+  public int numEntries() {
+    return entryTextOffsets.length - 1;
+  }
+
+  /**
+   * The original (un-normalized) text of the entry with the given id.
+   */
+  public String entry(final int entryId) {
+    checkElementIndex(entryId, numEntries());
+    return new String(entryText, entryTextOffsets[entryId],
+        entryTextOffsets[entryId + 1] - entryTextOffsets[entryId], Charsets.UTF_8);
+  }
+
+  /**
+   * Finds all (possibly overlapping) matches of entries in {@code text}, ordered by end offset and
+   * then by decreasing length.
+   */
+  public ImmutableList<GazetteerMatch> findAll(final UnicodeFriendlyString text) {
+    final ImmutableList.Builder<GazetteerMatch> ret = ImmutableList.builder();
+    final String s = text.utf16CodeUnits();
+
+    // for each of the last ringSize positions in the normalized text, which codepoint of the
+    // original text it came from and whether it is the first codepoint that original codepoint
+    // normalized to
+    final int ringSize = Integer.highestOneBit(Math.max(maxDepth, 1)) * 2;
+    final int ringMask = ringSize - 1;
+    final int[] sourceCodepoint = new int[ringSize];
+    final boolean[] startsSourceCodepoint = new boolean[ringSize];
+
+    int state = ROOT;
+    int normalizedPos = 0;
+    int codepointIdx = 0;
+    for (int offset = 0; offset < s.length(); ++codepointIdx) {
+      final int codepoint = s.codePointAt(offset);
+      offset += Character.charCount(codepoint);
+
+      final int single = normalizeToSingle(codepoint);
+      if (single != NOT_SINGLE) {
+        state = step(state, single);
+        sourceCodepoint[normalizedPos & ringMask] = codepointIdx;
+        startsSourceCodepoint[normalizedPos & ringMask] = true;
+        addMatches(state, normalizedPos, codepointIdx, sourceCodepoint,
+            startsSourceCodepoint, ringMask, ret);
+        ++normalizedPos;
+      } else {
+        final int[] pieces = toCodepoints(normalizer.normalize(new String(Character.toChars(
+            codepoint))));
+        for (int i = 0; i < pieces.length; ++i) {
+          state = step(state, pieces[i]);
+          sourceCodepoint[normalizedPos & ringMask] = codepointIdx;
+          startsSourceCodepoint[normalizedPos & ringMask] = (i == 0);
+          // matches may only end at the end of an original codepoint
+          if (i == pieces.length - 1) {
+            addMatches(state, normalizedPos, codepointIdx, sourceCodepoint,
+                startsSourceCodepoint, ringMask, ret);
+          }
+          ++normalizedPos;
+        }
+      }
+    }
+    return ret.build();
+  }
+
+  private void addMatches(final int state, final int normalizedPos, final int endCodepointIdx,
+      final int[] sourceCodepoint, final boolean[] startsSourceCodepoint, final int ringMask,
+      final ImmutableList.Builder<GazetteerMatch> ret) {
+    for (int matchState = firstEntry[state] < firstEntry[state + 1] ? state : outputLink[state];
+         matchState != NONE; matchState = outputLink[matchState]) {
+      final int startPos = (normalizedPos - depth[matchState] + 1) & ringMask;
+      if (startsSourceCodepoint[startPos]) {
+        final OffsetRange<CharOffset> offsets =
+            OffsetRange.charOffsetRange(sourceCodepoint[startPos], endCodepointIdx);
+        for (int i = firstEntry[matchState]; i < firstEntry[matchState + 1]; ++i) {
+          ret.add(GazetteerMatch.of(offsets, entryIdsByState[i]));
+        }
+      }
+    }
+  }
+
+  private int step(int state, final int label) {
+    while (true) {
+      final int next = transition(state, label);
+      if (next != NONE) {
+        return next;
+      } else if (state == ROOT) {
+        return ROOT;
+      }
+      state = fail[state];
+    }
+  }
+
+  private int transition(final int state, final int label) {
+    if (state == ROOT && label < ROOT_TABLE_SIZE) {
+      final int target = rootTable[label];
+      return target == ROOT ? NONE : target;
+    }
+    int low = firstTransition[state];
+    int high = firstTransition[state + 1] - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midLabel = transitionLabels[mid];
+      if (midLabel < label) {
+        low = mid + 1;
+      } else if (midLabel > label) {
+        high = mid - 1;
+      } else {
+        return transitionTargets[mid];
+      }
+    }
+    return NONE;
+  }
+
+  private int normalizeToSingle(final int codepoint) {
+    if (!normalizes) {
+      return codepoint;
+    }
+    if (codepoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      final int cached = bmpNormalizationCache[codepoint];
+      if (cached != 0) {
+        return cached == NOT_SINGLE ? NOT_SINGLE : cached - 1;
+      }
+    }
+    final String normalized = normalizer.normalize(new String(Character.toChars(codepoint)));
+    final int ret;
+    if (!normalized.isEmpty()
+        && normalized.codePointCount(0, normalized.length()) == 1) {
+      ret = normalized.codePointAt(0);
+    } else {
+      ret = NOT_SINGLE;
+    }
+    if (codepoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      bmpNormalizationCache[codepoint] = ret == NOT_SINGLE ? NOT_SINGLE : ret + 1;
+    }
+    return ret;
+  }
+
+  private static int[] toCodepoints(final String s) {
+    final int[] ret = new int[s.codePointCount(0, s.length())];
+    for (int offset = 0, i = 0; offset < s.length(); ++i) {
+      ret[i] = s.codePointAt(offset);
+      offset += Character.charCount(ret[i]);
+    }
+    return ret;
+  }
+
+  /**
+   * Applies {@code normalizer} one codepoint at a time, as is done to text being matched.
+   */
+  private static int[] normalizeByCodepoint(final StringNormalizer normalizer, final String s) {
+    if (normalizer == StringNormalizers.identity()) {
+      return toCodepoints(s);
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (int offset = 0; offset < s.length(); ) {
+      final int codepoint = s.codePointAt(offset);
+      sb.append(normalizer.normalize(new String(Character.toChars(codepoint))));
+      offset += Character.charCount(codepoint);
+    }
+    return toCodepoints(sb.toString());
+  }
+
+  /**
+   * Writes this matcher in a binary format which can be read by {@link #loadFrom(ByteSource,
+   * StringNormalizer)}.  The normalizer is not written.
+   */
+  public void writeTo(final ByteSink sink) throws IOException {
+    final Closer closer = Closer.create();
+    try {
+      final DataOutputStream out = closer.register(
+          new DataOutputStream(new BufferedOutputStream(sink.openStream())));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(depth.length);
+      out.writeInt(transitionLabels.length);
+      out.writeInt(entryIdsByState.length);
+      out.writeInt(numEntries());
+      out.writeInt(entryText.length);
+      out.writeInt(maxDepth);
+      writeInts(out, firstTransition);
+      writeInts(out, transitionLabels);
+      writeInts(out, transitionTargets);
+      writeInts(out, fail);
+      writeInts(out, outputLink);
+      writeInts(out, depth);
+      writeInts(out, firstEntry);
+      writeInts(out, entryIdsByState);
+      writeInts(out, entryTextOffsets);
+      out.write(entryText);
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  private static void writeInts(final DataOutputStream out, final int[] ints) throws IOException {
+    for (final int x : ints) {
+      out.writeInt(x);
+    }
+  }
+
+  /**
+   * Loads a matcher written by {@link #writeTo(ByteSink)}. {@code normalizer} must be the same as
+   * the one the matcher was originally built with; this is not checked.
+   */
+  public static GazetteerMatcher loadFrom(final ByteSource source,
+      final StringNormalizer normalizer) throws IOException {
+    final ByteBuffer in = ByteBuffer.wrap(source.read());
+    try {
+      if (in.getInt() != MAGIC) {
+        throw new IOException("Not a gazetteer matcher file");
+      }
+      final int version = in.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported gazetteer matcher version " + version);
+      }
+      final int numStates = in.getInt();
+      final int numTransitions = in.getInt();
+      final int numMatchable = in.getInt();
+      final int numEntries = in.getInt();
+      final int entryTextLength = in.getInt();
+      final int maxDepth = in.getInt();
+      final int[] firstTransition = readInts(in, numStates + 1);
+      final int[] transitionLabels = readInts(in, numTransitions);
+      final int[] transitionTargets = readInts(in, numTransitions);
+      final int[] fail = readInts(in, numStates);
+      final int[] outputLink = readInts(in, numStates);
+      final int[] depth = readInts(in, numStates);
+      final int[] firstEntry = readInts(in, numStates + 1);
+      final int[] entryIdsByState = readInts(in, numMatchable);
+      final int[] entryTextOffsets = readInts(in, numEntries + 1);
+      final byte[] entryText = new byte[entryTextLength];
+      in.get(entryText);
+      if (in.hasRemaining()) {
+        throw new IOException("Unexpected trailing data in gazetteer matcher file");
+      }
+      return new GazetteerMatcher(normalizer, firstTransition, transitionLabels,
+          transitionTargets, fail, outputLink, depth, firstEntry, entryIdsByState, maxDepth,
+          entryTextOffsets, entryText);
+    } catch (RuntimeException e) {
+      // covers both buffer underflows and negative array sizes from corrupt headers
+      throw new IOException("Gazetteer matcher file is truncated or corrupt", e);
+    }
+  }
+
+  private static int[] readInts(final ByteBuffer in, final int count) {
+    final int[] ret = new int[count];
+    in.asIntBuffer().get(ret);
+    in.position(in.position() + count * Ints.BYTES);
+    return ret;
+  }
+
+  @Override
+  public String toString() {
+    return "GazetteerMatcher{numEntries=" + numEntries() + ", numStates=" + depth.length
+        + ", normalizer=" + normalizer + "}";
+  }
+
+  public static final class Builder {
+
+    private StringNormalizer normalizer = StringNormalizers.identity();
+    private final List<String> entries = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * The normalizer to apply to entries and text before matching.  Defaults to {@link
+     * StringNormalizers#identity()}.
+     */
+    public Builder normalizer(final StringNormalizer normalizer) {
+      this.normalizer = checkNotNull(normalizer);
+      return this;
+    }
+
+    /**
+     * Adds an entry.  Entries are assigned ids in the order they are added, starting from zero.
+     * Duplicate entries are allowed and each is reported separately.
+     */
+    public Builder addEntry(final String entry) {
+      entries.add(checkNotNull(entry));
+      return this;
+    }
+
+    public Builder addAllEntries(final Iterable<String> entries) {
+      for (final String entry : entries) {
+        addEntry(entry);
+      }
+      return this;
+    }
+
+    public GazetteerMatcher build() {
+      final int numEntries = entries.size();
+      final int[][] normalized = new int[numEntries][];
+      final List<Integer> matchableIds = new ArrayList<>();
+      final ByteArrayOutputStream entryText = new ByteArrayOutputStream();
+      final int[] entryTextOffsets = new int[numEntries + 1];
+      int maxDepth = 0;
+      for (int i = 0; i < numEntries; ++i) {
+        normalized[i] = normalizeByCodepoint(normalizer, entries.get(i));
+        if (normalized[i].length > 0) {
+          matchableIds.add(i);
+          maxDepth = Math.max(maxDepth, normalized[i].length);
+        }
+        final byte[] utf8 = entries.get(i).getBytes(Charsets.UTF_8);
+        entryText.write(utf8, 0, utf8.length);
+        entryTextOffsets[i + 1] = entryText.size();
+      }
+
+      // inserting the entries in sorted order means each state's children are created in
+      // increasing order of label, and states are numbered in depth-first order
+      final Integer[] sortedIds = matchableIds.toArray(new Integer[matchableIds.size()]);
+      Arrays.sort(sortedIds, new Comparator<Integer>() {
+        @Override
+        public int compare(final Integer left, final Integer right) {
+          return compareCodepoints(normalized[left], normalized[right]);
+        }
+      });
+
+      final IntArrayBuilder edgeParents = new IntArrayBuilder();
+      final IntArrayBuilder edgeLabels = new IntArrayBuilder();
+      final IntArrayBuilder depths = new IntArrayBuilder();
+      depths.add(0);
+      final int[] entryIdsByState = new int[sortedIds.length];
+      final int[] terminalStates = new int[sortedIds.length];
+      final int[] path = new int[maxDepth + 1];
+      path[0] = ROOT;
+      int[] previous = new int[0];
+      for (int i = 0; i < sortedIds.length; ++i) {
+        final int[] cur = normalized[sortedIds[i]];
+        int sharedPrefix = 0;
+        while (sharedPrefix < cur.length && sharedPrefix < previous.length
+            && cur[sharedPrefix] == previous[sharedPrefix]) {
+          ++sharedPrefix;
+        }
+        for (int pos = sharedPrefix; pos < cur.length; ++pos) {
+          // states are numbered in order of creation, and the edge into state s is edge s - 1
+          final int newState = depths.size();
+          edgeParents.add(path[pos]);
+          edgeLabels.add(cur[pos]);
+          depths.add(pos + 1);
+          path[pos + 1] = newState;
+        }
+        entryIdsByState[i] = sortedIds[i];
+        terminalStates[i] = path[cur.length];
+        previous = cur;
+      }
+      final int numStates = depths.size();
+      final int[] depth = depths.toArray();
+
+      // terminal states are non-decreasing in sorted order, so we can index them directly
+      final int[] firstEntry = new int[numStates + 1];
+      for (final int terminalState : terminalStates) {
+        ++firstEntry[terminalState + 1];
+      }
+      for (int s = 0; s < numStates; ++s) {
+        firstEntry[s + 1] += firstEntry[s];
+      }
+
+      // group the edges by parent.  Edges were created in increasing label order for each
+      // parent and this counting sort is stable, so each state's transitions are sorted
+      final int numTransitions = numStates - 1;
+      final int[] firstTransition = new int[numStates + 1];
+      for (int e = 0; e < numTransitions; ++e) {
+        ++firstTransition[edgeParents.get(e) + 1];
+      }
+      for (int s = 0; s < numStates; ++s) {
+        firstTransition[s + 1] += firstTransition[s];
+      }
+      final int[] nextSlot = Arrays.copyOf(firstTransition, numStates);
+      final int[] transitionLabels = new int[numTransitions];
+      final int[] transitionTargets = new int[numTransitions];
+      for (int e = 0; e < numTransitions; ++e) {
+        final int slot = nextSlot[edgeParents.get(e)]++;
+        transitionLabels[slot] = edgeLabels.get(e);
+        transitionTargets[slot] = e + 1;
+      }
+
+      final int[] fail = new int[numStates];
+      final int[] outputLink = new int[numStates];
+      outputLink[ROOT] = NONE;
+      // we use a partially-built matcher to follow the failure links computed so far
+      final GazetteerMatcher partial = new GazetteerMatcher(normalizer, firstTransition,
+          transitionLabels, transitionTargets, fail, outputLink, depth, firstEntry,
+          entryIdsByState, maxDepth, entryTextOffsets, entryText.toByteArray());
+      // compute failure links breadth-first, so those of shallower states are already known
+      final int[] queue = new int[numStates];
+      int queueHead = 0;
+      int queueTail = 0;
+      queue[queueTail++] = ROOT;
+      while (queueHead < queueTail) {
+        final int state = queue[queueHead++];
+        for (int t = firstTransition[state]; t < firstTransition[state + 1]; ++t) {
+          final int child = transitionTargets[t];
+          if (state == ROOT) {
+            fail[child] = ROOT;
+          } else {
+            fail[child] = partial.step(fail[state], transitionLabels[t]);
+          }
+          final int failState = fail[child];
+          outputLink[child] = firstEntry[failState] < firstEntry[failState + 1]
+                              ? failState : outputLink[failState];
+          queue[queueTail++] = child;
+        }
+      }
+      // build a new instance to be sure other threads see the completed failure links
+      return new GazetteerMatcher(normalizer, firstTransition, transitionLabels,
+          transitionTargets, fail, outputLink, depth, firstEntry, entryIdsByState, maxDepth,
+          entryTextOffsets, partial.entryText);
+    }
+  }
+
+  private static int compareCodepoints(final int[] left, final int[] right) {
+    final int minLength = Math.min(left.length, right.length);
+    for (int i = 0; i < minLength; ++i) {
+      if (left[i] != right[i]) {
+        return left[i] < right[i] ? -1 : 1;
+      }
+    }
+    return Ints.compare(left.length, right.length);
+  }
+
+  private static final class IntArrayBuilder {
+
+    private int[] data = new int[16];
+    private int size = 0;
+
+    void add(final int x) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, 2 * data.length);
+      }
+      data[size++] = x;
+    }
+
+    int get(final int idx) {
+      return data[idx];
+    }
+
+    int size() {
+      return size;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+}
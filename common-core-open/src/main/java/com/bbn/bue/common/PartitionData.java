@@ -2,18 +2,21 @@ package com.bbn.bue.common;
 
 import com.bbn.bue.common.collections.CollectionUtils;
 import com.bbn.bue.common.collections.ListUtils;
+import com.bbn.bue.common.files.DocumentCosts;
 import com.bbn.bue.common.files.FileUtils;
 import com.bbn.bue.common.parameters.Parameters;
 import com.bbn.bue.common.symbols.Symbol;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.common.math.DoubleMath;
 
@@ -50,6 +53,13 @@ import static com.google.common.base.Preconditions.checkState;
  * randomSeed: The random seed to use when shuffling the data before data is held out and
  * partitioned.
  *
+ * balanceBy, costFile, statThreads: Optionally divide the non-held out data into partitions of
+ * roughly equal predicted cost rather than equal numbers of documents, where a document's cost is
+ * the size of its file (balanceBy SIZE) or is read from costFile (balanceBy COST_FILE). See {@link
+ * DocumentCosts}. Documents are then assigned with a longest-processing-time-first heuristic, the
+ * shuffled order only breaking ties, and the predicted load of each partition is logged. Which
+ * documents are held out is unaffected.
+ *
  * partitionOutputDir: The directory to write the file lists/maps that give each partition.
  * partitionListFile: The file to write the list of partition lists/maps to.
  * partitionPrefix: The prefix to give the filename of each partition. The output files will be
@@ -185,8 +195,17 @@ public final class PartitionData {
       outputDocuments += writeHoldOut(heldOut, holdOutFile.get(), documentMap);
     }
 
-    outputDocuments += writePartitions(remaining, nPartitions, outputDirectory, partitionListFile,
-        partitionPrefix, documentMap);
+    final ImmutableMap<Symbol, File> remainingFiles;
+    if (documentMap != null) {
+      remainingFiles = filterMapToKeysPreservingOrder(documentMap, remaining);
+    } else {
+      remainingFiles = Maps.toMap(remaining, SymbolToFileFunction.INSTANCE);
+    }
+    final Optional<ImmutableMap<Symbol, Long>> costs =
+        DocumentCosts.fromParameters(parameters, PARAM_NAMESPACE, remainingFiles);
+
+    outputDocuments += writePartitions(remaining, nPartitions, costs, outputDirectory,
+        partitionListFile, partitionPrefix, documentMap);
 
     checkState(nDocuments == outputDocuments, "Incorrect number of documents written");
   }
@@ -205,13 +224,20 @@ public final class PartitionData {
   }
 
   private static int writePartitions(final ImmutableSet<Symbol> remaining, final int nPartitions,
-      final File outputDirectory, final File partitionListFile, final String partitionPrefix,
+      final Optional<ImmutableMap<Symbol, Long>> costs, final File outputDirectory,
+      final File partitionListFile, final String partitionPrefix,
       final ImmutableMap<Symbol, File> documentMap) throws IOException {
     int outputDocuments = 0;
 
     // Partition remaining data
-    final ImmutableList<ImmutableList<Symbol>> partitions =
-        CollectionUtils.partitionAlmostEvenly(remaining.asList(), nPartitions);
+    final ImmutableList<ImmutableList<Symbol>> partitions;
+    if (costs.isPresent()) {
+      partitions = CollectionUtils.partitionByWeight(remaining.asList(),
+          Functions.forMap(costs.get()), nPartitions);
+      DocumentCosts.logPredictedLoads(partitions, costs.get());
+    } else {
+      partitions = CollectionUtils.partitionAlmostEvenly(remaining.asList(), nPartitions);
+    }
 
     // Write out each partition
     log.info("Writing partitions to directory {}", outputDirectory);
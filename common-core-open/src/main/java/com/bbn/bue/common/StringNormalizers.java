@@ -114,6 +114,65 @@ public final class StringNormalizers {
     return CompositeStringNormalizer.of(asList);
   }
 
+  /**
+   * Produces a {@link StringNormalizer} which gives exactly the same output as {@code normalizer}
+   * but which is faster to apply many times. Nested compositions are flattened, identity steps are
+   * dropped, and each run of consecutive codepoint-by-codepoint steps (translation, collapsing,
+   * case-mapping for most locales, and a final stripping of characters from the end) is fused into
+   * a single pass over the input. Apart from setting up reusable per-thread state on its first use
+   * in each thread, this pass does not allocate when the input is already normalized. Unicode
+   * normalization steps are left as they are. Compile feature normalizers once when they
+   * are built rather than on each use.
+   */
+  public static StringNormalizer compile(StringNormalizer normalizer) {
+    final List<StringNormalizer> steps = new ArrayList<>();
+    flattenInto(normalizer, steps);
+
+    final List<StringNormalizer> compiled = new ArrayList<>();
+    final List<StringNormalizer> fusable = new ArrayList<>();
+    for (final StringNormalizer step : steps) {
+      if (FusedCodepointStringNormalizer.canFuse(step)) {
+        fusable.add(step);
+        // stripping is done to the output of the whole fused pass, so it must end it
+        if (step instanceof StripFromEnd) {
+          fuseInto(fusable, compiled);
+        }
+      } else {
+        fuseInto(fusable, compiled);
+        compiled.add(step);
+      }
+    }
+    fuseInto(fusable, compiled);
+
+    if (compiled.isEmpty()) {
+      return identity();
+    } else if (compiled.size() == 1) {
+      return compiled.get(0);
+    } else {
+      return CompositeStringNormalizer.of(compiled);
+    }
+  }
+
+  private static void flattenInto(StringNormalizer normalizer, List<StringNormalizer> steps) {
+    if (normalizer instanceof CompositeStringNormalizer) {
+      for (final StringNormalizer child : ((CompositeStringNormalizer) normalizer).wordShapers()) {
+        flattenInto(child, steps);
+      }
+    } else if (normalizer instanceof FusedCodepointStringNormalizer) {
+      // allow re-compiling, which may fuse it with its neighbors
+      steps.addAll(((FusedCodepointStringNormalizer) normalizer).stages());
+    } else if (normalizer != IdentityNormalizer.INSTANCE) {
+      steps.add(normalizer);
+    }
+  }
+
+  private static void fuseInto(List<StringNormalizer> fusable, List<StringNormalizer> compiled) {
+    if (!fusable.isEmpty()) {
+      compiled.add(FusedCodepointStringNormalizer.of(fusable));
+      fusable.clear();
+    }
+  }
+
   public static Function<String, String> asFunction(StringNormalizer normalizer) {
     return NormalizerAsFunction.of(normalizer);
   }
@@ -17,10 +17,10 @@ import static com.bbn.bue.common.strings.offsets.CharOffset.asCharOffset;
  * has a non-BMP character. {@link UnicodeFriendlyString}s should always be created via
  * {@link StringUtils#unicodeFriendly(String)}.
  *
- * See the interface Javadoc for details.  Currently this uses simple but slow
- * implementations for most of its method, but much faster versions a can be added when needed
- * by using a structure similar to {@link com.bbn.bue.common.strings.LocatedString}'s
- * {@link com.bbn.bue.common.strings.LocatedString.CharacterRegion}.
+ * See the interface Javadoc for details.  Conversions between codepoint and UTF-16 code unit
+ * offsets are done by binary search over the positions of the string's surrogate pairs, which are
+ * computed lazily the first time such a conversion is needed.  This makes them logarithmic in the
+ * number of non-BMP characters rather than linear in the length of the string.
  */
 @TextGroupImmutable
 @Value.Immutable
@@ -38,18 +38,12 @@ abstract class StringWithNonBmp extends AbstractUnicodeFriendlyString
 
   @Override
   public boolean hasNonBmpCharacter(OffsetRange<CharOffset> characterRange) {
-    // slow placeholder implementation
-    for (int i = codeUnitOffsetFor(characterRange.startInclusive()).asInt();
-         i <= codeUnitOffsetFor(characterRange.endInclusive()).asInt(); ) {
-      final int codePoint = utf16CodeUnits().codePointAt(i);
-      final int charsForCodePoint = Character.charCount(codePoint);
-      if (charsForCodePoint > 1) {
-        return true;
-      } else {
-        i += charsForCodePoint;
-      }
-    }
-    return false;
+    final int startCodeUnit = codeUnitOffsetFor(characterRange.startInclusive()).asInt();
+    final int endCodeUnit = codeUnitOffsetFor(characterRange.endInclusive()).asInt();
+    final int[] pairStarts = surrogatePairStarts();
+    // index of the first surrogate pair at or after the start of the range
+    final int firstPairInRange = countLessThan(pairStarts, startCodeUnit);
+    return firstPairInRange < pairStarts.length && pairStarts[firstPairInRange] <= endCodeUnit;
   }
 
   @Value.Derived
@@ -64,6 +58,23 @@ abstract class StringWithNonBmp extends AbstractUnicodeFriendlyString
     return utf16CodeUnits().codePointCount(0, utf16CodeUnits().length());
   }
 
+  /**
+   * Where the surrogate pairs (that is, the non-BMP characters) of this string are. Lazily
+   * computed because many strings never have their offsets converted.
+   */
+  @Value.Lazy
+  SurrogatePairIndex surrogatePairIndex() {
+    return SurrogatePairIndex.of(utf16CodeUnits());
+  }
+
+  /**
+   * The UTF-16 code unit offsets at which each surrogate pair begins, in increasing order. Do not
+   * modify the returned array.
+   */
+  private int[] surrogatePairStarts() {
+    return surrogatePairIndex().pairStarts;
+  }
+
   @Override
   public int codepointAtCodepointIndex(final CharOffset codepointIdx) {
     return utf16CodeUnits().codePointAt(codeUnitOffsetFor(codepointIdx).asInt());
@@ -83,7 +94,6 @@ abstract class StringWithNonBmp extends AbstractUnicodeFriendlyString
   @Override
   public final UnicodeFriendlyString substringByCodePoints(CharOffset startCodepointInclusive,
       CharOffset endCodepointExclusive) {
-    // this is a slow, simple, temporary implementation
     final UTF16Offset startCodeUnitInclusive = codeUnitOffsetFor(startCodepointInclusive);
     final UTF16Offset endCodeUnitExclusive = codeUnitOffsetFor(endCodepointExclusive);
 
@@ -93,54 +103,59 @@ abstract class StringWithNonBmp extends AbstractUnicodeFriendlyString
         endCodeUnitExclusive.asInt()));
   }
 
-  // this is a slow temporary implementation. If performance becomes important, we can store
-  // something like LocatedString's like CharacterRegions
   private UTF16Offset codeUnitOffsetFor(final CharOffset codePointOffset) {
-    int charOffset = 0;
-    int codePointsConsumed = 0;
-
-    for (; charOffset < utf16CodeUnits().length() && codePointsConsumed < codePointOffset.asInt();
-         ++codePointsConsumed) {
-      final int codePoint = utf16CodeUnits().codePointAt(charOffset);
-      charOffset += Character.charCount(codePoint);
+    final int codePointIdx = codePointOffset.asInt();
+    // note the offset one past the end of the string is allowed
+    if (codePointIdx < 0 || codePointIdx > lengthInCodePoints()) {
+      throw new IndexOutOfBoundsException("Valid codepoint offsets for string are 0 to "
+          + lengthInCodePoints() + " but got " + codePointIdx);
     }
-    if (codePointsConsumed == codePointOffset.asInt()) {
-      return UTF16Offset.of(charOffset);
-    } else {
-      // this will happen if codePointOffset is negative or equal to or greater than the
-      // total number of codepoints in the string
-      throw new IndexOutOfBoundsException();
+    // each surrogate pair before this codepoint shifts its code unit offset by one. The j-th
+    // pair (counting from zero) is at codepoint index pairStarts[j] - j, and these indices
+    // are strictly increasing, so we can binary search over them.
+    final int[] pairStarts = surrogatePairStarts();
+    int low = 0;
+    int high = pairStarts.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (pairStarts[mid] - mid < codePointIdx) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
     }
+    return UTF16Offset.of(codePointIdx + low);
   }
 
   @Override
   public CharOffset codepointIndex(UTF16Offset offset) {
-    // slow placeholder implementation
     if (offset.asInt() < 0 || offset.asInt() >= utf16CodeUnits().length()) {
       throw new IndexOutOfBoundsException("Valid UTF-16 code unit indices for string are 0 to "
           + utf16CodeUnits().length() + " but got " + offset.asInt());
     }
-
-    int charOffset = 0;
-    int nextCodeUnit = 0;
-
-    if (offset.asInt() == 0) {
-      return asCharOffset(0);
-    }
-
-    while (nextCodeUnit <= offset.asInt()) {
-      nextCodeUnit += Character.charCount(utf16CodeUnits().codePointAt(nextCodeUnit));
-      // catch when we "hop" over the code unit due to a multi-codeunit character
-      if (nextCodeUnit > offset.asInt()) {
-        return asCharOffset(charOffset);
+    // every surrogate pair whose low surrogate is at or before this offset shifts the codepoint
+    // index back by one.  This is every pair which starts strictly before it.
+    return asCharOffset(offset.asInt() - countLessThan(surrogatePairStarts(), offset.asInt()));
+  }
+
+  /**
+   * Returns the number of elements of the sorted array {@code sorted} which are less than
+   * {@code key}.
+   */
+  private static int countLessThan(final int[] sorted, final int key) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sorted[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
       }
-      ++charOffset;
     }
-
-    throw new IllegalStateException("Should be impossible");
+    return low;
   }
 
-
   @Override
   public boolean isEmpty() {
     return utf16CodeUnits().isEmpty();
@@ -197,4 +212,38 @@ abstract class StringWithNonBmp extends AbstractUnicodeFriendlyString
   static class Builder extends ImmutableStringWithNonBmp.Builder {
 
   }
+
+  /**
+   * The positions of the surrogate pairs in a string.  This is wrapped in a class so Immutables
+   * does not try to copy the array.
+   */
+  static final class SurrogatePairIndex {
+
+    private final int[] pairStarts;
+
+    private SurrogatePairIndex(final int[] pairStarts) {
+      this.pairStarts = pairStarts;
+    }
+
+    static SurrogatePairIndex of(final String s) {
+      int numPairs = 0;
+      for (int i = 0; i < s.length(); ++i) {
+        if (Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length()
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          ++numPairs;
+          ++i;
+        }
+      }
+      final int[] pairStarts = new int[numPairs];
+      int pairIdx = 0;
+      for (int i = 0; i < s.length(); ++i) {
+        if (Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length()
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          pairStarts[pairIdx++] = i;
+          ++i;
+        }
+      }
+      return new SurrogatePairIndex(pairStarts);
+    }
+  }
 }
@@ -4,6 +4,7 @@ import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -19,11 +20,14 @@ import com.google.common.math.IntMath;
 
 import java.math.RoundingMode;
 import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -314,6 +318,84 @@ public final class CollectionUtils {
     return finalPartitions;
   }
 
+  /**
+   * Partitions a list into the specified number of partitions so that the total weights of the
+   * partitions are as even as possible, using the longest-processing-time-first heuristic: items
+   * are taken from heaviest to lightest, each going to the partition whose total is currently
+   * lightest. The heaviest partition is guaranteed to weigh at most 4/3 of the optimum. This is
+   * useful for dividing work whose cost varies greatly by item, where {@link
+   * #partitionAlmostEvenly(List, int)} could give some partitions many times the work of others.
+   *
+   * The result is deterministic: ties between equal weights are broken by position in {@code
+   * list} and ties between equally-loaded partitions by partition index. Within each partition,
+   * items keep their relative order from {@code list}. If there are fewer items than partitions,
+   * some partitions will be empty.
+   *
+   * @param weightFunction gives the non-negative weight of each item
+   * @param partitions     the number of partitions to divide the list into
+   * @return a list of the partitions, which are themselves lists
+   */
+  public static <E> ImmutableList<ImmutableList<E>> partitionByWeight(final List<E> list,
+      final Function<? super E, Long> weightFunction, final int partitions) {
+    checkNotNull(list);
+    checkNotNull(weightFunction);
+    checkArgument(partitions > 0, "Number of partitions must be positive");
+
+    final long[] weights = new long[list.size()];
+    final Integer[] heaviestFirst = new Integer[list.size()];
+    for (int i = 0; i < weights.length; ++i) {
+      weights[i] = checkNotNull(weightFunction.apply(list.get(i)), "No weight for %s",
+          list.get(i));
+      checkArgument(weights[i] >= 0, "Weight of %s is negative", list.get(i));
+      heaviestFirst[i] = i;
+    }
+    Arrays.sort(heaviestFirst, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer left, final Integer right) {
+        return ComparisonChain.start()
+            .compare(weights[right], weights[left])
+            .compare(left, right)
+            .result();
+      }
+    });
+
+    final long[] loads = new long[partitions];
+    final PriorityQueue<Integer> lightestFirst =
+        new PriorityQueue<>(partitions, new Comparator<Integer>() {
+          @Override
+          public int compare(final Integer left, final Integer right) {
+            return ComparisonChain.start()
+                .compare(loads[left], loads[right])
+                .compare(left, right)
+                .result();
+          }
+        });
+    for (int i = 0; i < partitions; ++i) {
+      lightestFirst.add(i);
+    }
+    final int[] assignments = new int[list.size()];
+    for (final int item : heaviestFirst) {
+      final int partition = lightestFirst.remove();
+      assignments[item] = partition;
+      loads[partition] += weights[item];
+      lightestFirst.add(partition);
+    }
+
+    // build partitions in list order
+    final List<ImmutableList.Builder<E>> builders = Lists.newArrayListWithCapacity(partitions);
+    for (int i = 0; i < partitions; ++i) {
+      builders.add(ImmutableList.<E>builder());
+    }
+    for (int i = 0; i < assignments.length; ++i) {
+      builders.get(assignments[i]).add(list.get(i));
+    }
+    final ImmutableList.Builder<ImmutableList<E>> ret = ImmutableList.builder();
+    for (final ImmutableList.Builder<E> builder : builders) {
+      ret.add(builder.build());
+    }
+    return ret.build();
+  }
+
   /**
    * Returns a view of the concatenation of the two provided collections. Iterating through this
    * view will provide all the elements of {@code left} according to its own iteration order,
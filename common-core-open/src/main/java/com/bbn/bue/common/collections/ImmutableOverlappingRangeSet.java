@@ -12,7 +12,8 @@ import java.util.Set;
 
 /**
  * A Naive implementation of an OverlappingRangeSet - uses O(nlog(n)) operation to construct the
- * object, then uses O(n) operations to find an offending ranges)
+ * object, then uses O(n) operations to find an offending ranges). For large sets or many queries,
+ * prefer {@link IntervalTreeOverlappingRangeSet}.
  *
  * @author Jay DeYoung
  */
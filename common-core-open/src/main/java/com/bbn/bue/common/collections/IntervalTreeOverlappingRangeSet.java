@@ -0,0 +1,295 @@
+package com.bbn.bue.common.collections;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
+
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An {@link OverlappingRangeSet} backed by an augmented interval tree, so that most queries take
+ * time roughly logarithmic in the number of ranges rather than the linear time of {@link
+ * ImmutableOverlappingRangeSet}.
+ *
+ * The ranges are stored sorted by lower endpoint, and that array is treated as an implicit
+ * balanced binary search tree in which each node records the largest and smallest upper endpoints
+ * in its subtree. A query walks the tree, skipping subtrees which cannot hold matches. For {@code
+ * n} ranges, of which {@code k} are returned, no query takes more than {@code O(n)} time, and:
+ * <ul>
+ * <li>{@link #rangesContaining(Comparable)} and {@link #rangesOverlapping(Range)} take {@code
+ * O((k+1)log(n))}.</li>
+ * <li>{@link #rangesContaining(Range)} takes {@code O((m+1)log(n))}, where {@code m} is the number
+ * of ranges containing the query's lower endpoint. This can be much larger than {@code k} when
+ * many ranges start before the query but end within it.</li>
+ * <li>{@link #rangesContainedBy(Range)} takes {@code O((m+1)log(n))}, where {@code m} is the number
+ * of ranges whose lower endpoint lies within the query. Pruning by smallest upper endpoint only
+ * helps when whole subtrees of those ranges end after the query, so this can be much larger than
+ * {@code k} when many ranges start within the query but end after it.</li>
+ * </ul>
+ *
+ * All ranges must have both upper and lower bounds. Query ranges may be unbounded. Like {@link
+ * ImmutableOverlappingRangeSet}, this does not preserve multiplicity. Results are returned ordered
+ * by lower and then upper endpoint.
+ *
+ * For ranges of {@link com.bbn.bue.common.strings.offsets.CharOffset}s, prefer {@link
+ * com.bbn.bue.common.strings.offsets.CharOffsetOverlappingRangeSet}, which avoids boxing.
+ */
+public final class IntervalTreeOverlappingRangeSet<T extends Comparable<T>>
+    implements OverlappingRangeSet<T> {
+
+  private final ImmutableList<Range<T>> ranges;
+  // for the subtree rooted at index i of the implicit tree over ranges, the largest and smallest
+  // upper endpoints of any range within it
+  private final T[] maxUpperEndpoints;
+  private final T[] minUpperEndpoints;
+
+  @SuppressWarnings("unchecked")
+  private IntervalTreeOverlappingRangeSet(final Iterable<Range<T>> ranges) {
+    for (final Range<T> range : ranges) {
+      checkArgument(range.hasLowerBound() && range.hasUpperBound(),
+          "Ranges must be bounded but got %s", range);
+    }
+    this.ranges = IntervalTreeOverlappingRangeSet.<T>rangeOrdering()
+        .immutableSortedCopy(ImmutableSet.copyOf(ranges));
+    this.maxUpperEndpoints = (T[]) new Comparable[this.ranges.size()];
+    this.minUpperEndpoints = (T[]) new Comparable[this.ranges.size()];
+    indexSubtree(0, this.ranges.size());
+  }
+
+  public static <T extends Comparable<T>> IntervalTreeOverlappingRangeSet<T> create(
+      final Iterable<Range<T>> ranges) {
+    return new IntervalTreeOverlappingRangeSet<>(ranges);
+  }
+
+  /**
+   * The ranges in this set, ordered by lower and then upper endpoint.
+   */
+  public ImmutableList<Range<T>> ranges() {
+    return ranges;
+  }
+
+  /**
+   * Returns all ranges for which {@link Range#contains(Comparable)} item is true.
+   */
+  @Override
+  public Collection<Range<T>> rangesContaining(final T item) {
+    return collect(new Query<T>() {
+      @Override
+      boolean excludesSubtree(final T maxUpperEndpoint, final T minUpperEndpoint) {
+        return maxUpperEndpoint.compareTo(item) < 0;
+      }
+
+      @Override
+      boolean excludesEarlierRanges(final Range<T> range) {
+        return false;
+      }
+
+      @Override
+      boolean excludesThisAndLaterRanges(final Range<T> range) {
+        return range.lowerEndpoint().compareTo(item) > 0;
+      }
+
+      @Override
+      boolean matches(final Range<T> range) {
+        return range.contains(item);
+      }
+    });
+  }
+
+  /**
+   * Finds every range in this object for which {@code range}.{@link Range#encloses(Range)} {@code
+   * queryRange}.
+   */
+  @Override
+  public Collection<Range<T>> rangesContaining(final Range<T> queryRange) {
+    return collect(new Query<T>() {
+      @Override
+      boolean excludesSubtree(final T maxUpperEndpoint, final T minUpperEndpoint) {
+        return !queryRange.hasUpperBound()
+            || maxUpperEndpoint.compareTo(queryRange.upperEndpoint()) < 0;
+      }
+
+      @Override
+      boolean excludesEarlierRanges(final Range<T> range) {
+        return false;
+      }
+
+      @Override
+      boolean excludesThisAndLaterRanges(final Range<T> range) {
+        return !queryRange.hasLowerBound()
+            || range.lowerEndpoint().compareTo(queryRange.lowerEndpoint()) > 0;
+      }
+
+      @Override
+      boolean matches(final Range<T> range) {
+        return range.encloses(queryRange);
+      }
+    });
+  }
+
+  /**
+   * Finds every range in this object which {@code queryRange}.{@link Range#encloses(Range)}.
+   */
+  @Override
+  public Collection<Range<T>> rangesContainedBy(final Range<T> queryRange) {
+    return collect(new Query<T>() {
+      @Override
+      boolean excludesSubtree(final T maxUpperEndpoint, final T minUpperEndpoint) {
+        return queryRange.hasUpperBound()
+            && minUpperEndpoint.compareTo(queryRange.upperEndpoint()) > 0;
+      }
+
+      @Override
+      boolean excludesEarlierRanges(final Range<T> range) {
+        return queryRange.hasLowerBound()
+            && range.lowerEndpoint().compareTo(queryRange.lowerEndpoint()) < 0;
+      }
+
+      @Override
+      boolean excludesThisAndLaterRanges(final Range<T> range) {
+        return queryRange.hasUpperBound()
+            && range.lowerEndpoint().compareTo(queryRange.upperEndpoint()) > 0;
+      }
+
+      @Override
+      boolean matches(final Range<T> range) {
+        return queryRange.encloses(range);
+      }
+    });
+  }
+
+  /**
+   * Returns all {@link Range}s {@link Range#isConnected(Range)} to the {@code queryRange} for which
+   * the intersection is non-empty.
+   */
+  @Override
+  public Collection<Range<T>> rangesOverlapping(final Range<T> queryRange) {
+    return collect(new Query<T>() {
+      @Override
+      boolean excludesSubtree(final T maxUpperEndpoint, final T minUpperEndpoint) {
+        return queryRange.hasLowerBound()
+            && maxUpperEndpoint.compareTo(queryRange.lowerEndpoint()) < 0;
+      }
+
+      @Override
+      boolean excludesEarlierRanges(final Range<T> range) {
+        return false;
+      }
+
+      @Override
+      boolean excludesThisAndLaterRanges(final Range<T> range) {
+        return queryRange.hasUpperBound()
+            && range.lowerEndpoint().compareTo(queryRange.upperEndpoint()) > 0;
+      }
+
+      @Override
+      boolean matches(final Range<T> range) {
+        return range.isConnected(queryRange) && !range.intersection(queryRange).isEmpty();
+      }
+    });
+  }
+
+  /**
+   * Decides which parts of the tree a query must search. The exclusion tests only compare
+   * endpoints, so they must be conservative when endpoints are equal since an open and a closed
+   * bound at the same point may or may not match.
+   */
+  private abstract static class Query<T extends Comparable<T>> {
+
+    abstract boolean excludesSubtree(T maxUpperEndpoint, T minUpperEndpoint);
+
+    // ranges before this one in the ordering have lower endpoints no greater than its own
+    abstract boolean excludesEarlierRanges(Range<T> range);
+
+    // ranges after this one in the ordering have lower endpoints no less than its own
+    abstract boolean excludesThisAndLaterRanges(Range<T> range);
+
+    abstract boolean matches(Range<T> range);
+  }
+
+  private ImmutableList<Range<T>> collect(final Query<T> query) {
+    final ImmutableList.Builder<Range<T>> ret = ImmutableList.builder();
+    collect(0, ranges.size(), query, ret);
+    return ret.build();
+  }
+
+  private void collect(final int lo, final int hi, final Query<T> query,
+      final ImmutableList.Builder<Range<T>> ret) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    if (query.excludesSubtree(maxUpperEndpoints[mid], minUpperEndpoints[mid])) {
+      return;
+    }
+    final Range<T> range = ranges.get(mid);
+    if (!query.excludesEarlierRanges(range)) {
+      collect(lo, mid, query, ret);
+    }
+    if (query.excludesThisAndLaterRanges(range)) {
+      return;
+    }
+    if (query.matches(range)) {
+      ret.add(range);
+    }
+    collect(mid + 1, hi, query, ret);
+  }
+
+  private void indexSubtree(final int lo, final int hi) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    indexSubtree(lo, mid);
+    indexSubtree(mid + 1, hi);
+    T max = ranges.get(mid).upperEndpoint();
+    T min = max;
+    if (lo < mid) {
+      final int leftChild = (lo + mid) >>> 1;
+      max = Ordering.natural().max(max, maxUpperEndpoints[leftChild]);
+      min = Ordering.natural().min(min, minUpperEndpoints[leftChild]);
+    }
+    if (mid + 1 < hi) {
+      final int rightChild = (mid + 1 + hi) >>> 1;
+      max = Ordering.natural().max(max, maxUpperEndpoints[rightChild]);
+      min = Ordering.natural().min(min, minUpperEndpoints[rightChild]);
+    }
+    maxUpperEndpoints[mid] = max;
+    minUpperEndpoints[mid] = min;
+  }
+
+  private static <T extends Comparable<T>> Ordering<Range<T>> rangeOrdering() {
+    return Ordering.natural().onResultOf(RangeUtils.<T>lowerEndPointFunction())
+        .compound(Ordering.natural().onResultOf(RangeUtils.<T>upperEndPointFunction()))
+        .compound(Ordering.usingToString());
+  }
+
+  public static <T extends Comparable<T>> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  public static final class Builder<T extends Comparable<T>> {
+
+    private final ImmutableSet.Builder<Range<T>> ranges = ImmutableSet.builder();
+
+    private Builder() {
+    }
+
+    public Builder<T> addRange(final Range<T> range) {
+      ranges.add(range);
+      return this;
+    }
+
+    public Builder<T> addRanges(final Iterable<Range<T>> ranges) {
+      this.ranges.addAll(ranges);
+      return this;
+    }
+
+    public IntervalTreeOverlappingRangeSet<T> build() {
+      return new IntervalTreeOverlappingRangeSet<>(ranges.build());
+    }
+  }
+}
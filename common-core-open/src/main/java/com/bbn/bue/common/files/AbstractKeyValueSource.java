@@ -1,15 +1,35 @@
 package com.bbn.bue.common.files;
 
+import com.bbn.bue.common.symbols.Symbol;
+
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closer;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
- * Provides an implementation of {@link KeyValueSource#getRequired(Object)} for convenience.
+ * Provides implementations of {@link KeyValueSource#getRequired(Object)}, {@link
+ * KeyValueSource#keySet()}, and {@link KeyValueSource#getAll(Iterable)}, {@link
+ * KeyValueSource#entries()} and {@link KeyValueSource#partitionedEntries(int)} for convenience.
+ * Subclasses which know where their values are stored should override {@link
+ * #retrievalOrder(List)} so that these read values in storage order, or override the methods
+ * themselves if they can iterate over their storage more directly.
  *
  * See {@link KeyValueSource} for general documentation of the key-value classes.
  *
@@ -33,4 +53,212 @@ public abstract class AbstractKeyValueSource<K, V> implements KeyValueSource<K,
   public ImmutableSet<K> keySet() throws IOException {
     return FluentIterable.from(keys()).toSet();
   }
+
+  @Override
+  @Nonnull
+  public Iterator<Map.Entry<K, V>> getAll(final Iterable<? extends K> keys) throws IOException {
+    return lookUpInOrder(retrievalOrder(ImmutableSet.<K>copyOf(keys).asList()));
+  }
+
+  @Override
+  @Nonnull
+  public Iterable<Map.Entry<K, V>> entries() throws IOException {
+    final List<K> orderedKeys = retrievalOrder(ImmutableList.copyOf(keys()));
+    return new Iterable<Map.Entry<K, V>>() {
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return lookUpInOrder(orderedKeys);
+      }
+    };
+  }
+
+  @Override
+  @Nonnull
+  public List<Iterable<Map.Entry<K, V>>> partitionedEntries(final int maxPartitions)
+      throws IOException {
+    checkArgument(maxPartitions > 0, "Must allow at least one partition");
+    final List<K> orderedKeys = retrievalOrder(ImmutableList.copyOf(keys()));
+    final ImmutableList.Builder<Iterable<Map.Entry<K, V>>> ret = ImmutableList.builder();
+    for (final int[] range : partitionRanges(orderedKeys.size(), maxPartitions)) {
+      final List<K> partitionKeys = orderedKeys.subList(range[0], range[1]);
+      ret.add(new Iterable<Map.Entry<K, V>>() {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+          return lookUpInOrder(partitionKeys);
+        }
+      });
+    }
+    return ret.build();
+  }
+
+  /**
+   * Splits {@code [0, size)} into at most {@code maxPartitions} non-empty, contiguous {@code
+   * [start, end)} ranges whose sizes differ by at most one.
+   */
+  static List<int[]> partitionRanges(final int size, final int maxPartitions) {
+    final int numPartitions = Math.min(size, maxPartitions);
+    final List<int[]> ret = new ArrayList<>(numPartitions);
+    for (int i = 0; i < numPartitions; ++i) {
+      ret.add(new int[]{(int) ((long) size * i / numPartitions),
+          (int) ((long) size * (i + 1) / numPartitions)});
+    }
+    return ret;
+  }
+
+  // looks up the given keys lazily, in order, skipping absent keys
+  private Iterator<Map.Entry<K, V>> lookUpInOrder(final Iterable<K> keys) {
+    final Iterator<K> orderedKeys = keys.iterator();
+    return new AbstractIterator<Map.Entry<K, V>>() {
+      @Override
+      protected Map.Entry<K, V> computeNext() {
+        while (orderedKeys.hasNext()) {
+          final K key = orderedKeys.next();
+          final Optional<V> value;
+          try {
+            value = get(key);
+          } catch (IOException e) {
+            throw Throwables.propagate(e);
+          }
+          if (value.isPresent()) {
+            return Maps.immutableEntry(key, value.get());
+          }
+        }
+        return endOfData();
+      }
+    };
+  }
+
+  /**
+   * The order in which {@link #getAll(Iterable)}, {@link #entries()}, and {@link
+   * #partitionedEntries(int)} should look up {@code keys}, which are distinct.
+   * The default is to keep the order given.  Sources should override this to order keys by the
+   * storage location of their values when reading in that order is cheaper.
+   */
+  @Nonnull
+  protected List<K> retrievalOrder(final List<K> keys) throws IOException {
+    return keys;
+  }
+
+  /**
+   * Sorts {@code keys} by the corresponding entries of {@code positions}, for implementing {@link
+   * #retrievalOrder(List)}. The sort is stable. {@code positions} is overwritten.
+   */
+  static <K> List<K> sortedByPosition(final List<K> keys, final long[] positions) {
+    checkArgument(keys.size() == positions.length);
+    final List<K> ret = new ArrayList<>(keys.size());
+    for (final int idx : orderOfPositions(positions)) {
+      ret.add(keys.get(idx));
+    }
+    return ret;
+  }
+
+  /**
+   * Registers {@code sources} with {@code closer}, for sources which present several others as
+   * one and close them all together.
+   */
+  static void registerAll(final Closer closer,
+      final Iterable<? extends KeyValueSource<?, ?>> sources) {
+    for (final KeyValueSource<?, ?> source : sources) {
+      closer.register(new Closeable() {
+        @Override
+        public void close() throws IOException {
+          source.close();
+        }
+      });
+    }
+  }
+
+  /**
+   * Implements {@link #entries()}, {@link #partitionedEntries(int)} and {@link
+   * #retrievalOrder(List)} for a source whose keys are in a {@link SortedKeyIndex} and which knows
+   * where the value of each key is stored, so that all of these read values in storage order. The
+   * source supplies only the storage position and the value of the key at each index.
+   */
+  abstract static class StorageOrder<V> {
+
+    private final SortedKeyIndex keys;
+    // the indices of the keys, ordered by where their values are stored. Computed lazily because
+    // not all users iterate; volatile so no thread sees the array before it is filled in.
+    private volatile int[] order = null;
+
+    StorageOrder(final SortedKeyIndex keys) {
+      this.keys = checkNotNull(keys);
+    }
+
+    /**
+     * Where the value of the {@code idx}-th key is stored. Only the order of positions matters.
+     */
+    abstract long position(int idx);
+
+    abstract V value(int idx) throws IOException;
+
+    final Iterable<Map.Entry<Symbol, V>> entries() {
+      return entries(0, keys.size());
+    }
+
+    final List<Iterable<Map.Entry<Symbol, V>>> partitionedEntries(final int maxPartitions) {
+      checkArgument(maxPartitions > 0, "Must allow at least one partition");
+      final ImmutableList.Builder<Iterable<Map.Entry<Symbol, V>>> ret = ImmutableList.builder();
+      for (final int[] range : partitionRanges(keys.size(), maxPartitions)) {
+        ret.add(entries(range[0], range[1]));
+      }
+      return ret.build();
+    }
+
+    final List<Symbol> retrievalOrder(final List<Symbol> keysToOrder) {
+      final long[] positions = new long[keysToOrder.size()];
+      for (int i = 0; i < positions.length; ++i) {
+        final int idx = keys.indexOf(keysToOrder.get(i));
+        positions[i] = idx < 0 ? -1 : position(idx);
+      }
+      return sortedByPosition(keysToOrder, positions);
+    }
+
+    // the entries between the start-th and end-th (exclusive) in the order their values are stored
+    private Iterable<Map.Entry<Symbol, V>> entries(final int start, final int end) {
+      final int[] order = order();
+      return new Iterable<Map.Entry<Symbol, V>>() {
+        @Override
+        public Iterator<Map.Entry<Symbol, V>> iterator() {
+          return new AbstractIterator<Map.Entry<Symbol, V>>() {
+            private int next = start;
+
+            @Override
+            protected Map.Entry<Symbol, V> computeNext() {
+              if (next < end) {
+                final int idx = order[next++];
+                try {
+                  return Maps.immutableEntry(keys.key(idx), value(idx));
+                } catch (IOException e) {
+                  throw Throwables.propagate(e);
+                }
+              }
+              return endOfData();
+            }
+          };
+        }
+      };
+    }
+
+    private int[] order() {
+      int[] ret = order;
+      if (ret == null) {
+        final long[] positions = new long[keys.size()];
+        for (int i = 0; i < positions.length; ++i) {
+          positions[i] = position(i);
+        }
+        ret = orderOfPositions(positions);
+        order = ret;
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * The indices of {@code positions}, sorted stably by the value at each index. {@code positions}
+   * is overwritten.
+   */
+  static int[] orderOfPositions(final long[] positions) {
+    return IndexSort.sortedIndices(positions);
+  }
 }
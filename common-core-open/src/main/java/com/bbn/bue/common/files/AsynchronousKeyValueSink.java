@@ -0,0 +1,204 @@
+package com.bbn.bue.common.files;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link KeyValueSink} which hands entries to a dedicated writer thread through a bounded queue,
+ * so that callers of {@link #put(Object, Object)} need not wait for the wrapped sink to compress or
+ * write. When the queue is full, {@code put} blocks until the writer catches up, bounding memory
+ * use. The writer takes whatever entries have accumulated in the queue at once, so it pays the
+ * cost of synchronizing with producers once per batch rather than once per entry; entries are
+ * still put to the wrapped sink one at a time.
+ *
+ * If the wrapped sink fails, the failure is reported by the next {@code put} or by {@link
+ * #close()}, whichever comes first; the remaining queued entries are discarded. Closing waits for
+ * all queued entries to be written and then closes the wrapped sink on the writer thread.
+ *
+ * {@code put} may be called from multiple threads. Entries from a single thread are written in the
+ * order they were put. A {@code put} concurrent with {@link #close()} either completes before the
+ * sink is closed, in which case its entry is written, or fails. Values must not be modified after
+ * they are put.
+ */
+final class AsynchronousKeyValueSink<K, V> implements KeyValueSink<K, V> {
+
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final AtomicInteger threadCounter = new AtomicInteger();
+
+  private final KeyValueSink<K, V> wrapped;
+  private final BlockingQueue<Entry<K, V>> queue;
+  // marks the end of the input
+  private final Entry<K, V> end = new Entry<>(null, null);
+  private final Thread writerThread;
+  // used in error messages
+  private final String description;
+  // puts hold the read lock while checking the sink is open and enqueuing, and finish() holds the
+  // write lock while marking it closed and enqueuing the end marker, so no entry can be queued
+  // after the end marker
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private volatile Throwable failure = null;
+  private boolean closed = false;
+
+  private AsynchronousKeyValueSink(final KeyValueSink<K, V> wrapped, final int queueCapacity,
+      final String threadName, final String description) {
+    checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+    this.wrapped = checkNotNull(wrapped);
+    this.description = checkNotNull(description);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, threadName);
+    // so an abandoned sink can't keep the JVM alive
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  @Nonnull
+  static <K, V> AsynchronousKeyValueSink<K, V> wrap(final KeyValueSink<K, V> wrapped,
+      final int queueCapacity) {
+    final String threadName = "async-key-value-sink-" + threadCounter.getAndIncrement();
+    return wrap(wrapped, queueCapacity, threadName, threadName);
+  }
+
+  /**
+   * @param description describes the wrapped sink in error messages
+   */
+  @Nonnull
+  static <K, V> AsynchronousKeyValueSink<K, V> wrap(final KeyValueSink<K, V> wrapped,
+      final int queueCapacity, final String threadName, final String description) {
+    return new AsynchronousKeyValueSink<>(wrapped, queueCapacity, threadName, description);
+  }
+
+  @Override
+  public void put(final K key, final V value) throws IOException {
+    checkNotNull(key);
+    checkNotNull(value);
+    closeLock.readLock().lock();
+    try {
+      checkState(!closed, "Sink is closed");
+      checkFailure();
+      enqueue(new Entry<>(key, value));
+    } finally {
+      closeLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Tells the writer thread there is no more input, without waiting for it to finish. This lets a
+   * caller closing many of these sinks let them all finish in parallel before calling {@link
+   * #close()} on each.
+   */
+  void finish() throws IOException {
+    closeLock.writeLock().lock();
+    try {
+      if (!closed) {
+        closed = true;
+        enqueue(end);
+      }
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      finish();
+    } catch (IOException e) {
+      // the writer has already stopped; its failure is reported below
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + description);
+    }
+    checkFailure();
+  }
+
+  private void write() {
+    final List<Entry<K, V>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    try {
+      boolean done = false;
+      while (!done) {
+        batch.add(queue.take());
+        queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+        for (final Entry<K, V> entry : batch) {
+          if (entry == end) {
+            done = true;
+            break;
+          }
+          // after a failure we keep draining the queue so producers never block forever
+          if (failure == null) {
+            try {
+              wrapped.put(entry.key, entry.value);
+            } catch (Throwable t) {
+              failure = t;
+            }
+          }
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      failure = e;
+    } finally {
+      try {
+        wrapped.close();
+      } catch (Throwable t) {
+        if (failure == null) {
+          failure = t;
+        }
+      }
+    }
+  }
+
+  private void enqueue(final Entry<K, V> entry) throws IOException {
+    try {
+      // poll so we can't block forever if the writer thread has died
+      while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+        if (!writerThread.isAlive()) {
+          checkFailure();
+          throw new IOException("Writer for " + description + " has stopped");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing to " + description);
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    final Throwable t = failure;
+    if (t != null) {
+      throw new IOException("Writing to " + description + " failed", t);
+    }
+  }
+
+  private static final class Entry<K, V> {
+
+    private final K key;
+    private final V value;
+
+    private Entry(final K key, final V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link KeyValueSink} which writes a data file and index readable by {@link
+ * BlockCompressedKeyValueSource}. Values are packed, in the order they are put, into blocks of
+ * about {@code blockSize} bytes, each of which is compressed as a unit, optionally with a preset
+ * dictionary. A value larger than a block gets a block of its own. The keys and value locations
+ * are held in memory and the index is written when the sink is closed, so a sink which is not
+ * closed leaves no usable store.
+ */
+final class BlockCompressedKeyValueSink implements KeyValueSink<Symbol, byte[]> {
+
+  static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  private final File indexFile;
+  private final OutputStream dataOut;
+  private final int blockSize;
+  private final Optional<byte[]> dictionary;
+  private final Deflater deflater = new Deflater();
+  private final byte[] deflateBuffer = new byte[64 * 1024];
+
+  private final Set<Symbol> keysSeen = Sets.newHashSet();
+  private final List<byte[]> keys = new ArrayList<>();
+  private int[] valueBlocks = new int[1024];
+  private int[] valueOffsets = new int[1024];
+  private int[] valueLengths = new int[1024];
+
+  // the uncompressed contents of the block being filled
+  private final ByteArrayOutputStream currentBlock = new ByteArrayOutputStream();
+  private long[] blockOffsets = new long[64];
+  private int[] blockLengths = new int[64];
+  private int numBlocks = 0;
+  private long dataLength = 0;
+  private boolean closed = false;
+
+  private BlockCompressedKeyValueSink(final File indexFile, final OutputStream dataOut,
+      final int blockSize, final Optional<byte[]> dictionary) {
+    checkArgument(blockSize > 0, "Block size must be positive");
+    this.indexFile = checkNotNull(indexFile);
+    this.dataOut = checkNotNull(dataOut);
+    this.blockSize = blockSize;
+    this.dictionary = checkNotNull(dictionary);
+  }
+
+  @Nonnull
+  static BlockCompressedKeyValueSink forFiles(final File dataFile, final File indexFile,
+      final int blockSize, final Optional<byte[]> dictionary) throws IOException {
+    return new BlockCompressedKeyValueSink(indexFile,
+        new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 16), blockSize, dictionary);
+  }
+
+  /**
+   * Builds a preset dictionary of at most {@code maxSize} bytes (and at most the 32KB deflate
+   * window) from byte sequences which recur across {@code samples}.  This is a simple heuristic:
+   * it counts how many samples contain each 32-byte sequence (considering only the first {@code
+   * 16 * maxSize} bytes of samples in total) and concatenates the most widespread non-overlapping
+   * ones, most widespread last, since deflate encodes matches closer to the data more cheaply.
+   */
+  static byte[] trainDictionary(final Iterable<byte[]> samples, final int maxSize) {
+    checkArgument(maxSize > 0, "Dictionary size must be positive");
+    final int dictionarySize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+    final long sampleBudget = 16L * dictionarySize;
+
+    final List<byte[]> usedSamples = new ArrayList<>();
+    // for each distinct segment hash: {number of samples containing it, last sample index
+    // containing it, sample index of first occurrence, offset of first occurrence}
+    final Map<Long, int[]> segments = new HashMap<>();
+    long bytesSeen = 0;
+    for (final byte[] sample : samples) {
+      if (bytesSeen >= sampleBudget) {
+        break;
+      }
+      final int sampleIdx = usedSamples.size();
+      usedSamples.add(sample);
+      bytesSeen += sample.length;
+      for (int offset = 0; offset + SEGMENT_LENGTH <= sample.length; ++offset) {
+        final long hash = segmentHash(sample, offset);
+        final int[] stats = segments.get(hash);
+        if (stats == null) {
+          segments.put(hash, new int[]{1, sampleIdx, sampleIdx, offset});
+        } else if (stats[1] != sampleIdx) {
+          ++stats[0];
+          stats[1] = sampleIdx;
+        }
+      }
+    }
+
+    final List<int[]> candidates = new ArrayList<>();
+    for (final int[] stats : segments.values()) {
+      if (stats[0] > 1) {
+        candidates.add(stats);
+      }
+    }
+    // most widespread first, breaking ties by position so the result is deterministic
+    Collections.sort(candidates, new Comparator<int[]>() {
+      @Override
+      public int compare(final int[] left, final int[] right) {
+        return ComparisonChain.start()
+            .compare(right[0], left[0])
+            .compare(left[2], right[2])
+            .compare(left[3], right[3])
+            .result();
+      }
+    });
+
+    final List<byte[]> chosen = new ArrayList<>();
+    // regions of samples already chosen, so we don't pick many shifted copies of the same text
+    final Map<Integer, BitSet> covered = new HashMap<>();
+    int totalLength = 0;
+    for (final int[] candidate : candidates) {
+      if (totalLength + SEGMENT_LENGTH > dictionarySize) {
+        break;
+      }
+      final int sampleIdx = candidate[2];
+      final int offset = candidate[3];
+      BitSet sampleCovered = covered.get(sampleIdx);
+      if (sampleCovered == null) {
+        sampleCovered = new BitSet();
+        covered.put(sampleIdx, sampleCovered);
+      }
+      if (sampleCovered.get(offset)) {
+        continue;
+      }
+      sampleCovered.set(Math.max(0, offset - SEGMENT_LENGTH + 1), offset + SEGMENT_LENGTH);
+      chosen.add(Arrays.copyOfRange(usedSamples.get(sampleIdx), offset,
+          offset + SEGMENT_LENGTH));
+      totalLength += SEGMENT_LENGTH;
+    }
+
+    final ByteArrayOutputStream ret = new ByteArrayOutputStream(totalLength);
+    for (final byte[] segment : Lists.reverse(chosen)) {
+      ret.write(segment, 0, segment.length);
+    }
+    return ret.toByteArray();
+  }
+
+  private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+  private static final int SEGMENT_LENGTH = 32;
+
+  private static long segmentHash(final byte[] bytes, final int offset) {
+    long hash = 1125899906842597L;
+    for (int i = offset; i < offset + SEGMENT_LENGTH; ++i) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash;
+  }
+
+  @Override
+  public void put(final Symbol key, final byte[] value) throws IOException {
+    checkState(!closed, "Sink is closed");
+    checkArgument(keysSeen.add(key), "Duplicate key %s", key);
+    if (currentBlock.size() > 0 && currentBlock.size() + value.length > blockSize) {
+      flushBlock();
+    }
+    final int idx = keys.size();
+    if (idx == valueBlocks.length) {
+      valueBlocks = Arrays.copyOf(valueBlocks, 2 * idx);
+      valueOffsets = Arrays.copyOf(valueOffsets, 2 * idx);
+      valueLengths = Arrays.copyOf(valueLengths, 2 * idx);
+    }
+    keys.add(key.asString().getBytes(Charsets.UTF_8));
+    valueBlocks[idx] = numBlocks;
+    valueOffsets[idx] = currentBlock.size();
+    valueLengths[idx] = value.length;
+    currentBlock.write(value);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    final Closer closer = Closer.create();
+    try {
+      closer.register(dataOut);
+      if (currentBlock.size() > 0) {
+        flushBlock();
+      }
+      writeIndex();
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      deflater.end();
+      closer.close();
+    }
+  }
+
+  private void flushBlock() throws IOException {
+    if (numBlocks == blockOffsets.length) {
+      blockOffsets = Arrays.copyOf(blockOffsets, 2 * numBlocks);
+      blockLengths = Arrays.copyOf(blockLengths, 2 * numBlocks);
+    }
+    blockOffsets[numBlocks] = dataLength;
+    blockLengths[numBlocks] = currentBlock.size();
+    ++numBlocks;
+
+    deflater.reset();
+    if (dictionary.isPresent()) {
+      deflater.setDictionary(dictionary.get());
+    }
+    deflater.setInput(currentBlock.toByteArray());
+    deflater.finish();
+    while (!deflater.finished()) {
+      final int compressed = deflater.deflate(deflateBuffer);
+      dataOut.write(deflateBuffer, 0, compressed);
+      dataLength += compressed;
+    }
+    currentBlock.reset();
+  }
+
+  private void writeIndex() throws IOException {
+    final int n = keys.size();
+    long keyDataLength = 0;
+    for (final byte[] key : keys) {
+      keyDataLength += key.length;
+    }
+    final int dictionaryLength = dictionary.isPresent() ? dictionary.get().length : 0;
+    final long indexLength = BlockCompressedKeyValueSource.indexLength(n, numBlocks,
+        dictionaryLength, keyDataLength);
+    if (indexLength > Integer.MAX_VALUE) {
+      throw new IOException("Index would be " + indexLength + " bytes but at most 2GB is "
+          + "supported");
+    }
+    final int[] sortedIdxs = SortedKeyIndex.sortedOrder(keys);
+
+    final Closer closer = Closer.create();
+    try {
+      final DataOutputStream out = closer.register(new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16)));
+      out.writeInt(BlockCompressedKeyValueSource.MAGIC);
+      out.writeInt(BlockCompressedKeyValueSource.VERSION);
+      out.writeInt(n);
+      out.writeInt(numBlocks);
+      out.writeInt(dictionaryLength);
+      out.writeInt((int) keyDataLength);
+      out.writeLong(dataLength);
+      if (dictionary.isPresent()) {
+        out.write(dictionary.get());
+      }
+      for (int i = 0; i < numBlocks; ++i) {
+        out.writeLong(blockOffsets[i]);
+      }
+      out.writeLong(dataLength);
+      for (int i = 0; i < numBlocks; ++i) {
+        out.writeInt(blockLengths[i]);
+      }
+      int keyOffset = 0;
+      for (final int idx : sortedIdxs) {
+        out.writeInt(keyOffset);
+        keyOffset += keys.get(idx).length;
+      }
+      out.writeInt(keyOffset);
+      for (final int idx : sortedIdxs) {
+        out.writeInt(valueBlocks[idx]);
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt(valueOffsets[idx]);
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt(valueLengths[idx]);
+      }
+      for (final int idx : sortedIdxs) {
+        out.write(keys.get(idx));
+      }
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+}
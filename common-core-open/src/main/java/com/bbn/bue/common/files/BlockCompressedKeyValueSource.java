@@ -0,0 +1,301 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link ImmutableKeyValueSource} over a data file of deflate-compressed blocks of values and a
+ * sorted binary index of keys. Packing many small values into each compressed block lets similar
+ * values share compression context, which compresses collections of small, similar documents (e.g.
+ * JSON or XML) far better than compressing each value separately as in a zip file. A preset
+ * dictionary, stored in the index, can further help the start of each block.
+ *
+ * The index is memory-mapped and keys are found by binary search, as in {@link
+ * MappedFileKeyValueSource}. Looking up a value reads and decompresses its whole block, so
+ * recently used decompressed blocks are kept in an LRU cache. Lookups of keys which were put near
+ * each other (and so share blocks) are therefore cheap. The cache is safe to use from multiple
+ * threads, and concurrent lookups needing the same block decompress it only once.
+ *
+ * Stores are written by {@link KeyValueSinks#forBlockCompressedFile(File, File, int, Optional)}.
+ * The index file format is (all integers big-endian):
+ * <ul>
+ * <li>a header: a magic number, a format version, the number of entries {@code n}, the number of
+ * blocks {@code b}, the length of the dictionary, the length of the key data in bytes, and (as a
+ * long) the length of the data file.</li>
+ * <li>the dictionary, if any</li>
+ * <li>{@code b+1} longs giving the offset of each compressed block in the data file. The last
+ * entry is the length of the data file.</li>
+ * <li>{@code b} ints giving the uncompressed length of each block</li>
+ * <li>{@code n+1} ints giving the start offset of each key's UTF-8 bytes in the key data, in
+ * sorted order. The last entry is the length of the key data.</li>
+ * <li>{@code n} ints giving the block of each key's value</li>
+ * <li>{@code n} ints giving the offset of each key's value within its uncompressed block</li>
+ * <li>{@code n} ints giving the length of each key's value</li>
+ * <li>the key data: the concatenated UTF-8 bytes of the keys, sorted by those bytes.</li>
+ * </ul>
+ */
+final class BlockCompressedKeyValueSource
+    extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
+
+  static final int MAGIC = 0x424b5642; // "BKVB"
+  static final int VERSION = 1;
+  private static final int HEADER_BYTES = 6 * Ints.BYTES + Longs.BYTES;
+  static final int DEFAULT_CACHED_BLOCKS = 64;
+
+  private final ByteBuffer index;
+  private final RandomAccessFile dataFile;
+  private final FileChannel data;
+  private final int numBlocks;
+  private final byte[] dictionary;
+  private final int blockOffsetsStart;
+  private final int blockLengthsStart;
+  private final SortedKeyIndex keys;
+  private final int valueBlocksStart;
+  private final int valueOffsetsStart;
+  private final int valueLengthsStart;
+  private final LoadingCache<Integer, byte[]> blockCache;
+  // so a pass over the entries decompresses each block only once
+  private final StorageOrder<ByteSource> storageOrder;
+
+  private BlockCompressedKeyValueSource(final ByteBuffer index, final RandomAccessFile dataFile,
+      final int cachedBlocks) throws IOException {
+    checkArgument(cachedBlocks >= 0, "Number of cached blocks may not be negative");
+    this.index = checkNotNull(index);
+    this.dataFile = checkNotNull(dataFile);
+    this.data = dataFile.getChannel();
+    if (index.limit() < HEADER_BYTES || index.getInt(0) != MAGIC) {
+      throw new IOException("Not a block-compressed key-value index file");
+    }
+    final int version = index.getInt(Ints.BYTES);
+    if (version != VERSION) {
+      throw new IOException("Unsupported block-compressed key-value index version " + version);
+    }
+    final int size = index.getInt(2 * Ints.BYTES);
+    this.numBlocks = index.getInt(3 * Ints.BYTES);
+    final int dictionaryLength = index.getInt(4 * Ints.BYTES);
+    final int keyDataLength = index.getInt(5 * Ints.BYTES);
+    final long expectedDataLength = index.getLong(6 * Ints.BYTES);
+    if (size < 0 || numBlocks < 0 || dictionaryLength < 0 || keyDataLength < 0
+        || indexLength(size, numBlocks, dictionaryLength, keyDataLength) != index.limit()) {
+      throw new IOException("Block-compressed key-value index file is truncated or corrupt");
+    }
+    if (expectedDataLength != data.size()) {
+      throw new IOException("Data file has length " + data.size() + " but index expects "
+          + expectedDataLength);
+    }
+    this.dictionary = new byte[dictionaryLength];
+    final ByteBuffer view = index.duplicate();
+    view.position(HEADER_BYTES);
+    view.get(dictionary);
+    this.blockOffsetsStart = HEADER_BYTES + dictionaryLength;
+    this.blockLengthsStart = blockOffsetsStart + (numBlocks + 1) * Longs.BYTES;
+    final int keyOffsetsStart = blockLengthsStart + numBlocks * Ints.BYTES;
+    this.valueBlocksStart = keyOffsetsStart + (int) SortedKeyIndex.keyOffsetsLength(size);
+    this.valueOffsetsStart = valueBlocksStart + size * Ints.BYTES;
+    this.valueLengthsStart = valueOffsetsStart + size * Ints.BYTES;
+    final int keyDataStart = valueLengthsStart + size * Ints.BYTES;
+    this.keys = new SortedKeyIndex(index, size, keyOffsetsStart, keyDataStart);
+    this.storageOrder = new StorageOrder<ByteSource>(keys) {
+      @Override
+      long position(final int idx) {
+        return storagePosition(idx);
+      }
+
+      @Override
+      ByteSource value(final int idx) throws IOException {
+        return BlockCompressedKeyValueSource.this.value(idx);
+      }
+    };
+    this.blockCache = CacheBuilder.newBuilder()
+        .maximumSize(cachedBlocks)
+        .build(new CacheLoader<Integer, byte[]>() {
+          @Override
+          public byte[] load(@Nonnull final Integer block) throws IOException {
+            return readBlock(block);
+          }
+        });
+  }
+
+  @Nonnull
+  static BlockCompressedKeyValueSource open(final File dataFile, final File indexFile,
+      final int cachedBlocks) throws IOException {
+    final Closer closer = Closer.create();
+    final RandomAccessFile data = closer.register(new RandomAccessFile(dataFile, "r"));
+    try {
+      final ByteBuffer index;
+      try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r")) {
+        final FileChannel indexChannel = indexRaf.getChannel();
+        if (indexChannel.size() > Integer.MAX_VALUE) {
+          throw new IOException("Index file " + indexFile + " is larger than 2GB");
+        }
+        // the mapping remains valid after the channel is closed
+        index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+      }
+      return new BlockCompressedKeyValueSource(index, data, cachedBlocks);
+    } catch (Throwable t) {
+      // we only close the data file on failure; otherwise the source owns it
+      try {
+        throw closer.rethrow(t);
+      } finally {
+        closer.close();
+      }
+    }
+  }
+
+  static File defaultIndexFileFor(final File dataFile) {
+    return new File(dataFile.getPath() + ".index");
+  }
+
+  static long indexLength(final int numEntries, final int numBlocks, final int dictionaryLength,
+      final long keyDataLength) {
+    return HEADER_BYTES + dictionaryLength + (numBlocks + 1L) * Longs.BYTES
+        + (long) numBlocks * Ints.BYTES + SortedKeyIndex.keyOffsetsLength(numEntries)
+        + 3L * numEntries * Ints.BYTES + keyDataLength;
+  }
+
+  public int size() {
+    return keys.size();
+  }
+
+  int numBlocks() {
+    return numBlocks;
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Symbol> keys() {
+    return new Iterable<Symbol>() {
+      @Override
+      public Iterator<Symbol> iterator() {
+        return new AbstractIterator<Symbol>() {
+          private int next = 0;
+
+          @Override
+          protected Symbol computeNext() {
+            if (next < keys.size()) {
+              return keys.key(next++);
+            }
+            return endOfData();
+          }
+        };
+      }
+    };
+  }
+
+  @Nonnull
+  @Override
+  public Optional<ByteSource> get(final Symbol key) throws IOException {
+    final int idx = keys.indexOf(key);
+    if (idx < 0) {
+      return Optional.absent();
+    }
+    return Optional.of(value(idx));
+  }
+
+  private ByteSource value(final int idx) throws IOException {
+    final int block = index.getInt(valueBlocksStart + idx * Ints.BYTES);
+    final int offset = index.getInt(valueOffsetsStart + idx * Ints.BYTES);
+    final int length = index.getInt(valueLengthsStart + idx * Ints.BYTES);
+    final byte[] blockBytes;
+    try {
+      blockBytes = blockCache.get(block);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+    return ByteSource.wrap(blockBytes).slice(offset, length);
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<Symbol, ByteSource>> entries() {
+    return storageOrder.entries();
+  }
+
+  @Nonnull
+  @Override
+  public List<Iterable<Map.Entry<Symbol, ByteSource>>> partitionedEntries(
+      final int maxPartitions) {
+    return storageOrder.partitionedEntries(maxPartitions);
+  }
+
+  @Nonnull
+  @Override
+  protected List<Symbol> retrievalOrder(final List<Symbol> keys) {
+    return storageOrder.retrievalOrder(keys);
+  }
+
+  private long storagePosition(final int idx) {
+    return ((long) index.getInt(valueBlocksStart + idx * Ints.BYTES) << 32)
+        | index.getInt(valueOffsetsStart + idx * Ints.BYTES);
+  }
+
+  @Override
+  public void close() throws IOException {
+    blockCache.invalidateAll();
+    dataFile.close();
+  }
+
+  private byte[] readBlock(final int block) throws IOException {
+    final long start = index.getLong(blockOffsetsStart + block * Longs.BYTES);
+    final long end = index.getLong(blockOffsetsStart + (block + 1) * Longs.BYTES);
+    final ByteBuffer compressed = ByteBuffer.allocate(Ints.checkedCast(end - start));
+    // positional reads are safe to make concurrently
+    while (compressed.hasRemaining()) {
+      if (data.read(compressed, start + compressed.position()) < 0) {
+        throw new IOException("Unexpected end of data file reading block " + block);
+      }
+    }
+
+    final byte[] ret = new byte[index.getInt(blockLengthsStart + block * Ints.BYTES)];
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed.array());
+      int inflated = 0;
+      while (inflated < ret.length) {
+        final int n = inflater.inflate(ret, inflated, ret.length - inflated);
+        if (n == 0) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(dictionary);
+          } else if (inflater.finished() || inflater.needsInput()) {
+            throw new IOException("Block " + block + " is truncated");
+          }
+        }
+        inflated += n;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Block " + block + " is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+    return ret;
+  }
+}
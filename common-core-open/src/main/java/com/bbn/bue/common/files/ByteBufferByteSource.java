@@ -0,0 +1,141 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ByteSource} reading the remaining bytes of a {@link ByteBuffer}, typically a slice of a
+ * memory-mapped file. Nothing is copied until the bytes are read, and each stream gets its own
+ * view of the buffer, so this is safe to use from multiple threads.
+ */
+final class ByteBufferByteSource extends ByteSource {
+
+  private final ByteBuffer buffer;
+
+  private ByteBufferByteSource(final ByteBuffer buffer) {
+    this.buffer = checkNotNull(buffer);
+  }
+
+  /**
+   * The bytes between the current position and the limit of {@code buffer}, which must not be
+   * modified afterwards.
+   */
+  static ByteBufferByteSource of(final ByteBuffer buffer) {
+    return new ByteBufferByteSource(buffer.slice());
+  }
+
+  @Override
+  public InputStream openStream() {
+    return new ByteBufferInputStream(buffer.duplicate());
+  }
+
+  @Override
+  public long size() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public Optional<Long> sizeIfKnown() {
+    return Optional.of((long) buffer.remaining());
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return !buffer.hasRemaining();
+  }
+
+  @Override
+  public byte[] read() {
+    final byte[] ret = new byte[buffer.remaining()];
+    buffer.duplicate().get(ret);
+    return ret;
+  }
+
+  @Override
+  public long copyTo(final OutputStream output) throws IOException {
+    final ByteBuffer view = buffer.duplicate();
+    if (view.hasArray()) {
+      output.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+    } else {
+      Channels.newChannel(output).write(view);
+    }
+    return buffer.remaining();
+  }
+
+  @Override
+  public ByteSource slice(final long offset, final long length) {
+    final ByteBuffer view = buffer.duplicate();
+    final int start = (int) Math.min(offset, view.remaining());
+    view.position(start);
+    view.limit(start + (int) Math.min(length, view.remaining()));
+    return new ByteBufferByteSource(view.slice());
+  }
+
+  @Override
+  public String toString() {
+    return "ByteBufferByteSource[" + buffer.remaining() + " bytes]";
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+    private int mark = 0;
+
+    private ByteBufferInputStream(final ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int toRead = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, toRead);
+      return toRead;
+    }
+
+    @Override
+    public long skip(final long n) {
+      final int toSkip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + toSkip);
+      return toSkip;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit) {
+      mark = buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+      buffer.position(mark);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link ImmutableKeyValueSource} which keeps the values most recently read from another source
+ * in memory, up to a bound on their total size in bytes. This is useful when the same values are
+ * read repeatedly, for example in several passes of feature extraction over the same documents.
+ * Create one using {@link KeyValueSources#caching(ImmutableKeyValueSource, long)}.
+ *
+ * Each value is read fully into memory the first time it is requested and is returned as a {@link
+ * ByteSource} over the cached bytes. Lookups of absent keys are cached too. The source is safe to
+ * use from multiple threads as long as the wrapped source is, and concurrent requests for the same
+ * uncached key read it from the wrapped source only once. Hit, miss, and load time statistics are
+ * available from {@link #stats()}.
+ *
+ * {@link #getAll(Iterable)} returns the cached values it can and fetches the rest with the wrapped
+ * source's {@code getAll}, so they are still read in its storage order, and caches them. A pass
+ * over {@link #entries()} or {@link #partitionedEntries(int)} is delegated to the wrapped source
+ * and neither uses nor fills the cache, so it does not push out the values being reused.
+ *
+ * Closing this source empties the cache and closes the wrapped source.
+ */
+@Beta
+public final class CachingKeyValueSource<K> extends AbstractImmutableKeyValueSource<K, ByteSource> {
+
+  /**
+   * Our rough estimate of the memory used by a cache entry beyond its value's bytes.
+   */
+  static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  private final ImmutableKeyValueSource<K, ByteSource> wrapped;
+  private final LoadingCache<K, Optional<byte[]>> cache;
+
+  private CachingKeyValueSource(final ImmutableKeyValueSource<K, ByteSource> wrapped,
+      final long maxBytes) {
+    checkArgument(maxBytes >= 0, "Cache size may not be negative");
+    this.wrapped = checkNotNull(wrapped);
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<K, Optional<byte[]>>() {
+          @Override
+          public int weigh(@Nonnull final K key, @Nonnull final Optional<byte[]> value) {
+            return ENTRY_OVERHEAD_BYTES + (value.isPresent() ? value.get().length : 0);
+          }
+        })
+        .recordStats()
+        .build(new CacheLoader<K, Optional<byte[]>>() {
+          @Override
+          public Optional<byte[]> load(@Nonnull final K key) throws IOException {
+            final Optional<ByteSource> value = wrapped.get(key);
+            if (value.isPresent()) {
+              return Optional.of(value.get().read());
+            } else {
+              return Optional.absent();
+            }
+          }
+        });
+  }
+
+  @Nonnull
+  static <K> CachingKeyValueSource<K> wrap(final ImmutableKeyValueSource<K, ByteSource> wrapped,
+      final long maxBytes) {
+    return new CachingKeyValueSource<>(wrapped, maxBytes);
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<K> keys() throws IOException {
+    return wrapped.keys();
+  }
+
+  @Nonnull
+  @Override
+  public Optional<ByteSource> get(final K key) throws IOException {
+    final Optional<byte[]> value;
+    try {
+      value = cache.get(checkNotNull(key));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+    if (value.isPresent()) {
+      return Optional.of(ByteSource.wrap(value.get()));
+    } else {
+      return Optional.absent();
+    }
+  }
+
+  @Nonnull
+  @Override
+  public Iterator<Map.Entry<K, ByteSource>> getAll(final Iterable<? extends K> keys)
+      throws IOException {
+    final List<Map.Entry<K, ByteSource>> hits = new ArrayList<>();
+    final List<K> misses = new ArrayList<>();
+    for (final K key : ImmutableSet.copyOf(keys)) {
+      final Optional<byte[]> value = cache.getIfPresent(key);
+      if (value == null) {
+        misses.add(key);
+      } else if (value.isPresent()) {
+        hits.add(Maps.immutableEntry(key, ByteSource.wrap(value.get())));
+      }
+    }
+    final Iterator<Map.Entry<K, ByteSource>> loaded = Iterators.transform(
+        wrapped.getAll(misses),
+        new Function<Map.Entry<K, ByteSource>, Map.Entry<K, ByteSource>>() {
+          @Override
+          public Map.Entry<K, ByteSource> apply(final Map.Entry<K, ByteSource> entry) {
+            final byte[] value;
+            try {
+              value = entry.getValue().read();
+            } catch (IOException e) {
+              throw Throwables.propagate(e);
+            }
+            cache.put(entry.getKey(), Optional.of(value));
+            return Maps.immutableEntry(entry.getKey(), ByteSource.wrap(value));
+          }
+        });
+    return Iterators.concat(hits.iterator(), loaded);
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<K, ByteSource>> entries() throws IOException {
+    return wrapped.entries();
+  }
+
+  @Nonnull
+  @Override
+  public List<Iterable<Map.Entry<K, ByteSource>>> partitionedEntries(final int maxPartitions)
+      throws IOException {
+    return wrapped.partitionedEntries(maxPartitions);
+  }
+
+  /**
+   * Statistics on the use of the cache since this source was created. Lookups of absent keys count
+   * as hits or misses like any others. The load time is the time spent reading values from the
+   * wrapped source.
+   */
+  @Nonnull
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * An estimate of the total size in bytes of the cached entries, including the overhead of each
+   * entry.
+   */
+  public long cachedBytes() {
+    long ret = 0;
+    for (final Optional<byte[]> value : cache.asMap().values()) {
+      ret += ENTRY_OVERHEAD_BYTES + (value.isPresent() ? value.get().length : 0);
+    }
+    return ret;
+  }
+
+  @Override
+  public void close() throws IOException {
+    cache.invalidateAll();
+    wrapped.close();
+  }
+}
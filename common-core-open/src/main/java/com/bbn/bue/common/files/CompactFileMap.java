@@ -0,0 +1,585 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable map from document IDs to files, as loaded by {@link
+ * FileUtils#loadSymbolToFileMap(File)}, in a compact form suitable for maps of tens of millions of
+ * documents. Rather than holding a {@link Symbol} and a {@link File} per document, the map holds
+ * the sorted UTF-8 bytes of the document IDs, found by binary search as in {@link
+ * MappedFileKeyValueSource}, and a pool of the distinct paths which is front-coded: each path is
+ * stored as the length of the prefix it shares with the previous path in sorted order plus the
+ * remaining bytes, so the long directory prefixes common to most paths are stored only once every
+ * {@value #RESTART_INTERVAL} paths. {@link Symbol}s and {@link File}s are created only when
+ * entries are looked up or iterated, in document ID order.
+ *
+ * Maps are parsed from the usual tab-separated text format by {@link #parse(ByteSource)}, which
+ * works on bytes without creating a {@link String} per line, and may be saved by {@link
+ * #writeTo(File)} in a binary form which {@link #read(File)} memory-maps without any parsing.
+ * {@link #loadCaching(File, File)} combines the two.
+ *
+ * The binary format is (all integers big-endian):
+ * <ul>
+ * <li>a header: a magic number, a format version, the number of documents {@code n}, the length
+ * of the document ID data, the number of distinct paths {@code p}, the length of the path data,
+ * and the length of the longest path</li>
+ * <li>{@code n+1} ints giving the start offset of each document ID's UTF-8 bytes in the document
+ * ID data, in sorted order. The last entry is the length of the document ID data.</li>
+ * <li>{@code n} ints giving the position of each document's path in the sorted paths</li>
+ * <li>{@code ceil(p / RESTART_INTERVAL)} ints giving the offset in the path data of every {@code
+ * RESTART_INTERVAL}-th path</li>
+ * <li>the document ID data: the concatenated UTF-8 bytes of the document IDs, sorted by those
+ * bytes</li>
+ * <li>the path data: for each path in sorted order, the length of the prefix shared with the
+ * previous path (zero for every {@code RESTART_INTERVAL}-th path) and the length of the rest of
+ * the path as unsigned variable-length integers, followed by the rest of the path's UTF-8
+ * bytes</li>
+ * </ul>
+ */
+@Beta
+public final class CompactFileMap extends AbstractMap<Symbol, File> {
+
+  static final int MAGIC = 0x424b564d; // "BKVM"
+  static final int VERSION = 1;
+  static final int RESTART_INTERVAL = 16;
+  private static final int HEADER_BYTES = 7 * Ints.BYTES;
+
+  private final ByteBuffer data;
+  private final int size;
+  private final SortedKeyIndex docIDs;
+  private final int pathIdsStart;
+  private final int pathRestartsStart;
+  private final int pathDataStart;
+  private final int maxPathLength;
+  private volatile Set<Map.Entry<Symbol, File>> entrySet = null;
+
+  private CompactFileMap(final ByteBuffer data) throws IOException {
+    this.data = checkNotNull(data);
+    if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+      throw new IOException("Not a compact file map");
+    }
+    final int version = data.getInt(Ints.BYTES);
+    if (version != VERSION) {
+      throw new IOException("Unsupported compact file map version " + version);
+    }
+    this.size = data.getInt(2 * Ints.BYTES);
+    final int docIDDataLength = data.getInt(3 * Ints.BYTES);
+    final int numPaths = data.getInt(4 * Ints.BYTES);
+    final int pathDataLength = data.getInt(5 * Ints.BYTES);
+    this.maxPathLength = data.getInt(6 * Ints.BYTES);
+    if (size < 0 || docIDDataLength < 0 || numPaths < 0 || pathDataLength < 0
+        || maxPathLength < 0
+        || length(size, docIDDataLength, numPaths, pathDataLength) != data.limit()) {
+      throw new IOException("Compact file map is truncated or corrupt");
+    }
+    final int docIDOffsetsStart = HEADER_BYTES;
+    this.pathIdsStart = docIDOffsetsStart + (int) SortedKeyIndex.keyOffsetsLength(size);
+    this.pathRestartsStart = pathIdsStart + size * Ints.BYTES;
+    final int docIDDataStart = pathRestartsStart + numRestarts(numPaths) * Ints.BYTES;
+    this.pathDataStart = docIDDataStart + docIDDataLength;
+    this.docIDs = new SortedKeyIndex(data, size, docIDOffsetsStart, docIDDataStart);
+  }
+
+  /**
+   * Parses a map with a document ID, a tab, and a path on each line, as for {@link
+   * FileUtils#loadSymbolToFileMap(File)}. Whitespace around the ID and path is trimmed, and blank
+   * lines and lines beginning with "#" are ignored.
+   *
+   * @throws IllegalArgumentException if a document ID appears more than once
+   */
+  @Nonnull
+  public static CompactFileMap parse(final ByteSource source) throws IOException {
+    return new Parser().parse(source);
+  }
+
+  /**
+   * Parses a map file. See {@link #parse(ByteSource)}.
+   */
+  @Nonnull
+  public static CompactFileMap parse(final File mapFile) throws IOException {
+    return parse(Files.asByteSource(mapFile));
+  }
+
+  /**
+   * Memory-maps a map previously saved by {@link #writeTo(File)}. This is nearly instantaneous
+   * regardless of the size of the map.
+   */
+  @Nonnull
+  public static CompactFileMap read(final File binaryFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(binaryFile, "r")) {
+      final FileChannel channel = file.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Compact file map " + binaryFile + " is larger than 2GB");
+      }
+      // the mapping remains valid after the channel is closed
+      return new CompactFileMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Loads the map in {@code mapFile}, using {@code binaryFile} as a cache: if {@code binaryFile}
+   * is newer than {@code mapFile} it is read, and otherwise {@code mapFile} is parsed and saved to
+   * {@code binaryFile}.
+   */
+  @Nonnull
+  public static CompactFileMap loadCaching(final File mapFile, final File binaryFile)
+      throws IOException {
+    if (binaryFile.isFile() && binaryFile.lastModified() >= mapFile.lastModified()) {
+      return read(binaryFile);
+    }
+    final CompactFileMap ret = parse(mapFile);
+    ret.writeTo(binaryFile);
+    return ret;
+  }
+
+  /**
+   * Saves this map in the binary form read by {@link #read(File)}.
+   */
+  public void writeTo(final File binaryFile) throws IOException {
+    final File tmpFile = new File(binaryFile.getPath() + ".tmp");
+    try (RandomAccessFile file = new RandomAccessFile(tmpFile, "rw")) {
+      file.setLength(0);
+      final FileChannel channel = file.getChannel();
+      final ByteBuffer view = data.duplicate();
+      view.clear();
+      while (view.hasRemaining()) {
+        channel.write(view);
+      }
+    }
+    // so a concurrent loadCaching never sees a partially written file
+    Files.move(tmpFile, binaryFile);
+  }
+
+  /**
+   * The file for {@code docID}, if any. Beware that there is no guarantee it exists.
+   */
+  @Nonnull
+  public Optional<File> fileForDocID(final Symbol docID) {
+    final int idx = docIDs.indexOf(docID);
+    return idx < 0 ? Optional.<File>absent() : Optional.of(file(idx));
+  }
+
+  @Override
+  public File get(final Object key) {
+    if (!(key instanceof Symbol)) {
+      return null;
+    }
+    return fileForDocID((Symbol) key).orNull();
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return key instanceof Symbol && docIDs.indexOf((Symbol) key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The number of distinct paths in the map.
+   */
+  public int numPaths() {
+    return data.getInt(4 * Ints.BYTES);
+  }
+
+  @Nonnull
+  @Override
+  public Set<Map.Entry<Symbol, File>> entrySet() {
+    Set<Map.Entry<Symbol, File>> ret = entrySet;
+    if (ret == null) {
+      ret = new AbstractSet<Map.Entry<Symbol, File>>() {
+        @Override
+        public Iterator<Map.Entry<Symbol, File>> iterator() {
+          return new AbstractIterator<Map.Entry<Symbol, File>>() {
+            private int next = 0;
+
+            @Override
+            protected Map.Entry<Symbol, File> computeNext() {
+              if (next < size) {
+                final int idx = next++;
+                return Maps.immutableEntry(docIDs.key(idx), file(idx));
+              }
+              return endOfData();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+      entrySet = ret;
+    }
+    return ret;
+  }
+
+  private File file(final int idx) {
+    return new File(path(data.getInt(pathIdsStart + idx * Ints.BYTES)));
+  }
+
+  // decodes the pathId-th path by reading forward from the closest preceding restart point
+  private String path(final int pathId) {
+    final byte[] path = new byte[maxPathLength];
+    int pos = pathDataStart + data.getInt(pathRestartsStart
+        + (pathId / RESTART_INTERVAL) * Ints.BYTES);
+    int length = 0;
+    for (int i = pathId - pathId % RESTART_INTERVAL; i <= pathId; ++i) {
+      int shared = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data.get(pos++);
+        shared |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      int rest = 0;
+      shift = 0;
+      do {
+        b = data.get(pos++);
+        rest |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      for (int j = 0; j < rest; ++j) {
+        path[shared + j] = data.get(pos++);
+      }
+      length = shared + rest;
+    }
+    return new String(path, 0, length, Charsets.UTF_8);
+  }
+
+  private static int numRestarts(final int numPaths) {
+    return (numPaths + RESTART_INTERVAL - 1) / RESTART_INTERVAL;
+  }
+
+  private static long length(final int numDocs, final long docIDDataLength, final int numPaths,
+      final long pathDataLength) {
+    return HEADER_BYTES + SortedKeyIndex.keyOffsetsLength(numDocs) + (long) numDocs * Ints.BYTES
+        + (long) numRestarts(numPaths) * Ints.BYTES + docIDDataLength + pathDataLength;
+  }
+
+  /**
+   * Parses the text format directly from bytes into growable arrays, then sorts and encodes them.
+   */
+  private static final class Parser {
+
+    private static final int TAB = '\t';
+    private static final int COMMENT = '#';
+
+    // the trimmed document IDs and paths of each line, concatenated
+    private final ByteArray docIDBytes = new ByteArray();
+    private final ByteArray pathBytes = new ByteArray();
+    private int[] docIDOffsets = new int[1024];
+    private int[] pathOffsets = new int[1024];
+    private int numLines = 0;
+    private int lineNo = 0;
+
+    CompactFileMap parse(final ByteSource source) throws IOException {
+      docIDOffsets[0] = 0;
+      pathOffsets[0] = 0;
+      final ByteArray line = new ByteArray();
+      final byte[] buffer = new byte[1 << 16];
+      boolean afterCarriageReturn = false;
+      try (InputStream in = source.openStream()) {
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+          for (int i = 0; i < read; ++i) {
+            final byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+              // treat \r\n as a single line break
+              if (!(b == '\n' && afterCarriageReturn)) {
+                processLine(line);
+              }
+              line.clear();
+              afterCarriageReturn = b == '\r';
+            } else {
+              line.add(b);
+              afterCarriageReturn = false;
+            }
+          }
+        }
+      }
+      if (line.length() > 0) {
+        processLine(line);
+      }
+      return encode();
+    }
+
+    private void processLine(final ByteArray line) {
+      ++lineNo;
+      final byte[] bytes = line.bytes();
+      final int length = line.length();
+      if (length == 0 || bytes[0] == COMMENT) {
+        return;
+      }
+      int tab = -1;
+      for (int i = 0; i < length; ++i) {
+        if (bytes[i] == TAB) {
+          if (tab >= 0) {
+            throw corrupt(line);
+          }
+          tab = i;
+        }
+      }
+      if (tab < 0) {
+        throw corrupt(line);
+      }
+      if (numLines + 1 == docIDOffsets.length) {
+        docIDOffsets = Arrays.copyOf(docIDOffsets, 2 * docIDOffsets.length);
+        pathOffsets = Arrays.copyOf(pathOffsets, 2 * pathOffsets.length);
+      }
+      addTrimmed(docIDBytes, bytes, 0, tab);
+      addTrimmed(pathBytes, bytes, tab + 1, length);
+      ++numLines;
+      docIDOffsets[numLines] = docIDBytes.length();
+      pathOffsets[numLines] = pathBytes.length();
+    }
+
+    private RuntimeException corrupt(final ByteArray line) {
+      return new RuntimeException(String.format("Corrupt line #%d: %s", lineNo,
+          new String(line.bytes(), 0, line.length(), Charsets.UTF_8)));
+    }
+
+    private static void addTrimmed(final ByteArray dest, final byte[] bytes, int start, int end) {
+      // trims ASCII whitespace; multi-byte UTF-8 characters never contain bytes in this range
+      while (start < end && (bytes[start] & 0xFF) <= ' ') {
+        ++start;
+      }
+      while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+        --end;
+      }
+      dest.add(bytes, start, end - start);
+    }
+
+    private CompactFileMap encode() throws IOException {
+      final int[] docOrder = sortedOrder(docIDBytes.bytes(), docIDOffsets, numLines);
+      for (int i = 1; i < numLines; ++i) {
+        if (compare(docIDBytes.bytes(), docIDOffsets, docOrder[i - 1], docOrder[i]) == 0) {
+          throw new IllegalArgumentException("Duplicate document ID "
+              + new String(docIDBytes.bytes(), docIDOffsets[docOrder[i]],
+              docIDOffsets[docOrder[i] + 1] - docIDOffsets[docOrder[i]], Charsets.UTF_8));
+        }
+      }
+
+      // assign each line the position of its path among the distinct sorted paths
+      final int[] pathOrder = sortedOrder(pathBytes.bytes(), pathOffsets, numLines);
+      final int[] pathIdOfLine = new int[numLines];
+      final ByteArray pathData = new ByteArray();
+      final ByteArray restarts = new ByteArray();
+      int numPaths = 0;
+      int maxPathLength = 0;
+      int previous = -1;
+      for (final int lineIdx : pathOrder) {
+        if (previous >= 0 && compare(pathBytes.bytes(), pathOffsets, previous, lineIdx) == 0) {
+          pathIdOfLine[lineIdx] = numPaths - 1;
+          continue;
+        }
+        final int start = pathOffsets[lineIdx];
+        final int length = pathOffsets[lineIdx + 1] - start;
+        int shared = 0;
+        if (numPaths % RESTART_INTERVAL == 0) {
+          restarts.addInt(pathData.length());
+        } else {
+          shared = commonPrefixLength(pathBytes.bytes(), pathOffsets, previous, lineIdx);
+        }
+        pathData.addVarInt(shared);
+        pathData.addVarInt(length - shared);
+        pathData.add(pathBytes.bytes(), start + shared, length - shared);
+        maxPathLength = Math.max(maxPathLength, length);
+        pathIdOfLine[lineIdx] = numPaths++;
+        previous = lineIdx;
+      }
+
+      final long length = length(numLines, docIDBytes.length(), numPaths, pathData.length());
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Compact file map would be " + length + " bytes but at most 2GB "
+            + "is supported");
+      }
+      final ByteBuffer ret = ByteBuffer.allocate((int) length);
+      ret.putInt(MAGIC);
+      ret.putInt(VERSION);
+      ret.putInt(numLines);
+      ret.putInt(docIDBytes.length());
+      ret.putInt(numPaths);
+      ret.putInt(pathData.length());
+      ret.putInt(maxPathLength);
+      int docIDOffset = 0;
+      for (final int lineIdx : docOrder) {
+        ret.putInt(docIDOffset);
+        docIDOffset += docIDOffsets[lineIdx + 1] - docIDOffsets[lineIdx];
+      }
+      ret.putInt(docIDOffset);
+      for (final int lineIdx : docOrder) {
+        ret.putInt(pathIdOfLine[lineIdx]);
+      }
+      ret.put(restarts.bytes(), 0, restarts.length());
+      for (final int lineIdx : docOrder) {
+        ret.put(docIDBytes.bytes(), docIDOffsets[lineIdx],
+            docIDOffsets[lineIdx + 1] - docIDOffsets[lineIdx]);
+      }
+      ret.put(pathData.bytes(), 0, pathData.length());
+      ret.flip();
+      return new CompactFileMap(ret);
+    }
+
+    // the indices of the n byte strings delimited by offsets, sorted by their bytes. This must be
+    // fast and frugal for tens of millions of strings which typically share a long prefix (e.g. a
+    // corpus directory), so we sort primitive indices by the eight bytes after the prefix shared by
+    // all strings, only comparing the strings themselves on ties.  Input which is already sorted,
+    // as maps often are, is not sorted again.
+    private static int[] sortedOrder(final byte[] bytes, final int[] offsets, final int n) {
+      boolean sorted = true;
+      for (int i = 1; sorted && i < n; ++i) {
+        sorted = compare(bytes, offsets, i - 1, i) <= 0;
+      }
+      if (sorted) {
+        final int[] order = new int[n];
+        for (int i = 0; i < n; ++i) {
+          order[i] = i;
+        }
+        return order;
+      }
+
+      int sharedPrefix = offsets[1] - offsets[0];
+      for (int i = 1; i < n; ++i) {
+        sharedPrefix = Math.min(sharedPrefix, commonPrefixLength(bytes, offsets, 0, i));
+      }
+      final long[] keys = new long[n];
+      for (int i = 0; i < n; ++i) {
+        // flipping the sign bit makes signed comparison of the keys compare the bytes as unsigned
+        keys[i] = sortKey(bytes, offsets[i] + sharedPrefix, offsets[i + 1]) ^ Long.MIN_VALUE;
+      }
+      return IndexSort.sortedIndices(keys, new IndexSort.TieBreaker() {
+        @Override
+        public int compare(final int left, final int right) {
+          return Parser.compare(bytes, offsets, left, right);
+        }
+      });
+    }
+
+    // the big-endian value of up to eight bytes from start, padded with zeros
+    private static long sortKey(final byte[] bytes, final int start, final int end) {
+      long ret = 0;
+      for (int i = 0; i < 8; ++i) {
+        ret = (ret << 8) | (start + i < end ? bytes[start + i] & 0xFF : 0);
+      }
+      return ret;
+    }
+
+    private static int commonPrefixLength(final byte[] bytes, final int[] offsets, final int left,
+        final int right) {
+      final int leftStart = offsets[left];
+      final int rightStart = offsets[right];
+      final int maxLength =
+          Math.min(offsets[left + 1] - leftStart, offsets[right + 1] - rightStart);
+      int ret = 0;
+      while (ret < maxLength && bytes[leftStart + ret] == bytes[rightStart + ret]) {
+        ++ret;
+      }
+      return ret;
+    }
+
+    private static int compare(final byte[] bytes, final int[] offsets, final int left,
+        final int right) {
+      final int leftStart = offsets[left];
+      final int leftLength = offsets[left + 1] - leftStart;
+      final int rightStart = offsets[right];
+      final int rightLength = offsets[right + 1] - rightStart;
+      final int commonLength = Math.min(leftLength, rightLength);
+      for (int i = 0; i < commonLength; ++i) {
+        final int cmp = UnsignedBytes.compare(bytes[leftStart + i], bytes[rightStart + i]);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return leftLength - rightLength;
+    }
+  }
+
+  /**
+   * A growable array of bytes.
+   */
+  private static final class ByteArray {
+
+    private byte[] bytes = new byte[1024];
+    private int length = 0;
+
+    byte[] bytes() {
+      return bytes;
+    }
+
+    int length() {
+      return length;
+    }
+
+    void clear() {
+      length = 0;
+    }
+
+    void add(final byte b) {
+      ensureCapacity(1);
+      bytes[length++] = b;
+    }
+
+    void add(final byte[] source, final int start, final int count) {
+      ensureCapacity(count);
+      System.arraycopy(source, start, bytes, length, count);
+      length += count;
+    }
+
+    void addInt(final int value) {
+      ensureCapacity(Ints.BYTES);
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        bytes[length++] = (byte) (value >>> shift);
+      }
+    }
+
+    void addVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        add((byte) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      add((byte) value);
+    }
+
+    private void ensureCapacity(final int extra) {
+      final long needed = (long) length + extra;
+      if (needed > bytes.length) {
+        if (needed > Integer.MAX_VALUE - 8) {
+          throw new IllegalStateException("Compact file maps are limited to 2GB");
+        }
+        bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8,
+            Math.max(needed, 2L * bytes.length)));
+      }
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.bbn.bue.common.files;
 import com.bbn.bue.common.parameters.Parameters;
 import com.bbn.bue.common.symbols.Symbol;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
@@ -15,7 +16,27 @@ import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Converts a a key-to-file map to a PalDB-backed database.
+ * Converts a a key-to-file map to a PalDB-backed database, or to any other {@link
+ * KeyValueStoreFormat}, optionally sharded.
+ *
+ * Files are read by a pool of threads ahead of the single writer (see {@link KeyValueCopier}), so
+ * conversion time is roughly that of the slower of reading and writing rather than their sum.
+ *
+ * Parameters:
+ * <ul>
+ * <li>{@code inputMap}: the key-to-file map to convert</li>
+ * <li>{@code outputFile}: the store to write, or its manifest if sharded</li>
+ * <li>{@code outputFormat} (optional): a {@link KeyValueStoreFormat}, {@code PALDB} by default</li>
+ * <li>{@code useCompression} (optional): whether PalDB should compress values, {@code true} by
+ * default. Only used when writing an unsharded PalDB store.</li>
+ * <li>{@code numShards} (optional): if present, write a sharded store with this many shards (see
+ * {@link KeyValueSinks#forShardedStore(File, KeyValueStoreFormat, int)})</li>
+ * <li>{@code readerThreads} (optional): the number of threads reading files, by default the number
+ * of processors</li>
+ * <li>{@code readAhead} (optional): the maximum number of files read but not yet written</li>
+ * <li>{@code progressInterval} (optional): how many files are written between progress
+ * messages</li>
+ * </ul>
  *
  * @author Constantine Lignos
  */
@@ -41,45 +62,55 @@ public final class ConvertFileMapToEmbeddedDB {
     final Parameters params = Parameters.loadSerifStyle(new File(args[0]));
     final File inputMap = params.getExistingFile("inputMap");
     final File outputFile = params.getCreatableFile("outputFile");
+    final KeyValueStoreFormat format =
+        params.getOptionalEnum("outputFormat", KeyValueStoreFormat.class)
+            .or(KeyValueStoreFormat.PALDB);
     final boolean useCompression = params.getOptionalBoolean("useCompression").or(true);
+    final Optional<Integer> numShards = params.getOptionalPositiveInteger("numShards");
 
-    // Set up timing
-    long readTime = 0;
-    long writeTime = 0;
+    final KeyValueCopier.Builder copier = KeyValueCopier.builder();
+    final Optional<Integer> readerThreads = params.getOptionalPositiveInteger("readerThreads");
+    if (readerThreads.isPresent()) {
+      copier.readerThreads(readerThreads.get());
+    }
+    final Optional<Integer> readAhead = params.getOptionalPositiveInteger("readAhead");
+    if (readAhead.isPresent()) {
+      copier.readAhead(readAhead.get());
+    }
+    final Optional<Integer> progressInterval =
+        params.getOptionalPositiveInteger("progressInterval");
+    if (progressInterval.isPresent()) {
+      copier.progressInterval(progressInterval.get());
+    }
 
     log.info("Loading files from {}", inputMap);
-    final Stopwatch stopwatch = Stopwatch.createStarted();
     final ImmutableMap<Symbol, File> fileMap = FileUtils.loadSymbolToFileMap(inputMap);
     final ImmutableKeyValueSource<Symbol, ByteSource> source =
         KeyValueSources.fromFileMap(fileMap);
-    readTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
     // To allow us to time the open/close operations, we don't use try-with-resources
-    stopwatch.reset().start();
-    final KeyValueSink<Symbol, byte[]> sink =
-        KeyValueSinks.forPalDB(outputFile, useCompression);
-    writeTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
-
-    // Process files
-    for (final Symbol key : source.keys()) {
-      // Read
-      stopwatch.reset().start();
-      byte[] value = source.getRequired(key).read();
-      readTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
-
-      // Write
-      stopwatch.reset().start();
-      sink.put(key, value);
-      writeTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    final KeyValueSink<Symbol, byte[]> sink;
+    if (numShards.isPresent()) {
+      sink = KeyValueSinks.forShardedStore(outputFile, format, numShards.get());
+    } else if (format == KeyValueStoreFormat.PALDB) {
+      sink = KeyValueSinks.forPalDB(outputFile, useCompression);
+    } else {
+      sink = format.openSink(outputFile);
     }
+    final long openTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    final KeyValueCopier.Stats stats = copier.build().copy(source, sink);
 
     // Time closing
     stopwatch.reset().start();
     sink.close();
-    writeTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    final long closeTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
-    log.info("Wrote {} documents to {}", fileMap.size(), outputFile);
-    log.info("Read time: {}", readTime);
-    log.info("Write time: {}", writeTime);
+    log.info("Wrote {} documents to {}", stats.entries(), outputFile);
+    log.info("Read time (all threads): {}", stats.readMillis());
+    log.info("Time waiting for reads: {}", stats.waitMillis());
+    log.info("Write time: {}", openTime + stats.writeMillis() + closeTime);
+    log.info("Total time: {}", openTime + stats.elapsedMillis() + closeTime);
   }
 }
@@ -0,0 +1,230 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.parameters.Parameters;
+import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.bue.common.symbols.SymbolUtils;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Predicted processing costs of the documents in a corpus, for dividing the corpus into batches
+ * of roughly equal work (see {@link
+ * com.bbn.bue.common.collections.CollectionUtils#partitionByWeight(List, Function, int)}). A
+ * document's cost is either its size in bytes or is read from a cost file in which each line is a
+ * document ID (or, for corpora given as file lists, a path), a tab, and a non-negative integer
+ * cost, such as the number of milliseconds the document took to process in a previous run.
+ *
+ * This is used by {@link SplitCorpus} and {@link com.bbn.bue.common.PartitionData}, which read the
+ * following parameters under their own namespaces:
+ * <ul>
+ * <li>{@code balanceBy}: one of {@code COUNT} (the default, giving each document equal cost),
+ * {@code SIZE} or {@code COST_FILE}.</li>
+ * <li>{@code costFile}: the cost file. Required if and only if {@code balanceBy} is {@code
+ * COST_FILE}.</li>
+ * <li>{@code statThreads}: the number of threads used to get file sizes. Optional, defaulting to
+ * 16. Getting the sizes of many files on a network filesystem is dominated by latency, so this
+ * may usefully exceed the number of processors.</li>
+ * </ul>
+ */
+@Beta
+public final class DocumentCosts {
+
+  private static final Logger log = LoggerFactory.getLogger(DocumentCosts.class);
+
+  public static final String BALANCE_BY_PARAM = "balanceBy";
+  public static final String COST_FILE_PARAM = "costFile";
+  public static final String STAT_THREADS_PARAM = "statThreads";
+  private static final int DEFAULT_STAT_THREADS = 16;
+
+  public enum BalanceBy {
+    /**
+     * Every document has the same cost.
+     */
+    COUNT,
+    /**
+     * A document's cost is the size of its file in bytes.
+     */
+    SIZE,
+    /**
+     * Document costs are read from a cost file.
+     */
+    COST_FILE
+  }
+
+  private DocumentCosts() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Gets the costs of {@code documents} as specified by the parameters described in the class
+   * documentation, each prefixed by {@code paramPrefix}. If documents are to be balanced by count,
+   * returns absent.
+   */
+  public static Optional<ImmutableMap<Symbol, Long>> fromParameters(final Parameters params,
+      final String paramPrefix, final Map<Symbol, File> documents) throws IOException {
+    final String costFileParam = paramPrefix + COST_FILE_PARAM;
+    final BalanceBy balanceBy = params.getOptionalEnum(paramPrefix + BALANCE_BY_PARAM,
+        BalanceBy.class).or(BalanceBy.COUNT);
+    checkArgument(params.isPresent(costFileParam) == (balanceBy == BalanceBy.COST_FILE),
+        "%s must be specified if and only if balancing by %s", costFileParam, BalanceBy.COST_FILE);
+    switch (balanceBy) {
+      case COUNT:
+        return Optional.absent();
+      case SIZE:
+        final int threads = params.getOptionalPositiveInteger(paramPrefix + STAT_THREADS_PARAM)
+            .or(DEFAULT_STAT_THREADS);
+        return Optional.of(fileSizes(documents, threads));
+      case COST_FILE:
+        return Optional.of(fromCostFile(documents, params.getExistingFile(costFileParam)));
+      default:
+        throw new IllegalArgumentException("Unknown balancing mode " + balanceBy);
+    }
+  }
+
+  /**
+   * Gets the size in bytes of each file in {@code documents}, using {@code threads} threads.
+   *
+   * @throws IOException if any file does not exist or cannot be accessed
+   */
+  public static ImmutableMap<Symbol, Long> fileSizes(final Map<Symbol, File> documents,
+      final int threads) throws IOException {
+    checkArgument(threads > 0, "Must have at least one thread");
+    final List<Map.Entry<Symbol, File>> entries = ImmutableList.copyOf(documents.entrySet());
+    final long[] sizes = new long[entries.size()];
+    // each thread stats a contiguous slice, so no per-file task is needed
+    final int sliceSize = Math.max(1, (entries.size() + threads - 1) / threads);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("file-size-%d").setDaemon(true).build());
+    try {
+      final List<Future<Void>> slices = new ArrayList<>();
+      for (int start = 0; start < entries.size(); start += sliceSize) {
+        final int sliceStart = start;
+        final int sliceEnd = Math.min(entries.size(), start + sliceSize);
+        slices.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int i = sliceStart; i < sliceEnd; ++i) {
+              sizes[i] = Files.size(entries.get(i).getValue().toPath());
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> slice : slices) {
+        try {
+          slice.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while getting file sizes");
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          throw new IOException("Getting file sizes failed", e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    final ImmutableMap.Builder<Symbol, Long> ret = ImmutableMap.builder();
+    for (int i = 0; i < sizes.length; ++i) {
+      ret.put(entries.get(i).getKey(), sizes[i]);
+    }
+    return ret.build();
+  }
+
+  /**
+   * Gets the cost of each of {@code documents} from {@code costFile}, which is looked up by
+   * document ID or, failing that, by the path of the document's file.
+   *
+   * @throws IllegalArgumentException if any document has no cost or a negative cost
+   */
+  public static ImmutableMap<Symbol, Long> fromCostFile(final Map<Symbol, File> documents,
+      final File costFile) throws IOException {
+    final ImmutableMap<Symbol, Long> costs = FileUtils.loadMap(costFile,
+        SymbolUtils.symbolizeFunction(), ParseLongFunction.INSTANCE);
+    final ImmutableMap.Builder<Symbol, Long> ret = ImmutableMap.builder();
+    for (final Map.Entry<Symbol, File> document : documents.entrySet()) {
+      Long cost = costs.get(document.getKey());
+      if (cost == null) {
+        cost = costs.get(Symbol.from(document.getValue().getPath()));
+      }
+      checkArgument(cost != null, "No cost for document %s in %s", document.getKey(), costFile);
+      checkArgument(cost >= 0, "Negative cost for document %s in %s", document.getKey(),
+          costFile);
+      ret.put(document.getKey(), cost);
+    }
+    return ret.build();
+  }
+
+  /**
+   * Logs the number of documents and predicted load of each chunk, and how unbalanced the chunks
+   * are. Documents without a cost in {@code costs} are counted as having zero cost.
+   *
+   * @return the predicted load of each chunk
+   */
+  public static ImmutableList<Long> logPredictedLoads(
+      final Iterable<? extends Iterable<Symbol>> chunks, final Map<Symbol, Long> costs) {
+    checkNotNull(costs);
+    final ImmutableList.Builder<Long> loadsB = ImmutableList.builder();
+    int chunkIdx = 0;
+    for (final Iterable<Symbol> chunk : chunks) {
+      long load = 0;
+      int numDocs = 0;
+      for (final Symbol doc : chunk) {
+        final Long cost = costs.get(doc);
+        load += cost != null ? cost : 0;
+        ++numDocs;
+      }
+      log.info("Chunk {}: {} documents, predicted load {}", chunkIdx, numDocs, load);
+      loadsB.add(load);
+      ++chunkIdx;
+    }
+    final ImmutableList<Long> loads = loadsB.build();
+    if (!loads.isEmpty()) {
+      long total = 0;
+      long max = 0;
+      for (final long load : loads) {
+        total += load;
+        max = Math.max(max, load);
+      }
+      final double mean = (double) total / loads.size();
+      log.info("Total predicted load {}; heaviest chunk {} is {} times the mean", total, max,
+          mean > 0 ? String.format("%.3f", max / mean) : "n/a");
+    }
+    return loads;
+  }
+
+  private enum ParseLongFunction implements Function<String, Long> {
+    INSTANCE;
+
+    @Override
+    public Long apply(final String input) {
+      return Long.parseLong(input);
+    }
+  }
+}
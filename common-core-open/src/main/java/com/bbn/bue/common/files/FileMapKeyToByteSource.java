@@ -4,11 +4,16 @@ import com.bbn.bue.common.symbols.Symbol;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
 import com.google.common.io.ByteSource;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -47,6 +52,24 @@ final class FileMapKeyToByteSource extends AbstractImmutableKeyValueSource<Symbo
     }
   }
 
+  @Nonnull
+  @Override
+  protected List<Symbol> retrievalOrder(final List<Symbol> keys) {
+    // files in the same directory tend to be stored near each other
+    final List<Symbol> ret = new ArrayList<>(keys);
+    Collections.sort(ret, new Comparator<Symbol>() {
+      @Override
+      public int compare(final Symbol left, final Symbol right) {
+        final File leftFile = fileMap.get(left);
+        final File rightFile = fileMap.get(right);
+        return Ordering.natural().nullsFirst().compare(
+            leftFile != null ? leftFile.getPath() : null,
+            rightFile != null ? rightFile.getPath() : null);
+      }
+    });
+    return ret;
+  }
+
   @Override
   public void close() {
     // No resources to close
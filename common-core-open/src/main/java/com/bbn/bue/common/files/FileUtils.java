@@ -220,7 +220,11 @@ public final class FileUtils {
   }
 
 
-
+  /**
+   * Reads a map from document IDs to files, where each line is an ID, a tab character ("\t"), and
+   * a path. Blank lines and lines beginning with "#" are ignored. For maps of many millions of
+   * documents, {@link CompactFileMap} loads much faster and uses far less memory.
+   */
   public static ImmutableMap<Symbol, File> loadSymbolToFileMap(
       final File f) throws IOException {
     return loadSymbolToFileMap(Files.asCharSource(f, Charsets.UTF_8));
@@ -392,6 +396,11 @@ public final class FileUtils {
     fixupFile.close();
   }
 
+  /**
+   * Reads an array written by {@link #writeBinaryIntArray(int[], ByteSink)} onto the heap. For
+   * large arrays, consider {@link com.bbn.bue.common.primitives.MappedIntArray}, which is opened
+   * without copying anything.
+   */
   public static int[] loadBinaryIntArray(final ByteSource inSup,
       final boolean compressed) throws IOException {
     InputStream in = inSup.openStream();
@@ -0,0 +1,92 @@
+package com.bbn.bue.common.files;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sorts the indices of items by primitive {@code long} sort keys. This must be fast and frugal for
+ * tens of millions of items, so rather than sorting boxed {@link Integer} indices with a {@link
+ * java.util.Comparator}, we merge sort a primitive array of indices alongside their keys. Input
+ * which is already sorted, as it often is, is not sorted again.
+ */
+final class IndexSort {
+
+  private IndexSort() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Compares two items by their indices, for ordering items with equal sort keys.
+   */
+  interface TieBreaker {
+
+    int compare(int left, int right);
+  }
+
+  /**
+   * The indices of {@code keys}, sorted stably by the key at each index.
+   *
+   * @param keys the sort keys, which are overwritten
+   */
+  static int[] sortedIndices(final long[] keys) {
+    return sortedIndices(keys, null);
+  }
+
+  /**
+   * The indices of {@code keys}, sorted by the key at each index, then by {@code tieBreaker} if
+   * given, and then by index.
+   *
+   * @param keys the sort keys, which are overwritten
+   */
+  static int[] sortedIndices(long[] keys, @Nullable final TieBreaker tieBreaker) {
+    final int n = keys.length;
+    int[] order = new int[n];
+    for (int i = 0; i < n; ++i) {
+      order[i] = i;
+    }
+    boolean sorted = true;
+    for (int i = 1; sorted && i < n; ++i) {
+      sorted = keys[i - 1] < keys[i]
+          || (keys[i - 1] == keys[i] && (tieBreaker == null || tieBreaker.compare(i - 1, i) <= 0));
+    }
+    if (sorted) {
+      return order;
+    }
+
+    int[] scratch = new int[n];
+    long[] scratchKeys = new long[n];
+    for (int width = 1; width < n; width *= 2) {
+      for (int low = 0; low < n; low += 2 * width) {
+        final int mid = Math.min(low + width, n);
+        final int high = Math.min(low + 2 * width, n);
+        int left = low;
+        int right = mid;
+        for (int out = low; out < high; ++out) {
+          final boolean takeLeft;
+          if (left >= mid) {
+            takeLeft = false;
+          } else if (right >= high) {
+            takeLeft = true;
+          } else {
+            // taking the left on ties keeps the sort stable
+            takeLeft = keys[left] < keys[right] || (keys[left] == keys[right]
+                && (tieBreaker == null || tieBreaker.compare(order[left], order[right]) <= 0));
+          }
+          if (takeLeft) {
+            scratchKeys[out] = keys[left];
+            scratch[out] = order[left++];
+          } else {
+            scratchKeys[out] = keys[right];
+            scratch[out] = order[right++];
+          }
+        }
+      }
+      final int[] tmp = order;
+      order = scratch;
+      scratch = tmp;
+      final long[] tmpKeys = keys;
+      keys = scratchKeys;
+      scratchKeys = tmpKeys;
+    }
+    return order;
+  }
+}
@@ -0,0 +1,426 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link ImmutableKeyValueSource} over a zip file which uses a sidecar index, written once by
+ * {@link #writeIndex(File, File, Function)}, instead of enumerating the zip's central directory
+ * each time it is opened. The index is memory-mapped and keys are found by binary search, as in
+ * {@link MappedFileKeyValueSource}, so opening a source is nearly instantaneous however many
+ * entries the zip has.
+ *
+ * The index records where each entry's data is in the zip, so values are read with positional
+ * {@link FileChannel} reads and inflated with pooled {@link Inflater}s, rather than
+ * through a shared {@link java.util.zip.ZipFile}. Many threads may therefore read from the same
+ * source in parallel.  As for any {@link FileChannel}, interrupting a thread while it is reading
+ * closes the channel, after which the source can no longer be used.
+ *
+ * The index file format is (all integers big-endian):
+ * <ul>
+ * <li>a header: a magic number, a format version, the number of entries {@code n}, the length of
+ * the key data in bytes, and (as a long) the length of the zip file.</li>
+ * <li>{@code n+1} ints giving the start offset of each key's UTF-8 bytes in the key data, in
+ * sorted order. The last entry is the length of the key data.</li>
+ * <li>{@code n} longs giving the offset of each key's (possibly compressed) data in the zip
+ * file</li>
+ * <li>{@code n} ints giving the compressed length of each key's value</li>
+ * <li>{@code n} ints giving the uncompressed length of each key's value</li>
+ * <li>{@code n} ints giving the CRC-32 of each key's value</li>
+ * <li>{@code n} ints giving the zip compression method of each key's value</li>
+ * <li>the key data: the concatenated UTF-8 bytes of the keys, sorted by those bytes.</li>
+ * </ul>
+ */
+final class IndexedZipKeyValueSource extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
+
+  static final int MAGIC = 0x424b565a; // "BKVZ"
+  static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * Ints.BYTES + Longs.BYTES;
+
+  private final ByteBuffer index;
+  private final RandomAccessFile zipFile;
+  private final FileChannel zip;
+  private final SortedKeyIndex keys;
+  private final int dataOffsetsStart;
+  private final int compressedLengthsStart;
+  private final int lengthsStart;
+  private final int crcsStart;
+  private final int methodsStart;
+  // so a pass over the entries reads the zip sequentially
+  private final StorageOrder<ByteSource> storageOrder;
+  // inflaters are reused between reads, since each holds native zlib memory which is otherwise
+  // only freed on finalization. At most one per concurrent reader is kept, and all are ended on
+  // close.
+  private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed = false;
+
+  private IndexedZipKeyValueSource(final ByteBuffer index, final RandomAccessFile zipFile)
+      throws IOException {
+    this.index = checkNotNull(index);
+    this.zipFile = checkNotNull(zipFile);
+    this.zip = zipFile.getChannel();
+    if (index.limit() < HEADER_BYTES || index.getInt(0) != MAGIC) {
+      throw new IOException("Not a zip key-value index file");
+    }
+    final int version = index.getInt(Ints.BYTES);
+    if (version != VERSION) {
+      throw new IOException("Unsupported zip key-value index version " + version);
+    }
+    final int size = index.getInt(2 * Ints.BYTES);
+    final int keyDataLength = index.getInt(3 * Ints.BYTES);
+    final long expectedZipLength = index.getLong(4 * Ints.BYTES);
+    if (size < 0 || keyDataLength < 0 || indexLength(size, keyDataLength) != index.limit()) {
+      throw new IOException("Zip key-value index file is truncated or corrupt");
+    }
+    if (expectedZipLength != zip.size()) {
+      throw new IOException("Zip file has length " + zip.size() + " but index expects "
+          + expectedZipLength + "; it may have been modified since it was indexed");
+    }
+    final int keyOffsetsStart = HEADER_BYTES;
+    this.dataOffsetsStart = keyOffsetsStart + (int) SortedKeyIndex.keyOffsetsLength(size);
+    this.compressedLengthsStart = dataOffsetsStart + size * Longs.BYTES;
+    this.lengthsStart = compressedLengthsStart + size * Ints.BYTES;
+    this.crcsStart = lengthsStart + size * Ints.BYTES;
+    this.methodsStart = crcsStart + size * Ints.BYTES;
+    final int keyDataStart = methodsStart + size * Ints.BYTES;
+    this.keys = new SortedKeyIndex(index, size, keyOffsetsStart, keyDataStart);
+    this.storageOrder = new StorageOrder<ByteSource>(keys) {
+      @Override
+      long position(final int idx) {
+        return dataOffset(idx);
+      }
+
+      @Override
+      ByteSource value(final int idx) {
+        return new EntryByteSource(idx);
+      }
+    };
+  }
+
+  @Nonnull
+  static IndexedZipKeyValueSource open(final File zipFile, final File indexFile)
+      throws IOException {
+    final Closer closer = Closer.create();
+    final RandomAccessFile zip = closer.register(new RandomAccessFile(zipFile, "r"));
+    try {
+      final ByteBuffer index;
+      try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r")) {
+        final FileChannel indexChannel = indexRaf.getChannel();
+        if (indexChannel.size() > Integer.MAX_VALUE) {
+          throw new IOException("Index file " + indexFile + " is larger than 2GB");
+        }
+        // the mapping remains valid after the channel is closed
+        index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+      }
+      return new IndexedZipKeyValueSource(index, zip);
+    } catch (Throwable t) {
+      // we only close the zip file on failure; otherwise the source owns it
+      try {
+        throw closer.rethrow(t);
+      } finally {
+        closer.close();
+      }
+    }
+  }
+
+  static File defaultIndexFileFor(final File zipFile) {
+    return new File(zipFile.getPath() + ".index");
+  }
+
+  static long indexLength(final int numEntries, final long keyDataLength) {
+    return HEADER_BYTES + SortedKeyIndex.keyOffsetsLength(numEntries)
+        + (long) numEntries * Longs.BYTES + 4L * numEntries * Ints.BYTES + keyDataLength;
+  }
+
+  /**
+   * Writes an index for {@code zipFile} to {@code indexFile}, keying each entry by the result of
+   * {@code idExtractor} on its name. Directories are skipped. The zip file must not be modified
+   * afterwards.
+   *
+   * @throws IllegalArgumentException if two entries have the same key
+   */
+  static void writeIndex(final File zipFile, final File indexFile,
+      final Function<String, Symbol> idExtractor) throws IOException {
+    final List<byte[]> keys = new ArrayList<>();
+    final Set<Symbol> keysSeen = Sets.newHashSet();
+    final List<ZipCentralDirectory.Entry> entries = new ArrayList<>();
+    final long[] dataOffsets;
+    final long zipLength;
+    try (RandomAccessFile zipRaf = new RandomAccessFile(zipFile, "r")) {
+      final FileChannel zip = zipRaf.getChannel();
+      zipLength = zip.size();
+      for (final ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(zip)) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        if (entry.uncompressedSize() > Integer.MAX_VALUE
+            || entry.compressedSize() > Integer.MAX_VALUE) {
+          throw new IOException("Zip entry " + entry.name() + " is larger than 2GB");
+        }
+        final Symbol key = checkNotNull(idExtractor.apply(entry.name()));
+        checkArgument(keysSeen.add(key), "Duplicate key %s", key);
+        keys.add(key.asString().getBytes(Charsets.UTF_8));
+        entries.add(entry);
+      }
+      dataOffsets = new long[entries.size()];
+      for (int i = 0; i < dataOffsets.length; ++i) {
+        dataOffsets[i] = ZipCentralDirectory.dataOffset(zip, entries.get(i));
+      }
+    }
+
+    final int n = keys.size();
+    long keyDataLength = 0;
+    for (final byte[] key : keys) {
+      keyDataLength += key.length;
+    }
+    final long indexLength = indexLength(n, keyDataLength);
+    if (indexLength > Integer.MAX_VALUE) {
+      throw new IOException("Index would be " + indexLength + " bytes but at most 2GB is "
+          + "supported");
+    }
+
+    final int[] sortedIdxs = SortedKeyIndex.sortedOrder(keys);
+
+    final Closer closer = Closer.create();
+    try {
+      final DataOutputStream out = closer.register(new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(n);
+      out.writeInt((int) keyDataLength);
+      out.writeLong(zipLength);
+      int keyOffset = 0;
+      for (final int idx : sortedIdxs) {
+        out.writeInt(keyOffset);
+        keyOffset += keys.get(idx).length;
+      }
+      out.writeInt(keyOffset);
+      for (final int idx : sortedIdxs) {
+        out.writeLong(dataOffsets[idx]);
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt((int) entries.get(idx).compressedSize());
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt((int) entries.get(idx).uncompressedSize());
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt(entries.get(idx).crc());
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt(entries.get(idx).method());
+      }
+      for (final int idx : sortedIdxs) {
+        out.write(keys.get(idx));
+      }
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  public int size() {
+    return keys.size();
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Symbol> keys() {
+    return new Iterable<Symbol>() {
+      @Override
+      public Iterator<Symbol> iterator() {
+        return new AbstractIterator<Symbol>() {
+          private int next = 0;
+
+          @Override
+          protected Symbol computeNext() {
+            if (next < keys.size()) {
+              return keys.key(next++);
+            }
+            return endOfData();
+          }
+        };
+      }
+    };
+  }
+
+  @Nonnull
+  @Override
+  public Optional<ByteSource> get(final Symbol key) {
+    final int idx = keys.indexOf(key);
+    if (idx < 0) {
+      return Optional.absent();
+    }
+    return Optional.<ByteSource>of(new EntryByteSource(idx));
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<Symbol, ByteSource>> entries() {
+    return storageOrder.entries();
+  }
+
+  @Nonnull
+  @Override
+  public List<Iterable<Map.Entry<Symbol, ByteSource>>> partitionedEntries(
+      final int maxPartitions) {
+    return storageOrder.partitionedEntries(maxPartitions);
+  }
+
+  @Nonnull
+  @Override
+  protected List<Symbol> retrievalOrder(final List<Symbol> keys) {
+    return storageOrder.retrievalOrder(keys);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    endInflaters();
+    zipFile.close();
+  }
+
+  private Inflater borrowInflater() {
+    final Inflater ret = inflaters.poll();
+    // zip entries are raw deflate streams, without zlib headers
+    return ret != null ? ret : new Inflater(true);
+  }
+
+  private void returnInflater(final Inflater inflater) {
+    inflater.reset();
+    inflaters.add(inflater);
+    // a read racing close() may return its inflater after close() ended the others
+    if (closed) {
+      endInflaters();
+    }
+  }
+
+  private void endInflaters() {
+    Inflater inflater;
+    while ((inflater = inflaters.poll()) != null) {
+      inflater.end();
+    }
+  }
+
+  private long dataOffset(final int idx) {
+    return index.getLong(dataOffsetsStart + idx * Longs.BYTES);
+  }
+
+  private byte[] readValue(final int idx) throws IOException {
+    final long offset = dataOffset(idx);
+    final int compressedLength = index.getInt(compressedLengthsStart + idx * Ints.BYTES);
+    final int length = index.getInt(lengthsStart + idx * Ints.BYTES);
+    final int method = index.getInt(methodsStart + idx * Ints.BYTES);
+
+    // when inflating, we add an extra zero byte, as ZipFile does, for older zlibs which need it
+    final ByteBuffer data = ByteBuffer.allocate(
+        method == ZipCentralDirectory.DEFLATED ? compressedLength + 1 : compressedLength);
+    data.limit(compressedLength);
+    // positional reads are safe to make concurrently
+    while (data.hasRemaining()) {
+      if (zip.read(data, offset + data.position()) < 0) {
+        throw new IOException("Unexpected end of zip file reading entry for " + keys.key(idx));
+      }
+    }
+
+    final byte[] ret;
+    if (method == ZipCentralDirectory.STORED) {
+      ret = data.array();
+    } else {
+      ret = new byte[length];
+      final Inflater inflater = borrowInflater();
+      try {
+        inflater.setInput(data.array());
+        int inflated = 0;
+        while (inflated < length) {
+          final int n = inflater.inflate(ret, inflated, length - inflated);
+          if (n == 0 && (inflater.finished() || inflater.needsInput()
+              || inflater.needsDictionary())) {
+            throw new IOException("Zip entry for " + keys.key(idx) + " is truncated");
+          }
+          inflated += n;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Zip entry for " + keys.key(idx) + " is corrupt", e);
+      } finally {
+        returnInflater(inflater);
+      }
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(ret);
+    if ((int) crc.getValue() != index.getInt(crcsStart + idx * Ints.BYTES)) {
+      throw new IOException("CRC mismatch reading zip entry for " + keys.key(idx));
+    }
+    return ret;
+  }
+
+  /**
+   * The value of an entry, which is read and inflated each time it is requested.
+   */
+  private final class EntryByteSource extends ByteSource {
+
+    private final int idx;
+
+    private EntryByteSource(final int idx) {
+      this.idx = idx;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      return new ByteArrayInputStream(readValue(idx));
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+      return readValue(idx);
+    }
+
+    @Override
+    public long size() {
+      return index.getInt(lengthsStart + idx * Ints.BYTES);
+    }
+
+    @Override
+    public Optional<Long> sizeIfKnown() {
+      return Optional.of(size());
+    }
+  }
+}
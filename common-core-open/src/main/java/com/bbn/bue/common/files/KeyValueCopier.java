@@ -0,0 +1,297 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Copies every entry of a {@link KeyValueSource} to a {@link KeyValueSink} as a pipeline: a pool
+ * of reader threads reads values ahead of the writer and applies an optional transformation (e.g.
+ * compression or transcoding), while the calling thread puts them to the sink one at a time in the
+ * order of the source's {@link KeyValueSource#keys()}. When reading values is slow, as for a map of
+ * many small files, copying then takes roughly the time of the slower of reading and writing
+ * rather than their sum. Because only the calling thread writes, any {@link KeyValueSink} may be
+ * the target.
+ *
+ * At most {@link Builder#readAhead(int)} values are held in memory at once. Progress is logged
+ * every {@link Builder#progressInterval(int)} entries and the totals are returned as {@link
+ * Stats}.
+ */
+@Beta
+public final class KeyValueCopier {
+
+  private static final Logger log = LoggerFactory.getLogger(KeyValueCopier.class);
+
+  private final int readerThreads;
+  private final int readAhead;
+  private final Function<byte[], byte[]> transform;
+  private final int progressInterval;
+
+  private KeyValueCopier(final Builder builder) {
+    this.readerThreads = builder.readerThreads;
+    this.readAhead = builder.readAhead > 0 ? builder.readAhead : 64 * builder.readerThreads;
+    this.transform = builder.transform;
+    this.progressInterval = builder.progressInterval;
+  }
+
+  @Nonnull
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Copies every entry of {@code source} to {@code sink}, which is not closed.
+   *
+   * @throws IOException if reading any value or writing to the sink fails, in which case no
+   *                     further entries are written
+   */
+  @Nonnull
+  public Stats copy(final KeyValueSource<Symbol, ByteSource> source,
+      final KeyValueSink<Symbol, byte[]> sink) throws IOException {
+    checkNotNull(source);
+    checkNotNull(sink);
+    final ExecutorService readers = Executors.newFixedThreadPool(readerThreads,
+        new ThreadFactoryBuilder().setNameFormat("key-value-reader-%d").setDaemon(true).build());
+    final AtomicLong readNanos = new AtomicLong();
+    final AtomicLong bytesRead = new AtomicLong();
+    final ArrayDeque<Map.Entry<Symbol, Future<byte[]>>> pending = new ArrayDeque<>();
+    final Stopwatch elapsed = Stopwatch.createStarted();
+    final Stopwatch waiting = Stopwatch.createUnstarted();
+    final Stopwatch writing = Stopwatch.createUnstarted();
+    long entries = 0;
+    long bytesWritten = 0;
+    try {
+      final Iterator<Symbol> keys = source.keys().iterator();
+      while (keys.hasNext() || !pending.isEmpty()) {
+        // keep the readers busy up to the read-ahead limit
+        while (pending.size() < readAhead && keys.hasNext()) {
+          final Symbol key = keys.next();
+          pending.add(Maps.immutableEntry(key, readers.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+              final long start = System.nanoTime();
+              final byte[] value = source.getRequired(key).read();
+              bytesRead.addAndGet(value.length);
+              final byte[] ret = transform.apply(value);
+              readNanos.addAndGet(System.nanoTime() - start);
+              return ret;
+            }
+          })));
+        }
+
+        final Map.Entry<Symbol, Future<byte[]>> next = pending.remove();
+        waiting.start();
+        final byte[] value = await(next.getKey(), next.getValue());
+        waiting.stop();
+
+        writing.start();
+        sink.put(next.getKey(), value);
+        writing.stop();
+        ++entries;
+        bytesWritten += value.length;
+        if (entries % progressInterval == 0) {
+          log.info("Copied {} entries ({} MB) at {} entries/second", entries,
+              bytesWritten / (1024 * 1024), perSecond(entries, elapsed));
+        }
+      }
+    } finally {
+      for (final Map.Entry<Symbol, Future<byte[]>> unwritten : pending) {
+        unwritten.getValue().cancel(true);
+      }
+      readers.shutdownNow();
+    }
+    final Stats ret = new Stats(entries, bytesRead.get(), bytesWritten,
+        elapsed.elapsed(TimeUnit.MILLISECONDS), TimeUnit.NANOSECONDS.toMillis(readNanos.get()),
+        waiting.elapsed(TimeUnit.MILLISECONDS), writing.elapsed(TimeUnit.MILLISECONDS));
+    log.info("{}", ret);
+    return ret;
+  }
+
+  private static byte[] await(final Symbol key, final Future<byte[]> value) throws IOException {
+    try {
+      return value.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading " + key);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException("Reading " + key + " failed", e.getCause());
+    }
+  }
+
+  private static long perSecond(final long count, final Stopwatch elapsed) {
+    return count * 1000 / Math.max(1, elapsed.elapsed(TimeUnit.MILLISECONDS));
+  }
+
+  public static final class Builder {
+
+    private int readerThreads = Runtime.getRuntime().availableProcessors();
+    // if unset, depends on the number of reader threads
+    private int readAhead = -1;
+    private Function<byte[], byte[]> transform = Functions.identity();
+    private int progressInterval = 10000;
+
+    private Builder() {
+    }
+
+    /**
+     * The number of threads reading (and transforming) values. Defaults to the number of
+     * processors.
+     */
+    public Builder readerThreads(final int readerThreads) {
+      checkArgument(readerThreads > 0, "Must have at least one reader thread");
+      this.readerThreads = readerThreads;
+      return this;
+    }
+
+    /**
+     * The maximum number of values which have been read but not yet written. Defaults to 64 per
+     * reader thread.
+     */
+    public Builder readAhead(final int readAhead) {
+      checkArgument(readAhead > 0, "Read-ahead must be positive");
+      this.readAhead = readAhead;
+      return this;
+    }
+
+    /**
+     * A transformation applied to each value on the reader threads before it is written. It must
+     * be safe to call from multiple threads. Defaults to the identity.
+     */
+    public Builder transform(final Function<byte[], byte[]> transform) {
+      this.transform = checkNotNull(transform);
+      return this;
+    }
+
+    /**
+     * How many entries are written between progress messages. Defaults to 10000.
+     */
+    public Builder progressInterval(final int progressInterval) {
+      checkArgument(progressInterval > 0, "Progress interval must be positive");
+      this.progressInterval = progressInterval;
+      return this;
+    }
+
+    @Nonnull
+    public KeyValueCopier build() {
+      return new KeyValueCopier(this);
+    }
+  }
+
+  /**
+   * Totals from a {@link #copy(KeyValueSource, KeyValueSink)}. Read time is summed over all the
+   * reader threads, so it may exceed the elapsed time. Time spent waiting for reads and time spent
+   * writing are both on the writing thread, so if waiting dominates, adding reader threads should
+   * help, while if writing dominates, the sink is the bottleneck.
+   */
+  public static final class Stats {
+
+    private final long entries;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long elapsedMillis;
+    private final long readMillis;
+    private final long waitMillis;
+    private final long writeMillis;
+
+    private Stats(final long entries, final long bytesRead, final long bytesWritten,
+        final long elapsedMillis, final long readMillis, final long waitMillis,
+        final long writeMillis) {
+      this.entries = entries;
+      this.bytesRead = bytesRead;
+      this.bytesWritten = bytesWritten;
+      this.elapsedMillis = elapsedMillis;
+      this.readMillis = readMillis;
+      this.waitMillis = waitMillis;
+      this.writeMillis = writeMillis;
+    }
+
+    public long entries() {
+      return entries;
+    }
+
+    /**
+     * The total length of the values read, before any transformation.
+     */
+    public long bytesRead() {
+      return bytesRead;
+    }
+
+    /**
+     * The total length of the values written, after any transformation.
+     */
+    public long bytesWritten() {
+      return bytesWritten;
+    }
+
+    public long elapsedMillis() {
+      return elapsedMillis;
+    }
+
+    /**
+     * The time spent reading and transforming values, summed over all reader threads.
+     */
+    public long readMillis() {
+      return readMillis;
+    }
+
+    /**
+     * The time the writing thread spent waiting for values to be read.
+     */
+    public long waitMillis() {
+      return waitMillis;
+    }
+
+    /**
+     * The time spent in {@link KeyValueSink#put(Object, Object)}.
+     */
+    public long writeMillis() {
+      return writeMillis;
+    }
+
+    public double entriesPerSecond() {
+      return entries * 1000.0 / Math.max(1, elapsedMillis);
+    }
+
+    public double megabytesReadPerSecond() {
+      return bytesRead * 1000.0 / (1024 * 1024) / Math.max(1, elapsedMillis);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Copied %d entries (%d bytes read, %d bytes written) in %d ms: "
+              + "%.1f entries/second, %.2f MB/second; read %d ms (all threads), "
+              + "waiting for reads %d ms, writing %d ms", entries, bytesRead, bytesWritten,
+          elapsedMillis, entriesPerSecond(), megabytesReadPerSecond(), readMillis, waitMillis,
+          writeMillis);
+    }
+  }
+}
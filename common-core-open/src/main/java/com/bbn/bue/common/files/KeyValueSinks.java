@@ -4,9 +4,11 @@ import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.bue.common.symbols.SymbolUtils;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 
@@ -38,6 +40,162 @@ public final class KeyValueSinks {
     return PalDBKeyValueSink.forFile(dbFile, compressValues);
   }
 
+  /**
+   * Creates a new key-value sink writing a memory-mappable store to {@code dataFile}, with its
+   * index at the default location for {@code dataFile}.
+   *
+   * @see #forMappedFile(File, File)
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> forMappedFile(final File dataFile)
+      throws IOException {
+    return forMappedFile(dataFile, MappedFileKeyValueSource.defaultIndexFileFor(dataFile));
+  }
+
+  /**
+   * Creates a new key-value sink which appends values to {@code dataFile} and writes a sorted
+   * index of the keys to {@code indexFile} when closed. The result can be read by {@link
+   * KeyValueSources#fromMappedFile(File, File)}. Values are stored uncompressed. Each key may only
+   * be put once.
+   *
+   * @param dataFile  the file to write values to
+   * @param indexFile the file to write the index to
+   * @return a key-value sink
+   * @throws IOException if the data file could not be opened for writing
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> forMappedFile(final File dataFile,
+      final File indexFile) throws IOException {
+    return MappedFileKeyValueSink.forFiles(dataFile, indexFile);
+  }
+
+  /**
+   * Creates a new key-value sink writing a block-compressed store to {@code dataFile}, with its
+   * index at the default location for {@code dataFile}, using 64KB blocks and no dictionary.
+   *
+   * @see #forBlockCompressedFile(File, File, int, Optional)
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> forBlockCompressedFile(final File dataFile)
+      throws IOException {
+    return forBlockCompressedFile(dataFile,
+        BlockCompressedKeyValueSource.defaultIndexFileFor(dataFile),
+        BlockCompressedKeyValueSink.DEFAULT_BLOCK_SIZE, Optional.<byte[]>absent());
+  }
+
+  /**
+   * Creates a new key-value sink which packs values, in the order they are put, into blocks of
+   * about {@code blockSize} uncompressed bytes, each compressed as a unit. The result can be read
+   * by {@link KeyValueSources#fromBlockCompressedFile(File, File, int)}. For stores of many small,
+   * similar values this is typically several times smaller than {@link #forZip(File)}, which
+   * compresses each value separately. Larger blocks compress better but make reading a single
+   * value more expensive.  Values which are likely to be read together should be put together.
+   * Each key may only be put once.
+   *
+   * @param dataFile   the file to write compressed blocks to
+   * @param indexFile  the file to write the index to
+   * @param blockSize  the target uncompressed size of each block
+   * @param dictionary an optional preset deflate dictionary, which is stored in the index. See
+   *                   {@link #trainCompressionDictionary(Iterable, int)}.
+   * @return a key-value sink
+   * @throws IOException if the data file could not be opened for writing
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> forBlockCompressedFile(final File dataFile,
+      final File indexFile, final int blockSize, final Optional<byte[]> dictionary)
+      throws IOException {
+    return BlockCompressedKeyValueSink.forFiles(dataFile, indexFile, blockSize, dictionary);
+  }
+
+  /**
+   * Builds a preset deflate dictionary of at most {@code maxSize} bytes from byte sequences
+   * which recur across {@code samples}, for use with {@link #forBlockCompressedFile(File, File,
+   * int, Optional)}. A few hundred representative values are usually enough. Deflate can use at
+   * most 32KB of dictionary.
+   */
+  @Nonnull
+  public static byte[] trainCompressionDictionary(final Iterable<byte[]> samples,
+      final int maxSize) {
+    return BlockCompressedKeyValueSink.trainDictionary(samples, maxSize);
+  }
+
+  /**
+   * Wraps {@code sink} so that {@code put}s are handed to a dedicated writer thread through a
+   * queue holding at most {@code queueCapacity} entries, letting callers continue working while the
+   * wrapped sink compresses and writes. When the queue is full, {@code put} blocks until the writer
+   * catches up. The writer drains queued entries in batches.  If the wrapped sink fails, the
+   * failure is reported as an {@link IOException} by the next {@code put} or by {@code close}.
+   * Closing the returned sink waits for all queued entries to be written and closes {@code sink}.
+   *
+   * Values must not be modified after they have been put.  The returned sink may be used from
+   * multiple threads.
+   *
+   * @param sink          the sink to write to
+   * @param queueCapacity the maximum number of entries waiting to be written
+   * @return a key-value sink
+   */
+  @Nonnull
+  public static <K, V> KeyValueSink<K, V> asynchronous(final KeyValueSink<K, V> sink,
+      final int queueCapacity) {
+    return AsynchronousKeyValueSink.wrap(sink, queueCapacity);
+  }
+
+  /**
+   * Creates a sink which adds a new segment to the log-structured store in {@code directory},
+   * creating the store if it does not exist. The entries put are visible to sources opened after
+   * the sink is closed, and shadow any entries for the same keys already in the store. Each key may
+   * be put only once per sink. Only one sink may append to a store at a time. See {@link
+   * LogStructuredKeyValueStore}.
+   *
+   * @param directory the directory of the store
+   * @param format    the format of the store's segments. This must match the format of any
+   *                  existing segments.
+   * @return a key-value sink
+   * @throws IOException if the store could not be opened for writing or another writer holds it
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> appendingTo(final File directory,
+      final KeyValueStoreFormat format) throws IOException {
+    return LogStructuredKeyValueSink.appendingTo(directory, format);
+  }
+
+  /**
+   * Creates a new sharded store described by the manifest {@code manifestFile}. Keys are
+   * hash-partitioned between {@code numShards} stores in {@code format}, written next to the
+   * manifest, each by its own thread.  The manifest is written when the sink is closed, after all
+   * shards have been written successfully. Shards in {@link KeyValueStoreFormat#PALDB} gain
+   * little from this, since PalDB stores can only be finished one at a time. The result can be
+   * read by {@link KeyValueSources#fromShardManifest(File)}.
+   *
+   * @param manifestFile the file to write the manifest to
+   * @param format       the format of the shards
+   * @param numShards    the number of shards
+   * @return a key-value sink
+   * @throws IOException if any of the shards could not be opened for writing
+   * @see #sharded(List)
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> forShardedStore(final File manifestFile,
+      final KeyValueStoreFormat format, final int numShards) throws IOException {
+    return ShardedKeyValueSink.forManifest(manifestFile, format, numShards);
+  }
+
+  /**
+   * Creates a sink which hash-partitions keys between {@code shardSinks}, each of which is written
+   * by its own thread. Keys are assigned to shards in the same way as by {@link
+   * #forShardedStore(File, KeyValueStoreFormat, int)}, so the shards can be read back in the same
+   * order by {@link KeyValueSources#sharded(List)}. Closing the returned sink closes all of {@code
+   * shardSinks}. Errors writing to a shard are reported by a later {@code put} or by {@code close}.
+   *
+   * @param shardSinks the sinks to write the shards to
+   * @return a key-value sink
+   */
+  @Nonnull
+  public static KeyValueSink<Symbol, byte[]> sharded(
+      final List<? extends KeyValueSink<Symbol, byte[]>> shardSinks) {
+    return ShardedKeyValueSink.of(shardSinks, ShardedKeyValueSink.DEFAULT_QUEUE_CAPACITY);
+  }
+
   /**
    * Creates a new key-value sink backed by a zip file using the default (identity) mapping
    * between keys and the entry inside the zip used for storing their value. The caller must ensure
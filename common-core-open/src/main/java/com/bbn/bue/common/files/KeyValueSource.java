@@ -3,6 +3,9 @@ package com.bbn.bue.common.files;
 import com.google.common.base.Optional;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -57,6 +60,43 @@ public interface KeyValueSource<K, V> extends AutoCloseable {
   @Nonnull
   V getRequired(K key) throws IOException;
 
+  /**
+   * Returns the entries for those of {@code keys} which are present, each at most once.  The
+   * entries are not necessarily returned in the order of {@code keys}: sources may reorder them to
+   * match how their values are stored, so that fetching a batch of values reads sequentially
+   * rather than seeking randomly. Values are looked up as the iterator advances, so arbitrarily
+   * large batches may be requested. Because {@link Iterator} methods cannot throw checked
+   * exceptions, an {@link IOException} during iteration is thrown wrapped in a {@link
+   * RuntimeException}.
+   *
+   * {@link AbstractKeyValueSource} provides an implementation in terms of {@link #get(Object)}.
+   */
+  @Nonnull
+  Iterator<Map.Entry<K, V>> getAll(Iterable<? extends K> keys) throws IOException;
+
+  /**
+   * Returns all the entries of the source, in the order in which they are cheapest to read. For
+   * file-backed sources this is the order in which values are stored, so a pass over all entries
+   * reads the backing files front to back instead of seeking for each key as {@code get} would.
+   * Values are read as iteration proceeds. As for {@link #getAll(Iterable)}, an {@link
+   * IOException} during iteration is thrown wrapped in a {@link RuntimeException}.
+   *
+   * @see #partitionedEntries(int)
+   */
+  @Nonnull
+  Iterable<Map.Entry<K, V>> entries() throws IOException;
+
+  /**
+   * Splits {@link #entries()} into at most {@code maxPartitions} parts of roughly equal
+   * numbers of entries, for processing by parallel consumers. Together the parts contain every
+   * entry exactly once. Each part covers a contiguous stretch of storage where possible, so each
+   * consumer still reads sequentially. The parts may be iterated concurrently.
+   *
+   * @see #entries()
+   */
+  @Nonnull
+  List<Iterable<Map.Entry<K, V>>> partitionedEntries(int maxPartitions) throws IOException;
+
   // This override is necessary to change the exception signature from Exception
   @Override
   void close() throws IOException;
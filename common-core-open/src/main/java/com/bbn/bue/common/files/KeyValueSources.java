@@ -4,20 +4,16 @@ import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.bue.common.symbols.SymbolUtils;
 
 import com.google.common.base.Function;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import javax.annotation.Nonnull;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-
 /**
  * Provides factory methods for key-value sources.
  *
@@ -51,6 +47,134 @@ public final class KeyValueSources {
     return PalDBKeyValueSource.fromFile(dbFile);
   }
 
+  /**
+   * Creates a new source over a store written by {@link
+   * KeyValueSinks#forBlockCompressedFile(File)}, using the default index location for {@code
+   * dataFile} and caching 64 decompressed blocks.
+   *
+   * @see #fromBlockCompressedFile(File, File, int)
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromBlockCompressedFile(
+      final File dataFile) throws IOException {
+    return fromBlockCompressedFile(dataFile,
+        BlockCompressedKeyValueSource.defaultIndexFileFor(dataFile),
+        BlockCompressedKeyValueSource.DEFAULT_CACHED_BLOCKS);
+  }
+
+  /**
+   * Creates a new source over a block-compressed store written by {@link
+   * KeyValueSinks#forBlockCompressedFile(File, File, int, com.google.common.base.Optional)}. The
+   * index is memory-mapped.
+   * Reading a value decompresses its whole block, and the most recently used {@code cachedBlocks}
+   * decompressed blocks are cached, so reading values in roughly the order they were written is
+   * much cheaper than reading them randomly. The source may be used from multiple threads. The
+   * caller must ensure the files are not modified while the source is in use, otherwise all
+   * behavior is undefined.
+   *
+   * @param dataFile     the data file
+   * @param indexFile    the index file
+   * @param cachedBlocks the number of decompressed blocks to cache
+   * @return a new key-value source backed by the specified files
+   * @throws IOException if the files could not be opened or are not a valid store
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromBlockCompressedFile(
+      final File dataFile, final File indexFile, final int cachedBlocks) throws IOException {
+    return BlockCompressedKeyValueSource.open(dataFile, indexFile, cachedBlocks);
+  }
+
+  /**
+   * Wraps {@code source} so that the values read from it are kept in memory, up to about {@code
+   * maxBytes} bytes in total, evicting the least recently used values first. Each value is read
+   * fully into memory when first requested, and concurrent requests for the same key read it only
+   * once. Use {@link CachingKeyValueSource#stats()} to see how effective the cache is. Closing the
+   * returned source closes {@code source}.
+   *
+   * @param source   the source to cache values from
+   * @param maxBytes the maximum total size of the cached values
+   * @return a caching key-value source
+   */
+  @Nonnull
+  public static <K> CachingKeyValueSource<K> caching(
+      final ImmutableKeyValueSource<K, ByteSource> source, final long maxBytes) {
+    return CachingKeyValueSource.wrap(source, maxBytes);
+  }
+
+  /**
+   * Creates a new source over the log-structured store in {@code directory}, written by {@link
+   * KeyValueSinks#appendingTo(File, KeyValueStoreFormat)}. The source sees the segments which were
+   * in the store when it was opened; values from newer segments shadow those from older ones.
+   * Closing the source closes all the segments.
+   *
+   * @param directory the directory of the store
+   * @return a key-value source over the store
+   * @throws IOException if the store's manifest is invalid or a segment could not be opened
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromLogStructuredStore(
+      final File directory) throws IOException {
+    return LogStructuredKeyValueStore.read(directory).openSource();
+  }
+
+  /**
+   * Creates a new source over a sharded store written by {@link
+   * KeyValueSinks#forShardedStore(File, KeyValueStoreFormat, int)}, opening each of the shards
+   * listed in {@code manifestFile}. Each lookup consults only the shard its key belongs to.
+   * Closing the source closes all the shards.
+   *
+   * @param manifestFile the manifest of the sharded store
+   * @return a key-value source over all the shards
+   * @throws IOException if the manifest is invalid or any shard could not be opened
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromShardManifest(
+      final File manifestFile) throws IOException {
+    return ShardedKeyValueSource.fromManifest(manifestFile);
+  }
+
+  /**
+   * Presents the shards written by {@link KeyValueSinks#sharded(List)} as a single source.  The
+   * shards must be given in the same order as the sinks were.  Closing the source closes all the
+   * shards.
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> sharded(
+      final List<? extends ImmutableKeyValueSource<Symbol, ByteSource>> shards) {
+    return ShardedKeyValueSource.of(shards);
+  }
+
+  /**
+   * Creates a new source over a data file and index written by {@link
+   * KeyValueSinks#forMappedFile(File)}, using the default index location for {@code dataFile}.
+   *
+   * @see #fromMappedFile(File, File)
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromMappedFile(final File dataFile)
+      throws IOException {
+    return fromMappedFile(dataFile, MappedFileKeyValueSource.defaultIndexFileFor(dataFile));
+  }
+
+  /**
+   * Creates a new source over a data file of concatenated values and a sorted index of keys
+   * written by {@link KeyValueSinks#forMappedFile(File, File)}. Both files are memory-mapped, so
+   * opening is nearly instantaneous and values are returned as {@link ByteSource}s over the mapped
+   * data which copy nothing until read.  This makes it a good choice for read-heavy serving of
+   * large stores. The data file may be larger than 2GB. The caller must ensure the files are not
+   * modified while the source is in use, otherwise all behavior is undefined.
+   *
+   * @param dataFile  the data file
+   * @param indexFile the index file
+   * @return a new key-value source backed by the specified files
+   * @throws IOException if the files could not be opened or are not a valid store
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromMappedFile(final File dataFile,
+      final File indexFile) throws IOException {
+    return MappedFileKeyValueSource.open(dataFile, indexFile);
+  }
+
   /**
    * Creates a new source using a zip file where each value is located at an entry with the same
    * name as the key. The caller must ensure that the zip file is not closed or modified, otherwise
@@ -82,19 +206,68 @@ public final class KeyValueSources {
   @Nonnull
   public static ImmutableKeyValueSource<Symbol, ByteSource> fromZip(final ZipFile zipFile,
       final Function<String, Symbol> idExtractor) {
-    final ImmutableMap.Builder<Symbol, String> ret = ImmutableMap.builder();
-    // Build a map of the key for each file to the filename
-    final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-    while (entries.hasMoreElements()) {
-      final ZipEntry entry = entries.nextElement();
-      final String name = entry.getName();
-      // Skip directories
-      if (entry.isDirectory()) {
-        continue;
-      }
-      final Symbol id = checkNotNull(idExtractor.apply(name));
-      ret.put(id, name);
-    }
-    return new ZipKeyValueSource(zipFile, ret.build());
+    return new ZipKeyValueSource(zipFile, ZipKeyValueSource.indexEntries(zipFile, idExtractor));
+  }
+
+  /**
+   * Writes a sidecar index for a zip file to the default location for {@link
+   * #fromIndexedZip(File)}, keying each entry by its name. See {@link #indexZip(File, File,
+   * Function)}.
+   *
+   * @param zipFile the zip file to index
+   * @throws IOException if the zip file could not be read or the index could not be written
+   */
+  public static void indexZip(final File zipFile) throws IOException {
+    indexZip(zipFile, IndexedZipKeyValueSource.defaultIndexFileFor(zipFile),
+        SymbolUtils.symbolizeFunction());
+  }
+
+  /**
+   * Writes a sidecar index for a zip file which lets {@link #fromIndexedZip(File, File)} open it
+   * without enumerating its entries. The index records where each entry's data is in the zip file,
+   * so it must be rewritten if the zip file is modified. Directories are skipped.
+   *
+   * @param zipFile     the zip file to index
+   * @param indexFile   the file to write the index to
+   * @param idExtractor a function that returns a unique id for every file contained in the zip
+   * @throws IOException if the zip file could not be read or the index could not be written
+   */
+  public static void indexZip(final File zipFile, final File indexFile,
+      final Function<String, Symbol> idExtractor) throws IOException {
+    IndexedZipKeyValueSource.writeIndex(zipFile, indexFile, idExtractor);
+  }
+
+  /**
+   * Creates a new source using a zip file and the sidecar index written for it by {@link
+   * #indexZip(File)}. See {@link #fromIndexedZip(File, File)}.
+   *
+   * @param zipFile the zip file to use as a source
+   * @return a new key-value source backed by the specified zip file
+   * @throws IOException if the zip file or its index could not be opened
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromIndexedZip(final File zipFile)
+      throws IOException {
+    return fromIndexedZip(zipFile, IndexedZipKeyValueSource.defaultIndexFileFor(zipFile));
+  }
+
+  /**
+   * Creates a new source using a zip file and a sidecar index written for it by {@link
+   * #indexZip(File, File, Function)}. Unlike {@link #fromZip(ZipFile)}, opening the source only
+   * maps the index, so it is nearly instantaneous however many entries the zip file has. Values
+   * are read directly from the zip file with positional reads, so many threads may read from the
+   * source in parallel without contending for a shared {@link ZipFile}. The zip file is closed when
+   * the source is closed.
+   *
+   * @param zipFile   the zip file to use as a source
+   * @param indexFile the index written for the zip file
+   * @return a new key-value source backed by the specified zip file
+   * @throws IOException if the zip file or its index could not be opened, or if the zip file has
+   *                     changed since it was indexed
+   */
+  @Nonnull
+  public static ImmutableKeyValueSource<Symbol, ByteSource> fromIndexedZip(final File zipFile,
+      final File indexFile) throws IOException {
+    return IndexedZipKeyValueSource.open(zipFile, indexFile);
   }
 }
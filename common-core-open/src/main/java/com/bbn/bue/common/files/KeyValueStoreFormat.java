@@ -0,0 +1,134 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The on-disk formats of key-value stores which can be written by {@link KeyValueSinks} and read
+ * back by {@link KeyValueSources} knowing only the format and the file.  This is used, for
+ * example, to record the format of the shards of a sharded store (see {@link
+ * KeyValueSinks#forShardedStore(File, KeyValueStoreFormat, int)}).
+ */
+public enum KeyValueStoreFormat {
+  /**
+   * A PalDB database with compressed values. See {@link KeyValueSinks#forPalDB(File, boolean)}.
+   *
+   * Because PalDB hashes keys with shared static state, lookups in and the building of PalDB
+   * stores are serialized across the whole JVM. Shards in this format are therefore finished
+   * one at a time and are read serially, so prefer another format for sharded stores which are
+   * to be written or read in parallel.
+   */
+  PALDB("paldb") {
+    @Override
+    KeyValueSink<Symbol, byte[]> openSink(final File file) throws IOException {
+      return KeyValueSinks.forPalDB(file, true);
+    }
+
+    @Override
+    ImmutableKeyValueSource<Symbol, ByteSource> openSource(final File file) throws IOException {
+      return KeyValueSources.fromPalDB(file);
+    }
+
+    @Override
+    boolean entryValuesAreLazy() {
+      // PalDB's record iterator reads every value
+      return false;
+    }
+  },
+  /**
+   * A zip file with an entry per key. See {@link KeyValueSinks#forZip(File)}.
+   */
+  ZIP("zip") {
+    @Override
+    KeyValueSink<Symbol, byte[]> openSink(final File file) throws IOException {
+      return KeyValueSinks.forZip(file);
+    }
+
+    @Override
+    ImmutableKeyValueSource<Symbol, ByteSource> openSource(final File file) throws IOException {
+      return ZipKeyValueSource.openClosingZipFile(file);
+    }
+  },
+  /**
+   * A memory-mapped data file with its index at the default location. See {@link
+   * KeyValueSinks#forMappedFile(File)}.
+   */
+  MAPPED_FILE("data") {
+    @Override
+    KeyValueSink<Symbol, byte[]> openSink(final File file) throws IOException {
+      return KeyValueSinks.forMappedFile(file);
+    }
+
+    @Override
+    ImmutableKeyValueSource<Symbol, ByteSource> openSource(final File file) throws IOException {
+      return KeyValueSources.fromMappedFile(file);
+    }
+
+    @Override
+    ImmutableList<File> storeFiles(final File file) {
+      return ImmutableList.of(file, MappedFileKeyValueSource.defaultIndexFileFor(file));
+    }
+  },
+  /**
+   * A block-compressed data file with its index at the default location. See {@link
+   * KeyValueSinks#forBlockCompressedFile(File)}.
+   */
+  BLOCK_COMPRESSED("blocks") {
+    @Override
+    KeyValueSink<Symbol, byte[]> openSink(final File file) throws IOException {
+      return KeyValueSinks.forBlockCompressedFile(file);
+    }
+
+    @Override
+    ImmutableKeyValueSource<Symbol, ByteSource> openSource(final File file) throws IOException {
+      return KeyValueSources.fromBlockCompressedFile(file);
+    }
+
+    @Override
+    ImmutableList<File> storeFiles(final File file) {
+      return ImmutableList.of(file, BlockCompressedKeyValueSource.defaultIndexFileFor(file));
+    }
+  };
+
+  private final String fileExtension;
+
+  KeyValueStoreFormat(final String fileExtension) {
+    this.fileExtension = fileExtension;
+  }
+
+  /**
+   * The conventional extension (without the period) for files in this format.
+   */
+  public String fileExtension() {
+    return fileExtension;
+  }
+
+  abstract KeyValueSink<Symbol, byte[]> openSink(File file) throws IOException;
+
+  /**
+   * Opens a source for a store in this format.  Unlike {@link
+   * KeyValueSources#fromZip(java.util.zip.ZipFile)}, any underlying resources are released when
+   * the source is closed.
+   */
+  abstract ImmutableKeyValueSource<Symbol, ByteSource> openSource(File file) throws IOException;
+
+  /**
+   * Whether the values of {@link KeyValueSource#entries()} of a source in this format are only
+   * read when they are themselves read, so that skipping an entry reads nothing.
+   */
+  boolean entryValuesAreLazy() {
+    return true;
+  }
+
+  /**
+   * All the files making up a store in this format at {@code file}.
+   */
+  ImmutableList<File> storeFiles(final File file) {
+    return ImmutableList.of(file);
+  }
+}
@@ -0,0 +1,106 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.io.Closer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link KeyValueSink} which writes a new segment of a {@link LogStructuredKeyValueStore}. The
+ * segment is added to the store's manifest when the sink is closed, so readers never see a
+ * partially written segment. The sink holds the store's write lock from creation until it is
+ * closed.
+ */
+final class LogStructuredKeyValueSink implements KeyValueSink<Symbol, byte[]> {
+
+  private final File directory;
+  private final Closeable lock;
+  private final LogStructuredKeyValueStore store;
+  private final String segmentName;
+  private final KeyValueSink<Symbol, byte[]> segmentSink;
+  private boolean anythingPut = false;
+  private boolean closed = false;
+
+  private LogStructuredKeyValueSink(final File directory, final Closeable lock,
+      final LogStructuredKeyValueStore store, final String segmentName,
+      final KeyValueSink<Symbol, byte[]> segmentSink) {
+    this.directory = checkNotNull(directory);
+    this.lock = checkNotNull(lock);
+    this.store = checkNotNull(store);
+    this.segmentName = checkNotNull(segmentName);
+    this.segmentSink = checkNotNull(segmentSink);
+  }
+
+  @Nonnull
+  static LogStructuredKeyValueSink appendingTo(final File directory,
+      final KeyValueStoreFormat format) throws IOException {
+    final Closer closer = Closer.create();
+    try {
+      final Closeable lock = closer.register(LogStructuredKeyValueStore.lock(directory));
+      final LogStructuredKeyValueStore store;
+      if (LogStructuredKeyValueStore.exists(directory)) {
+        store = LogStructuredKeyValueStore.read(directory);
+        checkArgument(store.format() == format,
+            "Store %s has segments in format %s, not %s", directory, store.format(), format);
+      } else {
+        store = LogStructuredKeyValueStore.empty(directory, format);
+        // so even an empty store can be opened by readers
+        store.write();
+      }
+      final String segmentName = store.segmentName(store.nextSegment());
+      final KeyValueSink<Symbol, byte[]> segmentSink =
+          format.openSink(new File(directory, segmentName));
+      return new LogStructuredKeyValueSink(directory, lock, store, segmentName, segmentSink);
+    } catch (Throwable t) {
+      // release the lock only on failure; otherwise the sink holds it until closed
+      try {
+        throw closer.rethrow(t);
+      } finally {
+        closer.close();
+      }
+    }
+  }
+
+  @Override
+  public void put(final Symbol key, final byte[] value) throws IOException {
+    checkState(!closed, "Sink is closed");
+    segmentSink.put(key, value);
+    anythingPut = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    final Closer closer = Closer.create();
+    try {
+      closer.register(lock);
+      segmentSink.close();
+      final File segmentFile = new File(directory, segmentName);
+      if (anythingPut) {
+        store.syncSegment(segmentName);
+        store.withSegment(segmentName).write();
+      } else {
+        // don't clutter the store with empty segments
+        for (final File file : store.format().storeFiles(segmentFile)) {
+          file.delete();
+        }
+      }
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+}
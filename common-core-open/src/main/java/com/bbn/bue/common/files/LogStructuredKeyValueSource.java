@@ -0,0 +1,173 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.collections.MapUtils;
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Presents the segments of a {@link LogStructuredKeyValueStore} as a single source. Keys are
+ * looked up in the newest segment first, so newer values shadow older ones. Iteration over keys
+ * or entries walks the segments newest first and skips keys already seen in a newer segment; it
+ * holds the keys of all segments but the oldest in memory while iterating. Shadowed values are
+ * never read: for formats whose entries are read with their values (PalDB), the entries of older
+ * segments are made from their keys, and each visible value is looked up only when it is read.
+ * Closing this source closes all the segments.
+ */
+final class LogStructuredKeyValueSource
+    extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
+
+  // oldest first
+  private final ImmutableList<ImmutableKeyValueSource<Symbol, ByteSource>> segments;
+  private final boolean entryValuesAreLazy;
+
+  private LogStructuredKeyValueSource(
+      final Iterable<? extends ImmutableKeyValueSource<Symbol, ByteSource>> segments,
+      final boolean entryValuesAreLazy) {
+    this.segments = ImmutableList.copyOf(segments);
+    this.entryValuesAreLazy = entryValuesAreLazy;
+  }
+
+  @Nonnull
+  static LogStructuredKeyValueSource open(final KeyValueStoreFormat format,
+      final Iterable<File> segmentFiles) throws IOException {
+    final List<ImmutableKeyValueSource<Symbol, ByteSource>> segments = new ArrayList<>();
+    try {
+      for (final File segmentFile : segmentFiles) {
+        segments.add(format.openSource(segmentFile));
+      }
+    } catch (Throwable t) {
+      // don't leak the segments we managed to open
+      final Closer closer = Closer.create();
+      registerAll(closer, segments);
+      try {
+        throw closer.rethrow(t);
+      } finally {
+        closer.close();
+      }
+    }
+    return new LogStructuredKeyValueSource(segments, format.entryValuesAreLazy());
+  }
+
+  int numSegments() {
+    return segments.size();
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Symbol> keys() throws IOException {
+    final List<Iterable<Symbol>> segmentKeys = new ArrayList<>();
+    for (int i = segments.size() - 1; i >= 0; --i) {
+      segmentKeys.add(segments.get(i).keys());
+    }
+    return visible(segmentKeys, Functions.<Symbol>identity());
+  }
+
+  @Nonnull
+  @Override
+  public Optional<ByteSource> get(final Symbol key) throws IOException {
+    for (int i = segments.size() - 1; i >= 0; --i) {
+      final Optional<ByteSource> ret = segments.get(i).get(key);
+      if (ret.isPresent()) {
+        return ret;
+      }
+    }
+    return Optional.absent();
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<Symbol, ByteSource>> entries() throws IOException {
+    // each segment is read in its own storage order
+    final List<Iterable<Map.Entry<Symbol, ByteSource>>> segmentEntries = new ArrayList<>();
+    for (int i = segments.size() - 1; i >= 0; --i) {
+      // nothing in the newest segment is shadowed, so it can always be read in storage order
+      if (entryValuesAreLazy || i == segments.size() - 1) {
+        segmentEntries.add(segments.get(i).entries());
+      } else {
+        segmentEntries.add(entriesWithValuesOnDemand(segments.get(i)));
+      }
+    }
+    return visible(segmentEntries, MapUtils.<Symbol, ByteSource>entryKeyFunction());
+  }
+
+  @Override
+  public void close() throws IOException {
+    final Closer closer = Closer.create();
+    registerAll(closer, segments);
+    closer.close();
+  }
+
+  // the entries of a segment, with each value looked up only when it is read
+  private static Iterable<Map.Entry<Symbol, ByteSource>> entriesWithValuesOnDemand(
+      final ImmutableKeyValueSource<Symbol, ByteSource> segment) throws IOException {
+    return FluentIterable.from(segment.keys())
+        .transform(new Function<Symbol, Map.Entry<Symbol, ByteSource>>() {
+          @Override
+          public Map.Entry<Symbol, ByteSource> apply(final Symbol key) {
+            return Maps.<Symbol, ByteSource>immutableEntry(key, new ByteSource() {
+              @Override
+              public InputStream openStream() throws IOException {
+                return segment.getRequired(key).openStream();
+              }
+            });
+          }
+        });
+  }
+
+  /**
+   * Concatenates {@code newestFirst}, which has an item for each key of each segment, from the
+   * newest segment to the oldest, dropping the items whose key was already seen in a newer
+   * segment. Each pass keeps the set of keys seen so far, so this costs a hash lookup per key,
+   * at the price of memory for the keys of every segment but the oldest, which nothing older can
+   * share.
+   */
+  private static <T> Iterable<T> visible(final List<Iterable<T>> newestFirst,
+      final Function<? super T, Symbol> keyFunction) {
+    if (newestFirst.size() == 1) {
+      // nothing can be shadowed
+      return newestFirst.get(0);
+    }
+    return new Iterable<T>() {
+      @Override
+      public Iterator<T> iterator() {
+        final Set<Symbol> seen = new HashSet<>();
+        final List<Iterable<T>> segments = new ArrayList<>();
+        for (int i = 0; i < newestFirst.size(); ++i) {
+          final boolean oldest = i == newestFirst.size() - 1;
+          segments.add(FluentIterable.from(newestFirst.get(i)).filter(new Predicate<T>() {
+            @Override
+            public boolean apply(final T item) {
+              final Symbol key = keyFunction.apply(item);
+              return oldest ? !seen.contains(key) : seen.add(key);
+            }
+          }));
+        }
+        return Iterables.concat(segments).iterator();
+      }
+    };
+  }
+}
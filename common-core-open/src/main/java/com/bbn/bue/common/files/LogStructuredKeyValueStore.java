@@ -0,0 +1,276 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+import com.google.common.io.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An appendable key-value store made of a sequence of immutable segments, each an ordinary store
+ * in some {@link KeyValueStoreFormat}, listed oldest first in a manifest file in the store's
+ * directory. Each {@link KeyValueSinks#appendingTo(File, KeyValueStoreFormat)} sink writes a new
+ * segment, which is added to the manifest only when the sink is closed successfully, so adding
+ * documents to a store never rewrites existing data. A key in a newer segment shadows the same key
+ * in all older ones. {@link KeyValueSources#fromLogStructuredStore(File)} presents the segments as
+ * a single source, looking up keys in the newest segment first.
+ *
+ * As segments accumulate, lookups of old or absent keys get slower.  {@link #compact(File)}
+ * merges all the segments into one containing only the visible entries.
+ *
+ * Only one sink or compaction may modify a store at a time; this is enforced with a lock file.
+ * Readers need no lock: they see the segments listed in the manifest when they were opened, and
+ * the manifest is always replaced atomically, only after the segments it lists are forced to
+ * disk. On platforms which allow deleting open files (e.g. Linux), compaction can run while readers
+ * are using the store, for example on a background thread; open readers keep reading the old
+ * segments.
+ */
+@Beta
+public final class LogStructuredKeyValueStore {
+
+  private static final Logger log = LoggerFactory.getLogger(LogStructuredKeyValueStore.class);
+
+  static final String MANIFEST_NAME = "MANIFEST";
+  static final String LOCK_NAME = "LOCK";
+  private static final String HEADER = "#bue-log-structured-key-value-store\t1";
+  private static final String FORMAT = "format";
+  private static final String SEGMENT = "segment";
+  private static final String NEXT_SEGMENT = "nextSegment";
+
+  private final File directory;
+  private final KeyValueStoreFormat format;
+  private final ImmutableList<String> segmentNames;
+  private final int nextSegment;
+
+  private LogStructuredKeyValueStore(final File directory, final KeyValueStoreFormat format,
+      final Iterable<String> segmentNames, final int nextSegment) {
+    this.directory = checkNotNull(directory);
+    this.format = checkNotNull(format);
+    this.segmentNames = ImmutableList.copyOf(segmentNames);
+    this.nextSegment = nextSegment;
+    checkArgument(nextSegment >= 0);
+  }
+
+  /**
+   * Merges all the segments of the store in {@code directory} into a single segment containing
+   * only the entries which are visible to readers, then deletes the old segments. Does nothing if
+   * the store already has at most one segment.
+   *
+   * Compaction holds the keys of every segment but the oldest in memory as {@link Symbol}s, in
+   * order to drop shadowed entries. This is small when a large compacted segment has had a few
+   * segments appended to it, but compacting many large segments together needs memory for nearly
+   * all their keys.
+   *
+   * @param directory the directory of the store
+   * @throws IOException if the store could not be read or written, or is locked by a writer
+   */
+  public static void compact(final File directory) throws IOException {
+    final Closer closer = Closer.create();
+    try {
+      closer.register(lock(directory));
+      final LogStructuredKeyValueStore store = read(directory);
+      if (store.segmentNames.size() <= 1) {
+        return;
+      }
+      final String compactedName = store.segmentName(store.nextSegment);
+      try (ImmutableKeyValueSource<Symbol, ByteSource> source = store.openSource();
+           KeyValueSink<Symbol, byte[]> sink =
+               store.format.openSink(new File(directory, compactedName))) {
+        for (final Map.Entry<Symbol, ByteSource> entry : source.entries()) {
+          sink.put(entry.getKey(), entry.getValue().read());
+        }
+      }
+      store.syncSegment(compactedName);
+      new LogStructuredKeyValueStore(directory, store.format, ImmutableList.of(compactedName),
+          store.nextSegment + 1).write();
+      log.info("Compacted {} segments of {} into {}", store.segmentNames.size(), directory,
+          compactedName);
+      for (final String oldSegment : store.segmentNames) {
+        for (final File file : store.format.storeFiles(new File(directory, oldSegment))) {
+          if (!file.delete()) {
+            log.warn("Could not delete old segment file {}", file);
+          }
+        }
+      }
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  static LogStructuredKeyValueStore empty(final File directory,
+      final KeyValueStoreFormat format) {
+    return new LogStructuredKeyValueStore(directory, format, ImmutableList.<String>of(), 0);
+  }
+
+  static boolean exists(final File directory) {
+    return new File(directory, MANIFEST_NAME).isFile();
+  }
+
+  KeyValueStoreFormat format() {
+    return format;
+  }
+
+  ImmutableList<File> segmentFiles() {
+    final ImmutableList.Builder<File> ret = ImmutableList.builder();
+    for (final String segmentName : segmentNames) {
+      ret.add(new File(directory, segmentName));
+    }
+    return ret.build();
+  }
+
+  String segmentName(final int segment) {
+    return String.format("segment-%05d.%s", segment, format.fileExtension());
+  }
+
+  int nextSegment() {
+    return nextSegment;
+  }
+
+  /**
+   * This store with {@code segmentName} appended as its newest segment.
+   */
+  LogStructuredKeyValueStore withSegment(final String segmentName) {
+    return new LogStructuredKeyValueStore(directory, format,
+        ImmutableList.<String>builder().addAll(segmentNames).add(segmentName).build(),
+        nextSegment + 1);
+  }
+
+  LogStructuredKeyValueSource openSource() throws IOException {
+    return LogStructuredKeyValueSource.open(format, segmentFiles());
+  }
+
+  /**
+   * Takes the store's write lock, failing if another sink or compaction holds it. The lock is
+   * released by closing the result.
+   */
+  static Closeable lock(final File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create store directory " + directory);
+    }
+    final RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_NAME), "rw");
+    FileLock lock;
+    try {
+      lock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      // held by another writer in this process
+      lock = null;
+    } catch (IOException | RuntimeException e) {
+      lockFile.close();
+      throw e;
+    }
+    if (lock == null) {
+      lockFile.close();
+      throw new IOException("Store " + directory + " is being modified by another writer");
+    }
+    // closing the file releases the lock
+    return lockFile;
+  }
+
+  static LogStructuredKeyValueStore read(final File directory) throws IOException {
+    final File manifestFile = new File(directory, MANIFEST_NAME);
+    final List<String> lines = Files.asCharSource(manifestFile, Charsets.UTF_8).readLines();
+    if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+      throw new IOException(manifestFile + " is not a log-structured key-value store manifest");
+    }
+    KeyValueStoreFormat format = null;
+    Integer nextSegment = null;
+    final ImmutableList.Builder<String> segmentNames = ImmutableList.builder();
+    for (final String line : lines.subList(1, lines.size())) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      final List<String> fields = Splitter.on('\t').splitToList(line);
+      if (fields.size() != 2) {
+        throw new IOException("Invalid line in manifest " + manifestFile + ": " + line);
+      }
+      try {
+        if (fields.get(0).equals(FORMAT)) {
+          format = KeyValueStoreFormat.valueOf(fields.get(1));
+        } else if (fields.get(0).equals(NEXT_SEGMENT)) {
+          nextSegment = Integer.parseInt(fields.get(1));
+        } else if (fields.get(0).equals(SEGMENT)) {
+          segmentNames.add(fields.get(1));
+        } else {
+          throw new IOException("Invalid line in manifest " + manifestFile + ": " + line);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid line in manifest " + manifestFile + ": " + line, e);
+      }
+    }
+    if (format == null || nextSegment == null) {
+      throw new IOException("Manifest " + manifestFile + " is incomplete");
+    }
+    return new LogStructuredKeyValueStore(directory, format, segmentNames.build(), nextSegment);
+  }
+
+  /**
+   * Atomically replaces the store's manifest with one describing this store.
+   */
+  void write() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append('\n');
+    sb.append(FORMAT).append('\t').append(format.name()).append('\n');
+    sb.append(NEXT_SEGMENT).append('\t').append(nextSegment).append('\n');
+    for (final String segmentName : segmentNames) {
+      sb.append(SEGMENT).append('\t').append(segmentName).append('\n');
+    }
+    final File tmpFile = new File(directory, MANIFEST_NAME + ".tmp");
+    Files.asCharSink(tmpFile, Charsets.UTF_8).write(sb.toString());
+    sync(tmpFile);
+    java.nio.file.Files.move(tmpFile.toPath(), new File(directory, MANIFEST_NAME).toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory();
+  }
+
+  /**
+   * Forces the files of the segment {@code segmentName} to disk. This must be done before a
+   * manifest listing the segment is written, or a crash could leave a manifest pointing at a
+   * segment whose data was never written.
+   */
+  void syncSegment(final String segmentName) throws IOException {
+    for (final File file : format.storeFiles(new File(directory, segmentName))) {
+      sync(file);
+    }
+    syncDirectory();
+  }
+
+  private static void sync(final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+  }
+
+  // makes the creation and renaming of files in the directory durable
+  private void syncDirectory() {
+    try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // some platforms (e.g. Windows) can't open directories, and order these updates themselves
+      log.debug("Could not sync directory {}", directory, e);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link KeyValueSink} which writes a data file and index readable by {@link
+ * MappedFileKeyValueSource}. Values are appended to the data file as they are put. The keys and
+ * value locations are held in memory and the index is written when the sink is closed, so a sink
+ * which is not closed leaves no usable store.
+ */
+final class MappedFileKeyValueSink implements KeyValueSink<Symbol, byte[]> {
+
+  private final File indexFile;
+  private final OutputStream dataOut;
+  private final Set<Symbol> keysSeen = Sets.newHashSet();
+  private final List<byte[]> keys = new ArrayList<>();
+  private long[] valueOffsets = new long[1024];
+  private int[] valueLengths = new int[1024];
+  private long dataLength = 0;
+  private boolean closed = false;
+
+  private MappedFileKeyValueSink(final File indexFile, final OutputStream dataOut) {
+    this.indexFile = checkNotNull(indexFile);
+    this.dataOut = checkNotNull(dataOut);
+  }
+
+  @Nonnull
+  static MappedFileKeyValueSink forFiles(final File dataFile, final File indexFile)
+      throws IOException {
+    return new MappedFileKeyValueSink(indexFile,
+        new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 16));
+  }
+
+  @Override
+  public void put(final Symbol key, final byte[] value) throws IOException {
+    checkState(!closed, "Sink is closed");
+    checkArgument(keysSeen.add(key), "Duplicate key %s", key);
+    final int idx = keys.size();
+    if (idx == valueOffsets.length) {
+      valueOffsets = Arrays.copyOf(valueOffsets, 2 * idx);
+      valueLengths = Arrays.copyOf(valueLengths, 2 * idx);
+    }
+    keys.add(key.asString().getBytes(Charsets.UTF_8));
+    valueOffsets[idx] = dataLength;
+    valueLengths[idx] = value.length;
+    dataOut.write(value);
+    dataLength += value.length;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    final Closer closer = Closer.create();
+    try {
+      closer.register(dataOut);
+      writeIndex();
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  private void writeIndex() throws IOException {
+    final int n = keys.size();
+    long keyDataLength = 0;
+    for (final byte[] key : keys) {
+      keyDataLength += key.length;
+    }
+    final long indexLength = MappedFileKeyValueSource.indexLength(n, keyDataLength);
+    if (indexLength > Integer.MAX_VALUE) {
+      throw new IOException("Index would be " + indexLength + " bytes but at most 2GB is "
+          + "supported");
+    }
+
+    final int[] sortedIdxs = SortedKeyIndex.sortedOrder(keys);
+
+    final Closer closer = Closer.create();
+    try {
+      final DataOutputStream out = closer.register(new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16)));
+      out.writeInt(MappedFileKeyValueSource.MAGIC);
+      out.writeInt(MappedFileKeyValueSource.VERSION);
+      out.writeInt(n);
+      out.writeInt((int) keyDataLength);
+      out.writeLong(dataLength);
+      int keyOffset = 0;
+      for (final int idx : sortedIdxs) {
+        out.writeInt(keyOffset);
+        keyOffset += keys.get(idx).length;
+      }
+      out.writeInt(keyOffset);
+      for (final int idx : sortedIdxs) {
+        out.writeLong(valueOffsets[idx]);
+      }
+      for (final int idx : sortedIdxs) {
+        out.writeInt(valueLengths[idx]);
+      }
+      for (final int idx : sortedIdxs) {
+        out.write(keys.get(idx));
+      }
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link ImmutableKeyValueSource} over a data file of concatenated values and a sorted binary
+ * index of keys, both accessed through memory mappings. Opening a source only maps the files, so it
+ * is nearly instantaneous regardless of their size, and values are returned as {@link ByteSource}s
+ * over the mapped data which copy nothing until read.  The operating system shares the mapped
+ * pages between all processes serving from the same store.
+ *
+ * Keys are found by binary search over their UTF-8 bytes in the mapped index, without creating
+ * any {@link Symbol}s. The data file is mapped in chunks of at most 1GB, so it may be of any size;
+ * a value which straddles two chunks is returned as a concatenation of two views. The index is
+ * limited to 2GB.
+ *
+ * Stores are written by {@link KeyValueSinks#forMappedFile(File, File)}.  The index file format is
+ * (all integers big-endian):
+ * <ul>
+ * <li>a header: a magic number, a format version, the number of entries {@code n}, the length of
+ * the key data in bytes, and (as a long) the length of the data file.</li>
+ * <li>{@code n+1} ints giving the start offset of each key's UTF-8 bytes in the key data, in
+ * sorted order. The last entry is the length of the key data.</li>
+ * <li>{@code n} longs giving the offset of each key's value in the data file</li>
+ * <li>{@code n} ints giving the length of each key's value</li>
+ * <li>the key data: the concatenated UTF-8 bytes of the keys, sorted by those bytes.</li>
+ * </ul>
+ *
+ * As for any memory mapping, the mapped files are only released when the source is garbage
+ * collected, not when it is closed.
+ */
+final class MappedFileKeyValueSource extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
+
+  static final int MAGIC = 0x424b5646; // "BKVF"
+  static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * Ints.BYTES + Longs.BYTES;
+  static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+  private final ByteBuffer index;
+  private final int size;
+  private final SortedKeyIndex keys;
+  private final int valueOffsetsStart;
+  private final int valueLengthsStart;
+  private final int chunkSize;
+  // the data file, split into chunks of chunkSize bytes (except for the last)
+  private final MappedByteBuffer[] dataChunks;
+  // so a pass over the entries reads the data file sequentially
+  private final StorageOrder<ByteSource> storageOrder;
+
+  private MappedFileKeyValueSource(final ByteBuffer index, final MappedByteBuffer[] dataChunks,
+      final int chunkSize, final long dataLength) throws IOException {
+    this.index = checkNotNull(index);
+    this.dataChunks = checkNotNull(dataChunks);
+    this.chunkSize = chunkSize;
+    if (index.limit() < HEADER_BYTES || index.getInt(0) != MAGIC) {
+      throw new IOException("Not a mapped key-value index file");
+    }
+    final int version = index.getInt(Ints.BYTES);
+    if (version != VERSION) {
+      throw new IOException("Unsupported mapped key-value index version " + version);
+    }
+    this.size = index.getInt(2 * Ints.BYTES);
+    final int keyDataLength = index.getInt(3 * Ints.BYTES);
+    final long expectedDataLength = index.getLong(4 * Ints.BYTES);
+    if (size < 0 || keyDataLength < 0
+        || indexLength(size, keyDataLength) != index.limit()) {
+      throw new IOException("Mapped key-value index file is truncated or corrupt");
+    }
+    if (expectedDataLength != dataLength) {
+      throw new IOException("Data file has length " + dataLength + " but index expects "
+          + expectedDataLength);
+    }
+    final int keyOffsetsStart = HEADER_BYTES;
+    this.valueOffsetsStart = keyOffsetsStart + (int) SortedKeyIndex.keyOffsetsLength(size);
+    this.valueLengthsStart = valueOffsetsStart + size * Longs.BYTES;
+    final int keyDataStart = valueLengthsStart + size * Ints.BYTES;
+    this.keys = new SortedKeyIndex(index, size, keyOffsetsStart, keyDataStart);
+    this.storageOrder = new StorageOrder<ByteSource>(keys) {
+      @Override
+      long position(final int idx) {
+        return index.getLong(valueOffsetsStart + idx * Longs.BYTES);
+      }
+
+      @Override
+      ByteSource value(final int idx) {
+        return MappedFileKeyValueSource.this.value(idx);
+      }
+    };
+  }
+
+  @Nonnull
+  static MappedFileKeyValueSource open(final File dataFile, final File indexFile)
+      throws IOException {
+    return open(dataFile, indexFile, DEFAULT_CHUNK_SIZE);
+  }
+
+  // chunk size is exposed for testing
+  @Nonnull
+  static MappedFileKeyValueSource open(final File dataFile, final File indexFile,
+      final int chunkSize) throws IOException {
+    checkArgument(chunkSize > 0);
+    final Closer closer = Closer.create();
+    try {
+      final FileChannel indexChannel =
+          closer.register(new RandomAccessFile(indexFile, "r")).getChannel();
+      if (indexChannel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Index file " + indexFile + " is larger than 2GB");
+      }
+      // the mappings remain valid after the channels are closed
+      final MappedByteBuffer index =
+          indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+
+      final FileChannel dataChannel =
+          closer.register(new RandomAccessFile(dataFile, "r")).getChannel();
+      final long dataLength = dataChannel.size();
+      final List<MappedByteBuffer> chunks = new ArrayList<>();
+      for (long chunkStart = 0; chunkStart < dataLength; chunkStart += chunkSize) {
+        chunks.add(dataChannel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+            Math.min(chunkSize, dataLength - chunkStart)));
+      }
+      return new MappedFileKeyValueSource(index,
+          chunks.toArray(new MappedByteBuffer[chunks.size()]), chunkSize, dataLength);
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  static File defaultIndexFileFor(final File dataFile) {
+    return new File(dataFile.getPath() + ".index");
+  }
+
+  static long indexLength(final int numEntries, final long keyDataLength) {
+    return HEADER_BYTES + SortedKeyIndex.keyOffsetsLength(numEntries)
+        + (long) numEntries * Longs.BYTES + (long) numEntries * Ints.BYTES + keyDataLength;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Symbol> keys() {
+    return new Iterable<Symbol>() {
+      @Override
+      public Iterator<Symbol> iterator() {
+        return new AbstractIterator<Symbol>() {
+          private int next = 0;
+
+          @Override
+          protected Symbol computeNext() {
+            if (next < size) {
+              return keys.key(next++);
+            }
+            return endOfData();
+          }
+        };
+      }
+    };
+  }
+
+  @Nonnull
+  @Override
+  public Optional<ByteSource> get(final Symbol key) {
+    final int idx = keys.indexOf(key);
+    if (idx < 0) {
+      return Optional.absent();
+    }
+    return Optional.of(value(idx));
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<Symbol, ByteSource>> entries() {
+    return storageOrder.entries();
+  }
+
+  @Nonnull
+  @Override
+  public List<Iterable<Map.Entry<Symbol, ByteSource>>> partitionedEntries(
+      final int maxPartitions) {
+    return storageOrder.partitionedEntries(maxPartitions);
+  }
+
+  @Nonnull
+  @Override
+  protected List<Symbol> retrievalOrder(final List<Symbol> keys) {
+    return storageOrder.retrievalOrder(keys);
+  }
+
+  @Override
+  public void close() {
+    // nothing to do; mappings are released when garbage collected
+  }
+
+  private ByteSource value(final int idx) {
+    final long offset = index.getLong(valueOffsetsStart + idx * Longs.BYTES);
+    final int length = index.getInt(valueLengthsStart + idx * Ints.BYTES);
+    int chunk = (int) (offset / chunkSize);
+    int positionInChunk = (int) (offset % chunkSize);
+    if (length == 0) {
+      return ByteSource.empty();
+    }
+    if ((long) positionInChunk + length <= chunkSize) {
+      return chunkSlice(chunk, positionInChunk, length);
+    }
+    // the value straddles chunks
+    final List<ByteSource> pieces = new ArrayList<>();
+    int remaining = length;
+    while (remaining > 0) {
+      final int pieceLength = Math.min(remaining, chunkSize - positionInChunk);
+      pieces.add(chunkSlice(chunk, positionInChunk, pieceLength));
+      remaining -= pieceLength;
+      ++chunk;
+      positionInChunk = 0;
+    }
+    return ByteSource.concat(pieces);
+  }
+
+  private ByteSource chunkSlice(final int chunk, final int start, final int length) {
+    final ByteBuffer view = dataChunks[chunk].duplicate();
+    view.position(start);
+    view.limit(start + length);
+    return ByteBufferByteSource.of(view);
+  }
+}
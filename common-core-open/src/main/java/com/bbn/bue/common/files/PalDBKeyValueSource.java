@@ -3,16 +3,22 @@ package com.bbn.bue.common.files;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.bue.common.symbols.SymbolUtils;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteSource;
 import com.linkedin.paldb.api.NotFoundException;
 import com.linkedin.paldb.api.PalDB;
 import com.linkedin.paldb.api.StoreReader;
+import com.linkedin.paldb.utils.HashUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
@@ -25,6 +31,15 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 final class PalDBKeyValueSource extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
 
+  /**
+   * PalDB (as of 1.1.0) hashes keys with a single static, unsynchronized hasher in {@link
+   * HashUtils}, which readers use on every lookup and writers use when closing. All such calls
+   * made through this package must hold this lock, otherwise concurrent readers and writers of
+   * different stores silently compute wrong hashes, making keys unfindable. This means PalDB
+   * lookups and writer closes are serialized across all PalDB stores in the JVM.
+   */
+  static final Object HASH_LOCK = new Object();
+
   private final StoreReader reader;
 
   private PalDBKeyValueSource(final StoreReader reader) {
@@ -59,13 +74,41 @@ final class PalDBKeyValueSource extends AbstractImmutableKeyValueSource<Symbol,
   public Optional<ByteSource> get(final Symbol key) throws IOException {
     final byte[] value;
     try {
-      value = reader.getByteArray(key.asString());
+      synchronized (HASH_LOCK) {
+        value = reader.getByteArray(key.asString());
+      }
     } catch (NotFoundException e) {
       return Optional.absent();
     }
     return Optional.of(ByteSource.wrap(value));
   }
 
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<Symbol, ByteSource>> entries() {
+    // PalDB can iterate over its records in storage order without any hash lookups
+    final Iterable<Map.Entry<String, byte[]>> records = reader.iterable();
+    return FluentIterable.from(records).transform(
+        new Function<Map.Entry<String, byte[]>, Map.Entry<Symbol, ByteSource>>() {
+          @Override
+          public Map.Entry<Symbol, ByteSource> apply(final Map.Entry<String, byte[]> record) {
+            return Maps.immutableEntry(Symbol.from(record.getKey()),
+                ByteSource.wrap(record.getValue()));
+          }
+        });
+  }
+
+  @Nonnull
+  @Override
+  public List<Iterable<Map.Entry<Symbol, ByteSource>>> partitionedEntries(
+      final int maxPartitions) throws IOException {
+    // PalDB's iteration can't be split, so multiple partitions have to look up each key
+    if (maxPartitions == 1) {
+      return ImmutableList.of(entries());
+    }
+    return super.partitionedEntries(maxPartitions);
+  }
+
   @Override
   public void close() throws IOException {
     try {
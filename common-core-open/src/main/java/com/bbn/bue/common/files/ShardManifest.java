@@ -0,0 +1,125 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Records the format and files of the shards of a sharded key-value store, so readers can open it
+ * knowing only the location of the manifest (see {@link KeyValueSources#fromShardManifest(File)}).
+ *
+ * The manifest is a UTF-8 text file. Its first line is {@link #HEADER}. Every other line is
+ * tab-separated: a {@code format} line gives the {@link KeyValueStoreFormat} name of the shards,
+ * followed by one {@code shard} line per shard, in shard order, giving the path of the shard
+ * relative to the manifest's directory. The number and order of the shards matters because keys
+ * are assigned to shards by {@link
+ * ShardedKeyValueSource#shardFor(com.bbn.bue.common.symbols.Symbol, int)}.
+ */
+final class ShardManifest {
+
+  static final String HEADER = "#bue-sharded-key-value-store\t1";
+  private static final String FORMAT = "format";
+  private static final String SHARD = "shard";
+
+  private final KeyValueStoreFormat format;
+  private final ImmutableList<File> shardFiles;
+
+  private ShardManifest(final KeyValueStoreFormat format, final Iterable<File> shardFiles) {
+    this.format = checkNotNull(format);
+    this.shardFiles = ImmutableList.copyOf(shardFiles);
+    checkArgument(!this.shardFiles.isEmpty(), "A sharded store must have at least one shard");
+  }
+
+  static ShardManifest of(final KeyValueStoreFormat format, final Iterable<File> shardFiles) {
+    return new ShardManifest(format, shardFiles);
+  }
+
+  KeyValueStoreFormat format() {
+    return format;
+  }
+
+  ImmutableList<File> shardFiles() {
+    return shardFiles;
+  }
+
+  /**
+   * The conventional location of the {@code shardIdx}-th shard of a store with the given
+   * manifest.
+   */
+  static File defaultShardFile(final File manifestFile, final KeyValueStoreFormat format,
+      final int shardIdx) {
+    return new File(manifestFile.getAbsoluteFile().getParentFile(),
+        String.format("%s.shard-%05d.%s", manifestFile.getName(), shardIdx,
+            format.fileExtension()));
+  }
+
+  void write(final File manifestFile) throws IOException {
+    final File baseDir = manifestFile.getAbsoluteFile().getParentFile();
+    final StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append('\n');
+    sb.append(FORMAT).append('\t').append(format.name()).append('\n');
+    for (final File shardFile : shardFiles) {
+      final File absolute = shardFile.getAbsoluteFile();
+      checkArgument(baseDir.equals(absolute.getParentFile()),
+          "Shards must be in the same directory as the manifest, but got %s", shardFile);
+      sb.append(SHARD).append('\t').append(absolute.getName()).append('\n');
+    }
+    Files.asCharSink(manifestFile, Charsets.UTF_8).write(sb.toString());
+  }
+
+  static ShardManifest read(final File manifestFile) throws IOException {
+    final List<String> lines = Files.asCharSource(manifestFile, Charsets.UTF_8).readLines();
+    if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+      throw new IOException(manifestFile + " is not a sharded key-value store manifest");
+    }
+    final File baseDir = manifestFile.getAbsoluteFile().getParentFile();
+    KeyValueStoreFormat format = null;
+    final ImmutableList.Builder<File> shardFiles = ImmutableList.builder();
+    for (final String line : lines.subList(1, lines.size())) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      final List<String> fields = TAB_SPLITTER.splitToList(line);
+      if (fields.size() != 2) {
+        throw new IOException("Invalid line in manifest " + manifestFile + ": " + line);
+      }
+      if (fields.get(0).equals(FORMAT)) {
+        try {
+          format = KeyValueStoreFormat.valueOf(fields.get(1));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Unknown key-value store format " + fields.get(1)
+              + " in manifest " + manifestFile);
+        }
+      } else if (fields.get(0).equals(SHARD)) {
+        shardFiles.add(new File(baseDir, fields.get(1)));
+      } else {
+        throw new IOException("Invalid line in manifest " + manifestFile + ": " + line);
+      }
+    }
+    if (format == null) {
+      throw new IOException("Manifest " + manifestFile + " does not specify a format");
+    }
+    final ImmutableList<File> shards = shardFiles.build();
+    if (shards.isEmpty()) {
+      throw new IOException("Manifest " + manifestFile + " lists no shards");
+    }
+    return new ShardManifest(format, shards);
+  }
+
+  @Override
+  public String toString() {
+    return "ShardManifest[" + format + ": " + JOINER.join(shardFiles) + "]";
+  }
+
+  private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+  private static final Joiner JOINER = Joiner.on(", ");
+}
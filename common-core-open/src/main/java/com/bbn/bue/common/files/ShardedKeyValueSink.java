@@ -0,0 +1,144 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link KeyValueSink} which routes each key to one of several underlying sinks by {@link
+ * ShardedKeyValueSource#shardFor(Symbol, int)}. Each underlying sink is written by its own thread
+ * fed through a bounded queue (see {@link AsynchronousKeyValueSink}), so slow writes (compression,
+ * fsyncs) to different shards proceed in parallel while {@link #put(Symbol, byte[])} usually
+ * returns immediately. When a queue is full, {@code put} blocks until its writer catches up,
+ * bounding memory use.
+ *
+ * If writing to a shard fails, the failure is reported by the next {@code put} to that shard or by
+ * {@link #close()}, whichever comes first. Closing waits for all writers to finish and closes all
+ * underlying sinks (in parallel, on the writer threads). If this sink was created for a manifest
+ * (see {@link KeyValueSinks#forShardedStore(File, KeyValueStoreFormat, int)}), the manifest is
+ * written only once all shards have been closed successfully, so readers never see a manifest for
+ * an incomplete store.
+ *
+ * {@code put} may be called from multiple threads.
+ */
+final class ShardedKeyValueSink implements KeyValueSink<Symbol, byte[]> {
+
+  static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private final ImmutableList<AsynchronousKeyValueSink<Symbol, byte[]>> writers;
+  private final Optional<File> manifestFile;
+  private final Optional<ShardManifest> manifest;
+  private volatile boolean closed = false;
+
+  private ShardedKeyValueSink(final List<? extends KeyValueSink<Symbol, byte[]>> shardSinks,
+      final int queueCapacity, final Optional<File> manifestFile,
+      final Optional<ShardManifest> manifest) {
+    checkArgument(!shardSinks.isEmpty(), "Must have at least one shard");
+    checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+    this.manifestFile = checkNotNull(manifestFile);
+    this.manifest = checkNotNull(manifest);
+    final ImmutableList.Builder<AsynchronousKeyValueSink<Symbol, byte[]>> writers =
+        ImmutableList.builder();
+    for (int i = 0; i < shardSinks.size(); ++i) {
+      writers.add(AsynchronousKeyValueSink.wrap(shardSinks.get(i), queueCapacity,
+          "shard-writer-" + i, "shard " + i));
+    }
+    this.writers = writers.build();
+  }
+
+  @Nonnull
+  static ShardedKeyValueSink of(final List<? extends KeyValueSink<Symbol, byte[]>> shardSinks,
+      final int queueCapacity) {
+    return new ShardedKeyValueSink(shardSinks, queueCapacity, Optional.<File>absent(),
+        Optional.<ShardManifest>absent());
+  }
+
+  @Nonnull
+  static ShardedKeyValueSink forManifest(final File manifestFile,
+      final KeyValueStoreFormat format, final int numShards) throws IOException {
+    checkArgument(numShards > 0, "Must have at least one shard");
+    final List<File> shardFiles = new ArrayList<>();
+    final List<KeyValueSink<Symbol, byte[]>> shardSinks = new ArrayList<>();
+    try {
+      for (int i = 0; i < numShards; ++i) {
+        final File shardFile = ShardManifest.defaultShardFile(manifestFile, format, i);
+        shardFiles.add(shardFile);
+        shardSinks.add(format.openSink(shardFile));
+      }
+    } catch (Throwable t) {
+      // don't leak the sinks we managed to open
+      final Closer closer = Closer.create();
+      for (final KeyValueSink<Symbol, byte[]> sink : shardSinks) {
+        closer.register(new Closeable() {
+          @Override
+          public void close() throws IOException {
+            sink.close();
+          }
+        });
+      }
+      try {
+        throw closer.rethrow(t);
+      } finally {
+        closer.close();
+      }
+    }
+    return new ShardedKeyValueSink(shardSinks, DEFAULT_QUEUE_CAPACITY, Optional.of(manifestFile),
+        Optional.of(ShardManifest.of(format, shardFiles)));
+  }
+
+  @Override
+  public void put(final Symbol key, final byte[] value) throws IOException {
+    checkNotNull(key);
+    checkNotNull(value);
+    checkState(!closed, "Sink is closed");
+    writers.get(ShardedKeyValueSource.shardFor(key, writers.size())).put(key, value);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // let all the shards finish in parallel before waiting on any of them
+    for (final AsynchronousKeyValueSink<Symbol, byte[]> writer : writers) {
+      try {
+        writer.finish();
+      } catch (IOException e) {
+        // the writer has already stopped; its failure is reported below
+      }
+    }
+    IOException failure = null;
+    for (final AsynchronousKeyValueSink<Symbol, byte[]> writer : writers) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    if (manifest.isPresent()) {
+      manifest.get().write(manifestFile.get());
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Closer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Presents the shards of a store written by {@link ShardedKeyValueSink} as a single source. Each
+ * key is looked up only in the shard it was routed to by {@link #shardFor(Symbol, int)}, so lookups
+ * cost the same as in a single shard. Closing this source closes all the shards.
+ */
+final class ShardedKeyValueSource extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
+
+  private final ImmutableList<ImmutableKeyValueSource<Symbol, ByteSource>> shards;
+
+  private ShardedKeyValueSource(
+      final Iterable<? extends ImmutableKeyValueSource<Symbol, ByteSource>> shards) {
+    this.shards = ImmutableList.copyOf(shards);
+    checkArgument(!this.shards.isEmpty(), "Must have at least one shard");
+  }
+
+  @Nonnull
+  static ShardedKeyValueSource of(
+      final Iterable<? extends ImmutableKeyValueSource<Symbol, ByteSource>> shards) {
+    return new ShardedKeyValueSource(shards);
+  }
+
+  @Nonnull
+  static ShardedKeyValueSource fromManifest(final File manifestFile) throws IOException {
+    final ShardManifest manifest = ShardManifest.read(manifestFile);
+    final List<ImmutableKeyValueSource<Symbol, ByteSource>> shards = new ArrayList<>();
+    try {
+      for (final File shardFile : manifest.shardFiles()) {
+        shards.add(manifest.format().openSource(shardFile));
+      }
+    } catch (Throwable t) {
+      // don't leak the shards we managed to open
+      final Closer closer = Closer.create();
+      registerAll(closer, shards);
+      try {
+        throw closer.rethrow(t);
+      } finally {
+        closer.close();
+      }
+    }
+    return new ShardedKeyValueSource(shards);
+  }
+
+  /**
+   * The shard which {@code key} belongs to in a store with {@code numShards} shards. This depends
+   * only on the key's string, so it is the same across JVMs and runs.
+   */
+  static int shardFor(final Symbol key, final int numShards) {
+    return (key.asString().hashCode() & Integer.MAX_VALUE) % numShards;
+  }
+
+  int numShards() {
+    return shards.size();
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Symbol> keys() throws IOException {
+    final List<Iterable<Symbol>> shardKeys = new ArrayList<>();
+    for (final ImmutableKeyValueSource<Symbol, ByteSource> shard : shards) {
+      shardKeys.add(shard.keys());
+    }
+    return Iterables.concat(shardKeys);
+  }
+
+  @Nonnull
+  @Override
+  public Optional<ByteSource> get(final Symbol key) throws IOException {
+    return shards.get(shardFor(key, shards.size())).get(key);
+  }
+
+  @Nonnull
+  @Override
+  public Iterator<Map.Entry<Symbol, ByteSource>> getAll(final Iterable<? extends Symbol> keys)
+      throws IOException {
+    // each shard can order its own keys by storage location
+    final List<List<Symbol>> keysByShard = new ArrayList<>();
+    for (int i = 0; i < shards.size(); ++i) {
+      keysByShard.add(new ArrayList<Symbol>());
+    }
+    for (final Symbol key : keys) {
+      keysByShard.get(shardFor(key, shards.size())).add(key);
+    }
+    final List<Iterator<Map.Entry<Symbol, ByteSource>>> shardEntries = new ArrayList<>();
+    for (int i = 0; i < shards.size(); ++i) {
+      if (!keysByShard.get(i).isEmpty()) {
+        shardEntries.add(shards.get(i).getAll(keysByShard.get(i)));
+      }
+    }
+    return Iterators.concat(shardEntries.iterator());
+  }
+
+  @Nonnull
+  @Override
+  public Iterable<Map.Entry<Symbol, ByteSource>> entries() throws IOException {
+    final List<Iterable<Map.Entry<Symbol, ByteSource>>> shardEntries = new ArrayList<>();
+    for (final ImmutableKeyValueSource<Symbol, ByteSource> shard : shards) {
+      shardEntries.add(shard.entries());
+    }
+    return Iterables.concat(shardEntries);
+  }
+
+  @Nonnull
+  @Override
+  public List<Iterable<Map.Entry<Symbol, ByteSource>>> partitionedEntries(
+      final int maxPartitions) throws IOException {
+    checkArgument(maxPartitions > 0, "Must allow at least one partition");
+    if (maxPartitions < shards.size()) {
+      // whole shards are the natural partitions, so deal them out
+      final List<List<Iterable<Map.Entry<Symbol, ByteSource>>>> partitions = new ArrayList<>();
+      for (int i = 0; i < maxPartitions; ++i) {
+        partitions.add(new ArrayList<Iterable<Map.Entry<Symbol, ByteSource>>>());
+      }
+      for (int i = 0; i < shards.size(); ++i) {
+        partitions.get(i % maxPartitions).add(shards.get(i).entries());
+      }
+      final ImmutableList.Builder<Iterable<Map.Entry<Symbol, ByteSource>>> ret =
+          ImmutableList.builder();
+      for (final List<Iterable<Map.Entry<Symbol, ByteSource>>> partition : partitions) {
+        ret.add(Iterables.concat(partition));
+      }
+      return ret.build();
+    } else {
+      // split each shard, rounding down so we never exceed the requested number of partitions
+      final int partitionsPerShard = maxPartitions / shards.size();
+      final ImmutableList.Builder<Iterable<Map.Entry<Symbol, ByteSource>>> ret =
+          ImmutableList.builder();
+      for (final ImmutableKeyValueSource<Symbol, ByteSource> shard : shards) {
+        ret.addAll(shard.partitionedEntries(partitionsPerShard));
+      }
+      return ret.build();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    final Closer closer = Closer.create();
+    registerAll(closer, shards);
+    closer.close();
+  }
+}
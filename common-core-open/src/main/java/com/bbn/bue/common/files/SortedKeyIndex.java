@@ -0,0 +1,147 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The sorted keys of an on-disk key-value store, as laid out in the index files of {@link
+ * MappedFileKeyValueSource} and {@link BlockCompressedKeyValueSource}: {@code n+1} ints giving the
+ * start of each key's UTF-8 bytes within the key data (the last being the length of the key data),
+ * followed elsewhere by the key data itself, with the keys sorted by their bytes as unsigned
+ * values. Lookups are by binary search directly over the buffer, without creating any {@link
+ * Symbol}s.
+ */
+final class SortedKeyIndex {
+
+  private final ByteBuffer index;
+  private final int size;
+  private final int keyOffsetsStart;
+  private final int keyDataStart;
+
+  SortedKeyIndex(final ByteBuffer index, final int size, final int keyOffsetsStart,
+      final int keyDataStart) {
+    this.index = checkNotNull(index);
+    this.size = size;
+    this.keyOffsetsStart = keyOffsetsStart;
+    this.keyDataStart = keyDataStart;
+  }
+
+  /**
+   * The number of bytes needed to store the key offsets of {@code numKeys} keys.
+   */
+  static long keyOffsetsLength(final int numKeys) {
+    return (numKeys + 1L) * Ints.BYTES;
+  }
+
+  /**
+   * The order in which {@code keys} must be written to the index. Since there may be tens of
+   * millions of keys, this sorts primitive indices by the first eight bytes of each key after any
+   * prefix shared by all keys, comparing whole keys only on ties.
+   */
+  static int[] sortedOrder(final List<byte[]> keys) {
+    final int n = keys.size();
+    if (n == 0) {
+      return new int[0];
+    }
+    int sharedPrefix = keys.get(0).length;
+    for (int i = 1; i < n && sharedPrefix > 0; ++i) {
+      sharedPrefix = Math.min(sharedPrefix, commonPrefixLength(keys.get(0), keys.get(i)));
+    }
+    final long[] sortKeys = new long[n];
+    for (int i = 0; i < n; ++i) {
+      // flipping the sign bit makes signed comparison of the keys compare the bytes as unsigned
+      sortKeys[i] = sortKey(keys.get(i), sharedPrefix) ^ Long.MIN_VALUE;
+    }
+    final Comparator<byte[]> byteOrder = UnsignedBytes.lexicographicalComparator();
+    return IndexSort.sortedIndices(sortKeys, new IndexSort.TieBreaker() {
+      @Override
+      public int compare(final int left, final int right) {
+        return byteOrder.compare(keys.get(left), keys.get(right));
+      }
+    });
+  }
+
+  // the big-endian value of up to eight bytes of key from start, padded with zeros
+  private static long sortKey(final byte[] key, final int start) {
+    long ret = 0;
+    for (int i = start; i < start + 8; ++i) {
+      ret = (ret << 8) | (i < key.length ? key[i] & 0xFF : 0);
+    }
+    return ret;
+  }
+
+  private static int commonPrefixLength(final byte[] left, final byte[] right) {
+    final int limit = Math.min(left.length, right.length);
+    int ret = 0;
+    while (ret < limit && left[ret] == right[ret]) {
+      ++ret;
+    }
+    return ret;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * The position of the key with the given UTF-8 bytes in sorted order, or -1 if it is absent.
+   */
+  int indexOf(final byte[] key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = compareKey(mid, key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  int indexOf(final Symbol key) {
+    return indexOf(key.asString().getBytes(Charsets.UTF_8));
+  }
+
+  Symbol key(final int idx) {
+    return Symbol.from(new String(keyBytes(idx), Charsets.UTF_8));
+  }
+
+  byte[] keyBytes(final int idx) {
+    final int start = index.getInt(keyOffsetsStart + idx * Ints.BYTES);
+    final int end = index.getInt(keyOffsetsStart + (idx + 1) * Ints.BYTES);
+    final byte[] ret = new byte[end - start];
+    final ByteBuffer view = index.duplicate();
+    view.position(keyDataStart + start);
+    view.get(ret);
+    return ret;
+  }
+
+  // compares the idx-th key to the given bytes, as unsigned bytes
+  private int compareKey(final int idx, final byte[] key) {
+    final int start = keyDataStart + index.getInt(keyOffsetsStart + idx * Ints.BYTES);
+    final int end = keyDataStart + index.getInt(keyOffsetsStart + (idx + 1) * Ints.BYTES);
+    final int length = end - start;
+    final int commonLength = Math.min(length, key.length);
+    for (int i = 0; i < commonLength; ++i) {
+      final int cmp = (index.get(start + i) & 0xFF) - (key[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - key.length;
+  }
+}
@@ -1,11 +1,14 @@
 package com.bbn.bue.common.files;
 
+import com.bbn.bue.common.collections.CollectionUtils;
+import com.bbn.bue.common.collections.MapUtils;
 import com.bbn.bue.common.parameters.Parameters;
 import com.bbn.bue.common.symbols.Symbol;
 import com.bbn.bue.common.symbols.SymbolUtils;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -34,6 +37,11 @@ import static com.google.common.base.Preconditions.checkArgument;
  * chunks of a fixed size.  This is primarily used by Corpus::split() in Corpus.pm in
  * buetext/perl-modules for splitting corpora in Runjobs code.
  *
+ * By default each chunk gets the same number of documents. If documents vary greatly in how long
+ * they take to process, chunks can instead be balanced by predicted cost (see {@link
+ * DocumentCosts}): documents are then assigned with a longest-processing-time-first heuristic
+ * and the predicted load of each chunk is logged.
+ *
  * The behavior of this program is deterministic.
  *
  * @author Constantine Lignos, Ryan Gabbard
@@ -49,19 +57,25 @@ public final class SplitCorpus {
       + "\tcom.bbn.bue.splitCorpus.outputDir: path to write output\n"
       + "\tcom.bbn.bue.splitCorpus.numChunks: the number of chunks to split the corpus into. Optional.\n"
       + "\tcom.bbn.bue.splitCorpus.chunkSize: the number of of files to put in each chunk. Optional.\n"
+      + "\tcom.bbn.bue.splitCorpus.balanceBy: COUNT (default), SIZE to balance the total bytes of\n"
+      + "\t\teach chunk, or COST_FILE to balance the total costs given by costFile. Optional.\n"
+      + "\tcom.bbn.bue.splitCorpus.costFile: docId (or path) to cost map. Optional.\n"
+      + "\tcom.bbn.bue.splitCorpus.statThreads: threads used to get file sizes. Optional.\n"
       + "\n"
       + "If inputList is given, output file lists will be written to outputDir/split/fileList.txt\n"
       + "\tand a list of these lists will be written to outputDir/listOfLists.txt\n"
       + "If inputMap is given, output file maps will be written to outputDir/split/fileMap.txt\n"
       + "\tand a list of these maps will be written to outputDir/listOfMaps.txt\n"
       + "At least one of inputList and inputMap must be specified.\n"
-      + "Exactly one of numChunks and chunkSize may be specified.";
+      + "Exactly one of numChunks and chunkSize may be specified.\n"
+      + "Balancing by SIZE or COST_FILE requires numChunks.";
 
   public static final String INPUT_LIST_PARAM = "com.bbn.bue.splitCorpus.inputList";
   public static final String INPUT_MAP_PARAM = "com.bbn.bue.splitCorpus.inputMap";
   public static final String OUTPUT_DIR_PARAM = "com.bbn.bue.splitCorpus.outputDir";
   public static final String NUM_CHUNKS_PARAM = "com.bbn.bue.splitCorpus.numChunks";
   public static final String CHUNK_SIZE_PARAM = "com.bbn.bue.splitCorpus.chunkSize";
+  private static final String PARAM_PREFIX = "com.bbn.bue.splitCorpus.";
 
   public static void main(String[] argv) {
     // we wrap the main method in this way to
@@ -91,8 +105,15 @@ public final class SplitCorpus {
         loadDocIdToFileMap(inputFileListFile, inputFileMapFile);
 
     params.assertExactlyOneDefined(NUM_CHUNKS_PARAM, CHUNK_SIZE_PARAM);
+    final Optional<ImmutableMap<Symbol, Long>> costs =
+        DocumentCosts.fromParameters(params, PARAM_PREFIX, docIdToFileMap);
     final Iterable<List<Map.Entry<Symbol, File>>> chunks;
-    if (params.isPresent(NUM_CHUNKS_PARAM)) {
+    if (costs.isPresent()) {
+      checkArgument(params.isPresent(NUM_CHUNKS_PARAM),
+          "Balancing chunks by cost requires " + NUM_CHUNKS_PARAM);
+      chunks = splitToNBalancedChunks(docIdToFileMap, costs.get(),
+          params.getPositiveInteger(NUM_CHUNKS_PARAM));
+    } else if (params.isPresent(NUM_CHUNKS_PARAM)) {
       chunks = splitToNChunks(docIdToFileMap, params.getPositiveInteger(NUM_CHUNKS_PARAM));
     } else {
       chunks =
@@ -131,6 +152,15 @@ public final class SplitCorpus {
     // write lists pointing to output files
 
     log.info("Split into {} chunks", chunkIdx);
+    if (costs.isPresent()) {
+      DocumentCosts.logPredictedLoads(
+          Iterables.transform(chunks, new Function<List<Map.Entry<Symbol, File>>, List<Symbol>>() {
+            @Override
+            public List<Symbol> apply(final List<Map.Entry<Symbol, File>> chunk) {
+              return Lists.transform(chunk, MapUtils.<Symbol, File>entryKeyFunction());
+            }
+          }), costs.get());
+    }
     if (inputFileListFile.isPresent()) {
       // lists are only written if a list was given as input
       final File listOfListsFile = new File(outputDir, "listOfLists.txt");
@@ -180,6 +210,18 @@ public final class SplitCorpus {
     }
   }
 
+  /**
+   * Splits into exactly {@code numChunks} chunks with total costs as even as possible. If there
+   * are fewer files than chunks, some chunks will be empty.
+   */
+  private static Iterable<List<Map.Entry<Symbol, File>>> splitToNBalancedChunks(
+      final ImmutableMap<Symbol, File> inputMap, final Map<Symbol, Long> costs, int numChunks) {
+    final Function<Map.Entry<Symbol, File>, Long> entryCost =
+        compose(Functions.forMap(costs), MapUtils.<Symbol, File>entryKeyFunction());
+    return ImmutableList.<List<Map.Entry<Symbol, File>>>copyOf(
+        CollectionUtils.partitionByWeight(inputMap.entrySet().asList(), entryCost, numChunks));
+  }
+
   /**
    * Gets a doc-id-to-file map for the input, either directly or making a fake one based on an input
    * file list.
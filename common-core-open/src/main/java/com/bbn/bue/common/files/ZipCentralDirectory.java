@@ -0,0 +1,235 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads the central directory of a zip file directly, rather than through {@link
+ * java.util.zip.ZipFile}, in order to learn where each entry's data is in the file.  Zip64 archives
+ * (more than 65535 entries or more than 4GB) are supported; encrypted entries and compression
+ * methods other than stored and deflated are not.
+ */
+final class ZipCentralDirectory {
+
+  static final int STORED = 0;
+  static final int DEFLATED = 8;
+
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_BYTES = 22;
+  private static final int MAX_COMMENT_BYTES = 0xFFFF;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_BYTES = 20;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_BYTES = 56;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_HEADER_BYTES = 46;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_BYTES = 30;
+  private static final long SATURATED_INT = 0xFFFFFFFFL;
+  private static final int SATURATED_SHORT = 0xFFFF;
+
+  private ZipCentralDirectory() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * An entry of a zip file's central directory.
+   */
+  static final class Entry {
+
+    private final String name;
+    private final int method;
+    private final int crc;
+    private final long compressedSize;
+    private final long uncompressedSize;
+    private final long localHeaderOffset;
+
+    private Entry(final String name, final int method, final int crc, final long compressedSize,
+        final long uncompressedSize, final long localHeaderOffset) {
+      this.name = checkNotNull(name);
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.uncompressedSize = uncompressedSize;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    String name() {
+      return name;
+    }
+
+    boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /**
+     * Either {@link #STORED} or {@link #DEFLATED}.
+     */
+    int method() {
+      return method;
+    }
+
+    int crc() {
+      return crc;
+    }
+
+    long compressedSize() {
+      return compressedSize;
+    }
+
+    long uncompressedSize() {
+      return uncompressedSize;
+    }
+
+    long localHeaderOffset() {
+      return localHeaderOffset;
+    }
+  }
+
+  /**
+   * The entries of the zip file open on {@code zip}, in the order they are listed in its central
+   * directory, which is the order in which they were written.
+   */
+  static ImmutableList<Entry> read(final FileChannel zip) throws IOException {
+    final long zipLength = zip.size();
+    final int tailLength = (int) Math.min(zipLength, END_BYTES + MAX_COMMENT_BYTES);
+    final ByteBuffer tail = readFully(zip, zipLength - tailLength, tailLength);
+
+    // the end of central directory record is followed by a comment of variable length, so we
+    // search backwards for it
+    int end = -1;
+    for (int i = tailLength - END_BYTES; i >= 0; --i) {
+      if (tail.getInt(i) == END_SIGNATURE
+          && i + END_BYTES + (tail.getShort(i + 20) & 0xFFFF) == tailLength) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0) {
+      throw new IOException("Not a zip file: no end of central directory record");
+    }
+    long numEntries = tail.getShort(end + 10) & 0xFFFF;
+    long directoryLength = tail.getInt(end + 12) & SATURATED_INT;
+    long directoryOffset = tail.getInt(end + 16) & SATURATED_INT;
+
+    if (numEntries == SATURATED_SHORT || directoryLength == SATURATED_INT
+        || directoryOffset == SATURATED_INT) {
+      // the real values are in the zip64 end of central directory record
+      final long locator = zipLength - tailLength + end - ZIP64_LOCATOR_BYTES;
+      final ByteBuffer locatorBytes =
+          locator >= 0 ? readFully(zip, locator, ZIP64_LOCATOR_BYTES) : null;
+      if (locatorBytes != null && locatorBytes.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+        final ByteBuffer zip64End = readFully(zip, locatorBytes.getLong(8), ZIP64_END_BYTES);
+        if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+          throw new IOException("Corrupt zip64 end of central directory record");
+        }
+        numEntries = zip64End.getLong(32);
+        directoryLength = zip64End.getLong(40);
+        directoryOffset = zip64End.getLong(48);
+      }
+    }
+    if (directoryLength > Integer.MAX_VALUE) {
+      throw new IOException("Zip central directories larger than 2GB are not supported");
+    }
+    if (directoryOffset + directoryLength > zipLength) {
+      throw new IOException("Zip central directory extends past the end of the file");
+    }
+
+    final ByteBuffer directory = zip.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+        directoryLength).order(ByteOrder.LITTLE_ENDIAN);
+    final ImmutableList.Builder<Entry> ret = ImmutableList.builder();
+    int pos = 0;
+    for (long i = 0; i < numEntries; ++i) {
+      if (pos + CENTRAL_HEADER_BYTES > directoryLength
+          || directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+        throw new IOException("Corrupt zip central directory at entry " + i);
+      }
+      final int flags = directory.getShort(pos + 8) & 0xFFFF;
+      final int method = directory.getShort(pos + 10) & 0xFFFF;
+      final int crc = directory.getInt(pos + 16);
+      long compressedSize = directory.getInt(pos + 20) & SATURATED_INT;
+      long uncompressedSize = directory.getInt(pos + 24) & SATURATED_INT;
+      final int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+      final int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+      final int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+      long localHeaderOffset = directory.getInt(pos + 42) & SATURATED_INT;
+
+      final byte[] nameBytes = new byte[nameLength];
+      final ByteBuffer view = directory.duplicate();
+      view.position(pos + CENTRAL_HEADER_BYTES);
+      view.get(nameBytes);
+      // names are UTF-8 when flag bit 11 is set, and ZipFile also decodes them as UTF-8 by default
+      final String name = new String(nameBytes, Charsets.UTF_8);
+
+      if ((flags & 1) != 0) {
+        throw new IOException("Encrypted zip entry " + name + " is not supported");
+      }
+      if (method != STORED && method != DEFLATED) {
+        throw new IOException("Zip entry " + name + " uses unsupported compression method "
+            + method);
+      }
+
+      // saturated values are given in the zip64 extra field, in this order
+      int extra = pos + CENTRAL_HEADER_BYTES + nameLength;
+      final int extraEnd = extra + extraLength;
+      while (extra + 4 <= extraEnd) {
+        final int id = directory.getShort(extra) & 0xFFFF;
+        final int length = directory.getShort(extra + 2) & 0xFFFF;
+        if (id == ZIP64_EXTRA_ID) {
+          int field = extra + 4;
+          if (uncompressedSize == SATURATED_INT) {
+            uncompressedSize = directory.getLong(field);
+            field += 8;
+          }
+          if (compressedSize == SATURATED_INT) {
+            compressedSize = directory.getLong(field);
+            field += 8;
+          }
+          if (localHeaderOffset == SATURATED_INT) {
+            localHeaderOffset = directory.getLong(field);
+          }
+          break;
+        }
+        extra += 4 + length;
+      }
+
+      ret.add(new Entry(name, method, crc, compressedSize, uncompressedSize, localHeaderOffset));
+      pos += CENTRAL_HEADER_BYTES + nameLength + extraLength + commentLength;
+    }
+    return ret.build();
+  }
+
+  /**
+   * The offset in the zip file of the start of {@code entry}'s (possibly compressed) data, which
+   * follows its local file header.
+   */
+  static long dataOffset(final FileChannel zip, final Entry entry) throws IOException {
+    final ByteBuffer header = readFully(zip, entry.localHeaderOffset(), LOCAL_HEADER_BYTES);
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new IOException("Corrupt local header for zip entry " + entry.name());
+    }
+    // the local extra field may differ from the central one, so we must read its length here
+    final int nameLength = header.getShort(26) & 0xFFFF;
+    final int extraLength = header.getShort(28) & 0xFFFF;
+    return entry.localHeaderOffset() + LOCAL_HEADER_BYTES + nameLength + extraLength;
+  }
+
+  private static ByteBuffer readFully(final FileChannel channel, final long position,
+      final int length) throws IOException {
+    final ByteBuffer ret = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (ret.hasRemaining()) {
+      if (channel.read(ret, position + ret.position()) < 0) {
+        throw new IOException("Unexpected end of zip file");
+      }
+    }
+    return ret;
+  }
+}
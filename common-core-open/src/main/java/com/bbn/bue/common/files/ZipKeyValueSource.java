@@ -1,12 +1,17 @@
 package com.bbn.bue.common.files;
 
 import com.bbn.bue.common.symbols.Symbol;
+import com.bbn.bue.common.symbols.SymbolUtils;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -23,10 +28,55 @@ final class ZipKeyValueSource extends AbstractImmutableKeyValueSource<Symbol, By
 
   private final ZipFile zipFile;
   private final ImmutableMap<Symbol, String> keyFiles;
+  // whether we own the zip file and should close it, rather than it being managed by the caller
+  private final boolean closeZipFile;
+  // the position of each key's entry in the zip, built when first needed by getAll
+  private volatile ImmutableMap<Symbol, Integer> entryPositions = null;
 
   ZipKeyValueSource(final ZipFile zipFile, final ImmutableMap<Symbol, String> keyFiles) {
+    this(zipFile, keyFiles, false);
+  }
+
+  private ZipKeyValueSource(final ZipFile zipFile, final ImmutableMap<Symbol, String> keyFiles,
+      final boolean closeZipFile) {
     this.zipFile = checkNotNull(zipFile);
     this.keyFiles = checkNotNull(keyFiles);
+    this.closeZipFile = closeZipFile;
+  }
+
+  /**
+   * Opens a source over {@code zipFile} which closes the zip file when it is closed.
+   */
+  static ZipKeyValueSource openClosingZipFile(final File zipFile) throws IOException {
+    final ZipFile zip = new ZipFile(zipFile);
+    try {
+      return new ZipKeyValueSource(zip, indexEntries(zip, SymbolUtils.symbolizeFunction()), true);
+    } catch (RuntimeException e) {
+      zip.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Maps the key of each file in {@code zipFile}, as given by {@code idExtractor}, to its entry
+   * name.
+   */
+  static ImmutableMap<Symbol, String> indexEntries(final ZipFile zipFile,
+      final Function<String, Symbol> idExtractor) {
+    final ImmutableMap.Builder<Symbol, String> ret = ImmutableMap.builder();
+    // Build a map of the key for each file to the filename
+    final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    while (entries.hasMoreElements()) {
+      final ZipEntry entry = entries.nextElement();
+      final String name = entry.getName();
+      // Skip directories
+      if (entry.isDirectory()) {
+        continue;
+      }
+      final Symbol id = checkNotNull(idExtractor.apply(name));
+      ret.put(id, name);
+    }
+    return ret.build();
   }
 
   @Nonnull
@@ -52,8 +102,34 @@ final class ZipKeyValueSource extends AbstractImmutableKeyValueSource<Symbol, By
     return Optional.of(source);
   }
 
+  @Nonnull
   @Override
-  public void close() {
-    // No resources to close. The zip file is managed by the caller.
+  protected List<Symbol> retrievalOrder(final List<Symbol> keys) {
+    // The JDK doesn't expose where entries are in the zip file, but entries are listed in the
+    // central directory, which we indexed, in the order they were written
+    ImmutableMap<Symbol, Integer> positions = entryPositions;
+    if (positions == null) {
+      final ImmutableMap.Builder<Symbol, Integer> builder = ImmutableMap.builder();
+      int position = 0;
+      for (final Symbol key : keyFiles.keySet()) {
+        builder.put(key, position++);
+      }
+      positions = builder.build();
+      entryPositions = positions;
+    }
+    final long[] keyPositions = new long[keys.size()];
+    for (int i = 0; i < keyPositions.length; ++i) {
+      final Integer position = positions.get(keys.get(i));
+      keyPositions[i] = position != null ? position : -1;
+    }
+    return sortedByPosition(keys, keyPositions);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closeZipFile) {
+      zipFile.close();
+    }
+    // Otherwise there are no resources to close. The zip file is managed by the caller.
   }
 }
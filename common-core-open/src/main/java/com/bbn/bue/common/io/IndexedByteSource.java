@@ -18,6 +18,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * A file which contains multiple indexed blocks of character data.
  *
  * This should get merged/replaced with the never {@link com.bbn.bue.common.files.KeyValueSource} code.
+ * For new stores of concatenated records, prefer {@link
+ * com.bbn.bue.common.files.KeyValueSources#fromMappedFile(java.io.File, java.io.File)}.
  */
 public final class IndexedByteSource implements CharacterChannelSet {
 
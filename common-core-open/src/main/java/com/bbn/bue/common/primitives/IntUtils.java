@@ -58,6 +58,10 @@ public final class IntUtils {
     }
   }
 
+  /**
+   * Reads an array written by {@link #writeTo(int[], DataOutputStream)}. For large arrays,
+   * consider {@link MappedIntArray}, which is opened without copying anything.
+   */
   public static int[] readIntegerArrayFrom(final DataInputStream in) throws IOException {
     final int size = in.readInt();
     final int[] ret = new int[size];
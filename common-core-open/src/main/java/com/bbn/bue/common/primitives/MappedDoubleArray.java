@@ -0,0 +1,136 @@
+package com.bbn.bue.common.primitives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A memory-mapped array of {@code double}s. See {@link MappedPrimitiveArray}.
+ */
+public final class MappedDoubleArray extends MappedPrimitiveArray {
+
+  private final DoubleBuffer[] views;
+
+  private MappedDoubleArray(final File file, final boolean writable, final int chunkBytes)
+      throws IOException {
+    super(file, ElementType.DOUBLE, writable, chunkBytes);
+    this.views = new DoubleBuffer[numChunks()];
+    for (int i = 0; i < views.length; ++i) {
+      views[i] = chunk(i).asDoubleBuffer();
+    }
+  }
+
+  /**
+   * Maps an existing array read-only.
+   */
+  @Nonnull
+  public static MappedDoubleArray open(final File file) throws IOException {
+    return new MappedDoubleArray(file, false, DEFAULT_CHUNK_BYTES);
+  }
+
+  /**
+   * Maps an existing array for reading and writing.
+   */
+  @Nonnull
+  public static MappedDoubleArray openForWriting(final File file) throws IOException {
+    return new MappedDoubleArray(file, true, DEFAULT_CHUNK_BYTES);
+  }
+
+  /**
+   * Creates a file holding {@code length} zeros, replacing any existing file, and maps it for
+   * reading and writing.
+   */
+  @Nonnull
+  public static MappedDoubleArray create(final File file, final long length) throws IOException {
+    createFile(file, ElementType.DOUBLE, length);
+    return openForWriting(file);
+  }
+
+  /**
+   * Creates a file holding a copy of {@code values}, replacing any existing file, and maps it for
+   * reading and writing.
+   */
+  @Nonnull
+  public static MappedDoubleArray create(final File file, final double[] values)
+      throws IOException {
+    final MappedDoubleArray ret = create(file, values.length);
+    ret.set(0, values, 0, values.length);
+    return ret;
+  }
+
+  // chunk size is exposed for testing
+  @Nonnull
+  static MappedDoubleArray open(final File file, final boolean writable, final int chunkBytes)
+      throws IOException {
+    return new MappedDoubleArray(file, writable, chunkBytes);
+  }
+
+  public double get(final long index) {
+    checkIndex(index);
+    return views[chunkOf(index)].get(offsetInChunk(index));
+  }
+
+  public void set(final long index, final double value) {
+    checkIndex(index);
+    views[chunkOf(index)].put(offsetInChunk(index), value);
+  }
+
+  /**
+   * Copies the {@code count} elements starting at {@code index} into {@code dest} starting at
+   * {@code offset}.
+   */
+  public void get(long index, final double[] dest, int offset, int count) {
+    checkRange(index, dest.length, offset, count);
+    while (count > 0) {
+      final int n = segmentLength(index, count);
+      final DoubleBuffer view = views[chunkOf(index)].duplicate();
+      view.position(offsetInChunk(index));
+      view.get(dest, offset, n);
+      index += n;
+      offset += n;
+      count -= n;
+    }
+  }
+
+  /**
+   * Copies the {@code count} elements of {@code src} starting at {@code offset} into this array
+   * starting at {@code index}.
+   */
+  public void set(long index, final double[] src, int offset, int count) {
+    checkRange(index, src.length, offset, count);
+    while (count > 0) {
+      final int n = segmentLength(index, count);
+      final DoubleBuffer view = views[chunkOf(index)].duplicate();
+      view.position(offsetInChunk(index));
+      view.put(src, offset, n);
+      index += n;
+      offset += n;
+      count -= n;
+    }
+  }
+
+  /**
+   * Copies the {@code count} elements starting at {@code index} onto the heap, e.g. for a slice
+   * which will be accessed heavily.
+   */
+  @Nonnull
+  public double[] toArray(final long index, final int count) {
+    final double[] ret = new double[count];
+    get(index, ret, 0, count);
+    return ret;
+  }
+
+  /**
+   * Copies the whole array onto the heap.
+   */
+  @Nonnull
+  public double[] toArray() {
+    checkArgument(length() <= Integer.MAX_VALUE, "Array of length %s is too large for the heap",
+        length());
+    return toArray(0, (int) length());
+  }
+}
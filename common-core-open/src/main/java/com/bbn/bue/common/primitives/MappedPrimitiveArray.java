@@ -0,0 +1,210 @@
+package com.bbn.bue.common.primitives;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * An array of primitives stored in a file and accessed through memory mappings, so that opening
+ * one is nearly instantaneous regardless of its size, nothing is copied onto the heap unless
+ * requested, and the operating system shares the mapped pages between all processes using the
+ * same file. See {@link MappedIntArray}, {@link MappedLongArray}, {@link MappedFloatArray} and
+ * {@link MappedDoubleArray}.
+ *
+ * Arrays are indexed by {@code long}s and may be of any size: the file is mapped in chunks of at
+ * most 1GB. Arrays may be opened read-only, in which case attempts to modify them throw {@link
+ * java.nio.ReadOnlyBufferException}, or for writing, in which case modifications are written back
+ * to the file by the operating system at some point and are visible to other processes mapping
+ * the same file. {@link #force()} writes them back immediately. As for any memory mapping, the
+ * file is only unmapped when the array is garbage collected.
+ *
+ * The file format is (all values big-endian):
+ * <ul>
+ * <li>a header: a magic number, a format version, the element type ({@code 1} for {@code int},
+ * {@code 2} for {@code long}, {@code 3} for {@code float}, {@code 4} for {@code double}), an unused
+ * int, and (as a long) the number of elements.</li>
+ * <li>the elements</li>
+ * </ul>
+ */
+public abstract class MappedPrimitiveArray {
+
+  static final int MAGIC = 0x42505241; // "BPRA"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 4 * Ints.BYTES + Longs.BYTES;
+  static final int DEFAULT_CHUNK_BYTES = 1 << 30;
+
+  enum ElementType {
+    INT(1, 4),
+    LONG(2, 8),
+    FLOAT(3, 4),
+    DOUBLE(4, 8);
+
+    private final int code;
+    private final int bytes;
+
+    ElementType(final int code, final int bytes) {
+      this.code = code;
+      this.bytes = bytes;
+    }
+  }
+
+  private final File file;
+  private final long length;
+  private final boolean writable;
+  private final MappedByteBuffer[] chunks;
+  // chunks hold 2^chunkShift elements, except the last
+  private final int chunkShift;
+
+  // chunkBytes is exposed for testing
+  MappedPrimitiveArray(final File file, final ElementType type, final boolean writable,
+      final int chunkBytes) throws IOException {
+    checkArgument(chunkBytes >= type.bytes && Integer.bitCount(chunkBytes) == 1,
+        "Chunk size must be a power of two");
+    this.file = checkNotNull(file);
+    this.writable = writable;
+    this.chunkShift = Integer.numberOfTrailingZeros(chunkBytes / type.bytes);
+    try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new IOException(file + " is not a mapped array file");
+        }
+      }
+      if (header.getInt(0) != MAGIC) {
+        throw new IOException(file + " is not a mapped array file");
+      }
+      final int version = header.getInt(Ints.BYTES);
+      if (version != VERSION) {
+        throw new IOException("Unsupported mapped array version " + version + " in " + file);
+      }
+      final int typeCode = header.getInt(2 * Ints.BYTES);
+      if (typeCode != type.code) {
+        throw new IOException(file + " has element type " + typeCode + " but expected "
+            + type.name().toLowerCase() + " (" + type.code + ")");
+      }
+      this.length = header.getLong(4 * Ints.BYTES);
+      if (length < 0 || channel.size() != HEADER_BYTES + length * type.bytes) {
+        throw new IOException(file + " has length " + channel.size() + " but its header expects "
+            + length + " elements");
+      }
+
+      final long elementsPerChunk = 1L << chunkShift;
+      final int numChunks = (int) ((length + elementsPerChunk - 1) / elementsPerChunk);
+      this.chunks = new MappedByteBuffer[numChunks];
+      final FileChannel.MapMode mode =
+          writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+      for (int i = 0; i < numChunks; ++i) {
+        final long start = i * elementsPerChunk;
+        final long elements = Math.min(elementsPerChunk, length - start);
+        // the mappings remain valid after the channel is closed
+        chunks[i] = channel.map(mode, HEADER_BYTES + start * type.bytes, elements * type.bytes);
+        chunks[i].order(ByteOrder.BIG_ENDIAN);
+      }
+    }
+  }
+
+  /**
+   * Creates {@code file} holding {@code length} zero elements of the given type.
+   */
+  static void createFile(final File file, final ElementType type, final long length)
+      throws IOException {
+    checkArgument(length >= 0, "Array length may not be negative");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      raf.writeInt(MAGIC);
+      raf.writeInt(VERSION);
+      raf.writeInt(type.code);
+      raf.writeInt(0);
+      raf.writeLong(length);
+      raf.setLength(HEADER_BYTES + length * type.bytes);
+    }
+  }
+
+  /**
+   * The number of elements in the array.
+   */
+  public final long length() {
+    return length;
+  }
+
+  public final boolean isWritable() {
+    return writable;
+  }
+
+  public final File file() {
+    return file;
+  }
+
+  /**
+   * Writes any modifications back to the file.
+   */
+  public final void force() {
+    if (writable) {
+      for (final MappedByteBuffer chunk : chunks) {
+        chunk.force();
+      }
+    }
+  }
+
+  final int numChunks() {
+    return chunks.length;
+  }
+
+  final ByteBuffer chunk(final int i) {
+    return chunks[i];
+  }
+
+  final int chunkOf(final long index) {
+    return (int) (index >>> chunkShift);
+  }
+
+  final int offsetInChunk(final long index) {
+    return (int) (index & ((1L << chunkShift) - 1));
+  }
+
+  /**
+   * How many of {@code remaining} elements starting at {@code index} are in the same chunk.
+   */
+  final int segmentLength(final long index, final int remaining) {
+    return (int) Math.min(remaining, (1L << chunkShift) - offsetInChunk(index));
+  }
+
+  final void checkIndex(final long index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for array of length "
+          + length);
+    }
+  }
+
+  /**
+   * Checks that the {@code count} elements from {@code index} are in the array, and that the
+   * {@code count} elements from {@code offset} are in an array of length {@code arrayLength}.
+   */
+  final void checkRange(final long index, final int arrayLength, final int offset,
+      final int count) {
+    checkArgument(count >= 0, "Count may not be negative");
+    if (index < 0 || index + count > length) {
+      throw new IndexOutOfBoundsException("Range [" + index + ", " + (index + count)
+          + ") out of bounds for array of length " + length);
+    }
+    checkPositionIndexes(offset, offset + count, arrayLength);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + file + ", " + length + " elements"
+        + (writable ? ", writable" : "") + "]";
+  }
+}
@@ -106,13 +106,13 @@ import static com.google.common.collect.Iterables.getLast;
  *   {@link #contentLocatedSubstringByContentOffsets(OffsetRange)}</li>
  *
  *   <li><b>substring of content, with offset mapping, by reference bounds:</b>
- *   {@link #contentLocatedSubstringByReferenceOffsets(OffsetRange)}. Currently unimplemented.</li>
+ *   {@link #contentLocatedSubstringByReferenceOffsets(OffsetRange)}</li>
  *
  *   <li><b>substring of content, without offset mapping, by content bounds:</b>
  *   {@link #content()}'s {@link UnicodeFriendlyString#substringByCodePoints(CharOffset, CharOffset)}</li>
  *
  *   <li><b>substring of content, without offset mapping, by reference bounds:</b>
- *   {@link #contentSubstringByReferenceOffsets(OffsetRange)}. Currently unimplemented.</li>
+ *   {@link #contentSubstringByReferenceOffsets(OffsetRange)}</li>
  *
  *   <li><b>substring of reference, without offset mapping, by content bounds:</b>
  *   {@link #referenceSubstringByContentOffsets(OffsetRange)}</li>
@@ -271,6 +271,51 @@ public abstract class LocatedString {
         .endOffsetGroupForPosition(contentOffset);
   }
 
+  /**
+   * Gets {@link #startReferenceOffsetsForContentOffset(CharOffset)} for each of many content
+   * offsets at once.  {@code contentOffsets} must be sorted in non-decreasing order. This makes a
+   * single pass over the character regions, so translating e.g. all the tokens of a document
+   * is much cheaper than looking each up separately.
+   */
+  public ImmutableList<OffsetGroup> startReferenceOffsetsForContentOffsets(
+      final int[] contentOffsets) {
+    final ImmutableList.Builder<OffsetGroup> ret = ImmutableList.builder();
+    int regionIdx = 0;
+    for (int i = 0; i < contentOffsets.length; ++i) {
+      regionIdx = nextRegionIndexForSortedContentOffset(contentOffsets, i, regionIdx);
+      ret.add(characterRegions().get(regionIdx)
+          .startOffsetGroupForPosition(CharOffset.asCharOffset(contentOffsets[i])));
+    }
+    return ret.build();
+  }
+
+  /**
+   * Gets {@link #endReferenceOffsetsForContentOffset(CharOffset)} for each of many content
+   * offsets at once.  {@code contentOffsets} must be sorted in non-decreasing order. This makes a
+   * single pass over the character regions, so translating e.g. all the tokens of a document
+   * is much cheaper than looking each up separately.
+   */
+  public ImmutableList<OffsetGroup> endReferenceOffsetsForContentOffsets(
+      final int[] contentOffsets) {
+    final ImmutableList.Builder<OffsetGroup> ret = ImmutableList.builder();
+    int regionIdx = 0;
+    for (int i = 0; i < contentOffsets.length; ++i) {
+      regionIdx = nextRegionIndexForSortedContentOffset(contentOffsets, i, regionIdx);
+      ret.add(characterRegions().get(regionIdx)
+          .endOffsetGroupForPosition(CharOffset.asCharOffset(contentOffsets[i])));
+    }
+    return ret.build();
+  }
+
+  private int nextRegionIndexForSortedContentOffset(final int[] contentOffsets, final int i,
+      final int previousRegionIdx) {
+    checkArgument(i == 0 || contentOffsets[i - 1] <= contentOffsets[i],
+        "Content offsets must be sorted, but %s follows %s", contentOffsets[i],
+        i > 0 ? contentOffsets[i - 1] : null);
+    checkContentOffsetInBounds(contentOffsets[i]);
+    return regionIndex().regionContainingContentOffset(contentOffsets[i], previousRegionIdx);
+  }
+
 
   // substrings
 
@@ -298,12 +343,16 @@ public abstract class LocatedString {
    * covering the specified range of reference offsets. Please refer to the class Javadoc
    * for coverage of available substring options.
    *
-   * This method is currently unimplemented.
+   * This is currently only supported for strings whose reference character offsets increase
+   * monotonically (which is all of them in practice).
+   *
+   * @throws IllegalArgumentException if no content characters correspond to any of the
+   *                                  reference offsets.
    */
-  @SuppressWarnings("unused")
   public final LocatedString contentLocatedSubstringByReferenceOffsets(
-      final OffsetRange<CharOffset> contentOffsets) {
-    throw new UnsupportedOperationException();
+      final OffsetRange<CharOffset> referenceOffsets) {
+    return contentLocatedSubstringByContentOffsets(
+        contentOffsetsForReferenceOffsets(referenceOffsets));
   }
 
   /**
@@ -311,12 +360,15 @@ public abstract class LocatedString {
    * covering the specified range of reference offsets. Please refer to the class Javadoc
    * for coverage of available substring options.
    *
-   * This method is currently unimplemented.
+   * This is currently only supported for strings whose reference character offsets increase
+   * monotonically (which is all of them in practice).
+   *
+   * @throws IllegalArgumentException if no content characters correspond to any of the
+   *                                  reference offsets.
    */
-  @SuppressWarnings("unused")
   public final UnicodeFriendlyString contentSubstringByReferenceOffsets(
-      final OffsetRange<CharOffset> contentOffsets) {
-    throw new UnsupportedOperationException();
+      final OffsetRange<CharOffset> referenceOffsets) {
+    return content().substringByCodePoints(contentOffsetsForReferenceOffsets(referenceOffsets));
   }
 
   /**
@@ -939,7 +991,18 @@ public abstract class LocatedString {
 
   private Optional<Integer> firstRegionIndexContainingReferenceCharOffset(
       final CharOffset charOffset) {
-    // lazy implementation, can make faster if needed
+    if (referenceCharOffsetsSequential()) {
+      final RegionIndex index = regionIndex();
+      final int candidate = index.firstRegionEndingAtOrAfterReferenceOffset(charOffset.asInt());
+      if (candidate < characterRegions().size()
+          && index.referenceStart(candidate) <= charOffset.asInt()) {
+        return Optional.of(candidate);
+      } else {
+        return Optional.absent();
+      }
+    }
+
+    // we can't binary search if the reference offsets are out of order
     for (int i = 0; i < characterRegions().size(); ++i) {
       final CharacterRegion region = characterRegions().get(i);
       if (region.referenceStartOffsetInclusive().charOffset().precedesOrEquals(charOffset)
@@ -950,6 +1013,153 @@ public abstract class LocatedString {
     return Optional.absent();
   }
 
+  /**
+   * Gets the range of content offsets which map to anything in the given range of reference
+   * character offsets.
+   */
+  private OffsetRange<CharOffset> contentOffsetsForReferenceOffsets(
+      final OffsetRange<CharOffset> referenceOffsets) {
+    if (!referenceCharOffsetsSequential()) {
+      throw new UnsupportedOperationException("Mapping reference offsets to content offsets for "
+          + "non-monotonic LocatedStrings needs to be implemented");
+    }
+    final RegionIndex index = regionIndex();
+    final int referenceStart = referenceOffsets.startInclusive().asInt();
+    final int referenceEnd = referenceOffsets.endInclusive().asInt();
+    final int firstRegionIdx = index.firstRegionEndingAtOrAfterReferenceOffset(referenceStart);
+    final int lastRegionIdx = index.lastRegionStartingAtOrBeforeReferenceOffset(referenceEnd);
+    checkArgument(firstRegionIdx <= lastRegionIdx,
+        "No content of %s corresponds to reference offsets %s", this, referenceOffsets);
+
+    final CharacterRegion firstRegion = characterRegions().get(firstRegionIdx);
+    final CharOffset contentStart;
+    if (index.referenceStart(firstRegionIdx) <= referenceStart) {
+      contentStart = firstRegion.absoluteStartingContentOffsetOfReferenceCharOffset(
+          referenceOffsets.startInclusive());
+    } else {
+      // the requested range begins in a gap between regions
+      contentStart = firstRegion.contentStartPosInclusive();
+    }
+
+    final CharacterRegion lastRegion = characterRegions().get(lastRegionIdx);
+    final CharOffset contentEnd;
+    if (index.referenceEnd(lastRegionIdx) >= referenceEnd) {
+      contentEnd = lastRegion.absoluteEndingContentOffsetOfReferenceCharOffset(
+          referenceOffsets.endInclusive());
+    } else {
+      contentEnd = lastRegion.contentEndPosExclusive().shiftedCopy(-1);
+    }
+    return OffsetRange.fromInclusiveEndpoints(contentStart, contentEnd);
+  }
+
+  /**
+   * Index of the region boundaries used to translate offsets in logarithmic rather than linear
+   * time.  This is computed only when needed and is not part of the value of the {@code
+   * LocatedString}.
+   */
+  @Value.Lazy
+  RegionIndex regionIndex() {
+    return new RegionIndex(characterRegions());
+  }
+
+  /**
+   * The content and reference character offset boundaries of a {@link LocatedString}'s regions,
+   * unboxed into arrays for binary searching. See {@link #regionIndex()}.
+   */
+  static final class RegionIndex {
+
+    // contentStarts has an extra final entry holding the end of the last region
+    private final int[] contentStarts;
+    private final int[] referenceStarts;
+    private final int[] referenceEnds;
+
+    private RegionIndex(final List<CharacterRegion> regions) {
+      contentStarts = new int[regions.size() + 1];
+      referenceStarts = new int[regions.size()];
+      referenceEnds = new int[regions.size()];
+      for (int i = 0; i < regions.size(); ++i) {
+        final CharacterRegion region = regions.get(i);
+        contentStarts[i] = region.contentStartPosInclusive().asInt();
+        referenceStarts[i] = region.referenceStartOffsetInclusive().charOffset().asInt();
+        referenceEnds[i] = region.referenceEndOffsetInclusive().charOffset().asInt();
+      }
+      contentStarts[regions.size()] = getLast(regions).contentEndPosExclusive().asInt();
+    }
+
+    int referenceStart(final int regionIdx) {
+      return referenceStarts[regionIdx];
+    }
+
+    int referenceEnd(final int regionIdx) {
+      return referenceEnds[regionIdx];
+    }
+
+    /**
+     * The index of the region containing the given in-bounds content offset, which must be in
+     * region {@code fromRegionIdx} or later.  We gallop forward from {@code fromRegionIdx} so that
+     * looking up a sorted sequence of offsets takes time proportional to the number of regions
+     * only once.
+     */
+    int regionContainingContentOffset(final int contentOffset, final int fromRegionIdx) {
+      // find bounds low, high such that contentStarts[low] <= contentOffset < contentStarts[high]
+      int low = fromRegionIdx;
+      int step = 1;
+      int high = low + step;
+      while (high < contentStarts.length && contentStarts[high] <= contentOffset) {
+        low = high;
+        step *= 2;
+        high = low + step;
+      }
+      high = Math.min(high, contentStarts.length - 1);
+      while (high - low > 1) {
+        final int mid = (low + high) >>> 1;
+        if (contentStarts[mid] <= contentOffset) {
+          low = mid;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * The index of the first region whose reference end character offset is at least {@code
+     * referenceOffset}, or the number of regions if there is none.  Requires that reference
+     * offsets be sequential.
+     */
+    int firstRegionEndingAtOrAfterReferenceOffset(final int referenceOffset) {
+      int low = 0;
+      int high = referenceEnds.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (referenceEnds[mid] < referenceOffset) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * The index of the last region whose reference start character offset is at most {@code
+     * referenceOffset}, or -1 if there is none.  Requires that reference offsets be sequential.
+     */
+    int lastRegionStartingAtOrBeforeReferenceOffset(final int referenceOffset) {
+      int low = 0;
+      int high = referenceStarts.length;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (referenceStarts[mid] <= referenceOffset) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low - 1;
+    }
+  }
+
   /**
    * Constructs {@link CharacterRegion}s for a substring.
    * See {@link #contentLocatedSubstringByContentOffsets}
@@ -997,46 +1207,21 @@ public abstract class LocatedString {
   }
 
   private int regionIndexContainingContentOffset(CharOffset target) {
-    if (target.asInt() < 0) {
+    checkContentOffsetInBounds(target.asInt());
+    // class-level preconditions guarantee the regions cover the content string completely
+    // without overlap
+    return regionIndex().regionContainingContentOffset(target.asInt(), 0);
+  }
+
+  private void checkContentOffsetInBounds(int contentOffset) {
+    if (contentOffset < 0) {
       throw new IndexOutOfBoundsException(
-          "Not a valid character offset for LocatedString conent: " + target);
+          "Not a valid character offset for LocatedString conent: " + contentOffset);
     }
-    if (target.asInt() >= content().lengthInCodePoints()) {
-      throw new IndexOutOfBoundsException("Requested code point offset " + target
+    if (contentOffset >= content().lengthInCodePoints()) {
+      throw new IndexOutOfBoundsException("Requested code point offset " + contentOffset
           + " exceeds LocatedString code point length " + content().lengthInCodePoints());
     }
-
-    // we know by precondition checks that characterRegions cannot be empty
-    // we know by the check above the the target lies in one of our regions
-    // class-level preconditions guarantee the regions cover the content string completely
-    // without overlap
-    int startIndex = 0;
-    int endIndex = characterRegions().size() - 1;
-
-    while (startIndex <= endIndex) {
-      // if integer overflow is a problem here, we have much bigger problems...
-      final int probe = (startIndex + endIndex) / 2;
-
-      final CharacterRegion probeRegion = characterRegions().get(probe);
-      final boolean targetAfterProbeStart =
-          probeRegion.contentStartPosInclusive().precedesOrEquals(target);
-      // follows because endPos is exclusive
-      final boolean targetBeforeProbeEnd = probeRegion.contentEndPosExclusive().follows(target);
-
-      if (targetAfterProbeStart) {
-        if (targetBeforeProbeEnd) {
-          // probe is pointing to the containing region
-          return probe;
-        } else {
-          startIndex = probe + 1;
-        }
-      } else {
-        endIndex = probe - 1;
-      }
-    }
-
-    throw new IllegalStateException("Binary search for regions on LocatedStrings should not be "
-        + "able to fail");
   }
 }
 
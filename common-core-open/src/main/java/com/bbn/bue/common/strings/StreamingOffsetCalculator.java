@@ -0,0 +1,332 @@
+package com.bbn.bue.common.strings;
+
+import com.bbn.bue.common.StringUtils;
+import com.bbn.bue.common.TextGroupImmutable;
+import com.bbn.bue.common.strings.offsets.ByteOffset;
+import com.bbn.bue.common.strings.offsets.CharOffset;
+import com.bbn.bue.common.strings.offsets.EDTOffset;
+import com.bbn.bue.common.strings.offsets.OffsetGroup;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+
+import org.immutables.value.Value;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Computes {@link LocatedString}s for documents too large to comfortably hold in memory as a
+ * single {@link String}, such as long transcripts or web crawls.  The input is read from a {@link
+ * Reader} or {@link ByteSource} in a single pass which computes character, EDT, and (optionally)
+ * UTF-8 byte offsets, and is delivered to a {@link WindowListener} as a sequence of windows.
+ * Callers which want each {@link LocatedString.CharacterRegion} as soon as it is complete, rather
+ * than a window at a time, may also pass a {@link RegionListener}.
+ *
+ * Each window is a {@link LocatedString} whose content is a consecutive piece of the document and
+ * whose {@link LocatedString.CharacterRegion}s give offsets in the whole document, just as if
+ * it had been made by {@link LocatedString#contentLocatedSubstringByContentOffsets(
+ *com.bbn.bue.common.strings.offsets.OffsetRange)} from a {@link LocatedString} for the entire
+ * document.  Since the whole document is never held in memory, the windows have no {@link
+ * LocatedString#referenceString()}.  Only one window is held in memory at a time.
+ *
+ * Windows hold at least {@link #windowSizeInCodePoints()} code points (except for the last). If
+ * {@link #breakWindowsAtNewlines()} is set, a window will be extended to end just after a newline
+ * if one occurs before it reaches twice that size.
+ *
+ * If {@link #calculateEDTOffsetsByACERules()} is set, EDT offsets are not incremented for
+ * {@code \r} or for characters from a {@code <} up to and including the following {@code >}
+ * (see the discussion of EDT offsets on {@link LocatedString}). Otherwise EDT offsets equal
+ * character offsets.
+ *
+ * If {@link #computeUtf8ByteOffsets()} is set, the start and end offsets of each region include
+ * the offsets of the corresponding bytes of the UTF-8 encoding of the document (which is exactly
+ * the input if it is a valid UTF-8 {@link ByteSource}). As for {@link LocatedString}s generally,
+ * byte offsets are only available at region boundaries.
+ */
+@Beta
+@TextGroupImmutable
+@Value.Immutable
+public abstract class StreamingOffsetCalculator {
+
+  @Value.Default
+  public boolean calculateEDTOffsetsByACERules() {
+    return false;
+  }
+
+  @Value.Default
+  public boolean computeUtf8ByteOffsets() {
+    return false;
+  }
+
+  @Value.Default
+  public int windowSizeInCodePoints() {
+    return 1024 * 1024;
+  }
+
+  @Value.Default
+  public boolean breakWindowsAtNewlines() {
+    return true;
+  }
+
+  @Value.Check
+  protected void check() {
+    checkArgument(windowSizeInCodePoints() > 0, "Window size must be positive");
+  }
+
+  public static class Builder extends ImmutableStreamingOffsetCalculator.Builder {
+
+  }
+
+  /**
+   * Receives the windows of a document in order.
+   */
+  public interface WindowListener {
+
+    void onWindow(LocatedString window) throws IOException;
+  }
+
+  /**
+   * Receives the character regions of a document in order, each as soon as it is complete and
+   * before the window containing it is passed to the {@link WindowListener}.  Regions never span
+   * windows. Their reference offsets are offsets in the whole document, while their content
+   * offsets are relative to the start of the window containing them.
+   */
+  public interface RegionListener {
+
+    void onRegion(LocatedString.CharacterRegion region) throws IOException;
+  }
+
+  private static final RegionListener IGNORE_REGIONS = new RegionListener() {
+    @Override
+    public void onRegion(final LocatedString.CharacterRegion region) {
+    }
+  };
+
+  /**
+   * Reads all of {@code reader} (but does not close it), passing the resulting windows to {@code
+   * listener}. Nothing is passed to the listener for empty input.
+   */
+  public void calculateOffsets(final Reader reader, final WindowListener listener)
+      throws IOException {
+    calculateOffsets(reader, listener, IGNORE_REGIONS);
+  }
+
+  /**
+   * Reads all of {@code reader} (but does not close it), passing each character region to {@code
+   * regionListener} as it is completed and the resulting windows to {@code windowListener}.
+   * Nothing is passed to either listener for empty input.
+   */
+  public void calculateOffsets(final Reader reader, final WindowListener windowListener,
+      final RegionListener regionListener) throws IOException {
+    new Calculation(windowListener, regionListener).run(checkNotNull(reader));
+  }
+
+  /**
+   * Decodes {@code utf8Source} as UTF-8, passing the resulting windows to {@code listener}.
+   * Nothing is passed to the listener for empty input.
+   */
+  public void calculateOffsets(final ByteSource utf8Source, final WindowListener listener)
+      throws IOException {
+    calculateOffsets(utf8Source, listener, IGNORE_REGIONS);
+  }
+
+  /**
+   * Decodes {@code utf8Source} as UTF-8, passing each character region to {@code regionListener}
+   * as it is completed and the resulting windows to {@code windowListener}. Nothing is passed to
+   * either listener for empty input.
+   */
+  public void calculateOffsets(final ByteSource utf8Source, final WindowListener windowListener,
+      final RegionListener regionListener) throws IOException {
+    try (Reader reader = utf8Source.asCharSource(Charsets.UTF_8).openStream()) {
+      calculateOffsets(reader, windowListener, regionListener);
+    }
+  }
+
+  /**
+   * Calculates the windows of {@code reader} and returns them as a list.  This is mostly useful
+   * for testing, since it holds the whole document in memory.
+   */
+  public ImmutableList<LocatedString> calculateWindows(final Reader reader) throws IOException {
+    final ImmutableList.Builder<LocatedString> ret = ImmutableList.builder();
+    calculateOffsets(reader, new WindowListener() {
+      @Override
+      public void onWindow(final LocatedString window) {
+        ret.add(window);
+      }
+    });
+    return ret.build();
+  }
+
+  private final class Calculation {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final WindowListener listener;
+    private final RegionListener regionListener;
+
+    // absolute offsets in the whole document of the next code point
+    private int charOffset = 0;
+    private int edtOffset = 0;
+    private long byteOffset = 0;
+    private boolean inTag = false;
+
+    // the current window
+    private final StringBuilder windowText = new StringBuilder();
+    private int windowLengthInCodePoints = 0;
+    private ImmutableList.Builder<LocatedString.CharacterRegion> windowRegions =
+        ImmutableList.builder();
+
+    // the current region, if regionLength > 0.  Region content offsets are relative to the window
+    private int regionLength = 0;
+    private int regionContentStart;
+    private boolean regionNonBmp;
+    private boolean regionCountsEdt;
+    private OffsetGroup regionReferenceStart;
+    private int regionLastCharOffset;
+    private int regionLastEdtOffset;
+    private long regionLastByteOffset;
+
+    private Calculation(final WindowListener listener, final RegionListener regionListener) {
+      this.listener = checkNotNull(listener);
+      this.regionListener = checkNotNull(regionListener);
+    }
+
+    void run(final Reader reader) throws IOException {
+      final char[] buffer = new char[READ_BUFFER_SIZE + 1];
+      // a high surrogate at the end of a read is held over until we see what follows it
+      int carried = 0;
+      int numRead;
+      while ((numRead = reader.read(buffer, carried, READ_BUFFER_SIZE)) != -1) {
+        final int limit = carried + numRead;
+        int pos = 0;
+        while (pos < limit) {
+          final char c = buffer[pos];
+          if (Character.isHighSurrogate(c) && pos + 1 == limit) {
+            break;
+          }
+          final int codePoint = Character.codePointAt(buffer, pos, limit);
+          processCodePoint(codePoint);
+          pos += Character.charCount(codePoint);
+        }
+        carried = limit - pos;
+        if (carried > 0) {
+          buffer[0] = buffer[pos];
+        }
+      }
+      if (carried > 0) {
+        // a dangling high surrogate at the end of the input
+        processCodePoint(buffer[0]);
+      }
+      if (windowLengthInCodePoints > 0) {
+        finishWindow();
+      }
+    }
+
+    private void processCodePoint(final int codePoint) throws IOException {
+      final boolean nonBmp = Character.charCount(codePoint) == 2;
+      final boolean countsEdt;
+      if (calculateEDTOffsetsByACERules()) {
+        if (codePoint == '<') {
+          inTag = true;
+        }
+        countsEdt = !inTag && codePoint != '\r';
+        if (codePoint == '>') {
+          inTag = false;
+        }
+      } else {
+        countsEdt = true;
+      }
+
+      if (regionLength > 0 && (nonBmp != regionNonBmp || countsEdt != regionCountsEdt)) {
+        finishRegion();
+      }
+      if (regionLength == 0) {
+        regionContentStart = windowLengthInCodePoints;
+        regionNonBmp = nonBmp;
+        regionCountsEdt = countsEdt;
+        regionReferenceStart = offsetGroup(charOffset, edtOffset, byteOffset);
+      }
+      ++regionLength;
+      regionLastCharOffset = charOffset;
+      // within a region which doesn't count EDT offsets, every character gets the offset of the
+      // next character which does
+      regionLastEdtOffset = edtOffset;
+      final int utf8Length = utf8Length(codePoint);
+      regionLastByteOffset = byteOffset + utf8Length - 1;
+
+      windowText.appendCodePoint(codePoint);
+      ++windowLengthInCodePoints;
+
+      checkState(charOffset < Integer.MAX_VALUE, "Document too long to compute offsets for");
+      ++charOffset;
+      if (countsEdt) {
+        ++edtOffset;
+      }
+      byteOffset += utf8Length;
+
+      if (windowLengthInCodePoints >= windowSizeInCodePoints()
+          && (!breakWindowsAtNewlines() || codePoint == '\n'
+                  || windowLengthInCodePoints >= 2L * windowSizeInCodePoints())) {
+        finishWindow();
+      }
+    }
+
+    private void finishRegion() throws IOException {
+      final LocatedString.CharacterRegion region = new LocatedString.CharacterRegion.Builder()
+          .contentNonBmp(regionNonBmp)
+          .contentStartPosInclusive(CharOffset.asCharOffset(regionContentStart))
+          .contentEndPosExclusive(CharOffset.asCharOffset(regionContentStart + regionLength))
+          .referenceStartOffsetInclusive(regionReferenceStart)
+          .referenceEndOffsetInclusive(
+              offsetGroup(regionLastCharOffset, regionLastEdtOffset, regionLastByteOffset))
+          .build();
+      windowRegions.add(region);
+      regionLength = 0;
+      regionListener.onRegion(region);
+    }
+
+    private void finishWindow() throws IOException {
+      finishRegion();
+      final LocatedString window = new LocatedString.Builder()
+          .content(StringUtils.unicodeFriendly(windowText.toString()))
+          .characterRegions(windowRegions.build())
+          .build();
+      windowText.setLength(0);
+      windowLengthInCodePoints = 0;
+      windowRegions = ImmutableList.builder();
+      listener.onWindow(window);
+    }
+
+    private OffsetGroup offsetGroup(final int charOffset, final int edtOffset,
+        final long byteOffset) {
+      final OffsetGroup.Builder ret = new OffsetGroup.Builder()
+          .charOffset(CharOffset.asCharOffset(charOffset))
+          .edtOffset(EDTOffset.asEDTOffset(edtOffset));
+      if (computeUtf8ByteOffsets()) {
+        checkState(byteOffset <= Integer.MAX_VALUE, "Byte offsets past 2GB are not supported");
+        ret.byteOffset(ByteOffset.asByteOffset((int) byteOffset));
+      }
+      return ret.build();
+    }
+  }
+
+  private static int utf8Length(final int codePoint) {
+    // see section 3 of https://tools.ietf.org/html/rfc3629
+    if (codePoint <= 0x7f) {
+      return 1;
+    } else if (codePoint <= 0x7ff) {
+      return 2;
+    } else if (codePoint <= 0xffff) {
+      return 3;
+    } else {
+      return 4;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package com.bbn.bue.common.strings.offsets;
+
+import com.bbn.bue.common.collections.IntervalTreeOverlappingRangeSet;
+import com.bbn.bue.common.collections.OverlappingRangeSet;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An {@link OverlappingRangeSet} of {@link CharOffset} ranges specialized to store and compare
+ * offsets as primitive {@code int}s.  It uses the same augmented interval tree as {@link
+ * IntervalTreeOverlappingRangeSet}, but over the parallel offset arrays of an {@link
+ * OffsetRangeArray}, so no objects are allocated per range except for query results.  Each query
+ * has the same cost as the corresponding query of {@link IntervalTreeOverlappingRangeSet}.
+ *
+ * In addition to the {@link OverlappingRangeSet} methods, there are query methods on {@link
+ * OffsetRange}s which return {@link OffsetRangeArray}s. These are preferred where the caller is
+ * already working with {@link OffsetRange}s, as is usual for mentions and annotations.
+ *
+ * Since character offsets are discrete, query {@link Range}s with open bounds are treated as the
+ * equivalent closed ranges, and {@link Range}s returned are always closed. Empty query ranges
+ * match nothing. Like {@link IntervalTreeOverlappingRangeSet}, this does not preserve
+ * multiplicity and returns results ordered by start and then end offset.
+ */
+public final class CharOffsetOverlappingRangeSet implements OverlappingRangeSet<CharOffset> {
+
+  // sorted by start then end, without duplicates
+  private final int[] starts;
+  private final int[] ends;
+  // for the subtree rooted at index i of the implicit tree over the ranges, the largest and
+  // smallest end offsets of any range within it
+  private final int[] maxEnds;
+  private final int[] minEnds;
+
+  private CharOffsetOverlappingRangeSet(final OffsetRangeArray<CharOffset> ranges) {
+    final OffsetRangeArray<CharOffset> sorted = ranges.sortedByStart();
+    final int[] sortedStarts = sorted.starts();
+    final int[] sortedEnds = sorted.ends();
+    int numUnique = 0;
+    final int[] uniqueStarts = new int[sortedStarts.length];
+    final int[] uniqueEnds = new int[sortedEnds.length];
+    for (int i = 0; i < sortedStarts.length; ++i) {
+      if (numUnique == 0 || uniqueStarts[numUnique - 1] != sortedStarts[i]
+          || uniqueEnds[numUnique - 1] != sortedEnds[i]) {
+        uniqueStarts[numUnique] = sortedStarts[i];
+        uniqueEnds[numUnique] = sortedEnds[i];
+        ++numUnique;
+      }
+    }
+    this.starts = Arrays.copyOf(uniqueStarts, numUnique);
+    this.ends = Arrays.copyOf(uniqueEnds, numUnique);
+    this.maxEnds = new int[numUnique];
+    this.minEnds = new int[numUnique];
+    indexSubtree(0, numUnique);
+  }
+
+  public static CharOffsetOverlappingRangeSet create(final OffsetRangeArray<CharOffset> ranges) {
+    return new CharOffsetOverlappingRangeSet(ranges);
+  }
+
+  public static CharOffsetOverlappingRangeSet create(
+      final Iterable<OffsetRange<CharOffset>> ranges) {
+    return create(OffsetRangeArray.copyOf(CharOffset.asCharOffset(0), ranges));
+  }
+
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * Gets all ranges which contain {@code offset}.
+   */
+  public OffsetRangeArray<CharOffset> rangesContaining(final int offset) {
+    return rangesContainingClosed(offset, offset);
+  }
+
+  /**
+   * Gets all ranges which contain all of {@code query}.
+   */
+  public OffsetRangeArray<CharOffset> rangesContaining(final OffsetRange<CharOffset> query) {
+    return rangesContainingClosed(query.startInclusive().asInt(), query.endInclusive().asInt());
+  }
+
+  /**
+   * Gets all ranges which lie entirely within {@code query}.
+   */
+  public OffsetRangeArray<CharOffset> rangesContainedBy(final OffsetRange<CharOffset> query) {
+    return rangesContainedByClosed(query.startInclusive().asInt(), query.endInclusive().asInt());
+  }
+
+  /**
+   * Gets all ranges which share at least one offset with {@code query}.
+   */
+  public OffsetRangeArray<CharOffset> rangesOverlapping(final OffsetRange<CharOffset> query) {
+    return rangesOverlappingClosed(query.startInclusive().asInt(), query.endInclusive().asInt());
+  }
+
+  @Override
+  public Collection<Range<CharOffset>> rangesContaining(final CharOffset item) {
+    return asRanges(rangesContaining(item.asInt()));
+  }
+
+  @Override
+  public Collection<Range<CharOffset>> rangesContaining(final Range<CharOffset> queryRange) {
+    final int queryStart = closedStart(queryRange);
+    final int queryEnd = closedEnd(queryRange);
+    if (queryStart > queryEnd) {
+      return ImmutableList.of();
+    }
+    return asRanges(rangesContainingClosed(queryStart, queryEnd));
+  }
+
+  @Override
+  public Collection<Range<CharOffset>> rangesContainedBy(final Range<CharOffset> queryRange) {
+    final int queryStart = closedStart(queryRange);
+    final int queryEnd = closedEnd(queryRange);
+    if (queryStart > queryEnd) {
+      return ImmutableList.of();
+    }
+    return asRanges(rangesContainedByClosed(queryStart, queryEnd));
+  }
+
+  @Override
+  public Collection<Range<CharOffset>> rangesOverlapping(final Range<CharOffset> queryRange) {
+    final int queryStart = closedStart(queryRange);
+    final int queryEnd = closedEnd(queryRange);
+    if (queryStart > queryEnd) {
+      return ImmutableList.of();
+    }
+    return asRanges(rangesOverlappingClosed(queryStart, queryEnd));
+  }
+
+  private OffsetRangeArray<CharOffset> rangesContainingClosed(final int queryStart,
+      final int queryEnd) {
+    final OffsetRangeArray.Builder<CharOffset> ret = OffsetRangeArray.charOffsetRangesBuilder();
+    collectContaining(0, starts.length, queryStart, queryEnd, ret);
+    return ret.build();
+  }
+
+  private void collectContaining(final int lo, final int hi, final int queryStart,
+      final int queryEnd, final OffsetRangeArray.Builder<CharOffset> ret) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    if (maxEnds[mid] < queryEnd) {
+      return;
+    }
+    collectContaining(lo, mid, queryStart, queryEnd, ret);
+    if (starts[mid] > queryStart) {
+      return;
+    }
+    if (ends[mid] >= queryEnd) {
+      ret.addInclusive(starts[mid], ends[mid]);
+    }
+    collectContaining(mid + 1, hi, queryStart, queryEnd, ret);
+  }
+
+  private OffsetRangeArray<CharOffset> rangesContainedByClosed(final int queryStart,
+      final int queryEnd) {
+    final OffsetRangeArray.Builder<CharOffset> ret = OffsetRangeArray.charOffsetRangesBuilder();
+    collectContainedBy(0, starts.length, queryStart, queryEnd, ret);
+    return ret.build();
+  }
+
+  private void collectContainedBy(final int lo, final int hi, final int queryStart,
+      final int queryEnd, final OffsetRangeArray.Builder<CharOffset> ret) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    if (minEnds[mid] > queryEnd) {
+      return;
+    }
+    if (starts[mid] >= queryStart) {
+      collectContainedBy(lo, mid, queryStart, queryEnd, ret);
+    }
+    if (starts[mid] > queryEnd) {
+      return;
+    }
+    if (starts[mid] >= queryStart && ends[mid] <= queryEnd) {
+      ret.addInclusive(starts[mid], ends[mid]);
+    }
+    collectContainedBy(mid + 1, hi, queryStart, queryEnd, ret);
+  }
+
+  private OffsetRangeArray<CharOffset> rangesOverlappingClosed(final int queryStart,
+      final int queryEnd) {
+    final OffsetRangeArray.Builder<CharOffset> ret = OffsetRangeArray.charOffsetRangesBuilder();
+    collectOverlapping(0, starts.length, queryStart, queryEnd, ret);
+    return ret.build();
+  }
+
+  private void collectOverlapping(final int lo, final int hi, final int queryStart,
+      final int queryEnd, final OffsetRangeArray.Builder<CharOffset> ret) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    if (maxEnds[mid] < queryStart) {
+      return;
+    }
+    collectOverlapping(lo, mid, queryStart, queryEnd, ret);
+    if (starts[mid] > queryEnd) {
+      return;
+    }
+    if (ends[mid] >= queryStart) {
+      ret.addInclusive(starts[mid], ends[mid]);
+    }
+    collectOverlapping(mid + 1, hi, queryStart, queryEnd, ret);
+  }
+
+  private void indexSubtree(final int lo, final int hi) {
+    if (lo >= hi) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    indexSubtree(lo, mid);
+    indexSubtree(mid + 1, hi);
+    int max = ends[mid];
+    int min = ends[mid];
+    if (lo < mid) {
+      final int leftChild = (lo + mid) >>> 1;
+      max = Math.max(max, maxEnds[leftChild]);
+      min = Math.min(min, minEnds[leftChild]);
+    }
+    if (mid + 1 < hi) {
+      final int rightChild = (mid + 1 + hi) >>> 1;
+      max = Math.max(max, maxEnds[rightChild]);
+      min = Math.min(min, minEnds[rightChild]);
+    }
+    maxEnds[mid] = max;
+    minEnds[mid] = min;
+  }
+
+  private static int closedStart(final Range<CharOffset> range) {
+    if (!range.hasLowerBound()) {
+      return Integer.MIN_VALUE;
+    }
+    final int start = range.lowerEndpoint().asInt();
+    return range.lowerBoundType() == BoundType.CLOSED ? start : start + 1;
+  }
+
+  private static int closedEnd(final Range<CharOffset> range) {
+    if (!range.hasUpperBound()) {
+      return Integer.MAX_VALUE;
+    }
+    final int end = range.upperEndpoint().asInt();
+    return range.upperBoundType() == BoundType.CLOSED ? end : end - 1;
+  }
+
+  private static ImmutableList<Range<CharOffset>> asRanges(
+      final OffsetRangeArray<CharOffset> ranges) {
+    final ImmutableList.Builder<Range<CharOffset>> ret = ImmutableList.builder();
+    for (int i = 0; i < ranges.size(); ++i) {
+      ret.add(Range.closed(CharOffset.asCharOffset(ranges.startInclusive(i)),
+          CharOffset.asCharOffset(ranges.endInclusive(i))));
+    }
+    return ret.build();
+  }
+}
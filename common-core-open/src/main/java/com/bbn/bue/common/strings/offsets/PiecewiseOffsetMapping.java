@@ -0,0 +1,478 @@
+package com.bbn.bue.common.strings.offsets;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Optional;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * A {@link FunctionalOffsetMapping} compiled to a sorted array of breakpoints dividing the source
+ * offsets into segments. Within a segment, source offsets are either all unmapped, mapped
+ * one-to-one onto consecutive target offsets, or all collapsed onto a single target offset.  This
+ * is exactly the shape of the mappings produced by text cleanup (deleting, inserting, and
+ * collapsing characters), and it makes lookups a binary search rather than a call through
+ * arbitrary code.
+ *
+ * Two compiled mappings can be composed with {@link #andThen(PiecewiseOffsetMapping)} into a single
+ * compiled mapping, so a chain such as original text to cleaned text to tokenized text costs no
+ * more to apply than a single mapping.  {@link #mapOffsets(int[])} maps many offsets at once and
+ * takes time linear in their number if they are sorted, as token offsets usually are.
+ *
+ * Mappings are built with a {@link Builder} which records edits from the start of the source
+ * onwards, or by probing another mapping with {@link #compile(AbstractFunctionalOffsetMapping,
+ * int, int)}. As required by {@link OffsetMapping}, target offsets never decrease as source
+ * offsets increase.
+ */
+@Beta
+public final class PiecewiseOffsetMapping extends AbstractFunctionalOffsetMapping {
+
+  /**
+   * Returned by {@link #mapOffsets(int[])} for source offsets with no corresponding target.
+   */
+  public static final int UNMAPPED = -1;
+
+  private static final byte UNMAPPED_SEGMENT = 0;
+  private static final byte LINEAR_SEGMENT = 1;
+  private static final byte COLLAPSED_SEGMENT = 2;
+
+  private final int sourceLength;
+  private final int targetLength;
+  // segment i covers source offsets [segmentStarts[i], segmentStarts[i+1]). The last entry is
+  // sourceLength
+  private final int[] segmentStarts;
+  // the target of the first source offset of each segment, or UNMAPPED
+  private final int[] segmentTargets;
+  private final byte[] segmentKinds;
+
+  private PiecewiseOffsetMapping(final int sourceLength, final int targetLength,
+      final int[] segmentStarts, final int[] segmentTargets, final byte[] segmentKinds) {
+    this.sourceLength = sourceLength;
+    this.targetLength = targetLength;
+    this.segmentStarts = segmentStarts;
+    this.segmentTargets = segmentTargets;
+    this.segmentKinds = segmentKinds;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * The mapping of {@code length} offsets onto themselves.
+   */
+  public static PiecewiseOffsetMapping identity(final int length) {
+    return builder().mapped(length).build();
+  }
+
+  /**
+   * Compiles an arbitrary functional mapping by probing each of its source offsets in {@code [0,
+   * sourceLength)}.
+   *
+   * @throws IllegalArgumentException if the mapping ever decreases or maps outside {@code [0,
+   *                                  targetLength)}.
+   */
+  public static PiecewiseOffsetMapping compile(final AbstractFunctionalOffsetMapping mapping,
+      final int sourceLength, final int targetLength) {
+    final Builder ret = builder();
+    for (int i = 0; i < sourceLength; ++i) {
+      final Optional<Integer> target = mapping.mapOffsetUniquely(i);
+      if (target.isPresent()) {
+        checkArgument(target.get() < targetLength, "%s maps %s to %s, beyond target length %s",
+            mapping, i, target.get(), targetLength);
+        ret.appendSegment(1, target.get(), LINEAR_SEGMENT);
+      } else {
+        ret.appendSegment(1, UNMAPPED, UNMAPPED_SEGMENT);
+      }
+    }
+    ret.targetCursor = targetLength;
+    return ret.build();
+  }
+
+  public int sourceLength() {
+    return sourceLength;
+  }
+
+  public int targetLength() {
+    return targetLength;
+  }
+
+  public int numSegments() {
+    return segmentKinds.length;
+  }
+
+  @Override
+  public Optional<Integer> mapOffsetUniquely(final int sourceIdx) {
+    final int target = mapOffsetToInt(sourceIdx);
+    return target == UNMAPPED ? Optional.<Integer>absent() : Optional.of(target);
+  }
+
+  @Override
+  public Collection<Integer> mapOffset(final int sourceIndex) {
+    return mapOffsetUniquely(sourceIndex).asSet();
+  }
+
+  /**
+   * Like {@link #mapOffsetUniquely(int)} but returns {@link #UNMAPPED} rather than an absent
+   * value.
+   */
+  public int mapOffsetToInt(final int sourceIdx) {
+    checkElementIndex(sourceIdx, sourceLength);
+    return mapInSegment(segmentContaining(sourceIdx), sourceIdx);
+  }
+
+  /**
+   * Maps each of {@code sourceOffsets}, giving {@link #UNMAPPED} for those with no target. This
+   * only needs to search for the segment of an offset when it is not in the segment of the
+   * previous one, so mapping sorted offsets is a single pass over the array.
+   */
+  public int[] mapOffsets(final int[] sourceOffsets) {
+    final int[] ret = new int[sourceOffsets.length];
+    int segment = 0;
+    for (int i = 0; i < sourceOffsets.length; ++i) {
+      final int sourceOffset = sourceOffsets[i];
+      checkElementIndex(sourceOffset, sourceLength);
+      if (sourceOffset < segmentStarts[segment] || sourceOffset >= segmentStarts[segment + 1]) {
+        // sorted offsets usually land in the same or next segment
+        if (segment + 2 < segmentStarts.length && sourceOffset >= segmentStarts[segment + 1]
+            && sourceOffset < segmentStarts[segment + 2]) {
+          ++segment;
+        } else {
+          segment = segmentContaining(sourceOffset);
+        }
+      }
+      ret[i] = mapInSegment(segment, sourceOffset);
+    }
+    return ret;
+  }
+
+  @Override
+  public Collection<Range<Integer>> mapRange(final Range<Integer> closedSource) {
+    checkArgument(closedSource.hasLowerBound() && closedSource.hasUpperBound()
+            && closedSource.lowerBoundType() == BoundType.CLOSED
+            && closedSource.upperBoundType() == BoundType.CLOSED,
+        "Source range must be closed but got %s", closedSource);
+    final int sourceStart = closedSource.lowerEndpoint();
+    final int sourceEnd = closedSource.upperEndpoint();
+    checkElementIndex(sourceStart, sourceLength);
+    checkElementIndex(sourceEnd, sourceLength);
+
+    final ImmutableList.Builder<Range<Integer>> ret = ImmutableList.builder();
+    int curStart = UNMAPPED;
+    int curEnd = UNMAPPED;
+    for (int segment = segmentContaining(sourceStart);
+         segment < segmentKinds.length && segmentStarts[segment] <= sourceEnd; ++segment) {
+      if (segmentKinds[segment] == UNMAPPED_SEGMENT) {
+        continue;
+      }
+      final int pieceStart = mapInSegment(segment, Math.max(sourceStart, segmentStarts[segment]));
+      final int pieceEnd =
+          mapInSegment(segment, Math.min(sourceEnd, segmentStarts[segment + 1] - 1));
+      if (curStart != UNMAPPED && pieceStart <= curEnd + 1) {
+        curEnd = Math.max(curEnd, pieceEnd);
+      } else {
+        if (curStart != UNMAPPED) {
+          ret.add(Range.closed(curStart, curEnd));
+        }
+        curStart = pieceStart;
+        curEnd = pieceEnd;
+      }
+    }
+    if (curStart != UNMAPPED) {
+      ret.add(Range.closed(curStart, curEnd));
+    }
+    return ret.build();
+  }
+
+  /**
+   * The mapping from target to source offsets.  This exists unless some target offset has
+   * several source offsets mapped to it.
+   */
+  @Override
+  public Optional<OffsetMapping> inverseMapping() {
+    final Builder ret = builder();
+    int targetCursor = 0;
+    for (int segment = 0; segment < segmentKinds.length; ++segment) {
+      final int length = segmentStarts[segment + 1] - segmentStarts[segment];
+      if (segmentKinds[segment] == COLLAPSED_SEGMENT
+          || (segmentKinds[segment] == LINEAR_SEGMENT && segmentTargets[segment] < targetCursor)) {
+        // some target offset has more than one source offset
+        return Optional.absent();
+      } else if (segmentKinds[segment] == LINEAR_SEGMENT) {
+        ret.appendSegment(segmentTargets[segment] - targetCursor, UNMAPPED, UNMAPPED_SEGMENT);
+        ret.appendSegment(length, segmentStarts[segment], LINEAR_SEGMENT);
+        targetCursor = segmentTargets[segment] + length;
+      }
+    }
+    ret.appendSegment(targetLength - targetCursor, UNMAPPED, UNMAPPED_SEGMENT);
+    ret.targetCursor = sourceLength;
+    return Optional.<OffsetMapping>of(ret.build());
+  }
+
+  /**
+   * Composes this mapping with {@code next}, giving a mapping from the source of this to the
+   * target of {@code next}.
+   *
+   * @throws IllegalArgumentException if the target length of this is not the source length of
+   *                                  {@code next}.
+   */
+  public PiecewiseOffsetMapping andThen(final PiecewiseOffsetMapping next) {
+    checkArgument(targetLength == next.sourceLength,
+        "Cannot compose a mapping with target length %s with one of source length %s",
+        targetLength, next.sourceLength);
+    final Builder ret = builder();
+    for (int segment = 0; segment < segmentKinds.length; ++segment) {
+      final int length = segmentStarts[segment + 1] - segmentStarts[segment];
+      final int target = segmentTargets[segment];
+      switch (segmentKinds[segment]) {
+        case UNMAPPED_SEGMENT:
+          ret.appendSegment(length, UNMAPPED, UNMAPPED_SEGMENT);
+          break;
+        case COLLAPSED_SEGMENT:
+          final int nextTarget = next.mapOffsetToInt(target);
+          if (nextTarget == UNMAPPED) {
+            ret.appendSegment(length, UNMAPPED, UNMAPPED_SEGMENT);
+          } else {
+            ret.appendSegment(length, nextTarget, COLLAPSED_SEGMENT);
+          }
+          break;
+        case LINEAR_SEGMENT:
+          // split this segment where its image crosses the segment boundaries of next
+          final int targetEnd = target + length;
+          for (int nextSegment = next.segmentContaining(target);
+               nextSegment < next.segmentKinds.length
+                   && next.segmentStarts[nextSegment] < targetEnd; ++nextSegment) {
+            final int pieceStart = Math.max(target, next.segmentStarts[nextSegment]);
+            final int pieceEnd = Math.min(targetEnd, next.segmentStarts[nextSegment + 1]);
+            final byte nextKind = next.segmentKinds[nextSegment];
+            ret.appendSegment(pieceEnd - pieceStart, next.mapInSegment(nextSegment, pieceStart),
+                nextKind);
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unknown segment kind " + segmentKinds[segment]);
+      }
+    }
+    ret.targetCursor = next.targetLength;
+    return ret.build();
+  }
+
+  private int segmentContaining(final int sourceOffset) {
+    final int idx = Arrays.binarySearch(segmentStarts, 0, segmentKinds.length, sourceOffset);
+    // segment starts are distinct, so on a miss the segment is the one before the insertion point
+    return idx >= 0 ? idx : -idx - 2;
+  }
+
+  private int mapInSegment(final int segment, final int sourceOffset) {
+    switch (segmentKinds[segment]) {
+      case UNMAPPED_SEGMENT:
+        return UNMAPPED;
+      case LINEAR_SEGMENT:
+        return segmentTargets[segment] + (sourceOffset - segmentStarts[segment]);
+      case COLLAPSED_SEGMENT:
+        return segmentTargets[segment];
+      default:
+        throw new IllegalStateException("Unknown segment kind " + segmentKinds[segment]);
+    }
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final PiecewiseOffsetMapping that = (PiecewiseOffsetMapping) o;
+    // the builder merges segments canonically, so equal mappings have equal segments
+    return sourceLength == that.sourceLength && targetLength == that.targetLength
+        && Arrays.equals(segmentStarts, that.segmentStarts)
+        && Arrays.equals(segmentTargets, that.segmentTargets)
+        && Arrays.equals(segmentKinds, that.segmentKinds);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(segmentStarts) + Arrays.hashCode(segmentTargets);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("PiecewiseOffsetMapping[");
+    for (int segment = 0; segment < segmentKinds.length; ++segment) {
+      if (segment > 0) {
+        sb.append(", ");
+      }
+      sb.append(segmentStarts[segment]).append('-').append(segmentStarts[segment + 1] - 1);
+      switch (segmentKinds[segment]) {
+        case UNMAPPED_SEGMENT:
+          sb.append("->none");
+          break;
+        case LINEAR_SEGMENT:
+          sb.append("->").append(segmentTargets[segment]).append('+');
+          break;
+        default:
+          sb.append("->").append(segmentTargets[segment]);
+      }
+    }
+    return sb.append("; target length ").append(targetLength).append(']').toString();
+  }
+
+  /**
+   * Builds a {@link PiecewiseOffsetMapping} by describing what happens to the source from its
+   * start onwards. For example, deleting the {@code \r}s from {@code "a\r\nb"} is {@code
+   * mapped(1).unmapped(1).mapped(2)}.
+   */
+  public static final class Builder {
+
+    private int[] segmentStarts = new int[16];
+    private int[] segmentTargets = new int[16];
+    private byte[] segmentKinds = new byte[16];
+    private int numSegments = 0;
+    private int sourceCursor = 0;
+    private int targetCursor = 0;
+    // the largest target offset mapped to so far
+    private int maxTarget = UNMAPPED;
+
+    private Builder() {
+    }
+
+    /**
+     * The next {@code length} source offsets map one-to-one to the next {@code length} target
+     * offsets.
+     */
+    public Builder mapped(final int length) {
+      checkArgument(length >= 0);
+      appendSegment(length, targetCursor, LINEAR_SEGMENT);
+      targetCursor += length;
+      return this;
+    }
+
+    /**
+     * The next {@code length} source offsets have no corresponding target offsets (e.g. they were
+     * deleted).
+     */
+    public Builder unmapped(final int length) {
+      checkArgument(length >= 0);
+      appendSegment(length, UNMAPPED, UNMAPPED_SEGMENT);
+      return this;
+    }
+
+    /**
+     * The next {@code length} target offsets have no corresponding source offsets (e.g. they were
+     * inserted).
+     */
+    public Builder inserted(final int length) {
+      checkArgument(length >= 0);
+      targetCursor += length;
+      return this;
+    }
+
+    /**
+     * The next {@code length} source offsets all map to the next single target offset (e.g. a run
+     * of whitespace was collapsed to a single space).
+     */
+    public Builder collapsed(final int length) {
+      checkArgument(length >= 0);
+      if (length > 0) {
+        appendSegment(length, targetCursor, COLLAPSED_SEGMENT);
+        ++targetCursor;
+      }
+      return this;
+    }
+
+    public PiecewiseOffsetMapping build() {
+      final int[] starts = Arrays.copyOf(segmentStarts, numSegments + 1);
+      starts[numSegments] = sourceCursor;
+      return new PiecewiseOffsetMapping(sourceCursor, targetCursor, starts,
+          Arrays.copyOf(segmentTargets, numSegments), Arrays.copyOf(segmentKinds, numSegments));
+    }
+
+    /**
+     * Appends a segment, merging it with the previous one where possible so that every mapping
+     * has a single canonical representation.
+     */
+    private void appendSegment(final int length, final int target, final byte requestedKind) {
+      byte kind = requestedKind;
+      if (length == 0) {
+        return;
+      }
+      if (kind == COLLAPSED_SEGMENT && length == 1) {
+        kind = LINEAR_SEGMENT;
+      }
+      if (kind != UNMAPPED_SEGMENT) {
+        checkArgument(target >= maxTarget,
+            "Target offsets may not decrease, but %s follows %s", target, maxTarget);
+        if (target == maxTarget && kind == LINEAR_SEGMENT && length > 1) {
+          // the first offset collapses onto the previous target and the rest continue from there
+          appendSegment(1, target, LINEAR_SEGMENT);
+          appendSegment(length - 1, target + 1, LINEAR_SEGMENT);
+          return;
+        }
+      }
+      checkArgument(sourceCursor + (long) length <= Integer.MAX_VALUE, "Source too long");
+
+      if (numSegments > 0) {
+        final int last = numSegments - 1;
+        final byte lastKind = segmentKinds[last];
+        final int lastLength = sourceCursor - segmentStarts[last];
+        final int lastTarget = segmentTargets[last];
+        if (kind == UNMAPPED_SEGMENT && lastKind == UNMAPPED_SEGMENT) {
+          extendLast(length);
+          return;
+        }
+        if (kind == LINEAR_SEGMENT && lastKind == LINEAR_SEGMENT
+            && target == lastTarget + lastLength) {
+          extendLast(length);
+          return;
+        }
+        if (kind != UNMAPPED_SEGMENT && lastKind != UNMAPPED_SEGMENT && target == maxTarget) {
+          // by the check above, the new segment is a single offset or collapsed, all onto the
+          // last target of the previous segment
+          if (lastKind == COLLAPSED_SEGMENT || lastLength == 1) {
+            segmentKinds[last] = COLLAPSED_SEGMENT;
+            extendLast(length);
+            return;
+          }
+          // split the last offset off the end of the previous linear segment to collapse with it
+          --sourceCursor;
+          pushSegment(length + 1, target, COLLAPSED_SEGMENT);
+          return;
+        }
+      }
+      pushSegment(length, target, kind);
+    }
+
+    private void extendLast(final int length) {
+      sourceCursor += length;
+      final int last = numSegments - 1;
+      if (segmentKinds[last] == LINEAR_SEGMENT) {
+        maxTarget = segmentTargets[last] + (sourceCursor - segmentStarts[last]) - 1;
+      }
+    }
+
+    private void pushSegment(final int length, final int target, final byte kind) {
+      if (numSegments == segmentKinds.length) {
+        final int newCapacity = 2 * numSegments;
+        segmentStarts = Arrays.copyOf(segmentStarts, newCapacity + 1);
+        segmentTargets = Arrays.copyOf(segmentTargets, newCapacity);
+        segmentKinds = Arrays.copyOf(segmentKinds, newCapacity);
+      }
+      segmentStarts[numSegments] = sourceCursor;
+      segmentTargets[numSegments] = target;
+      segmentKinds[numSegments] = kind;
+      ++numSegments;
+      sourceCursor += length;
+      if (kind != UNMAPPED_SEGMENT) {
+        maxTarget = kind == LINEAR_SEGMENT ? target + length - 1 : target;
+      }
+    }
+  }
+}
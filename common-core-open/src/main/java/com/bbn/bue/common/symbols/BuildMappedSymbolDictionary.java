@@ -0,0 +1,88 @@
+package com.bbn.bue.common.symbols;
+
+import com.bbn.bue.common.files.FileUtils;
+import com.bbn.bue.common.parameters.Parameters;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a {@link MappedSymbolDictionary} from symbol lists and/or the keys of doc-ID-to-file
+ * maps.
+ *
+ * Parameters:
+ * <ul>
+ * <li>{@code inputSymbolLists}: (optional) comma-separated paths of files with one symbol per
+ * line, in the format read by {@link FileUtils#loadSymbolList(File)}.</li>
+ * <li>{@code inputFileMaps}: (optional) comma-separated paths of key-to-file maps, in the format
+ * read by {@link FileUtils#loadSymbolToFileMap(File)}. Only the keys are used.</li>
+ * <li>{@code outputFile}: where to write the dictionary.</li>
+ * </ul>
+ * At least one input must be specified. Ids are assigned in order of first appearance, reading
+ * the symbol lists before the file maps.
+ */
+public final class BuildMappedSymbolDictionary {
+
+  private static final Logger log = LoggerFactory.getLogger(BuildMappedSymbolDictionary.class);
+
+  private BuildMappedSymbolDictionary() {
+    throw new UnsupportedOperationException();
+  }
+
+  public static void main(String[] args) {
+    // We wrap the main method in this way to ensure a non-zero return value on failure
+    try {
+      trueMain(args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void trueMain(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("usage: BuildMappedSymbolDictionary paramFile");
+      System.exit(1);
+    }
+    final Parameters params = Parameters.loadSerifStyle(new File(args[0]));
+    params.assertAtLeastOneDefined("inputSymbolLists", "inputFileMaps");
+    final Optional<List<String>> symbolLists =
+        params.getOptionalStringList("inputSymbolLists");
+    final Optional<List<String>> fileMaps = params.getOptionalStringList("inputFileMaps");
+    final File outputFile = params.getCreatableFile("outputFile");
+
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    final ImmutableList.Builder<Symbol> symbols = ImmutableList.builder();
+    if (symbolLists.isPresent()) {
+      for (final String symbolList : symbolLists.get()) {
+        final ImmutableList<Symbol> loaded = FileUtils.loadSymbolList(new File(symbolList));
+        log.info("Loaded {} symbols from {}", loaded.size(), symbolList);
+        symbols.addAll(loaded);
+      }
+    }
+    if (fileMaps.isPresent()) {
+      for (final String fileMap : fileMaps.get()) {
+        final ImmutableList<Symbol> keys =
+            FileUtils.loadSymbolToFileMap(new File(fileMap)).keySet().asList();
+        log.info("Loaded {} keys from {}", keys.size(), fileMap);
+        symbols.addAll(keys);
+      }
+    }
+    log.info("Loaded input in {} ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+    stopwatch.reset().start();
+    MappedSymbolDictionary.write(symbols.build(), outputFile);
+    final MappedSymbolDictionary written = MappedSymbolDictionary.open(outputFile);
+    log.info("Wrote dictionary of {} symbols to {} in {} ms", written.size(), outputFile,
+        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,268 @@
+package com.bbn.bue.common.symbols;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closer;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A read-only dictionary assigning dense integer ids to {@link Symbol}s which is stored in a
+ * binary file and accessed through a memory mapping.  Opening a dictionary does not read or hash
+ * its contents, so it is nearly instantaneous regardless of size, and the operating system shares
+ * the mapped pages between all processes which open the same file. This makes it suitable for the
+ * large sets of document IDs and labels which many short-lived JVMs would otherwise have to
+ * re-load from text files.
+ *
+ * Symbols are only created (and interned) when they are looked up by id. Lookups by string are
+ * done by binary search over the mapped data without creating any symbols.
+ *
+ * Dictionaries are written with {@link #write(Iterable, File)} or the {@link
+ * BuildMappedSymbolDictionary} program.  The file format is (all integers big-endian):
+ * <ul>
+ * <li>a header: a magic number, a format version, the number of symbols {@code n}, and the length
+ * of the string data in bytes.</li>
+ * <li>{@code n+1} ints giving the start offset of each symbol's UTF-8 bytes in the string data, in
+ * id order. The last entry is the length of the string data.</li>
+ * <li>{@code n} ints listing the ids sorted by the UTF-8 bytes of their strings.</li>
+ * <li>the string data: the concatenated UTF-8 bytes of each symbol, in id order.</li>
+ * </ul>
+ * The total file size is limited to 2GB.
+ */
+@Beta
+public final class MappedSymbolDictionary {
+
+  private static final int MAGIC = 0x42535944; // "BSYD"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * Ints.BYTES;
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int offsetsStart;
+  private final int sortedIdsStart;
+  private final int dataStart;
+  // symbols are created lazily on lookup by id and cached so we don't repeatedly decode them
+  private final AtomicReferenceArray<Symbol> symbolCache;
+
+  private MappedSymbolDictionary(final ByteBuffer buffer) throws IOException {
+    this.buffer = checkNotNull(buffer);
+    if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a symbol dictionary file");
+    }
+    final int version = buffer.getInt(Ints.BYTES);
+    if (version != VERSION) {
+      throw new IOException("Unsupported symbol dictionary version " + version);
+    }
+    this.size = buffer.getInt(2 * Ints.BYTES);
+    final int dataLength = buffer.getInt(3 * Ints.BYTES);
+    this.offsetsStart = HEADER_BYTES;
+    this.sortedIdsStart = offsetsStart + (size + 1) * Ints.BYTES;
+    this.dataStart = sortedIdsStart + size * Ints.BYTES;
+    if (size < 0 || dataLength < 0 || (long) dataStart + dataLength != buffer.limit()) {
+      throw new IOException("Symbol dictionary file is truncated or corrupt");
+    }
+    this.symbolCache = new AtomicReferenceArray<Symbol>(size);
+  }
+
+  /**
+   * Opens a dictionary previously written by {@link #write(Iterable, File)}.
+   */
+  public static MappedSymbolDictionary open(final File file) throws IOException {
+    final Closer closer = Closer.create();
+    try {
+      final RandomAccessFile raf = closer.register(new RandomAccessFile(file, "r"));
+      final FileChannel channel = closer.register(raf.getChannel());
+      // the mapping remains valid after the channel is closed
+      final MappedByteBuffer mapped =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedSymbolDictionary(mapped);
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  /**
+   * Writes a dictionary for the given symbols to {@code file}. Each distinct symbol gets as its id
+   * the position of its first occurrence among the distinct symbols of {@code symbols}.
+   */
+  public static void write(final Iterable<Symbol> symbols, final File file) throws IOException {
+    final ImmutableList<Symbol> distinctSymbols = ImmutableSet.copyOf(symbols).asList();
+    final int n = distinctSymbols.size();
+    final byte[][] utf8 = new byte[n][];
+    long dataLength = 0;
+    for (int i = 0; i < n; ++i) {
+      utf8[i] = distinctSymbols.get(i).asString().getBytes(Charsets.UTF_8);
+      dataLength += utf8[i].length;
+    }
+    final long totalLength = HEADER_BYTES + (2L * n + 1) * Ints.BYTES + dataLength;
+    checkArgument(totalLength <= Integer.MAX_VALUE,
+        "Symbol dictionary would be %s bytes, but at most 2GB is supported", totalLength);
+
+    final Integer[] sortedIds = new Integer[n];
+    for (int i = 0; i < n; ++i) {
+      sortedIds[i] = i;
+    }
+    final Comparator<byte[]> byteOrder = UnsignedBytes.lexicographicalComparator();
+    Arrays.sort(sortedIds, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer left, final Integer right) {
+        return byteOrder.compare(utf8[left], utf8[right]);
+      }
+    });
+
+    final Closer closer = Closer.create();
+    try {
+      final DataOutputStream out = closer.register(
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(n);
+      out.writeInt((int) dataLength);
+      int offset = 0;
+      for (final byte[] bytes : utf8) {
+        out.writeInt(offset);
+        offset += bytes.length;
+      }
+      out.writeInt(offset);
+      for (final Integer id : sortedIds) {
+        out.writeInt(id);
+      }
+      for (final byte[] bytes : utf8) {
+        out.write(bytes);
+      }
+    } catch (Throwable t) {
+      throw closer.rethrow(t);
+    } finally {
+      closer.close();
+    }
+  }
+
+  /**
+   * The number of symbols in the dictionary. Ids run from zero to one less than this.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the symbol with the given id.
+   *
+   * @throws IndexOutOfBoundsException if there is no symbol with that id.
+   */
+  public Symbol symbolForId(final int id) {
+    checkElementIndex(id, size);
+    final Symbol cached = symbolCache.get(id);
+    if (cached != null) {
+      return cached;
+    }
+    final int start = stringStart(id);
+    final byte[] bytes = new byte[stringStart(id + 1) - start];
+    final ByteBuffer view = buffer.duplicate();
+    view.position(dataStart + start);
+    view.get(bytes);
+    final Symbol ret = Symbol.from(new String(bytes, Charsets.UTF_8));
+    // Symbols are interned, so it doesn't matter if another thread races us here
+    symbolCache.set(id, ret);
+    return ret;
+  }
+
+  /**
+   * Gets the id of {@code symbol}, or {@link SymbolTable#ABSENT} if it is not in the dictionary.
+   */
+  public int idOf(final Symbol symbol) {
+    return idOf(symbol.asString());
+  }
+
+  /**
+   * Gets the id of the symbol for {@code string}, or {@link SymbolTable#ABSENT} if it is not in
+   * the dictionary. This does not create any {@link Symbol}s.
+   */
+  public int idOf(final String string) {
+    final byte[] query = string.getBytes(Charsets.UTF_8);
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int id = buffer.getInt(sortedIdsStart + mid * Ints.BYTES);
+      final int cmp = compareStoredTo(id, query);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return id;
+      }
+    }
+    return SymbolTable.ABSENT;
+  }
+
+  public boolean contains(final Symbol symbol) {
+    return idOf(symbol) != SymbolTable.ABSENT;
+  }
+
+  /**
+   * All symbols in the dictionary, ordered by id.  This interns every symbol, so for large
+   * dictionaries prefer looking symbols up as needed.
+   */
+  public ImmutableList<Symbol> symbols() {
+    final ImmutableList.Builder<Symbol> ret = ImmutableList.builder();
+    for (int id = 0; id < size; ++id) {
+      ret.add(symbolForId(id));
+    }
+    return ret.build();
+  }
+
+  /**
+   * Copies this dictionary into a {@link SymbolTable} which assigns the same ids.
+   */
+  public SymbolTable toSymbolTable() {
+    return SymbolTable.fromSymbols(symbols());
+  }
+
+  private int stringStart(final int id) {
+    return buffer.getInt(offsetsStart + id * Ints.BYTES);
+  }
+
+  /**
+   * Compares the UTF-8 bytes of the stored string for {@code id} to {@code query} as unsigned
+   * bytes, which orders strings by codepoint.
+   */
+  private int compareStoredTo(final int id, final byte[] query) {
+    final int start = dataStart + stringStart(id);
+    final int length = dataStart + stringStart(id + 1) - start;
+    final int minLength = Math.min(length, query.length);
+    for (int i = 0; i < minLength; ++i) {
+      final int cmp = UnsignedBytes.compare(buffer.get(start + i), query[i]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - query.length;
+  }
+
+  @Override
+  public String toString() {
+    return "MappedSymbolDictionary{size=" + size + "}";
+  }
+}
@@ -10,9 +10,10 @@ import com.google.common.base.Function;
 
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -34,12 +35,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * The hashcode is not stable across program runs.
  *
+ * Interning is thread-safe and does not take a global lock: symbols are held in a concurrent map
+ * of weak references, and entries whose symbols have been garbage collected are removed
+ * opportunistically by whichever thread next creates a symbol.
+ *
  * @author rgabbard
  */
 public final class Symbol implements Serializable, HasStableHashCode {
 
-  private static Map<String, WeakReference<Symbol>> symbols =
-      new HashMap<String, WeakReference<Symbol>>();
+  private static final ConcurrentMap<String, SymbolReference> symbols =
+      new ConcurrentHashMap<String, SymbolReference>();
+  private static final ReferenceQueue<Symbol> collectedSymbols = new ReferenceQueue<Symbol>();
   private final String string;
 
   private Symbol(String string) {
@@ -52,9 +58,9 @@ public final class Symbol implements Serializable, HasStableHashCode {
    * @param string Must be non-null.
    */
   @JsonCreator
-  public static synchronized Symbol from(@JsonProperty("string") final String string) {
-    final WeakReference<Symbol> ref = symbols.get(checkNotNull(string));
-
+  public static Symbol from(@JsonProperty("string") final String string) {
+    // fast path: the symbol already exists and is still reachable
+    final SymbolReference ref = symbols.get(checkNotNull(string));
     if (ref != null) {
       final Symbol sym = ref.get();
       if (sym != null) {
@@ -62,15 +68,56 @@ public final class Symbol implements Serializable, HasStableHashCode {
       }
     }
 
+    purgeCollectedSymbols();
     final Symbol sym = new Symbol(string);
-    symbols.put(string, new WeakReference<Symbol>(sym));
-    return sym;
+    final SymbolReference newRef = new SymbolReference(sym, collectedSymbols);
+    while (true) {
+      final SymbolReference existingRef = symbols.putIfAbsent(string, newRef);
+      if (existingRef == null) {
+        return sym;
+      }
+      final Symbol existingSym = existingRef.get();
+      if (existingSym != null) {
+        // another thread beat us to creating this symbol
+        return existingSym;
+      }
+      // the existing entry was collected but not yet purged. Swap in ours, retrying if
+      // some other thread changes the entry underneath us
+      if (symbols.replace(string, existingRef, newRef)) {
+        return sym;
+      }
+    }
   }
 
-  public static synchronized Symbol from(final UnicodeFriendlyString unicodeFriendlyString) {
+  public static Symbol from(final UnicodeFriendlyString unicodeFriendlyString) {
     return from(unicodeFriendlyString.utf16CodeUnits());
   }
 
+  /**
+   * Removes map entries for symbols which have been garbage collected. The two-argument {@code
+   * remove} ensures we never remove an entry which has already been replaced by a live symbol.
+   */
+  private static void purgeCollectedSymbols() {
+    SymbolReference collected;
+    while ((collected = (SymbolReference) collectedSymbols.poll()) != null) {
+      symbols.remove(collected.string, collected);
+    }
+  }
+
+  /**
+   * A weak reference to a symbol which remembers its string so its map entry can be removed after
+   * the symbol itself is gone.
+   */
+  private static final class SymbolReference extends WeakReference<Symbol> {
+
+    private final String string;
+
+    SymbolReference(final Symbol symbol, final ReferenceQueue<Symbol> queue) {
+      super(symbol, queue);
+      this.string = symbol.string;
+    }
+  }
+
   /**
    * Returns the string this Symbol represents. Will never be {@code null}.
    */
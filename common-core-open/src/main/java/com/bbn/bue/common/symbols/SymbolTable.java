@@ -0,0 +1,200 @@
+package com.bbn.bue.common.symbols;
+
+import com.bbn.bue.common.files.FileUtils;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharSink;
+import com.google.common.io.CharSource;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Assigns dense, stable integer ids to {@link Symbol}s. Ids are assigned in order of first
+ * registration starting from zero, so a table with {@code n} symbols uses exactly the ids {@code 0}
+ * through {@code n-1}.  This allows code to key arrays and primitive collections (e.g. hppc's
+ * {@code IntIntHashMap}) by symbol rather than using maps keyed by {@link Symbol} objects.
+ *
+ * Lookups in both directions are constant-time and lock-free.  Registering new symbols is
+ * thread-safe.  Symbols are never removed from a table, so a table keeps every symbol registered
+ * with it reachable.
+ *
+ * Ids are only meaningful relative to the table which assigned them.  To make ids reproducible
+ * across runs, save the table with {@link #writeTo(CharSink)} (or Java or Jackson serialization)
+ * and reload it with {@link #loadFrom(CharSource)}.
+ */
+@Beta
+public final class SymbolTable implements Serializable {
+
+  /**
+   * Returned by {@link #idOf(Symbol)} for symbols which have not been registered.
+   */
+  public static final int ABSENT = -1;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final ConcurrentMap<Symbol, Integer> symbolToId;
+  // only grows, and only replaced while holding the table's monitor
+  private volatile Symbol[] idToSymbol;
+  // written only while holding the table's monitor, after the corresponding array slot is filled
+  private volatile int size;
+
+  private SymbolTable(final int expectedSize) {
+    final int capacity = Math.max(INITIAL_CAPACITY, expectedSize);
+    this.symbolToId = new ConcurrentHashMap<Symbol, Integer>(capacity);
+    this.idToSymbol = new Symbol[capacity];
+    this.size = 0;
+  }
+
+  /**
+   * Creates a new, empty symbol table.
+   */
+  public static SymbolTable create() {
+    return new SymbolTable(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates a symbol table where each symbol's id is its position in the provided list. The list
+   * may not contain duplicates.
+   */
+  @JsonCreator
+  public static SymbolTable fromSymbols(@JsonProperty("symbols") final List<Symbol> symbols) {
+    final SymbolTable ret = new SymbolTable(symbols.size());
+    for (final Symbol symbol : symbols) {
+      final int expectedId = ret.size();
+      checkArgument(ret.register(symbol) == expectedId,
+          "Duplicate symbol %s in symbol table", symbol);
+    }
+    return ret;
+  }
+
+  /**
+   * Loads a symbol table written by {@link #writeTo(CharSink)}. The symbol on line {@code i}
+   * (counting from zero) gets id {@code i}.
+   */
+  public static SymbolTable loadFrom(final CharSource source) throws IOException {
+    return fromSymbols(SymbolUtils.listFrom(source.readLines()));
+  }
+
+  /**
+   * Gets the id for {@code symbol}, assigning it the next available id if it has not been seen
+   * before.
+   */
+  public int register(final Symbol symbol) {
+    final Integer existing = symbolToId.get(checkNotNull(symbol));
+    if (existing != null) {
+      return existing;
+    }
+    return registerSlowPath(symbol);
+  }
+
+  private synchronized int registerSlowPath(final Symbol symbol) {
+    // re-check since another thread may have registered this symbol while we waited
+    final Integer existing = symbolToId.get(symbol);
+    if (existing != null) {
+      return existing;
+    }
+    final int id = size;
+    Symbol[] array = idToSymbol;
+    if (id == array.length) {
+      array = Arrays.copyOf(array, array.length * 2);
+    }
+    array[id] = symbol;
+    idToSymbol = array;
+    size = id + 1;
+    // this happens last so anyone who can see the id can also see the array slot
+    symbolToId.put(symbol, id);
+    return id;
+  }
+
+  /**
+   * Gets the id of {@code symbol}, or {@link #ABSENT} if it has not been registered.
+   */
+  public int idOf(final Symbol symbol) {
+    final Integer id = symbolToId.get(checkNotNull(symbol));
+    return id != null ? id : ABSENT;
+  }
+
+  /**
+   * Gets the symbol with the given id.
+   *
+   * @throws IndexOutOfBoundsException if {@code id} has not been assigned by this table.
+   */
+  public Symbol symbolForId(final int id) {
+    checkElementIndex(id, size);
+    return idToSymbol[id];
+  }
+
+  public boolean contains(final Symbol symbol) {
+    return symbolToId.containsKey(checkNotNull(symbol));
+  }
+
+  /**
+   * The number of symbols registered.  This is also one more than the largest assigned id.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * All registered symbols, ordered by id.  This is a snapshot which will not reflect later
+   * registrations.
+   */
+  @JsonProperty("symbols")
+  public ImmutableList<Symbol> symbols() {
+    final int snapshotSize = size;
+    return ImmutableList.copyOf(Arrays.asList(idToSymbol).subList(0, snapshotSize));
+  }
+
+  /**
+   * Writes this table, one symbol per line in id order, so it can be reloaded with {@link
+   * #loadFrom(CharSource)}. Symbols containing line breaks cannot be written.
+   */
+  public void writeTo(final CharSink sink) throws IOException {
+    final ImmutableList<Symbol> symbols = symbols();
+    for (final Symbol symbol : symbols) {
+      checkArgument(symbol.asString().indexOf('\n') < 0 && symbol.asString().indexOf('\r') < 0,
+          "Cannot write symbol containing a line break: %s", symbol);
+    }
+    FileUtils.writeUnixLines(Lists.transform(symbols, SymbolUtils.desymbolizeFunction()), sink);
+  }
+
+  @Override
+  public String toString() {
+    return "SymbolTable{size=" + size() + "}";
+  }
+
+  // serialization support
+  private static final long serialVersionUID = 1L;
+
+  private Object writeReplace() throws ObjectStreamException {
+    return new SerializedForm(Lists.transform(symbols(), SymbolUtils.desymbolizeFunction()));
+  }
+
+  private static final class SerializedForm implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final String[] symbols;
+
+    SerializedForm(final List<String> symbols) {
+      this.symbols = symbols.toArray(new String[symbols.size()]);
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      return fromSymbols(SymbolUtils.listFrom(Arrays.asList(symbols)));
+    }
+  }
+}
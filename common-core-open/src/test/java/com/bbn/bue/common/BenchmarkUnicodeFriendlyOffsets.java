@@ -0,0 +1,82 @@
+package com.bbn.bue.common;
+
+import com.bbn.bue.common.strings.offsets.UTF16Offset;
+
+import com.google.common.base.Stopwatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.bbn.bue.common.strings.offsets.CharOffset.asCharOffset;
+
+/**
+ * Test program for timing codepoint/UTF-16 offset conversions on long {@link
+ * UnicodeFriendlyString}s containing many non-BMP characters, as happens when processing documents
+ * full of emoji or astral CJK.
+ *
+ * Usage: {@code BenchmarkUnicodeFriendlyOffsets [documentLengthInCodepoints]
+ * [nonBmpProbability]}
+ */
+public final class BenchmarkUnicodeFriendlyOffsets {
+
+  private static Logger log = LoggerFactory.getLogger(BenchmarkUnicodeFriendlyOffsets.class);
+
+  public static void main(String[] args) {
+    // We wrap the main method in this way to ensure a non-zero return value on failure
+    try {
+      trueMain(args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void trueMain(String[] args) {
+    final int length = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final double nonBmpProbability = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+
+    // fixed seed so runs are comparable
+    final Random rng = new Random(0);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      if (rng.nextDouble() < nonBmpProbability) {
+        // somewhere in the emoji block
+        sb.appendCodePoint(0x1F600 + rng.nextInt(80));
+      } else {
+        sb.append((char) ('a' + rng.nextInt(26)));
+      }
+    }
+    final UnicodeFriendlyString document = StringUtils.unicodeFriendly(sb.toString());
+    log.info("Document has {} codepoints and {} UTF-16 code units",
+        document.lengthInCodePoints(), document.lengthInUtf16CodeUnits());
+
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    long checksum = 0;
+    for (int i = 0; i < document.lengthInCodePoints(); ++i) {
+      checksum += document.codepointAtCodepointIndex(asCharOffset(i));
+    }
+    log.info("codepointAtCodepointIndex over whole document: {} ms (checksum {})",
+        stopwatch.elapsed(TimeUnit.MILLISECONDS), checksum);
+
+    stopwatch.reset().start();
+    checksum = 0;
+    for (int i = 0; i < document.lengthInUtf16CodeUnits(); ++i) {
+      checksum += document.codepointIndex(UTF16Offset.of(i)).asInt();
+    }
+    log.info("codepointIndex over whole document: {} ms (checksum {})",
+        stopwatch.elapsed(TimeUnit.MILLISECONDS), checksum);
+
+    // simulate extracting tokens of five codepoints each
+    stopwatch.reset().start();
+    checksum = 0;
+    for (int i = 0; i + 5 <= document.lengthInCodePoints(); i += 5) {
+      checksum += document.substringByCodePoints(asCharOffset(i), asCharOffset(i + 5))
+          .lengthInUtf16CodeUnits();
+    }
+    log.info("substringByCodePoints over whole document: {} ms (checksum {})",
+        stopwatch.elapsed(TimeUnit.MILLISECONDS), checksum);
+  }
+}
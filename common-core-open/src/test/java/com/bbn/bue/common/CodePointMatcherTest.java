@@ -5,6 +5,8 @@ import org.junit.Test;
 import static com.bbn.bue.common.CodepointMatcher.digit;
 import static com.bbn.bue.common.CodepointMatcher.not;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.fail;
 
 public class CodePointMatcherTest {
 
@@ -89,4 +91,53 @@ public class CodePointMatcherTest {
         trimAndCollapseFrom(toTrimAndCollapse2, '-');
     assertEquals(reference2, predicted2);
   }
+
+  @Test
+  public void testPrecomputeMatchesSameCodepoints() {
+    final CodepointMatcher[] matchers = {
+        CodepointMatcher.whitespace(),
+        CodepointMatcher.punctuation(),
+        CodepointMatcher.uncasedLetter(),
+        CodepointMatcher.or(CodepointMatcher.digit(), CodepointMatcher.currencySymbols()),
+        not(CodepointMatcher.basicMultilingualPlane()),
+        CodepointMatcher.anyOf("a" + CHEESE_WEDGE),
+        CodepointMatcher.any(),
+        CodepointMatcher.none()};
+    for (final CodepointMatcher matcher : matchers) {
+      final CodepointMatcher precomputed = matcher.precompute();
+      assertSame(precomputed, precomputed.precompute());
+      for (int codepoint = Character.MIN_CODE_POINT; codepoint <= Character.MAX_CODE_POINT;
+           ++codepoint) {
+        if (matcher.matches(codepoint) != precomputed.matches(codepoint)) {
+          fail(matcher + " and its precomputed version disagree on " + codepoint);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBulkOperationsOnCharSequences() {
+    final CodepointMatcher cheeseOrA = CodepointMatcher.anyOf("a" + CHEESE_WEDGE).precompute();
+    final String s = "xa" + CHEESE_WEDGE + "ya";
+    final StringBuilder sb = new StringBuilder(s);
+    assertEquals(1, cheeseOrA.indexIn(sb));
+    assertEquals(2, cheeseOrA.indexIn(sb, 2));
+    assertEquals(5, cheeseOrA.indexIn(sb, 4));
+    assertEquals(CodepointMatcher.NO_MATCH_OFFSET, cheeseOrA.indexIn(sb, 6));
+    assertEquals(3, cheeseOrA.countIn(sb));
+    assertEquals("xy", cheeseOrA.removeFrom(sb));
+    assertEquals("x-y-", cheeseOrA.collapseFrom(sb, '-'));
+    assertEquals("y", cheeseOrA.trimFrom(new StringBuilder("a" + CHEESE_WEDGE + "ya")));
+
+    final char[] chars = s.toCharArray();
+    assertEquals(2, cheeseOrA.indexIn(chars, 2, chars.length));
+    assertEquals(CodepointMatcher.NO_MATCH_OFFSET, cheeseOrA.indexIn(chars, 4, 5));
+    assertEquals(2, cheeseOrA.countIn(chars, 0, 4));
+
+    // inputs with nothing to change are returned as-is
+    final String noMatches = "xyz";
+    assertSame(noMatches, cheeseOrA.removeFrom(noMatches));
+    assertSame(noMatches, cheeseOrA.collapseFrom(noMatches, '-'));
+    assertSame(noMatches, cheeseOrA.trimFrom(noMatches));
+  }
 }
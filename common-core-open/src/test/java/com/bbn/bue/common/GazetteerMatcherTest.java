@@ -0,0 +1,129 @@
+package com.bbn.bue.common;
+
+import com.bbn.bue.common.io.ByteArraySink;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.bbn.bue.common.StringUtils.unicodeFriendly;
+import static com.bbn.bue.common.strings.offsets.OffsetRange.charOffsetRange;
+import static org.junit.Assert.assertEquals;
+
+public final class GazetteerMatcherTest {
+
+  private static final String SMILE = new String(Character.toChars(0x1F600));
+
+  @Test
+  public void testOverlappingMatches() {
+    final GazetteerMatcher matcher = GazetteerMatcher.builder()
+        .addAllEntries(ImmutableList.of("he", "she", "his", "hers", "", "she")).build();
+    assertEquals(6, matcher.numEntries());
+    assertEquals("hers", matcher.entry(3));
+    assertEquals(ImmutableList.of(
+        GazetteerMatch.of(charOffsetRange(1, 3), 1),
+        GazetteerMatch.of(charOffsetRange(1, 3), 5),
+        GazetteerMatch.of(charOffsetRange(2, 3), 0),
+        GazetteerMatch.of(charOffsetRange(2, 5), 3)),
+        matcher.findAll(unicodeFriendly("ushers")));
+  }
+
+  @Test
+  public void testNonBmpOffsets() {
+    final GazetteerMatcher matcher = GazetteerMatcher.builder()
+        .addEntry("a" + SMILE).addEntry("b").build();
+    // offsets are in codepoints, not UTF-16 code units
+    assertEquals(ImmutableList.of(
+        GazetteerMatch.of(charOffsetRange(1, 2), 0),
+        GazetteerMatch.of(charOffsetRange(4, 4), 1)),
+        matcher.findAll(unicodeFriendly(SMILE + "a" + SMILE + SMILE + "b")));
+  }
+
+  @Test
+  public void testNormalization() {
+    final GazetteerMatcher lowercased = GazetteerMatcher.builder()
+        .normalizer(StringNormalizers.toLowercase(SerifLocale.forLocaleString("en")))
+        .addEntry("New York").build();
+    assertEquals(ImmutableList.of(GazetteerMatch.of(charOffsetRange(3, 10), 0)),
+        lowercased.findAll(unicodeFriendly("in NEW YORK")));
+
+    // ß uppercases to SS, so "SS" matches it but "S" alone does not
+    final GazetteerMatcher uppercased = GazetteerMatcher.builder()
+        .normalizer(StringNormalizers.toUppercase(SerifLocale.forLocaleString("en")))
+        .addEntry("strasse").addEntry("s").build();
+    assertEquals(ImmutableList.of(
+        GazetteerMatch.of(charOffsetRange(0, 0), 1),
+        GazetteerMatch.of(charOffsetRange(0, 5), 0)),
+        uppercased.findAll(unicodeFriendly("Straße")));
+  }
+
+  @Test
+  public void testAgreesWithBruteForce() {
+    final Random rng = new Random(0);
+    final int[] alphabet = {'a', 'b', 'c', 0x1F600};
+    final List<String> entries = new ArrayList<>();
+    for (int i = 0; i < 50; ++i) {
+      entries.add(randomString(rng, alphabet, 1 + rng.nextInt(4)));
+    }
+    final GazetteerMatcher matcher = GazetteerMatcher.builder().addAllEntries(entries).build();
+    for (int trial = 0; trial < 100; ++trial) {
+      final UnicodeFriendlyString text = unicodeFriendly(randomString(rng, alphabet, 30));
+      final ImmutableSet.Builder<GazetteerMatch> expected = ImmutableSet.builder();
+      for (int start = 0; start < text.lengthInCodePoints(); ++start) {
+        for (int end = start; end < text.lengthInCodePoints(); ++end) {
+          final String span = text.substringByCodePoints(charOffsetRange(start, end))
+              .utf16CodeUnits();
+          for (int id = 0; id < entries.size(); ++id) {
+            if (entries.get(id).equals(span)) {
+              expected.add(GazetteerMatch.of(charOffsetRange(start, end), id));
+            }
+          }
+        }
+      }
+      final ImmutableList<GazetteerMatch> found = matcher.findAll(text);
+      assertEquals(expected.build(), ImmutableSet.copyOf(found));
+      assertEquals(found.size(), ImmutableSet.copyOf(found).size());
+    }
+  }
+
+  @Test
+  public void testSerializationRoundTrip() throws IOException {
+    final StringNormalizer normalizer =
+        StringNormalizers.toLowercase(SerifLocale.forLocaleString("en"));
+    final GazetteerMatcher matcher = GazetteerMatcher.builder().normalizer(normalizer)
+        .addAllEntries(ImmutableList.of("Boston", "Bos", SMILE + "x", "")).build();
+    final ByteArraySink sink = ByteArraySink.create();
+    matcher.writeTo(sink);
+    final GazetteerMatcher reloaded =
+        GazetteerMatcher.loadFrom(ByteSource.wrap(sink.toByteArray()), normalizer);
+    assertEquals(4, reloaded.numEntries());
+    assertEquals(SMILE + "x", reloaded.entry(2));
+    final UnicodeFriendlyString text = unicodeFriendly("BOSTON " + SMILE + "X");
+    assertEquals(matcher.findAll(text), reloaded.findAll(text));
+    assertEquals(3, reloaded.findAll(text).size());
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedFileRejected() throws IOException {
+    final ByteArraySink sink = ByteArraySink.create();
+    GazetteerMatcher.builder().addEntry("foo").build().writeTo(sink);
+    final byte[] bytes = sink.toByteArray();
+    GazetteerMatcher.loadFrom(ByteSource.wrap(bytes).slice(0, bytes.length - 5),
+        StringNormalizers.identity());
+  }
+
+  private static String randomString(Random rng, int[] alphabet, int lengthInCodepoints) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lengthInCodepoints; ++i) {
+      sb.appendCodePoint(alphabet[rng.nextInt(alphabet.length)]);
+    }
+    return sb.toString();
+  }
+}
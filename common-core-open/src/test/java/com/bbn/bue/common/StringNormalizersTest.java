@@ -0,0 +1,94 @@
+package com.bbn.bue.common;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class StringNormalizersTest {
+
+  private static final StringNormalizer WORD_SHAPE = StringNormalizers.compose(
+      StringNormalizers.toNfkc(),
+      StringNormalizers.translate(CodepointMatcher.anyOf("0123456789"), '0'),
+      StringNormalizers.collapseConsecutive(CodepointMatcher.anyOf("0")),
+      StringNormalizers.compose(StringNormalizers.identity(),
+          StringNormalizers.toLowercase(SerifLocale.forLocaleString("en"))),
+      StringNormalizers.stripFromEnd(CharMatcher.anyOf(".,")));
+
+  private static final ImmutableList<String> INPUTS = ImmutableList.of(
+      "", "abc", "ABC123", "Price: $1,234.56.", "already 0 normal", "x..,", "...",
+      "İstanbul", "ΟΔΟΣ", "😀Smile😀",
+      "STRASSE Straße", "ＡＢＣ１２", "𝐀bold",
+      "étÉ", "dangling \uD800 surrogate");
+
+  @Test
+  public void testCompiledMatchesStaged() {
+    assertAgree(WORD_SHAPE, StringNormalizers.compile(WORD_SHAPE));
+
+    final StringNormalizer upper = StringNormalizers.compose(
+        StringNormalizers.toUppercase(SerifLocale.forLocaleString("en")),
+        StringNormalizers.collapseConsecutive(CodepointMatcher.anyOf("S")),
+        StringNormalizers.translate(CodepointMatcher.anyOf("ß"), 's'));
+    assertAgree(upper, StringNormalizers.compile(upper));
+
+    final StringNormalizer turkish = StringNormalizers.compose(
+        StringNormalizers.toLowercase(SerifLocale.forLocaleString("tr")),
+        StringNormalizers.stripFromEnd(CharMatcher.is('.')));
+    assertAgree(turkish, StringNormalizers.compile(turkish));
+  }
+
+  @Test
+  public void testCompiledMatchesStagedOnRandomInput() {
+    final StringNormalizer compiled = StringNormalizers.compile(WORD_SHAPE);
+    final String alphabet = "aAzZ09.,İΣσßÀ ";
+    final Random rng = new Random(0);
+    for (int i = 0; i < 1000; ++i) {
+      final StringBuilder sb = new StringBuilder();
+      final int length = rng.nextInt(12);
+      for (int j = 0; j < length; ++j) {
+        if (rng.nextInt(10) == 0) {
+          sb.appendCodePoint(0x1F600 + rng.nextInt(10));
+        } else {
+          sb.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+        }
+      }
+      final String input = sb.toString();
+      assertEquals(input, WORD_SHAPE.normalize(input), compiled.normalize(input));
+    }
+  }
+
+  @Test
+  public void testNormalizedInputNotCopied() {
+    final StringNormalizer compiled = StringNormalizers.compile(WORD_SHAPE);
+    final String input = new String("already 0 normal");
+    assertSame(input, compiled.normalize(input));
+  }
+
+  @Test
+  public void testCompiledStructure() {
+    assertSame(StringNormalizers.identity(),
+        StringNormalizers.compile(StringNormalizers.compose(StringNormalizers.identity())));
+    assertSame(StringNormalizers.toNfc(), StringNormalizers.compile(
+        StringNormalizers.compose(StringNormalizers.identity(), StringNormalizers.toNfc())));
+    // NFKC, then a single fused pass
+    final StringNormalizer compiled = StringNormalizers.compile(WORD_SHAPE);
+    assertTrue(compiled instanceof CompositeStringNormalizer);
+    assertEquals(2, ((CompositeStringNormalizer) compiled).wordShapers().size());
+    assertTrue(((CompositeStringNormalizer) compiled).wordShapers().get(1)
+        instanceof FusedCodepointStringNormalizer);
+    // compiling is idempotent
+    assertEquals(compiled, StringNormalizers.compile(compiled));
+  }
+
+  private static void assertAgree(StringNormalizer staged, StringNormalizer compiled) {
+    for (final String input : INPUTS) {
+      assertEquals(input, staged.normalize(input), compiled.normalize(input));
+    }
+  }
+}
@@ -423,4 +423,34 @@ public class UnicodeFriendlyStringTest {
     oldTurkic.processCodePoints(processor);
     assertEquals(2, processor.getResult().intValue());
   }
+
+  @Test
+  public void testOffsetConversionsAgreeWithStringMethods() {
+    // mixes runs of BMP characters, adjacent non-BMP characters, and a lone surrogate, which
+    // String treats as a codepoint of its own
+    final String codeUnits = "ab" + CHEESE_WEDGE + CHEESE_WEDGE + "c" + FACE_WITH_TEARS_OF_JOY
+        + "\uD83Ddef" + CHEESE_WEDGE;
+    final UnicodeFriendlyString s = unicodeFriendly(codeUnits);
+    final int numCodepoints = codeUnits.codePointCount(0, codeUnits.length());
+    assertEquals(numCodepoints, s.lengthInCodePoints());
+
+    for (int cp = 0; cp < numCodepoints; ++cp) {
+      final int codeUnitOffset = codeUnits.offsetByCodePoints(0, cp);
+      assertEquals(codeUnits.codePointAt(codeUnitOffset),
+          s.codepointAtCodepointIndex(asCharOffset(cp)));
+      assertEquals(codeUnits.substring(codeUnitOffset),
+          s.substringByCodePoints(asCharOffset(cp)).utf16CodeUnits());
+    }
+    for (int codeUnit = 0; codeUnit < codeUnits.length(); ++codeUnit) {
+      // String#codePointCount counts a codepoint whose high surrogate precedes the offset, so we
+      // need to back up to the start of a surrogate pair
+      int codepointStart = codeUnit;
+      if (codeUnit > 0 && Character.isLowSurrogate(codeUnits.charAt(codeUnit))
+          && Character.isHighSurrogate(codeUnits.charAt(codeUnit - 1))) {
+        --codepointStart;
+      }
+      assertEquals(codeUnits.codePointCount(0, codepointStart),
+          s.codepointIndex(UTF16Offset.of(codeUnit)).asInt());
+    }
+  }
 }
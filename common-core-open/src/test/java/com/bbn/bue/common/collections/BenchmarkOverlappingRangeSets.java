@@ -0,0 +1,108 @@
+package com.bbn.bue.common.collections;
+
+import com.bbn.bue.common.strings.offsets.CharOffset;
+import com.bbn.bue.common.strings.offsets.CharOffsetOverlappingRangeSet;
+import com.bbn.bue.common.strings.offsets.OffsetRange;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Range;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test program comparing the query speed of {@link ImmutableOverlappingRangeSet}, {@link
+ * IntervalTreeOverlappingRangeSet}, and {@link CharOffsetOverlappingRangeSet} on ranges shaped
+ * like the mentions of a long document: short, mostly disjoint, with occasional long ones.
+ *
+ * Usage: {@code BenchmarkOverlappingRangeSets [numRanges] [numQueries]}
+ */
+public final class BenchmarkOverlappingRangeSets {
+
+  private static Logger log = LoggerFactory.getLogger(BenchmarkOverlappingRangeSets.class);
+
+  public static void main(String[] args) {
+    // We wrap the main method in this way to ensure a non-zero return value on failure
+    try {
+      trueMain(args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void trueMain(String[] args) {
+    final int numRanges = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+    // fixed seed so runs are comparable
+    final Random rng = new Random(0);
+    final int documentLength = numRanges * 10;
+    final List<OffsetRange<CharOffset>> offsetRanges = new ArrayList<>();
+    final List<Range<CharOffset>> ranges = new ArrayList<>();
+    for (int i = 0; i < numRanges; ++i) {
+      final OffsetRange<CharOffset> range = randomRange(rng, documentLength);
+      offsetRanges.add(range);
+      ranges.add(range.asRange());
+    }
+    final List<OffsetRange<CharOffset>> queries = new ArrayList<>();
+    for (int i = 0; i < numQueries; ++i) {
+      queries.add(randomRange(rng, documentLength));
+    }
+
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    final ImmutableOverlappingRangeSet<CharOffset> naive =
+        ImmutableOverlappingRangeSet.create(ranges);
+    log.info("Built ImmutableOverlappingRangeSet of {} ranges in {} ms", numRanges,
+        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    stopwatch.reset().start();
+    final IntervalTreeOverlappingRangeSet<CharOffset> intervalTree =
+        IntervalTreeOverlappingRangeSet.create(ranges);
+    log.info("Built IntervalTreeOverlappingRangeSet in {} ms",
+        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    stopwatch.reset().start();
+    final CharOffsetOverlappingRangeSet specialized =
+        CharOffsetOverlappingRangeSet.create(offsetRanges);
+    log.info("Built CharOffsetOverlappingRangeSet in {} ms",
+        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+    time("ImmutableOverlappingRangeSet", naive, queries);
+    time("IntervalTreeOverlappingRangeSet", intervalTree, queries);
+    time("CharOffsetOverlappingRangeSet", specialized, queries);
+
+    stopwatch.reset().start();
+    long checksum = 0;
+    for (final OffsetRange<CharOffset> query : queries) {
+      checksum += specialized.rangesOverlapping(query).size();
+      checksum += specialized.rangesContaining(query).size();
+      checksum += specialized.rangesContainedBy(query).size();
+    }
+    log.info("CharOffsetOverlappingRangeSet on OffsetRanges: {} ms for {} queries (checksum {})",
+        stopwatch.elapsed(TimeUnit.MILLISECONDS), 3 * numQueries, checksum);
+  }
+
+  private static void time(String name, OverlappingRangeSet<CharOffset> rangeSet,
+      List<OffsetRange<CharOffset>> queries) {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    long checksum = 0;
+    for (final OffsetRange<CharOffset> query : queries) {
+      final Range<CharOffset> queryRange = query.asRange();
+      checksum += rangeSet.rangesOverlapping(queryRange).size();
+      checksum += rangeSet.rangesContaining(queryRange).size();
+      checksum += rangeSet.rangesContainedBy(queryRange).size();
+    }
+    log.info("{}: {} ms for {} queries (checksum {})", name,
+        stopwatch.elapsed(TimeUnit.MILLISECONDS), 3 * queries.size(), checksum);
+  }
+
+  private static OffsetRange<CharOffset> randomRange(Random rng, int documentLength) {
+    final int start = rng.nextInt(documentLength);
+    final int length = rng.nextInt(100) == 0 ? rng.nextInt(2000) : rng.nextInt(10);
+    return OffsetRange.charOffsetRange(start, start + length);
+  }
+}
@@ -1,5 +1,6 @@
 package com.bbn.bue.common.collections;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -9,6 +10,7 @@ import org.junit.Test;
 import java.util.Collection;
 
 import static com.bbn.bue.common.collections.CollectionUtils.partitionAlmostEvenly;
+import static com.bbn.bue.common.collections.CollectionUtils.partitionByWeight;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -58,6 +60,53 @@ public final class CollectionUtilsTest {
         partitionAlmostEvenly(ImmutableList.of(1, 2, 3, 4, 5), 3));
   }
 
+  @Test
+  public void testPartitionByWeight() {
+    final Function<Integer, Long> weight = new Function<Integer, Long>() {
+      @Override
+      public Long apply(final Integer input) {
+        return (long) input;
+      }
+    };
+    // 8 and 7 seed the two partitions, then each item goes to the lighter one, with ties going
+    // to the first partition; partitions keep the input order
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of(2, 3, 8),
+            ImmutableList.of(1, 4, 7)),
+        partitionByWeight(ImmutableList.of(1, 2, 3, 4, 7, 8), weight, 2));
+    // ties are broken by position, so the result is deterministic
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of(5, 2),
+            ImmutableList.of(5, 2),
+            ImmutableList.of(3, 2)),
+        partitionByWeight(ImmutableList.of(5, 5, 3, 2, 2, 2), weight, 3));
+    // one heavy item gets its own partition rather than an equal share of the count
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of(100),
+            ImmutableList.of(1, 1, 1, 1, 1)),
+        partitionByWeight(ImmutableList.of(1, 1, 100, 1, 1, 1), weight, 2));
+    // more partitions than items
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of(1),
+            ImmutableList.<Integer>of(),
+            ImmutableList.<Integer>of()),
+        partitionByWeight(ImmutableList.of(1), weight, 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPartitionByWeightNegative() {
+    partitionByWeight(ImmutableList.of(1, -1), new Function<Integer, Long>() {
+      @Override
+      public Long apply(final Integer input) {
+        return (long) input;
+      }
+    }, 2);
+  }
+
   @Test(expected = NullPointerException.class)
   public void testPartitionArgsCheck1() {
     partitionAlmostEvenly(null, 1);
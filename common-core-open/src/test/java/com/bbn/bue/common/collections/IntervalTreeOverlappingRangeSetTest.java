@@ -0,0 +1,78 @@
+package com.bbn.bue.common.collections;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public final class IntervalTreeOverlappingRangeSetTest {
+
+  @Test
+  public void testSimpleQueries() {
+    final IntervalTreeOverlappingRangeSet<Integer> ranges = IntervalTreeOverlappingRangeSet
+        .<Integer>builder()
+        .addRanges(ImmutableList.of(Range.closed(0, 10), Range.closed(2, 4), Range.open(4, 8),
+            Range.closed(2, 4), Range.closed(9, 12)))
+        .build();
+    assertEquals(4, ranges.ranges().size());
+    assertEquals(ImmutableList.of(Range.closed(0, 10), Range.closed(2, 4)),
+        ranges.rangesContaining(4));
+    assertEquals(ImmutableList.of(Range.closed(0, 10), Range.open(4, 8)),
+        ranges.rangesContaining(Range.closed(5, 6)));
+    assertEquals(ImmutableList.of(Range.closed(2, 4), Range.open(4, 8)),
+        ranges.rangesContainedBy(Range.closed(1, 8)));
+    assertEquals(ImmutableList.of(Range.closed(0, 10), Range.closed(9, 12)),
+        ranges.rangesOverlapping(Range.openClosed(8, 9)));
+  }
+
+  @Test
+  public void testAgreesWithImmutableOverlappingRangeSet() {
+    final Random rng = new Random(0);
+    final List<Range<Integer>> ranges = new ArrayList<>();
+    for (int i = 0; i < 300; ++i) {
+      ranges.add(randomRange(rng));
+    }
+    final OverlappingRangeSet<Integer> reference = ImmutableOverlappingRangeSet.create(ranges);
+    final OverlappingRangeSet<Integer> intervalTree =
+        IntervalTreeOverlappingRangeSet.create(ranges);
+
+    for (int trial = 0; trial < 300; ++trial) {
+      final int item = rng.nextInt(120);
+      assertEquals(ImmutableSet.copyOf(reference.rangesContaining(item)),
+          ImmutableSet.copyOf(intervalTree.rangesContaining(item)));
+      final Range<Integer> query = trial % 10 == 0 ? Range.atLeast(rng.nextInt(100))
+                                                   : randomRange(rng);
+      assertEquals(ImmutableSet.copyOf(reference.rangesContaining(query)),
+          ImmutableSet.copyOf(intervalTree.rangesContaining(query)));
+      assertEquals(ImmutableSet.copyOf(reference.rangesContainedBy(query)),
+          ImmutableSet.copyOf(intervalTree.rangesContainedBy(query)));
+      assertEquals(ImmutableSet.copyOf(reference.rangesOverlapping(query)),
+          ImmutableSet.copyOf(intervalTree.rangesOverlapping(query)));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnboundedRangesRejected() {
+    IntervalTreeOverlappingRangeSet.create(ImmutableList.of(Range.atMost(5)));
+  }
+
+  private static Range<Integer> randomRange(Random rng) {
+    final int start = rng.nextInt(100);
+    final int end = start + rng.nextInt(20);
+    final BoundType lowerType = rng.nextBoolean() ? BoundType.CLOSED : BoundType.OPEN;
+    final BoundType upperType = rng.nextBoolean() ? BoundType.CLOSED : BoundType.OPEN;
+    if (start == end && (lowerType == BoundType.OPEN) && (upperType == BoundType.OPEN)) {
+      // (x, x) is not a valid Range
+      return Range.closed(start, end);
+    }
+    return Range.range(start, lowerType, end, upperType);
+  }
+}
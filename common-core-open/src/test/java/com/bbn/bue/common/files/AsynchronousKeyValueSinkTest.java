@@ -0,0 +1,170 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link KeyValueSinks#asynchronous(KeyValueSink, int)}.
+ */
+public final class AsynchronousKeyValueSinkTest {
+
+  @Test
+  public void testWritesEverythingInOrder() throws IOException {
+    final RecordingSink recorder = new RecordingSink();
+    try (KeyValueSink<Integer, String> sink = KeyValueSinks.asynchronous(recorder, 8)) {
+      for (int i = 0; i < 1000; ++i) {
+        sink.put(i, "v" + i);
+      }
+    }
+    assertTrue(recorder.closed);
+    assertEquals(1000, recorder.keys.size());
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(i, (int) recorder.keys.get(i));
+    }
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final RecordingSink recorder = new RecordingSink() {
+      @Override
+      public void put(final Integer key, final String value) throws IOException {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        super.put(key, value);
+      }
+    };
+    final KeyValueSink<Integer, String> sink = KeyValueSinks.asynchronous(recorder, 2);
+    final CountDownLatch producerDone = new CountDownLatch(1);
+    final Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 10; ++i) {
+            sink.put(i, "v");
+          }
+          producerDone.countDown();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    producer.start();
+    // the writer is stuck, so the producer must block once the queue is full
+    producer.join(200);
+    assertEquals(1, producerDone.getCount());
+    release.countDown();
+    producer.join();
+    assertEquals(0, producerDone.getCount());
+    sink.close();
+    assertEquals(10, recorder.keys.size());
+  }
+
+  @Test
+  public void testFailureIsReported() throws IOException {
+    final RecordingSink recorder = new RecordingSink();
+    recorder.failOn = 3;
+    final KeyValueSink<Integer, String> sink = KeyValueSinks.asynchronous(recorder, 4);
+    try {
+      for (int i = 0; i < 10000; ++i) {
+        sink.put(i, "v");
+      }
+      fail("Expected failure to be reported by put");
+    } catch (IOException e) {
+      assertEquals("Failed on 3", e.getCause().getMessage());
+    }
+    try {
+      sink.close();
+      fail("Expected failure to be reported by close");
+    } catch (IOException e) {
+      assertEquals("Failed on 3", e.getCause().getMessage());
+    }
+    assertTrue(recorder.closed);
+    assertEquals(3, recorder.keys.size());
+  }
+
+  @Test
+  public void testCloseFailureIsReported() {
+    final RecordingSink recorder = new RecordingSink();
+    recorder.failOnClose = true;
+    try {
+      KeyValueSinks.asynchronous(recorder, 4).close();
+      fail("Expected failure to close to be reported");
+    } catch (IOException e) {
+      assertEquals("Failed on close", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testPutsRacingCloseAreWrittenOrRejected() throws Exception {
+    final RecordingSink recorder = new RecordingSink();
+    final KeyValueSink<Integer, String> sink = KeyValueSinks.asynchronous(recorder, 4);
+    final List<Integer> accepted = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch started = new CountDownLatch(4);
+    final List<Thread> producers = new ArrayList<>();
+    for (int t = 0; t < 4; ++t) {
+      final int base = t * 1000000;
+      final Thread producer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            for (int i = 0; i < 1000000; ++i) {
+              sink.put(base + i, "v");
+              accepted.add(base + i);
+            }
+          } catch (IllegalStateException | IOException e) {
+            // the sink was closed
+          }
+        }
+      });
+      producer.start();
+      producers.add(producer);
+    }
+    started.await();
+    sink.close();
+    for (final Thread producer : producers) {
+      producer.join();
+    }
+    // every put which returned normally was written
+    assertEquals(ImmutableSet.copyOf(accepted), ImmutableSet.copyOf(recorder.keys));
+  }
+
+  private static class RecordingSink implements KeyValueSink<Integer, String> {
+
+    final List<Integer> keys = new ArrayList<>();
+    volatile int failOn = -1;
+    volatile boolean failOnClose = false;
+    volatile boolean closed = false;
+
+    @Override
+    public void put(final Integer key, final String value) throws IOException {
+      if (key == failOn) {
+        throw new IOException("Failed on " + key);
+      }
+      keys.add(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      if (failOnClose) {
+        throw new IOException("Failed on close");
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test program for timing loading a block-compressed key-value store written by {@link
+ * KeyValueSinks#forBlockCompressedFile(File)}, for comparison with {@link BenchmarkPalDBSource},
+ * {@link BenchmarkZipSource} and {@link BenchmarkMappedFileSource}.
+ */
+public final class BenchmarkBlockCompressedSource {
+
+  private static Logger log = LoggerFactory.getLogger(BenchmarkBlockCompressedSource.class);
+
+  public static void main(String[] args) {
+    // We wrap the main method in this way to ensure a non-zero return value on failure
+    try {
+      trueMain(args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void trueMain(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.out.println("No data file specified");
+      System.exit(1);
+    }
+    final File inputFile = new File(args[0]);
+
+    // Timers and counters
+    final Stopwatch stopwatch = Stopwatch.createUnstarted();
+
+    // Open
+    stopwatch.start();
+    final ImmutableKeyValueSource<Symbol, ByteSource> source =
+        KeyValueSources.fromBlockCompressedFile(inputFile);
+    log.info("Opened block-compressed file at {} in {} milliseconds", inputFile,
+        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+    // Read everything
+    int documents = 0;
+    long bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Symbol key : source.keys()) {
+      documents++;
+      bytesLoaded += source.getRequired(key).read().length;
+    }
+    final long readingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    // Read everything in storage order
+    bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Map.Entry<Symbol, ByteSource> entry : source.entries()) {
+      bytesLoaded += entry.getValue().read().length;
+    }
+    final long storageOrderReadingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    // Read everything again in a random order, as when serving requests
+    final List<Symbol> shuffledKeys = new ArrayList<>(source.keySet());
+    // fixed seed so runs are comparable
+    Collections.shuffle(shuffledKeys, new Random(0));
+    bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Symbol key : shuffledKeys) {
+      bytesLoaded += source.getRequired(key).read().length;
+    }
+    source.close();
+    final long randomReadingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    log.info("Read {} documents", documents);
+    log.info("Read {} bytes", bytesLoaded);
+    log.info("Reading time: {}", readingTime);
+    log.info("Storage order reading time: {}", storageOrderReadingTime);
+    log.info("Random order reading time: {}", randomReadingTime);
+  }
+}
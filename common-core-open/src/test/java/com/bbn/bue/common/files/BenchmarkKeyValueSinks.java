@@ -40,6 +40,8 @@ public final class BenchmarkKeyValueSinks {
     final File outputDir = params.getCreatableDirectory("outputDir");
     final File dbFile = new File(outputDir, "output.db");
     final File zipFile = new File(outputDir, "output.zip");
+    final File mappedFile = new File(outputDir, "output.data");
+    final File blocksFile = new File(outputDir, "output.blocks");
     final File fileDir = new File(outputDir, "files");
     fileDir.mkdirs();
     final File outputMap = new File(fileDir, "files.map");
@@ -48,6 +50,8 @@ public final class BenchmarkKeyValueSinks {
     long readingTime = 0;
     long dbWritingTime = 0;
     long zipWritingTime = 0;
+    long mappedWritingTime = 0;
+    long blocksWritingTime = 0;
     long fileWritingTime = 0;
     int documents = 0;
 
@@ -67,6 +71,15 @@ public final class BenchmarkKeyValueSinks {
     final KeyValueSink<Symbol, byte[]> zipSink = KeyValueSinks.forZip(zipFile);
     zipWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
+    stopwatch.reset().start();
+    final KeyValueSink<Symbol, byte[]> mappedSink = KeyValueSinks.forMappedFile(mappedFile);
+    mappedWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    stopwatch.reset().start();
+    final KeyValueSink<Symbol, byte[]> blocksSink =
+        KeyValueSinks.forBlockCompressedFile(blocksFile);
+    blocksWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
     // Write the output
     for (final Symbol key : source.keys()) {
       documents++;
@@ -86,6 +99,16 @@ public final class BenchmarkKeyValueSinks {
       zipSink.put(key, value);
       zipWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
+      // Mapped file write
+      stopwatch.reset().start();
+      mappedSink.put(key, value);
+      mappedWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+      // Block-compressed file write
+      stopwatch.reset().start();
+      blocksSink.put(key, value);
+      blocksWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
       // File write
       stopwatch.reset().start();
       final File outputFile = new File(fileDir, key.asString());
@@ -103,6 +126,14 @@ public final class BenchmarkKeyValueSinks {
     zipSink.close();
     zipWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
+    stopwatch.reset().start();
+    mappedSink.close();
+    mappedWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    stopwatch.reset().start();
+    blocksSink.close();
+    blocksWritingTime += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
     // Write out the map
     stopwatch.reset().start();
     FileUtils.writeSymbolToFileMap(mapBuilder.build(), Files.asCharSink(outputMap, Charsets.UTF_8));
@@ -113,5 +144,11 @@ public final class BenchmarkKeyValueSinks {
     log.info("File writing time: {}", fileWritingTime);
     log.info("DB writing time: {}", dbWritingTime);
     log.info("Zip writing time: {}", zipWritingTime);
+    log.info("Mapped file writing time: {}", mappedWritingTime);
+    log.info("Block-compressed file writing time: {}", blocksWritingTime);
+    log.info("DB size: {}", dbFile.length());
+    log.info("Zip size: {}", zipFile.length());
+    log.info("Block-compressed size: {}", blocksFile.length()
+        + BlockCompressedKeyValueSource.defaultIndexFileFor(blocksFile).length());
   }
 }
@@ -10,6 +10,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -54,11 +59,32 @@ public final class BenchmarkPalDBSource {
       documents++;
       bytesLoaded += source.getRequired(key).read().length;
     }
-    source.close();
     final long readingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
+    // Read everything in storage order
+    bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Map.Entry<Symbol, ByteSource> entry : source.entries()) {
+      bytesLoaded += entry.getValue().read().length;
+    }
+    final long storageOrderReadingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    // Read everything again in a random order, as when serving requests
+    final List<Symbol> shuffledKeys = new ArrayList<>(source.keySet());
+    // fixed seed so runs are comparable
+    Collections.shuffle(shuffledKeys, new Random(0));
+    bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Symbol key : shuffledKeys) {
+      bytesLoaded += source.getRequired(key).read().length;
+    }
+    source.close();
+    final long randomReadingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
     log.info("Read {} documents", documents);
     log.info("Read {} bytes", bytesLoaded);
     log.info("Reading time: {}", readingTime);
+    log.info("Storage order reading time: {}", storageOrderReadingTime);
+    log.info("Random order reading time: {}", randomReadingTime);
   }
 }
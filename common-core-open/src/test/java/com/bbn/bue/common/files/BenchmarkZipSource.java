@@ -10,6 +10,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipFile;
 
@@ -31,16 +36,25 @@ public final class BenchmarkZipSource {
   }
 
   private static void trueMain(String[] args) throws IOException {
-    if (args.length != 1) {
-      System.out.println("No zip file specified");
+    if (args.length != 1 && !(args.length == 2 && args[1].equals("--indexed"))) {
+      System.out.println("usage: BenchmarkZipSource zipFile [--indexed]");
       System.exit(1);
     }
     final File inputFile = new File(args[0]);
+    final boolean indexed = args.length == 2;
 
-    // Open
     final Stopwatch stopwatch = Stopwatch.createStarted();
-    final ImmutableKeyValueSource<Symbol, ByteSource> source =
-        KeyValueSources.fromZip(new ZipFile(inputFile));
+    if (indexed) {
+      KeyValueSources.indexZip(inputFile);
+      log.info("Indexed zip at {} in {} milliseconds", inputFile,
+          stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    // Open
+    stopwatch.reset().start();
+    final ImmutableKeyValueSource<Symbol, ByteSource> source = indexed
+        ? KeyValueSources.fromIndexedZip(inputFile)
+        : KeyValueSources.fromZip(new ZipFile(inputFile));
     log.info("Opened zip at {} in {} milliseconds", inputFile,
         stopwatch.elapsed(TimeUnit.MILLISECONDS));
 
@@ -52,11 +66,32 @@ public final class BenchmarkZipSource {
       documents++;
       bytesLoaded += source.getRequired(key).read().length;
     }
-    source.close();
     final long readingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
 
+    // Read everything in storage order
+    bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Map.Entry<Symbol, ByteSource> entry : source.entries()) {
+      bytesLoaded += entry.getValue().read().length;
+    }
+    final long storageOrderReadingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    // Read everything again in a random order, as when serving requests
+    final List<Symbol> shuffledKeys = new ArrayList<>(source.keySet());
+    // fixed seed so runs are comparable
+    Collections.shuffle(shuffledKeys, new Random(0));
+    bytesLoaded = 0;
+    stopwatch.reset().start();
+    for (final Symbol key : shuffledKeys) {
+      bytesLoaded += source.getRequired(key).read().length;
+    }
+    source.close();
+    final long randomReadingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
     log.info("Read {} documents", documents);
     log.info("Read {} bytes", bytesLoaded);
     log.info("Reading time: {}", readingTime);
+    log.info("Storage order reading time: {}", storageOrderReadingTime);
+    log.info("Random order reading time: {}", randomReadingTime);
   }
 }
@@ -0,0 +1,136 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the block-compressed key-value source and sink.
+ */
+public final class BlockCompressedKeyValueTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPutAndGet() throws IOException {
+    final File dataFile = new File(folder.getRoot(), "test.blocks");
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forBlockCompressedFile(dataFile)) {
+      sink.put(Symbol.from("foo"), "bar".getBytes(Charsets.UTF_8));
+      sink.put(Symbol.from("empty"), new byte[0]);
+      sink.put(Symbol.from("été"), "summer".getBytes(Charsets.UTF_8));
+    }
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromBlockCompressedFile(dataFile)) {
+      assertEquals("bar", source.getRequired(Symbol.from("foo")).asCharSource(Charsets.UTF_8)
+          .read());
+      assertEquals("summer", source.getRequired(Symbol.from("été")).asCharSource(Charsets.UTF_8)
+          .read());
+      assertEquals(0, source.getRequired(Symbol.from("empty")).size());
+      assertFalse(source.get(Symbol.from("missing")).isPresent());
+      assertEquals(ImmutableList.of(Symbol.from("empty"), Symbol.from("foo"), Symbol.from("été")),
+          ImmutableList.copyOf(source.keys()));
+    }
+  }
+
+  @Test
+  public void testManyBlocks() throws IOException {
+    final Map<Symbol, byte[]> expected = randomDocuments(500, new Random(0));
+    // one value much larger than a block
+    final byte[] big = new byte[10000];
+    new Random(1).nextBytes(big);
+    expected.put(Symbol.from("big"), big);
+
+    final byte[] dictionary =
+        KeyValueSinks.trainCompressionDictionary(expected.values(), 4096);
+    assertTrue(dictionary.length > 0);
+    assertTrue(dictionary.length <= 4096);
+
+    for (final Optional<byte[]> dict : ImmutableList.of(Optional.<byte[]>absent(),
+        Optional.of(dictionary))) {
+      final File dataFile = folder.newFile();
+      final File indexFile = folder.newFile();
+      try (KeyValueSink<Symbol, byte[]> sink =
+               KeyValueSinks.forBlockCompressedFile(dataFile, indexFile, 1000, dict)) {
+        for (final Map.Entry<Symbol, byte[]> entry : expected.entrySet()) {
+          sink.put(entry.getKey(), entry.getValue());
+        }
+      }
+      // a small cache so blocks get evicted and reloaded
+      final BlockCompressedKeyValueSource source =
+          BlockCompressedKeyValueSource.open(dataFile, indexFile, 3);
+      assertTrue(source.numBlocks() > 10);
+      assertEquals(expected.size(), source.size());
+      assertEquals(expected.keySet(), source.keySet());
+      final List<Symbol> keys = new ArrayList<>(expected.keySet());
+      final Random rng = new Random(2);
+      for (int i = 0; i < 2000; ++i) {
+        final Symbol key = keys.get(rng.nextInt(keys.size()));
+        assertArrayEquals(expected.get(key), source.getRequired(key).read());
+      }
+      source.close();
+    }
+  }
+
+  @Test
+  public void testSimilarValuesCompressWell() throws IOException {
+    final Map<Symbol, byte[]> docs = randomDocuments(2000, new Random(0));
+    long uncompressed = 0;
+    for (final byte[] doc : docs.values()) {
+      uncompressed += doc.length;
+    }
+
+    final File zipFile = new File(folder.getRoot(), "test.zip");
+    final File blocksFile = new File(folder.getRoot(), "test.blocks");
+    try (KeyValueSink<Symbol, byte[]> zipSink = KeyValueSinks.forZip(zipFile);
+         KeyValueSink<Symbol, byte[]> blockSink =
+             KeyValueSinks.forBlockCompressedFile(blocksFile)) {
+      for (final Map.Entry<Symbol, byte[]> entry : docs.entrySet()) {
+        zipSink.put(entry.getKey(), entry.getValue());
+        blockSink.put(entry.getKey(), entry.getValue());
+      }
+    }
+    final long blocksSize = blocksFile.length()
+        + BlockCompressedKeyValueSource.defaultIndexFileFor(blocksFile).length();
+    assertTrue(blocksSize < uncompressed / 4);
+    assertTrue(2 * blocksSize < zipFile.length());
+  }
+
+  // small JSON-like documents which share most of their structure
+  private static Map<Symbol, byte[]> randomDocuments(final int n, final Random rng) {
+    final Map<Symbol, byte[]> ret = new LinkedHashMap<>();
+    final String[] words = {"alpha", "beta", "gamma", "delta", "epsilon", "zeta"};
+    for (int i = 0; i < n; ++i) {
+      final StringBuilder sb = new StringBuilder();
+      sb.append("{\"docid\": \"document-").append(i).append("\", \"language\": \"english\", ")
+          .append("\"source\": \"newswire\", \"tokens\": [");
+      for (int j = 0; j < 10 + rng.nextInt(20); ++j) {
+        sb.append("{\"text\": \"").append(words[rng.nextInt(words.length)])
+            .append("\", \"start\": ").append(rng.nextInt(1000)).append("}, ");
+      }
+      sb.append("]}");
+      ret.put(Symbol.from("document-" + i), sb.toString().getBytes(Charsets.UTF_8));
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,224 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link KeyValueSources#caching(ImmutableKeyValueSource, long)}.
+ */
+public final class CachingKeyValueSourceTest {
+
+  private static final Symbol FOO = Symbol.from("foo");
+  private static final Symbol BAR = Symbol.from("bar");
+  private static final Symbol MISSING = Symbol.from("missing");
+
+  @Test
+  public void testCachesValuesAndAbsences() throws IOException {
+    final CountingSource wrapped = new CountingSource(ImmutableMap.of(
+        FOO, "foo value".getBytes(Charsets.UTF_8), BAR, "bar value".getBytes(Charsets.UTF_8)));
+    final CachingKeyValueSource<Symbol> source = KeyValueSources.caching(wrapped, 1 << 20);
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("foo value", source.getRequired(FOO).asCharSource(Charsets.UTF_8).read());
+      assertEquals("bar value", source.getRequired(BAR).asCharSource(Charsets.UTF_8).read());
+      assertFalse(source.get(MISSING).isPresent());
+    }
+    assertEquals(3, wrapped.loads.get());
+    assertEquals(3, source.stats().missCount());
+    assertEquals(6, source.stats().hitCount());
+    assertEquals(wrapped.data.keySet(), source.keySet());
+    source.close();
+    assertTrue(wrapped.closed);
+  }
+
+  @Test
+  public void testWeighsByBytes() throws IOException {
+    final ImmutableMap.Builder<Symbol, byte[]> data = ImmutableMap.builder();
+    for (int i = 0; i < 100; ++i) {
+      data.put(Symbol.from("key" + i), new byte[1000]);
+    }
+    final CountingSource wrapped = new CountingSource(data.build());
+    // room for only about ten values
+    final CachingKeyValueSource<Symbol> source = KeyValueSources.caching(wrapped, 10 * 1100);
+    for (final Symbol key : wrapped.data.keySet()) {
+      source.getRequired(key);
+    }
+    assertTrue(source.cachedBytes() <= 10 * 1100);
+    assertTrue(source.stats().evictionCount() >= 90);
+    source.close();
+  }
+
+  @Test
+  public void testConcurrentRequestsLoadOnce() throws Exception {
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingSource wrapped = new CountingSource(ImmutableMap.of(FOO, new byte[10])) {
+      @Nonnull
+      @Override
+      public Optional<ByteSource> get(final Symbol key) throws IOException {
+        loading.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return super.get(key);
+      }
+    };
+    final CachingKeyValueSource<Symbol> source = KeyValueSources.caching(wrapped, 1 << 20);
+    final List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      readers.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            source.getRequired(FOO);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }));
+    }
+    for (final Thread reader : readers) {
+      reader.start();
+    }
+    loading.await();
+    // give the other readers a chance to pile up behind the first load
+    Thread.sleep(50);
+    release.countDown();
+    for (final Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(1, wrapped.loads.get());
+    assertEquals(1, source.stats().loadCount());
+  }
+
+  @Test
+  public void testGetAllFetchesMissesFromWrappedSource() throws IOException {
+    final CountingSource wrapped = new CountingSource(ImmutableMap.of(
+        FOO, "foo value".getBytes(Charsets.UTF_8), BAR, "bar value".getBytes(Charsets.UTF_8)));
+    final CachingKeyValueSource<Symbol> source = KeyValueSources.caching(wrapped, 1 << 20);
+    source.getRequired(FOO);
+    final Map<Symbol, String> found = new HashMap<>();
+    final Iterator<Map.Entry<Symbol, ByteSource>> entries =
+        source.getAll(ImmutableList.of(BAR, FOO, MISSING, BAR));
+    while (entries.hasNext()) {
+      final Map.Entry<Symbol, ByteSource> entry = entries.next();
+      found.put(entry.getKey(), entry.getValue().asCharSource(Charsets.UTF_8).read());
+    }
+    assertEquals(ImmutableMap.of(FOO, "foo value", BAR, "bar value"), found);
+    // FOO came from the cache; BAR and MISSING were fetched together
+    assertEquals(1, wrapped.getAlls.get());
+    assertEquals(3, wrapped.loads.get());
+    // and BAR is now cached
+    source.getRequired(BAR);
+    assertEquals(3, wrapped.loads.get());
+  }
+
+  @Test
+  public void testEntriesBypassCache() throws IOException {
+    final ImmutableMap.Builder<Symbol, byte[]> data = ImmutableMap.builder();
+    for (int i = 0; i < 10; ++i) {
+      data.put(Symbol.from("key" + i), new byte[100]);
+    }
+    final CountingSource wrapped = new CountingSource(data.build());
+    final CachingKeyValueSource<Symbol> source = KeyValueSources.caching(wrapped, 1 << 20);
+    // in the wrapped source's retrieval order, not the order of its keys
+    assertEquals(wrapped.data.keySet().asList().reverse(), keysOf(source.entries()));
+    final List<Symbol> partitioned = new ArrayList<>();
+    for (final Iterable<Map.Entry<Symbol, ByteSource>> partition : source.partitionedEntries(3)) {
+      partitioned.addAll(keysOf(partition));
+    }
+    assertEquals(wrapped.data.keySet().asList().reverse(), partitioned);
+    assertEquals(0, source.cachedBytes());
+    assertEquals(0, source.stats().requestCount());
+  }
+
+  @Test(expected = IOException.class)
+  public void testLoadFailuresPropagate() throws IOException {
+    final CountingSource wrapped = new CountingSource(ImmutableMap.<Symbol, byte[]>of()) {
+      @Nonnull
+      @Override
+      public Optional<ByteSource> get(final Symbol key) throws IOException {
+        throw new IOException("Disk on fire");
+      }
+    };
+    KeyValueSources.caching(wrapped, 1000).get(FOO);
+  }
+
+  private static List<Symbol> keysOf(final Iterable<Map.Entry<Symbol, ByteSource>> entries) {
+    final List<Symbol> ret = new ArrayList<>();
+    for (final Map.Entry<Symbol, ByteSource> entry : entries) {
+      ret.add(entry.getKey());
+    }
+    return ret;
+  }
+
+  private static class CountingSource extends AbstractImmutableKeyValueSource<Symbol, ByteSource> {
+
+    final ImmutableMap<Symbol, byte[]> data;
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger getAlls = new AtomicInteger();
+    volatile boolean closed = false;
+
+    CountingSource(final ImmutableMap<Symbol, byte[]> data) {
+      this.data = data;
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Symbol> keys() {
+      return data.keySet();
+    }
+
+    @Nonnull
+    @Override
+    public Optional<ByteSource> get(final Symbol key) throws IOException {
+      loads.incrementAndGet();
+      final byte[] value = data.get(key);
+      return value != null ? Optional.of(ByteSource.wrap(value)) : Optional.<ByteSource>absent();
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<Map.Entry<Symbol, ByteSource>> getAll(final Iterable<? extends Symbol> keys)
+        throws IOException {
+      getAlls.incrementAndGet();
+      return super.getAll(keys);
+    }
+
+    // a stand-in for a storage order which differs from the order of the keys
+    @Nonnull
+    @Override
+    protected List<Symbol> retrievalOrder(final List<Symbol> keys) {
+      return Lists.reverse(keys);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link CompactFileMap}.
+ */
+public final class CompactFileMapTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testMatchesFileUtils() throws IOException {
+    final String map = "# a comment\n"
+        + "doc1\t/corpus/a/doc1.txt\n"
+        + "\n"
+        + " doc2 \t /corpus/a/doc2.txt \r\n"
+        + "döc3\t/corpus/b/döc3.txt\r"
+        + "doc4\t/corpus/a/doc1.txt\n"
+        + "a\t/x\n"
+        + "doc5\trelative/path";
+    final CompactFileMap compact = CompactFileMap.parse(bytes(map));
+    final ImmutableMap<Symbol, File> expected =
+        FileUtils.loadSymbolToFileMap(CharSource.wrap(map));
+    assertEquals(expected, compact);
+    assertEquals(expected.hashCode(), compact.hashCode());
+    assertEquals(6, compact.size());
+    // doc1 and doc4 share a path
+    assertEquals(5, compact.numPaths());
+    assertEquals(Optional.of(new File("/corpus/b/döc3.txt")),
+        compact.fileForDocID(Symbol.from("döc3")));
+    assertFalse(compact.fileForDocID(Symbol.from("doc")).isPresent());
+    assertTrue(compact.containsKey(Symbol.from("a")));
+    // entries are in sorted order
+    assertEquals(ImmutableList.of(Symbol.from("a"), Symbol.from("doc1"), Symbol.from("doc2"),
+        Symbol.from("doc4"), Symbol.from("doc5"), Symbol.from("döc3")),
+        ImmutableList.copyOf(compact.keySet()));
+  }
+
+  @Test
+  public void testManyPathsRoundTrip() throws IOException {
+    // enough paths to span many front-coding restart points
+    final Random rand = new Random(0);
+    final StringBuilder map = new StringBuilder();
+    final ImmutableMap.Builder<Symbol, File> expected = ImmutableMap.builder();
+    for (int i = 0; i < 1000; ++i) {
+      final String path = "/corpus/" + rand.nextInt(10) + "/" + rand.nextInt(100) + "/doc" + i;
+      map.append("doc").append(i).append('\t').append(path).append('\n');
+      expected.put(Symbol.from("doc" + i), new File(path));
+    }
+    final File mapFile = folder.newFile("map.txt");
+    Files.write(map, mapFile, Charsets.UTF_8);
+    final File binaryFile = new File(folder.getRoot(), "map.bin");
+
+    final CompactFileMap parsed = CompactFileMap.loadCaching(mapFile, binaryFile);
+    assertEquals(expected.build(), parsed);
+    assertTrue(binaryFile.isFile());
+    assertTrue(binaryFile.length() < mapFile.length());
+
+    final CompactFileMap read = CompactFileMap.read(binaryFile);
+    assertEquals(expected.build(), read);
+    assertEquals(parsed.numPaths(), read.numPaths());
+    assertEquals(expected.build(), CompactFileMap.loadCaching(mapFile, binaryFile));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    final CompactFileMap compact = CompactFileMap.parse(bytes("# nothing here\n"));
+    assertTrue(compact.isEmpty());
+    final File binaryFile = new File(folder.getRoot(), "map.bin");
+    compact.writeTo(binaryFile);
+    assertTrue(CompactFileMap.read(binaryFile).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateDocIDs() throws IOException {
+    CompactFileMap.parse(bytes("doc1\t/a\ndoc2\t/b\ndoc1\t/c\n"));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testCorruptLine() throws IOException {
+    CompactFileMap.parse(bytes("doc1\t/a\tb\n"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotABinaryMap() throws IOException {
+    final File notAMap = folder.newFile("map.bin");
+    Files.write("doc1\t/a\n", notAMap, Charsets.UTF_8);
+    CompactFileMap.read(notAMap);
+  }
+
+  private static ByteSource bytes(final String s) {
+    return ByteSource.wrap(s.getBytes(Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,71 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link DocumentCosts}.
+ */
+public final class DocumentCostsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testFileSizes() throws IOException {
+    final ImmutableMap.Builder<Symbol, File> documents = ImmutableMap.builder();
+    final ImmutableMap.Builder<Symbol, Long> expected = ImmutableMap.builder();
+    for (int i = 0; i < 50; ++i) {
+      final File file = folder.newFile("doc" + i);
+      Files.write(Strings.repeat("x", i * 7), file, Charsets.UTF_8);
+      documents.put(Symbol.from("doc" + i), file);
+      expected.put(Symbol.from("doc" + i), i * 7L);
+    }
+    assertEquals(expected.build(), DocumentCosts.fileSizes(documents.build(), 4));
+    assertEquals(expected.build(), DocumentCosts.fileSizes(documents.build(), 64));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingFile() throws IOException {
+    DocumentCosts.fileSizes(
+        ImmutableMap.of(Symbol.from("missing"), new File(folder.getRoot(), "missing")), 2);
+  }
+
+  @Test
+  public void testCostFile() throws IOException {
+    final File costFile = folder.newFile("costs.txt");
+    Files.write("# cost in ms\ndoc1\t500\n/corpus/doc2.txt\t20\ndoc3\t0\n", costFile,
+        Charsets.UTF_8);
+    // doc2 is looked up by path
+    final ImmutableMap<Symbol, Long> costs = DocumentCosts.fromCostFile(
+        ImmutableMap.of(Symbol.from("doc1"), new File("/corpus/doc1.txt"),
+            Symbol.from("doc2"), new File("/corpus/doc2.txt"),
+            Symbol.from("doc3"), new File("/corpus/doc3.txt")), costFile);
+    assertEquals(ImmutableMap.of(Symbol.from("doc1"), 500L, Symbol.from("doc2"), 20L,
+        Symbol.from("doc3"), 0L), costs);
+    assertEquals(ImmutableList.of(520L, 0L), DocumentCosts.logPredictedLoads(
+        ImmutableList.of(ImmutableList.of(Symbol.from("doc1"), Symbol.from("doc2")),
+            ImmutableList.of(Symbol.from("doc3"))), costs));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCostFileMissingDocument() throws IOException {
+    final File costFile = folder.newFile("costs.txt");
+    Files.write("doc1\t500\n", costFile, Charsets.UTF_8);
+    DocumentCosts.fromCostFile(ImmutableMap.of(Symbol.from("doc2"), new File("/doc2")), costFile);
+  }
+}
@@ -0,0 +1,62 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.primitives.Ints;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests {@link IndexSort}.
+ */
+public final class IndexSortTest {
+
+  @Test
+  public void testMatchesStableSort() {
+    final Random rand = new Random(0);
+    for (final int n : new int[]{0, 1, 2, 7, 100, 1000}) {
+      final long[] keys = new long[n];
+      for (int i = 0; i < n; ++i) {
+        // few distinct keys, so there are many ties
+        keys[i] = rand.nextInt(10) - 5;
+      }
+      assertArrayEquals(boxedStableOrder(keys), IndexSort.sortedIndices(keys.clone()));
+    }
+  }
+
+  @Test
+  public void testAlreadySorted() {
+    assertArrayEquals(new int[]{0, 1, 2, 3}, IndexSort.sortedIndices(new long[]{-1, 2, 2, 5}));
+  }
+
+  @Test
+  public void testTieBreaker() {
+    final long[] keys = {3, 1, 3, 1, 3};
+    // ties are broken by reverse index
+    assertArrayEquals(new int[]{3, 1, 4, 2, 0},
+        IndexSort.sortedIndices(keys, new IndexSort.TieBreaker() {
+          @Override
+          public int compare(final int left, final int right) {
+            return Ints.compare(right, left);
+          }
+        }));
+  }
+
+  private static int[] boxedStableOrder(final long[] keys) {
+    final Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer left, final Integer right) {
+        return Long.compare(keys[left], keys[right]);
+      }
+    });
+    return Ints.toArray(Arrays.asList(order));
+  }
+}
@@ -0,0 +1,211 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link KeyValueSources#fromIndexedZip(File, File)}.
+ */
+public final class IndexedZipKeyValueTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testMatchesZipSource() throws IOException {
+    final File zipFile = folder.newFile("test.zip");
+    final ImmutableMap.Builder<Symbol, byte[]> expected = ImmutableMap.builder();
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forZip(zipFile)) {
+      for (int i = 0; i < 100; ++i) {
+        final Symbol key = Symbol.from("doc-" + i + "-é");
+        final byte[] value = Strings.repeat("value " + i + " ", i).getBytes(Charsets.UTF_8);
+        sink.put(key, value);
+        expected.put(key, value);
+      }
+    }
+
+    KeyValueSources.indexZip(zipFile);
+    try (ImmutableKeyValueSource<Symbol, ByteSource> indexed =
+             KeyValueSources.fromIndexedZip(zipFile);
+         ImmutableKeyValueSource<Symbol, ByteSource> plain =
+             KeyValueSources.fromZip(new ZipFile(zipFile))) {
+      checkContents(expected.build(), indexed);
+      assertEquals(plain.keySet(), indexed.keySet());
+      for (final Symbol key : plain.keys()) {
+        assertArrayEquals(plain.getRequired(key).read(), indexed.getRequired(key).read());
+      }
+    }
+  }
+
+  @Test
+  public void testStoredEntriesDirectoriesAndIdExtractor() throws IOException {
+    final File zipFile = folder.newFile("test.zip");
+    final byte[] stored = "stored".getBytes(Charsets.UTF_8);
+    final byte[] deflated = Strings.repeat("deflated", 50).getBytes(Charsets.UTF_8);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      out.putNextEntry(new ZipEntry("dir/"));
+      out.closeEntry();
+      final ZipEntry storedEntry = new ZipEntry("dir/stored.txt");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      final CRC32 crc = new CRC32();
+      crc.update(stored);
+      storedEntry.setCrc(crc.getValue());
+      out.putNextEntry(storedEntry);
+      out.write(stored);
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("dir/deflated.txt"));
+      out.write(deflated);
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("empty.txt"));
+      out.closeEntry();
+    }
+
+    final File indexFile = folder.newFile("index");
+    KeyValueSources.indexZip(zipFile, indexFile, new Function<String, Symbol>() {
+      @Override
+      public Symbol apply(final String name) {
+        return Symbol.from(new File(name).getName().replace(".txt", ""));
+      }
+    });
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromIndexedZip(zipFile, indexFile)) {
+      checkContents(ImmutableMap.of(Symbol.from("stored"), stored,
+          Symbol.from("deflated"), deflated, Symbol.from("empty"), new byte[0]), source);
+    }
+  }
+
+  @Test
+  public void testZip64() throws IOException {
+    // more entries than fit in the original zip format
+    final File zipFile = folder.newFile("test.zip");
+    final int numEntries = 70000;
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forZip(zipFile)) {
+      for (int i = 0; i < numEntries; ++i) {
+        sink.put(Symbol.from(Integer.toString(i)), Integer.toString(i).getBytes(Charsets.UTF_8));
+      }
+    }
+    KeyValueSources.indexZip(zipFile);
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromIndexedZip(zipFile)) {
+      assertEquals(numEntries, source.keySet().size());
+      for (final int i : new int[]{0, 12345, numEntries - 1}) {
+        assertEquals(Integer.toString(i),
+            source.getRequired(Symbol.from(Integer.toString(i))).asCharSource(Charsets.UTF_8)
+                .read());
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final File zipFile = folder.newFile("test.zip");
+    final List<Symbol> keys = new ArrayList<>();
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forZip(zipFile)) {
+      for (int i = 0; i < 500; ++i) {
+        final Symbol key = Symbol.from("doc" + i);
+        keys.add(key);
+        sink.put(key, Strings.repeat(key.asString(), 100).getBytes(Charsets.UTF_8));
+      }
+    }
+    KeyValueSources.indexZip(zipFile);
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (final ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromIndexedZip(zipFile)) {
+      final List<Future<Void>> results = new ArrayList<>();
+      for (int thread = 0; thread < 8; ++thread) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int pass = 0; pass < 5; ++pass) {
+              for (final Symbol key : keys) {
+                assertEquals(Strings.repeat(key.asString(), 100),
+                    source.getRequired(key).asCharSource(Charsets.UTF_8).read());
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testModifiedZipIsDetected() throws IOException {
+    final File zipFile = folder.newFile("test.zip");
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forZip(zipFile)) {
+      sink.put(Symbol.from("a"), new byte[]{1});
+    }
+    KeyValueSources.indexZip(zipFile);
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forZip(zipFile)) {
+      sink.put(Symbol.from("a"), new byte[]{1});
+      sink.put(Symbol.from("b"), new byte[]{2});
+    }
+    try {
+      KeyValueSources.fromIndexedZip(zipFile);
+      fail("Expected the stale index to be rejected");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAZip() throws IOException {
+    final File notAZip = folder.newFile("test.zip");
+    Files.write(Strings.repeat("not a zip", 10), notAZip, Charsets.UTF_8);
+    KeyValueSources.indexZip(notAZip);
+  }
+
+  private static void checkContents(final Map<Symbol, byte[]> expected,
+      final ImmutableKeyValueSource<Symbol, ByteSource> source) throws IOException {
+    assertEquals(expected.keySet(), source.keySet());
+    for (final Map.Entry<Symbol, byte[]> entry : expected.entrySet()) {
+      final ByteSource value = source.getRequired(entry.getKey());
+      assertEquals(entry.getValue().length, value.size());
+      assertArrayEquals(entry.getValue(), value.read());
+    }
+    final ImmutableSet.Builder<Symbol> entryKeys = ImmutableSet.builder();
+    for (final Map.Entry<Symbol, ByteSource> entry : source.entries()) {
+      entryKeys.add(entry.getKey());
+      assertArrayEquals(expected.get(entry.getKey()), entry.getValue().read());
+    }
+    assertEquals(expected.keySet(), entryKeys.build());
+    assertFalse(source.get(Symbol.from("missing")).isPresent());
+  }
+}
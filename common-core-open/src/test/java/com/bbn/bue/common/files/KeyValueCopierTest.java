@@ -0,0 +1,132 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link KeyValueCopier}.
+ */
+public final class KeyValueCopierTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCopiesInKeyOrder() throws IOException {
+    final ImmutableMap.Builder<Symbol, File> fileMap = ImmutableMap.builder();
+    for (int i = 0; i < 200; ++i) {
+      final File file = folder.newFile("doc" + i);
+      Files.write("value " + i, file, Charsets.UTF_8);
+      fileMap.put(Symbol.from("doc" + i), file);
+    }
+    final ImmutableKeyValueSource<Symbol, ByteSource> source =
+        KeyValueSources.fromFileMap(fileMap.build());
+
+    final List<Symbol> keysPut = new ArrayList<>();
+    final List<String> valuesPut = new ArrayList<>();
+    final KeyValueCopier.Stats stats = KeyValueCopier.builder()
+        .readerThreads(4)
+        .readAhead(7)
+        .progressInterval(50)
+        .transform(new Function<byte[], byte[]>() {
+          @Override
+          public byte[] apply(final byte[] input) {
+            return new String(input, Charsets.UTF_8).toUpperCase().getBytes(Charsets.UTF_8);
+          }
+        })
+        .build()
+        .copy(source, new KeyValueSink<Symbol, byte[]>() {
+          @Override
+          public void put(final Symbol key, final byte[] value) {
+            keysPut.add(key);
+            valuesPut.add(new String(value, Charsets.UTF_8));
+          }
+
+          @Override
+          public void close() {
+          }
+        });
+
+    assertEquals(ImmutableList.copyOf(source.keys()), keysPut);
+    for (int i = 0; i < keysPut.size(); ++i) {
+      assertEquals(source.getRequired(keysPut.get(i)).asCharSource(Charsets.UTF_8).read()
+          .toUpperCase(), valuesPut.get(i));
+    }
+    assertEquals(200, stats.entries());
+    assertEquals(stats.bytesRead(), stats.bytesWritten());
+    assertTrue(stats.bytesRead() > 0);
+  }
+
+  @Test
+  public void testCopyToMappedFile() throws IOException {
+    final File input = folder.newFile("input.zip");
+    final ImmutableMap.Builder<Symbol, String> expected = ImmutableMap.builder();
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forZip(input)) {
+      for (int i = 0; i < 100; ++i) {
+        sink.put(Symbol.from("doc" + i), ("value " + i).getBytes(Charsets.UTF_8));
+        expected.put(Symbol.from("doc" + i), "value " + i);
+      }
+    }
+    final File output = folder.newFile("output.data");
+    KeyValueSources.indexZip(input);
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromIndexedZip(input);
+         KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forMappedFile(output)) {
+      KeyValueCopier.builder().readerThreads(3).build().copy(source, sink);
+    }
+    try (ImmutableKeyValueSource<Symbol, ByteSource> copy =
+             KeyValueSources.fromMappedFile(output)) {
+      assertEquals(expected.build().keySet(), copy.keySet());
+      for (final Symbol key : copy.keys()) {
+        assertEquals(expected.build().get(key),
+            copy.getRequired(key).asCharSource(Charsets.UTF_8).read());
+      }
+    }
+  }
+
+  @Test
+  public void testReadFailureStopsCopy() throws IOException {
+    final File present = folder.newFile("present");
+    Files.write("present", present, Charsets.UTF_8);
+    final ImmutableKeyValueSource<Symbol, ByteSource> source = KeyValueSources.fromFileMap(
+        ImmutableMap.of(Symbol.from("present"), present,
+            Symbol.from("missing"), new File(folder.getRoot(), "missing")));
+    final List<Symbol> keysPut = new ArrayList<>();
+    try {
+      KeyValueCopier.builder().readerThreads(2).build()
+          .copy(source, new KeyValueSink<Symbol, byte[]>() {
+            @Override
+            public void put(final Symbol key, final byte[] value) {
+              keysPut.add(key);
+            }
+
+            @Override
+            public void close() {
+            }
+          });
+      fail("Expected reading the missing file to fail");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertEquals(ImmutableList.of(Symbol.from("present")), keysPut);
+  }
+}
@@ -0,0 +1,198 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link KeyValueSource#getAll(Iterable)}, {@link KeyValueSource#entries()} and {@link
+ * KeyValueSource#partitionedEntries(int)} for each of the standard sources.
+ */
+public final class KeyValueSourceBulkReadTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int NUM_KEYS = 200;
+
+  @Test
+  public void testEachFormat() throws IOException {
+    for (final KeyValueStoreFormat format : KeyValueStoreFormat.values()) {
+      final File file = new File(folder.newFolder(), "store." + format.fileExtension());
+      try (KeyValueSink<Symbol, byte[]> sink = format.openSink(file)) {
+        putAll(sink);
+      }
+      try (ImmutableKeyValueSource<Symbol, ByteSource> source = format.openSource(file)) {
+        checkGetAll(source);
+        checkEntries(source);
+        if (format != KeyValueStoreFormat.PALDB) {
+          // values are stored in the order they were put
+          assertEquals(allKeys(), keysOf(source.entries()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFileMap() throws IOException {
+    final ImmutableMap.Builder<Symbol, File> fileMap = ImmutableMap.builder();
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      final File file = new File(folder.getRoot(), "doc" + i);
+      Files.write(value(i), file);
+      fileMap.put(key(i), file);
+    }
+    final ImmutableKeyValueSource<Symbol, ByteSource> source =
+        KeyValueSources.fromFileMap(fileMap.build());
+    checkGetAll(source);
+    checkEntries(source);
+  }
+
+  @Test
+  public void testShards() throws IOException {
+    for (final KeyValueStoreFormat format : new KeyValueStoreFormat[]{
+        KeyValueStoreFormat.MAPPED_FILE, KeyValueStoreFormat.BLOCK_COMPRESSED}) {
+      final File manifest = new File(folder.newFolder(), "store.shards");
+      try (KeyValueSink<Symbol, byte[]> sink =
+               KeyValueSinks.forShardedStore(manifest, format, 3)) {
+        putAll(sink);
+      }
+      try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+               KeyValueSources.fromShardManifest(manifest)) {
+        checkGetAll(source);
+        checkEntries(source);
+        assertEquals(2, source.partitionedEntries(2).size());
+        assertEquals(6, source.partitionedEntries(7).size());
+      }
+    }
+  }
+
+  @Test
+  public void testMappedFileGetAllReturnsStorageOrder() throws IOException {
+    final File file = new File(folder.getRoot(), "store.data");
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forMappedFile(file)) {
+      putAll(sink);
+    }
+    final List<Symbol> expected = new ArrayList<>();
+    for (int i = 0; i < NUM_KEYS; i += 3) {
+      expected.add(key(i));
+    }
+    final List<Symbol> requested = new ArrayList<>(expected);
+    Collections.shuffle(requested, new Random(0));
+    final List<Symbol> returned = new ArrayList<>();
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromMappedFile(file)) {
+      final Iterator<Map.Entry<Symbol, ByteSource>> entries = source.getAll(requested);
+      while (entries.hasNext()) {
+        returned.add(entries.next().getKey());
+      }
+    }
+    assertEquals(expected, returned);
+  }
+
+  // requests every other key, some missing keys, and some duplicates in shuffled order
+  private static void checkGetAll(final ImmutableKeyValueSource<Symbol, ByteSource> source)
+      throws IOException {
+    final List<Symbol> requested = new ArrayList<>();
+    for (int i = 0; i < NUM_KEYS; i += 2) {
+      requested.add(key(i));
+    }
+    requested.add(Symbol.from("missing"));
+    requested.add(key(0));
+    requested.add(key(10));
+    Collections.shuffle(requested, new Random(0));
+
+    final Map<Symbol, String> found = new HashMap<>();
+    final Iterator<Map.Entry<Symbol, ByteSource>> entries = source.getAll(requested);
+    while (entries.hasNext()) {
+      final Map.Entry<Symbol, ByteSource> entry = entries.next();
+      assertNull(found.put(entry.getKey(), entry.getValue().asCharSource(Charsets.UTF_8).read()));
+    }
+    assertEquals(NUM_KEYS / 2, found.size());
+    for (int i = 0; i < NUM_KEYS; i += 2) {
+      assertEquals(new String(value(i), Charsets.UTF_8), found.get(key(i)));
+    }
+    assertFalse(source.getAll(ImmutableList.<Symbol>of()).hasNext());
+  }
+
+  private static void checkEntries(final ImmutableKeyValueSource<Symbol, ByteSource> source)
+      throws IOException {
+    checkComplete(source.entries());
+    for (final int maxPartitions : new int[]{1, 3, 7, 1000}) {
+      final List<Iterable<Map.Entry<Symbol, ByteSource>>> partitions =
+          source.partitionedEntries(maxPartitions);
+      assertTrue(partitions.size() <= maxPartitions);
+      final List<Map.Entry<Symbol, ByteSource>> all = new ArrayList<>();
+      for (final Iterable<Map.Entry<Symbol, ByteSource>> partition : partitions) {
+        for (final Map.Entry<Symbol, ByteSource> entry : partition) {
+          all.add(entry);
+        }
+      }
+      checkComplete(all);
+    }
+  }
+
+  private static void checkComplete(final Iterable<Map.Entry<Symbol, ByteSource>> entries)
+      throws IOException {
+    final Map<Symbol, String> found = new HashMap<>();
+    for (final Map.Entry<Symbol, ByteSource> entry : entries) {
+      assertNull(found.put(entry.getKey(), entry.getValue().asCharSource(Charsets.UTF_8).read()));
+    }
+    assertEquals(NUM_KEYS, found.size());
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      assertEquals(new String(value(i), Charsets.UTF_8), found.get(key(i)));
+    }
+  }
+
+  private static void putAll(final KeyValueSink<Symbol, byte[]> sink) throws IOException {
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      sink.put(key(i), value(i));
+    }
+  }
+
+  private static List<Symbol> allKeys() {
+    final List<Symbol> ret = new ArrayList<>();
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      ret.add(key(i));
+    }
+    return ret;
+  }
+
+  private static List<Symbol> keysOf(final Iterable<Map.Entry<Symbol, ByteSource>> entries) {
+    final List<Symbol> ret = new ArrayList<>();
+    for (final Map.Entry<Symbol, ByteSource> entry : entries) {
+      ret.add(entry.getKey());
+    }
+    return ret;
+  }
+
+  private static Symbol key(final int i) {
+    return Symbol.from("doc" + i);
+  }
+
+  private static byte[] value(final int i) {
+    return ("value of document " + i).getBytes(Charsets.UTF_8);
+  }
+}
@@ -0,0 +1,148 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link LogStructuredKeyValueStore}.
+ */
+public final class LogStructuredKeyValueTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final Symbol A = Symbol.from("a");
+  private static final Symbol B = Symbol.from("b");
+  private static final Symbol C = Symbol.from("c");
+
+  @Test
+  public void testLaterSegmentsShadowEarlierOnes() throws IOException {
+    for (final KeyValueStoreFormat format : KeyValueStoreFormat.values()) {
+      final File dir = folder.newFolder();
+      append(dir, format, ImmutableMap.of(A, "a1", B, "b1"));
+      // readers opened before an append don't see it
+      final ImmutableKeyValueSource<Symbol, ByteSource> before =
+          KeyValueSources.fromLogStructuredStore(dir);
+      append(dir, format, ImmutableMap.of(B, "b2", C, "c2"));
+      assertEquals("b1", read(before, B));
+      assertFalse(before.get(C).isPresent());
+      before.close();
+
+      final ImmutableMap<Symbol, String> expected = ImmutableMap.of(A, "a1", B, "b2", C, "c2");
+      try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+               KeyValueSources.fromLogStructuredStore(dir)) {
+        checkContents(expected, source);
+      }
+
+      LogStructuredKeyValueStore.compact(dir);
+      assertEquals(1, LogStructuredKeyValueStore.read(dir).segmentFiles().size());
+      try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+               KeyValueSources.fromLogStructuredStore(dir)) {
+        checkContents(expected, source);
+      }
+      // the old segments are gone
+      final ImmutableSet.Builder<String> expectedFiles = ImmutableSet.builder();
+      expectedFiles.add(LogStructuredKeyValueStore.MANIFEST_NAME,
+          LogStructuredKeyValueStore.LOCK_NAME);
+      for (final File file : format.storeFiles(
+          LogStructuredKeyValueStore.read(dir).segmentFiles().get(0))) {
+        expectedFiles.add(file.getName());
+      }
+      assertEquals(expectedFiles.build(), ImmutableSet.copyOf(dir.list()));
+
+      // appending after compaction still works
+      append(dir, format, ImmutableMap.of(A, "a3"));
+      try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+               KeyValueSources.fromLogStructuredStore(dir)) {
+        checkContents(ImmutableMap.of(A, "a3", B, "b2", C, "c2"), source);
+      }
+    }
+  }
+
+  @Test
+  public void testOnlyOneWriterAtATime() throws IOException {
+    final File dir = folder.newFolder();
+    try (KeyValueSink<Symbol, byte[]> sink =
+             KeyValueSinks.appendingTo(dir, KeyValueStoreFormat.MAPPED_FILE)) {
+      sink.put(A, new byte[0]);
+      try {
+        KeyValueSinks.appendingTo(dir, KeyValueStoreFormat.MAPPED_FILE);
+        fail("Expected the store to be locked");
+      } catch (IOException expected) {
+        // expected
+      }
+      try {
+        LogStructuredKeyValueStore.compact(dir);
+        fail("Expected the store to be locked");
+      } catch (IOException expected) {
+        // expected
+      }
+    }
+    // the lock is released on close
+    append(dir, KeyValueStoreFormat.MAPPED_FILE, ImmutableMap.of(B, "b"));
+  }
+
+  @Test
+  public void testEmptyAppendsAddNoSegments() throws IOException {
+    final File dir = folder.newFolder();
+    KeyValueSinks.appendingTo(dir, KeyValueStoreFormat.MAPPED_FILE).close();
+    assertEquals(0, LogStructuredKeyValueStore.read(dir).segmentFiles().size());
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromLogStructuredStore(dir)) {
+      assertEquals(ImmutableSet.of(), source.keySet());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFormatMustMatch() throws IOException {
+    final File dir = folder.newFolder();
+    append(dir, KeyValueStoreFormat.MAPPED_FILE, ImmutableMap.of(A, "a"));
+    KeyValueSinks.appendingTo(dir, KeyValueStoreFormat.ZIP);
+  }
+
+  private static void append(final File dir, final KeyValueStoreFormat format,
+      final Map<Symbol, String> entries) throws IOException {
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.appendingTo(dir, format)) {
+      for (final Map.Entry<Symbol, String> entry : entries.entrySet()) {
+        sink.put(entry.getKey(), entry.getValue().getBytes(Charsets.UTF_8));
+      }
+    }
+  }
+
+  private static void checkContents(final Map<Symbol, String> expected,
+      final ImmutableKeyValueSource<Symbol, ByteSource> source) throws IOException {
+    assertEquals(expected.keySet(), source.keySet());
+    for (final Map.Entry<Symbol, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), read(source, entry.getKey()));
+    }
+    final Map<Symbol, String> entries = new HashMap<>();
+    for (final Map.Entry<Symbol, ByteSource> entry : source.entries()) {
+      assertNull(entries.put(entry.getKey(), entry.getValue().asCharSource(Charsets.UTF_8).read()));
+    }
+    assertEquals(expected, entries);
+    assertFalse(source.get(Symbol.from("missing")).isPresent());
+  }
+
+  private static String read(final ImmutableKeyValueSource<Symbol, ByteSource> source,
+      final Symbol key) throws IOException {
+    return source.getRequired(key).asCharSource(Charsets.UTF_8).read();
+  }
+}
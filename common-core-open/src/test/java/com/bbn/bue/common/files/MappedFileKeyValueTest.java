@@ -0,0 +1,112 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests the memory-mapped key-value source and sink.
+ */
+public final class MappedFileKeyValueTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPutAndGet() throws IOException {
+    final File dataFile = new File(folder.getRoot(), "test.data");
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forMappedFile(dataFile)) {
+      sink.put(Symbol.from("foo"), "bar".getBytes(Charsets.UTF_8));
+      sink.put(Symbol.from("empty"), new byte[0]);
+      sink.put(Symbol.from("été"), "summer".getBytes(Charsets.UTF_8));
+      sink.put(Symbol.from("baz"), "quux".getBytes(Charsets.UTF_8));
+    }
+    try (ImmutableKeyValueSource<Symbol, ByteSource> source =
+             KeyValueSources.fromMappedFile(dataFile)) {
+      assertEquals("bar", source.getRequired(Symbol.from("foo")).asCharSource(Charsets.UTF_8)
+          .read());
+      assertEquals("summer", new String(source.getRequired(Symbol.from("été")).read(),
+          Charsets.UTF_8));
+      assertEquals(0, source.getRequired(Symbol.from("empty")).size());
+      assertFalse(source.get(Symbol.from("missing")).isPresent());
+      assertEquals("ux", new String(source.getRequired(Symbol.from("baz")).slice(2, 10).read(),
+          Charsets.UTF_8));
+      // keys come back sorted by their UTF-8 bytes
+      assertEquals(ImmutableList.of(Symbol.from("baz"), Symbol.from("empty"), Symbol.from("foo"),
+          Symbol.from("été")), ImmutableList.copyOf(source.keys()));
+    }
+  }
+
+  @Test
+  public void testValuesStraddlingChunks() throws IOException {
+    final File dataFile = new File(folder.getRoot(), "test.data");
+    final File indexFile = new File(folder.getRoot(), "test.idx");
+    final Random rng = new Random(0);
+    final Map<Symbol, byte[]> expected = new LinkedHashMap<>();
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forMappedFile(dataFile, indexFile)) {
+      for (int i = 0; i < 200; ++i) {
+        final byte[] value = new byte[rng.nextInt(300)];
+        rng.nextBytes(value);
+        expected.put(Symbol.from("doc" + i), value);
+        sink.put(Symbol.from("doc" + i), value);
+      }
+    }
+    // tiny chunks so many values cross chunk boundaries, as they would past 2GB
+    final MappedFileKeyValueSource source =
+        MappedFileKeyValueSource.open(dataFile, indexFile, 97);
+    assertEquals(expected.size(), source.size());
+    assertEquals(expected.keySet(), source.keySet());
+    for (final Map.Entry<Symbol, byte[]> entry : expected.entrySet()) {
+      final ByteSource value = source.getRequired(entry.getKey());
+      assertArrayEquals(entry.getValue(), value.read());
+      assertEquals(entry.getValue().length, value.size());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateKeysRejected() throws IOException {
+    try (KeyValueSink<Symbol, byte[]> sink =
+             KeyValueSinks.forMappedFile(new File(folder.getRoot(), "test.data"))) {
+      sink.put(Symbol.from("foo"), new byte[1]);
+      sink.put(Symbol.from("foo"), new byte[2]);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedDataFileRejected() throws IOException {
+    final File dataFile = new File(folder.getRoot(), "test.data");
+    try (KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.forMappedFile(dataFile)) {
+      sink.put(Symbol.from("foo"), "bar".getBytes(Charsets.UTF_8));
+    }
+    Files.write(new byte[2], dataFile);
+    KeyValueSources.fromMappedFile(dataFile);
+  }
+
+  @Test
+  public void testEmptyStore() throws IOException {
+    final File dataFile = new File(folder.getRoot(), "test.data");
+    KeyValueSinks.forMappedFile(dataFile).close();
+    final ImmutableKeyValueSource<Symbol, ByteSource> source =
+        KeyValueSources.fromMappedFile(dataFile);
+    assertEquals(ImmutableSet.<Symbol>of(), source.keySet());
+    assertFalse(source.get(Symbol.from("foo")).isPresent());
+  }
+}
@@ -0,0 +1,171 @@
+package com.bbn.bue.common.files;
+
+import com.bbn.bue.common.symbols.Symbol;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the sharded key-value sink and source.
+ */
+public final class ShardedKeyValueTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTripThroughManifest() throws Exception {
+    for (final KeyValueStoreFormat format : KeyValueStoreFormat.values()) {
+      final File manifest = new File(folder.newFolder(), "store.shards");
+      final ConcurrentMap<Symbol, byte[]> expected = new ConcurrentHashMap<>();
+      try (final KeyValueSink<Symbol, byte[]> sink =
+               KeyValueSinks.forShardedStore(manifest, format, 4)) {
+        // several producers writing at once
+        final List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 3; ++t) {
+          final int producer = t;
+          producers.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                for (int i = 0; i < 100; ++i) {
+                  final Symbol key = Symbol.from("doc-" + producer + "-" + i);
+                  final byte[] value = key.asString().getBytes(Charsets.UTF_8);
+                  expected.put(key, value);
+                  sink.put(key, value);
+                }
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            }
+          }));
+        }
+        for (final Thread producer : producers) {
+          producer.start();
+        }
+        for (final Thread producer : producers) {
+          producer.join();
+        }
+        // readers should never see a manifest for an incomplete store
+        assertFalse(manifest.exists());
+      }
+      assertTrue(manifest.exists());
+      assertEquals(4, ShardManifest.read(manifest).shardFiles().size());
+
+      try (final ImmutableKeyValueSource<Symbol, ByteSource> source =
+               KeyValueSources.fromShardManifest(manifest)) {
+        assertEquals(expected.keySet(), source.keySet());
+        for (final Symbol key : expected.keySet()) {
+          assertArrayEquals(expected.get(key), source.getRequired(key).read());
+        }
+        assertFalse(source.get(Symbol.from("missing")).isPresent());
+      }
+    }
+  }
+
+  @Test
+  public void testKeysAreSpreadAcrossShards() throws IOException {
+    final List<InMemorySink> shards = ImmutableList.of(new InMemorySink(), new InMemorySink(),
+        new InMemorySink());
+    try (final KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.sharded(shards)) {
+      for (int i = 0; i < 300; ++i) {
+        sink.put(Symbol.from("key" + i), new byte[]{(byte) i});
+      }
+    }
+    int total = 0;
+    for (int i = 0; i < shards.size(); ++i) {
+      final InMemorySink shard = shards.get(i);
+      assertTrue(shard.closed);
+      assertFalse(shard.keys.isEmpty());
+      for (final Symbol key : shard.keys) {
+        assertEquals(i, ShardedKeyValueSource.shardFor(key, shards.size()));
+      }
+      total += shard.keys.size();
+    }
+    assertEquals(300, total);
+  }
+
+  @Test
+  public void testShardFailureIsReported() throws IOException {
+    final InMemorySink good = new InMemorySink();
+    final InMemorySink bad = new InMemorySink();
+    bad.failOnPut = true;
+    final KeyValueSink<Symbol, byte[]> sink = KeyValueSinks.sharded(ImmutableList.of(good, bad));
+    try {
+      // far more entries than fit in the queue, so we can't block forever on the failed shard
+      for (int i = 0; i < 10000; ++i) {
+        sink.put(Symbol.from("key" + i), new byte[0]);
+      }
+      fail("Expected failure of shard to be reported by put");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("shard 1"));
+    }
+    // and it is reported again on close
+    try {
+      sink.close();
+      fail("Expected failure of shard to be reported by close");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("shard 1"));
+    }
+    // the healthy shard is still closed
+    assertTrue(good.closed);
+    assertTrue(bad.closed);
+  }
+
+  @Test
+  public void testShardFilesAreRelativeToManifest() throws IOException {
+    final File dir = folder.newFolder();
+    final File manifestFile = new File(dir, "store.shards");
+    final ShardManifest manifest = ShardManifest.of(KeyValueStoreFormat.ZIP, ImmutableList.of(
+        ShardManifest.defaultShardFile(manifestFile, KeyValueStoreFormat.ZIP, 0),
+        ShardManifest.defaultShardFile(manifestFile, KeyValueStoreFormat.ZIP, 1)));
+    manifest.write(manifestFile);
+
+    // moving the whole directory keeps the store readable
+    final File moved = new File(folder.getRoot(), "moved");
+    assertTrue(dir.renameTo(moved));
+    final ShardManifest reread = ShardManifest.read(new File(moved, "store.shards"));
+    assertEquals(KeyValueStoreFormat.ZIP, reread.format());
+    assertEquals(ImmutableList.of(new File(moved, "store.shards.shard-00000.zip").getAbsoluteFile(),
+        new File(moved, "store.shards.shard-00001.zip").getAbsoluteFile()),
+        reread.shardFiles());
+  }
+
+  private static final class InMemorySink implements KeyValueSink<Symbol, byte[]> {
+
+    private final List<Symbol> keys = new ArrayList<>();
+    private volatile boolean failOnPut = false;
+    private volatile boolean closed = false;
+
+    @Override
+    public void put(final Symbol key, final byte[] value) throws IOException {
+      if (failOnPut) {
+        throw new IOException("Disk full");
+      }
+      keys.add(key);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.bbn.bue.common.files;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link SortedKeyIndex#sortedOrder(List)}.
+ */
+public final class SortedKeyIndexTest {
+
+  @Test
+  public void testSortedOrderMatchesUnsignedByteOrder() {
+    final Random rand = new Random(0);
+    final List<byte[]> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      // a long shared prefix, then a few bytes from a small alphabet including ones with the high
+      // bit set, so there are many keys which are prefixes of others
+      final byte[] key = new byte[12 + rand.nextInt(6)];
+      Arrays.fill(key, 0, 12, (byte) 'd');
+      for (int j = 12; j < key.length; ++j) {
+        key[j] = new byte[]{0, 'a', (byte) 0x80, (byte) 0xff}[rand.nextInt(4)];
+      }
+      keys.add(key);
+    }
+    final int[] order = SortedKeyIndex.sortedOrder(keys);
+    assertEquals(keys.size(), order.length);
+    final List<byte[]> expected = new ArrayList<>(keys);
+    Collections.sort(expected, UnsignedBytes.lexicographicalComparator());
+    for (int i = 0; i < order.length; ++i) {
+      assertArrayEquals(expected.get(i), keys.get(order[i]));
+    }
+  }
+
+  @Test
+  public void testSortedOrderOfNoKeys() {
+    assertEquals(0, SortedKeyIndex.sortedOrder(new ArrayList<byte[]>()).length);
+  }
+}
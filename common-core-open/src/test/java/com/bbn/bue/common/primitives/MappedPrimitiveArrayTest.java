@@ -0,0 +1,140 @@
+package com.bbn.bue.common.primitives;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link MappedPrimitiveArray} and its subclasses.
+ */
+public final class MappedPrimitiveArrayTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrips() throws IOException {
+    final int[] ints = {1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE, 0};
+    final File intFile = folder.newFile();
+    MappedIntArray.create(intFile, ints);
+    final MappedIntArray mappedInts = MappedIntArray.open(intFile);
+    assertEquals(ints.length, mappedInts.length());
+    assertFalse(mappedInts.isWritable());
+    assertArrayEquals(ints, mappedInts.toArray());
+    assertEquals(-2, mappedInts.get(1));
+
+    final long[] longs = {1L << 40, -1, 0};
+    final File longFile = folder.newFile();
+    MappedLongArray.create(longFile, longs);
+    assertArrayEquals(longs, MappedLongArray.open(longFile).toArray());
+
+    final float[] floats = {1.5f, Float.NaN, -0.0f};
+    final File floatFile = folder.newFile();
+    MappedFloatArray.create(floatFile, floats);
+    assertArrayEquals(floats, MappedFloatArray.open(floatFile).toArray(), 0.0f);
+
+    final double[] doubles = {Math.PI, Double.NEGATIVE_INFINITY};
+    final File doubleFile = folder.newFile();
+    MappedDoubleArray.create(doubleFile, doubles);
+    assertArrayEquals(doubles, MappedDoubleArray.open(doubleFile).toArray(), 0.0);
+
+    final File emptyFile = folder.newFile();
+    MappedDoubleArray.create(emptyFile, 0);
+    assertEquals(0, MappedDoubleArray.open(emptyFile).toArray().length);
+  }
+
+  @Test
+  public void testAcrossChunks() throws IOException {
+    // 16-byte chunks hold four ints, so most ranges span several chunks
+    final File file = folder.newFile();
+    final int[] expected = new int[41];
+    MappedIntArray.create(file, expected.length);
+    final MappedIntArray writable = MappedIntArray.open(file, true, 16);
+    for (int i = 0; i < expected.length; ++i) {
+      expected[i] = i * i;
+    }
+    writable.set(0, expected, 0, 20);
+    for (int i = 20; i < expected.length; ++i) {
+      writable.set(i, expected[i]);
+    }
+    writable.force();
+
+    final MappedIntArray readOnly = MappedIntArray.open(file, false, 16);
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], readOnly.get(i));
+    }
+    for (int start = 0; start < expected.length; ++start) {
+      for (int end = start; end <= expected.length; ++end) {
+        assertArrayEquals(Arrays.copyOfRange(expected, start, end),
+            readOnly.toArray(start, end - start));
+      }
+    }
+    final int[] dest = new int[10];
+    readOnly.get(5, dest, 3, 7);
+    assertArrayEquals(new int[]{0, 0, 0, 25, 36, 49, 64, 81, 100, 121}, dest);
+    // the same file with the default chunk size
+    assertArrayEquals(expected, MappedIntArray.open(file).toArray());
+  }
+
+  @Test
+  public void testWritesAreShared() throws IOException {
+    final File file = folder.newFile();
+    final MappedLongArray writable = MappedLongArray.create(file, 3);
+    assertTrue(writable.isWritable());
+    final MappedLongArray readOnly = MappedLongArray.open(file);
+    writable.set(2, 42L);
+    assertEquals(42L, readOnly.get(2));
+    try {
+      readOnly.set(0, 1L);
+      fail("Expected a read-only array");
+    } catch (ReadOnlyBufferException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBounds() throws IOException {
+    final MappedFloatArray array = MappedFloatArray.create(folder.newFile(), 4);
+    try {
+      array.get(4);
+      fail("Expected an out of bounds index to fail");
+    } catch (IndexOutOfBoundsException expected) {
+      // expected
+    }
+    try {
+      array.toArray(2, 3);
+      fail("Expected an out of bounds range to fail");
+    } catch (IndexOutOfBoundsException expected) {
+      // expected
+    }
+    try {
+      array.get(0, new float[2], 1, 2);
+      fail("Expected an out of bounds destination to fail");
+    } catch (IndexOutOfBoundsException expected) {
+      // expected
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testWrongElementType() throws IOException {
+    final File file = folder.newFile();
+    MappedIntArray.create(file, new int[]{1, 2});
+    MappedFloatArray.open(file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAnArrayFile() throws IOException {
+    MappedIntArray.open(folder.newFile());
+  }
+}
@@ -5,6 +5,8 @@ import com.bbn.bue.common.strings.offsets.OffsetGroup;
 import com.bbn.bue.common.strings.offsets.OffsetGroupRange;
 import com.bbn.bue.common.strings.offsets.OffsetRange;
 
+import com.google.common.collect.ImmutableList;
+
 import org.junit.Test;
 
 import static com.bbn.bue.common.StringUtils.unicodeFriendly;
@@ -337,6 +339,72 @@ public final class LocatedStringTest {
         TEST_STRING1.referenceSubstringByContentOffsets(OffsetRange.charOffsetRange(4, 4)).get());
   }
 
+  @Test
+  public void testContentSubstringByReferenceOffsets() {
+    assertEquals(unicodeFriendly("lo " + CHEESE_WEDGE),
+        TEST_STRING1.contentSubstringByReferenceOffsets(OffsetRange.charOffsetRange(3, 6)));
+    // starting in deleted material
+    assertEquals(unicodeFriendly("lo"),
+        TEST_STRING1.contentSubstringByReferenceOffsets(OffsetRange.charOffsetRange(1, 4)));
+    // a reference character with inserted material mapped to it
+    assertEquals(unicodeFriendly(" " + FACE_WITH_TEARS_OF_JOY + " "),
+        TEST_STRING1.contentSubstringByReferenceOffsets(OffsetRange.charOffsetRange(8, 8)));
+    assertEquals(SINGLE_REGION_SUBSTRING1,
+        TEST_STRING1.contentLocatedSubstringByReferenceOffsets(OffsetRange.charOffsetRange(6, 6)));
+    assertEquals(FINAL_SUBSTRING1.content(),
+        TEST_STRING1.contentLocatedSubstringByReferenceOffsets(OffsetRange.charOffsetRange(8, 20))
+            .content());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testContentSubstringByDeletedReferenceOffsets() {
+    TEST_STRING1.contentSubstringByReferenceOffsets(OffsetRange.charOffsetRange(1, 2));
+  }
+
+  @Test
+  public void testBulkReferenceOffsetsForContentOffsets() {
+    final int[] contentOffsets = {0, 0, 3, 4, 7, 8, 8, 20};
+    final ImmutableList<OffsetGroup> starts =
+        TEST_STRING1.startReferenceOffsetsForContentOffsets(contentOffsets);
+    final ImmutableList<OffsetGroup> ends =
+        TEST_STRING1.endReferenceOffsetsForContentOffsets(contentOffsets);
+    assertEquals(contentOffsets.length, starts.size());
+    for (int i = 0; i < contentOffsets.length; ++i) {
+      assertEquals(TEST_STRING1.startReferenceOffsetsForContentOffset(
+          asCharOffset(contentOffsets[i])), starts.get(i));
+      assertEquals(TEST_STRING1.endReferenceOffsetsForContentOffset(
+          asCharOffset(contentOffsets[i])), ends.get(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkReferenceOffsetsMustBeSorted() {
+    TEST_STRING1.startReferenceOffsetsForContentOffsets(new int[]{3, 1});
+  }
+
+  @Test
+  public void testOffsetLookupWithManyRegions() {
+    // alternating BMP and non-BMP characters force a new region for every character
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      sb.append(i % 2 == 0 ? "a" : CHEESE_WEDGE);
+    }
+    final LocatedString ls = LocatedString.fromReferenceString(sb.toString());
+    assertEquals(1000, ls.characterRegions().size());
+    final int[] allOffsets = new int[1000];
+    for (int i = 0; i < 1000; ++i) {
+      allOffsets[i] = i;
+      assertEquals(i, ls.startReferenceOffsetsForContentOffset(asCharOffset(i)).charOffset()
+          .asInt());
+    }
+    final ImmutableList<OffsetGroup> bulk = ls.endReferenceOffsetsForContentOffsets(allOffsets);
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(i, bulk.get(i).charOffset().asInt());
+    }
+    assertEquals(unicodeFriendly("a" + CHEESE_WEDGE + "a"),
+        ls.contentSubstringByReferenceOffsets(OffsetRange.charOffsetRange(500, 502)));
+  }
+
   @Test
   public void testContainsExactly() {
     assertTrue(TEST_STRING1.containsExactly(INITIAL_SUBSTRING1));
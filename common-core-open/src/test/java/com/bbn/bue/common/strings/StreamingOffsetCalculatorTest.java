@@ -0,0 +1,148 @@
+package com.bbn.bue.common.strings;
+
+import com.bbn.bue.common.strings.offsets.OffsetGroup;
+import com.bbn.bue.common.strings.offsets.OffsetRange;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.bbn.bue.common.strings.offsets.CharOffset.asCharOffset;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class StreamingOffsetCalculatorTest {
+
+  private static final String CHEESE_WEDGE = "🧀";
+
+  @Test
+  public void testSingleWindowMatchesFromReferenceString() throws IOException {
+    final String text = "Hello " + CHEESE_WEDGE + CHEESE_WEDGE + ", how are you?";
+    final ImmutableList<LocatedString> windows =
+        new StreamingOffsetCalculator.Builder().build().calculateWindows(new StringReader(text));
+    assertEquals(1, windows.size());
+    final LocatedString expected = LocatedString.fromReferenceString(text);
+    assertEquals(expected.content(), windows.get(0).content());
+    assertEquals(expected.characterRegions(), windows.get(0).characterRegions());
+    assertFalse(windows.get(0).referenceString().isPresent());
+  }
+
+  @Test
+  public void testWindowsAreSlicesOfWholeDocument() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 500; ++i) {
+      sb.append("line ").append(i).append(i % 7 == 0 ? CHEESE_WEDGE : "").append('\n');
+    }
+    final String text = sb.toString();
+    final LocatedString whole = LocatedString.fromReferenceString(text);
+
+    final StreamingOffsetCalculator calculator = new StreamingOffsetCalculator.Builder()
+        .windowSizeInCodePoints(100).build();
+    final ImmutableList<LocatedString> windows = calculator.calculateWindows(
+        new StringReader(text));
+    assertTrue(windows.size() > 1);
+
+    int windowStart = 0;
+    final StringBuilder reassembled = new StringBuilder();
+    for (final LocatedString window : windows) {
+      final int windowLength = window.content().lengthInCodePoints();
+      assertTrue(windowLength >= 100 || window == windows.get(windows.size() - 1));
+      assertTrue(window.content().utf16CodeUnits().endsWith("\n"));
+      final LocatedString expected = whole.contentLocatedSubstringByContentOffsets(
+          OffsetRange.charOffsetRange(windowStart, windowStart + windowLength - 1));
+      assertEquals(expected.characterRegions(), window.characterRegions());
+      reassembled.append(window.content().utf16CodeUnits());
+      windowStart += windowLength;
+    }
+    assertEquals(text, reassembled.toString());
+  }
+
+  @Test
+  public void testHardWindowBreaksWithoutNewlines() throws IOException {
+    final ImmutableList<LocatedString> windows = new StreamingOffsetCalculator.Builder()
+        .windowSizeInCodePoints(3).build().calculateWindows(new StringReader("abcdefghij"));
+    assertEquals(2, windows.size());
+    assertEquals("abcdef", windows.get(0).content().utf16CodeUnits());
+    assertEquals(6, windows.get(1).startReferenceOffsetsForContentOffset(asCharOffset(0))
+        .charOffset().asInt());
+  }
+
+  @Test
+  public void testEdtAndByteOffsets() throws IOException {
+    // é is two bytes in UTF-8 and the cheese wedge is four
+    final String text = "a<b>é\r\n" + CHEESE_WEDGE + "z";
+    final StreamingOffsetCalculator calculator = new StreamingOffsetCalculator.Builder()
+        .calculateEDTOffsetsByACERules(true).computeUtf8ByteOffsets(true).build();
+    final ImmutableList.Builder<LocatedString> windows = ImmutableList.builder();
+    calculator.calculateOffsets(ByteSource.wrap(text.getBytes(Charsets.UTF_8)),
+        new StreamingOffsetCalculator.WindowListener() {
+          @Override
+          public void onWindow(final LocatedString window) {
+            windows.add(window);
+          }
+        });
+    final LocatedString located = windows.build().get(0);
+
+    final int[] expectedEdt = {0, 1, 1, 1, 1, 2, 2, 3};
+    for (int i = 0; i < expectedEdt.length; ++i) {
+      final OffsetGroup start = located.startReferenceOffsetsForContentOffset(asCharOffset(i));
+      assertEquals(i, start.charOffset().asInt());
+      assertEquals("EDT offset for " + i, expectedEdt[i], start.edtOffset().asInt());
+    }
+
+    // the region holding \r; the region after it starts with \n at byte 7
+    final LocatedString.CharacterRegion carriageReturn = located.characterRegions().get(3);
+    assertEquals(5, carriageReturn.contentStartPosInclusive().asInt());
+    assertEquals(6, carriageReturn.referenceStartOffsetInclusive().byteOffset().get().asInt());
+    final LocatedString.CharacterRegion cheese = located.characterRegions().get(5);
+    assertTrue(cheese.contentNonBmp());
+    assertEquals(8, cheese.referenceStartOffsetInclusive().byteOffset().get().asInt());
+    assertEquals(11, cheese.referenceEndOffsetInclusive().byteOffset().get().asInt());
+    assertEquals(12,
+        located.characterRegions().get(6).referenceStartOffsetInclusive().byteOffset().get()
+            .asInt());
+  }
+
+  @Test
+  public void testRegionsArePassedBeforeTheirWindows() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      sb.append("line ").append(i).append(i % 3 == 0 ? CHEESE_WEDGE : "").append('\n');
+    }
+    final List<LocatedString.CharacterRegion> pendingRegions = new ArrayList<>();
+    final ImmutableList.Builder<LocatedString> windows = ImmutableList.builder();
+    new StreamingOffsetCalculator.Builder().windowSizeInCodePoints(50).build().calculateOffsets(
+        new StringReader(sb.toString()),
+        new StreamingOffsetCalculator.WindowListener() {
+          @Override
+          public void onWindow(final LocatedString window) {
+            // every region of the window arrived before it, and nothing else did
+            assertEquals(window.characterRegions(), pendingRegions);
+            pendingRegions.clear();
+            windows.add(window);
+          }
+        },
+        new StreamingOffsetCalculator.RegionListener() {
+          @Override
+          public void onRegion(final LocatedString.CharacterRegion region) {
+            pendingRegions.add(region);
+          }
+        });
+    assertTrue(windows.build().size() > 1);
+    assertTrue(pendingRegions.isEmpty());
+  }
+
+  @Test
+  public void testEmptyInput() throws IOException {
+    assertTrue(new StreamingOffsetCalculator.Builder().build()
+        .calculateWindows(new StringReader("")).isEmpty());
+  }
+}
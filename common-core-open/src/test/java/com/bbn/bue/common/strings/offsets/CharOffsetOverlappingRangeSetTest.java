@@ -0,0 +1,75 @@
+package com.bbn.bue.common.strings.offsets;
+
+import com.bbn.bue.common.collections.ImmutableOverlappingRangeSet;
+import com.bbn.bue.common.collections.OverlappingRangeSet;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.bbn.bue.common.strings.offsets.CharOffset.asCharOffset;
+import static com.bbn.bue.common.strings.offsets.OffsetRange.charOffsetRange;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class CharOffsetOverlappingRangeSetTest {
+
+  @Test
+  public void testOffsetRangeQueries() {
+    final CharOffsetOverlappingRangeSet ranges = CharOffsetOverlappingRangeSet.create(
+        ImmutableList.of(charOffsetRange(10, 20), charOffsetRange(0, 5), charOffsetRange(3, 12),
+            charOffsetRange(0, 5)));
+    assertEquals(3, ranges.size());
+    assertEquals(ImmutableList.of(charOffsetRange(3, 12), charOffsetRange(10, 20)),
+        ranges.rangesContaining(11).asList());
+    assertEquals(ImmutableList.of(charOffsetRange(0, 5), charOffsetRange(3, 12)),
+        ranges.rangesContaining(charOffsetRange(3, 4)).asList());
+    assertEquals(ImmutableList.of(charOffsetRange(0, 5), charOffsetRange(3, 12)),
+        ranges.rangesContainedBy(charOffsetRange(0, 12)).asList());
+    assertEquals(ImmutableList.of(charOffsetRange(3, 12)),
+        ranges.rangesOverlapping(charOffsetRange(6, 9)).asList());
+    assertTrue(ranges.rangesOverlapping(charOffsetRange(21, 30)).isEmpty());
+  }
+
+  @Test
+  public void testAgreesWithImmutableOverlappingRangeSet() {
+    final Random rng = new Random(0);
+    final List<OffsetRange<CharOffset>> offsetRanges = new ArrayList<>();
+    final List<Range<CharOffset>> ranges = new ArrayList<>();
+    for (int i = 0; i < 300; ++i) {
+      final int start = rng.nextInt(100);
+      final OffsetRange<CharOffset> range = charOffsetRange(start, start + rng.nextInt(20));
+      offsetRanges.add(range);
+      ranges.add(range.asRange());
+    }
+    final OverlappingRangeSet<CharOffset> reference = ImmutableOverlappingRangeSet.create(ranges);
+    final CharOffsetOverlappingRangeSet specialized =
+        CharOffsetOverlappingRangeSet.create(offsetRanges);
+
+    for (int trial = 0; trial < 300; ++trial) {
+      final CharOffset item = asCharOffset(rng.nextInt(120));
+      assertEquals(ImmutableSet.copyOf(reference.rangesContaining(item)),
+          ImmutableSet.copyOf(specialized.rangesContaining(item)));
+      final int start = rng.nextInt(100);
+      final Range<CharOffset> query = rng.nextBoolean()
+          ? Range.closed(asCharOffset(start), asCharOffset(start + rng.nextInt(20)))
+          : Range.closedOpen(asCharOffset(start), asCharOffset(start + 1 + rng.nextInt(20)));
+      if (query.upperBoundType() == BoundType.CLOSED) {
+        // Guava does not think [0, 4] encloses [3, 5), though as offsets [3, 5) is just [3, 4]
+        assertEquals(ImmutableSet.copyOf(reference.rangesContaining(query)),
+            ImmutableSet.copyOf(specialized.rangesContaining(query)));
+      }
+      assertEquals(ImmutableSet.copyOf(reference.rangesContainedBy(query)),
+          ImmutableSet.copyOf(specialized.rangesContainedBy(query)));
+      assertEquals(ImmutableSet.copyOf(reference.rangesOverlapping(query)),
+          ImmutableSet.copyOf(specialized.rangesOverlapping(query)));
+    }
+  }
+}
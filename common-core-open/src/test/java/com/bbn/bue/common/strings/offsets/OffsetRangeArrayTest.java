@@ -0,0 +1,116 @@
+package com.bbn.bue.common.strings.offsets;
+
+import com.bbn.bue.common.io.ByteArraySink;
+import com.bbn.bue.common.serialization.jackson.JacksonSerializer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.io.ByteSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.bbn.bue.common.strings.offsets.OffsetRange.charOffsetRange;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class OffsetRangeArrayTest {
+
+  @Test
+  public void testListRoundTrip() {
+    final ImmutableList<OffsetRange<CharOffset>> ranges = ImmutableList.of(
+        charOffsetRange(5, 7), charOffsetRange(0, 0), charOffsetRange(5, 6));
+    final OffsetRangeArray<CharOffset> array = OffsetRangeArray.copyOf(ranges);
+    assertEquals(3, array.size());
+    assertEquals(ranges, array.toList());
+    assertEquals(ranges, array.asList());
+    assertEquals(5, array.startInclusive(2));
+    assertEquals(6, array.endInclusive(2));
+    assertFalse(array.isSortedByStart());
+
+    final OffsetRangeArray<CharOffset> sorted = array.sortedByStart();
+    assertTrue(sorted.isSortedByStart());
+    assertEquals(ImmutableList.of(charOffsetRange(0, 0), charOffsetRange(5, 6),
+        charOffsetRange(5, 7)), sorted.toList());
+    assertTrue(sorted == sorted.sortedByStart());
+  }
+
+  @Test
+  public void testOffsetTypeIsPreserved() {
+    final OffsetRangeArray<EDTOffset> array = OffsetRangeArray.builder(EDTOffset.asEDTOffset(17))
+        .addInclusive(3, 5).build();
+    assertEquals(OffsetRange.fromInclusiveEndpoints(EDTOffset.asEDTOffset(3),
+        EDTOffset.asEDTOffset(5)), array.get(0));
+    assertTrue(OffsetRangeArray.copyOf(EDTOffset.asEDTOffset(0),
+        ImmutableList.<OffsetRange<EDTOffset>>of()).isEmpty());
+  }
+
+  @Test
+  public void testQueriesAgreeWithBruteForce() {
+    final Random rng = new Random(0);
+    final List<OffsetRange<CharOffset>> ranges = new ArrayList<>();
+    for (int i = 0; i < 200; ++i) {
+      ranges.add(randomRange(rng));
+    }
+    final OffsetRangeArray<CharOffset> array = OffsetRangeArray.copyOf(ranges).sortedByStart();
+    assertEquals(Ordering.natural().sortedCopy(startEndPairs(ranges)),
+        startEndPairs(array.asList()));
+
+    for (int trial = 0; trial < 200; ++trial) {
+      final OffsetRange<CharOffset> query = randomRange(rng);
+      final List<OffsetRange<CharOffset>> contained = new ArrayList<>();
+      final List<OffsetRange<CharOffset>> containing = new ArrayList<>();
+      final List<OffsetRange<CharOffset>> overlapping = new ArrayList<>();
+      for (final OffsetRange<CharOffset> range : array.asList()) {
+        if (query.contains(range)) {
+          contained.add(range);
+        }
+        if (range.contains(query)) {
+          containing.add(range);
+        }
+        if (range.overlaps(query)) {
+          overlapping.add(range);
+        }
+      }
+      assertEquals(contained, array.containedIn(query).asList());
+      assertEquals(containing, array.containing(query).asList());
+      assertEquals(overlapping, array.overlapping(query).asList());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testQueryOnUnsortedRejected() {
+    OffsetRangeArray.copyOf(ImmutableList.of(charOffsetRange(3, 4), charOffsetRange(1, 2)))
+        .overlapping(charOffsetRange(0, 10));
+  }
+
+  @Test
+  public void testJacksonRoundTrip() throws IOException {
+    final JacksonSerializer serializer = JacksonSerializer.builder().forJson().build();
+    final OffsetRangeArray<CharOffset> array = OffsetRangeArray.charOffsetRangesBuilder()
+        .addInclusive(1, 3).addInclusive(2, 2).addInclusive(10, 20).build();
+    final ByteArraySink sink = ByteArraySink.create();
+    serializer.serializeTo(array, sink);
+    final Object reloaded = serializer.deserializeFrom(ByteSource.wrap(sink.toByteArray()));
+    assertEquals(array, reloaded);
+    assertEquals(array.toList(), ((OffsetRangeArray<?>) reloaded).toList());
+  }
+
+  private static OffsetRange<CharOffset> randomRange(Random rng) {
+    final int start = rng.nextInt(100);
+    return charOffsetRange(start, start + rng.nextInt(15));
+  }
+
+  private static List<Long> startEndPairs(List<OffsetRange<CharOffset>> ranges) {
+    final List<Long> ret = new ArrayList<>();
+    for (final OffsetRange<CharOffset> range : ranges) {
+      ret.add(range.startInclusive().asInt() * 1000L + range.endInclusive().asInt());
+    }
+    return ret;
+  }
+}
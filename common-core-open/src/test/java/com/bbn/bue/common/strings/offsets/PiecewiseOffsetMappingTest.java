@@ -0,0 +1,181 @@
+package com.bbn.bue.common.strings.offsets;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class PiecewiseOffsetMappingTest {
+
+  @Test
+  public void testBuilder() {
+    // "a\r\nb  c" -> "a\nb c!" : delete \r, collapse the two spaces, append !
+    final PiecewiseOffsetMapping mapping = PiecewiseOffsetMapping.builder()
+        .mapped(1).unmapped(1).mapped(2).collapsed(2).mapped(1).inserted(1).build();
+    assertEquals(7, mapping.sourceLength());
+    assertEquals(6, mapping.targetLength());
+    assertArrayEquals(new int[]{0, PiecewiseOffsetMapping.UNMAPPED, 1, 2, 3, 3, 4},
+        mapping.mapOffsets(new int[]{0, 1, 2, 3, 4, 5, 6}));
+    assertEquals(Optional.of(3), mapping.mapOffsetUniquely(5));
+    assertEquals(ImmutableSet.of(), ImmutableSet.copyOf(mapping.mapOffset(1)));
+    assertEquals(ImmutableList.of(Range.closed(0, 3)), mapping.mapRange(Range.closed(0, 5)));
+    assertFalse(mapping.inverseMapping().isPresent());
+    // adjacent segments of the same kind are merged
+    assertEquals(PiecewiseOffsetMapping.identity(5),
+        PiecewiseOffsetMapping.builder().mapped(2).mapped(0).mapped(3).build());
+  }
+
+  @Test
+  public void testInverse() {
+    final PiecewiseOffsetMapping mapping = PiecewiseOffsetMapping.builder()
+        .unmapped(2).mapped(3).inserted(2).mapped(1).build();
+    final OffsetMapping inverse = mapping.inverseMapping().get();
+    for (int source = 0; source < mapping.sourceLength(); ++source) {
+      for (final Integer target : mapping.mapOffset(source)) {
+        assertEquals(ImmutableSet.of(source), ImmutableSet.copyOf(inverse.mapOffset(target)));
+      }
+    }
+    assertTrue(inverse.mapOffset(3).isEmpty());
+    // the targets of the inserted offsets are skipped, so the two pieces are coalesced
+    assertEquals(ImmutableList.of(Range.closed(2, 5)), inverse.mapRange(Range.closed(0, 5)));
+    assertEquals(ImmutableList.of(Range.closed(2, 3)), inverse.mapRange(Range.closed(0, 1)));
+  }
+
+  @Test
+  public void testCompile() {
+    // maps every offset to half of itself, dropping multiples of 5
+    final PiecewiseOffsetMapping compiled = PiecewiseOffsetMapping.compile(
+        new AbstractFunctionalOffsetMapping() {
+          @Override
+          public Collection<Integer> mapOffset(final int sourceIndex) {
+            return sourceIndex % 5 == 0 ? ImmutableSet.<Integer>of()
+                                        : ImmutableSet.of(sourceIndex / 2);
+          }
+
+          @Override
+          public Collection<Range<Integer>> mapRange(final Range<Integer> closedSource) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public Optional<OffsetMapping> inverseMapping() {
+            return Optional.absent();
+          }
+        }, 40, 20);
+    assertEquals(20, compiled.targetLength());
+    for (int i = 0; i < 40; ++i) {
+      assertEquals(i % 5 == 0 ? Optional.<Integer>absent() : Optional.of(i / 2),
+          compiled.mapOffsetUniquely(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecreasingMappingRejected() {
+    PiecewiseOffsetMapping.compile(new AbstractFunctionalOffsetMapping() {
+      @Override
+      public Collection<Integer> mapOffset(final int sourceIndex) {
+        return ImmutableSet.of(10 - sourceIndex);
+      }
+
+      @Override
+      public Collection<Range<Integer>> mapRange(final Range<Integer> closedSource) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Optional<OffsetMapping> inverseMapping() {
+        return Optional.absent();
+      }
+    }, 5, 11);
+  }
+
+  @Test
+  public void testCompositionAgreesWithPointwiseComposition() {
+    final Random rng = new Random(0);
+    for (int trial = 0; trial < 200; ++trial) {
+      final PiecewiseOffsetMapping first = randomMapping(rng, 30 + rng.nextInt(20));
+      final PiecewiseOffsetMapping second = randomMappingWithSourceLength(rng,
+          first.targetLength());
+      final PiecewiseOffsetMapping composed = first.andThen(second);
+      assertEquals(first.sourceLength(), composed.sourceLength());
+      assertEquals(second.targetLength(), composed.targetLength());
+
+      final int[] allSources = new int[first.sourceLength()];
+      for (int i = 0; i < allSources.length; ++i) {
+        allSources[i] = i;
+      }
+      final int[] bulk = composed.mapOffsets(allSources);
+      for (int source = 0; source < first.sourceLength(); ++source) {
+        final int intermediate = first.mapOffsetToInt(source);
+        final int expected = intermediate == PiecewiseOffsetMapping.UNMAPPED
+                             ? PiecewiseOffsetMapping.UNMAPPED
+                             : second.mapOffsetToInt(intermediate);
+        assertEquals(expected, composed.mapOffsetToInt(source));
+        assertEquals(expected, bulk[source]);
+      }
+      // the builder merges segments canonically, so recompiling changes nothing
+      assertEquals(composed,
+          PiecewiseOffsetMapping.compile(composed, composed.sourceLength(),
+              composed.targetLength()));
+    }
+  }
+
+  private static PiecewiseOffsetMapping randomMapping(Random rng, int approximateLength) {
+    final PiecewiseOffsetMapping.Builder ret = PiecewiseOffsetMapping.builder();
+    int sourceLength = 0;
+    while (sourceLength < approximateLength) {
+      final int length = 1 + rng.nextInt(4);
+      switch (rng.nextInt(4)) {
+        case 0:
+          ret.mapped(length);
+          break;
+        case 1:
+          ret.unmapped(length);
+          break;
+        case 2:
+          ret.collapsed(length);
+          break;
+        default:
+          ret.inserted(length);
+          continue;
+      }
+      sourceLength += length;
+    }
+    return ret.build();
+  }
+
+  private static PiecewiseOffsetMapping randomMappingWithSourceLength(Random rng,
+      int sourceLength) {
+    final PiecewiseOffsetMapping.Builder ret = PiecewiseOffsetMapping.builder();
+    int remaining = sourceLength;
+    while (remaining > 0) {
+      final int length = Math.min(remaining, 1 + rng.nextInt(4));
+      switch (rng.nextInt(4)) {
+        case 0:
+          ret.mapped(length);
+          break;
+        case 1:
+          ret.unmapped(length);
+          break;
+        case 2:
+          ret.collapsed(length);
+          break;
+        default:
+          ret.inserted(length);
+          continue;
+      }
+      remaining -= length;
+    }
+    return ret.build();
+  }
+}
@@ -0,0 +1,95 @@
+package com.bbn.bue.common.symbols;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test program for measuring how {@link Symbol#from(String)} throughput scales with the number of
+ * threads interning concurrently.
+ *
+ * Usage: {@code BenchmarkSymbolInterning [maxThreads] [distinctStrings] [internsPerThread]}. Every
+ * power-of-two thread count up to {@code maxThreads} (default: the number of available processors)
+ * is timed.
+ */
+public final class BenchmarkSymbolInterning {
+
+  private static Logger log = LoggerFactory.getLogger(BenchmarkSymbolInterning.class);
+
+  public static void main(String[] args) {
+    // We wrap the main method in this way to ensure a non-zero return value on failure
+    try {
+      trueMain(args);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  private static void trueMain(String[] args) throws Exception {
+    final int maxThreads =
+        args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    final int distinctStrings = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    final int internsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 5000000;
+
+    // we build the strings up front so the benchmark measures interning, not string building
+    final ImmutableList.Builder<String> stringsB = ImmutableList.builder();
+    for (int i = 0; i < distinctStrings; ++i) {
+      stringsB.add("doc-" + i);
+    }
+    final ImmutableList<String> strings = stringsB.build();
+    // hold on to the symbols so the weak table is actually exercised rather than rebuilt
+    final List<Symbol> keepAlive = new ArrayList<Symbol>();
+    for (final String s : strings) {
+      keepAlive.add(Symbol.from(s));
+    }
+
+    for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+      runTrial(numThreads, strings, internsPerThread);
+    }
+    log.info("Kept {} symbols alive during the benchmark", keepAlive.size());
+  }
+
+  private static void runTrial(final int numThreads, final ImmutableList<String> strings,
+      final int internsPerThread) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+      for (int t = 0; t < numThreads; ++t) {
+        final int offset = t * 7919;
+        tasks.add(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            int checksum = 0;
+            for (int i = 0; i < internsPerThread; ++i) {
+              checksum += Symbol.from(strings.get((offset + i) % strings.size())).hashCode();
+            }
+            return checksum;
+          }
+        });
+      }
+
+      final Stopwatch stopwatch = Stopwatch.createStarted();
+      int checksum = 0;
+      for (final Future<Integer> result : executor.invokeAll(tasks)) {
+        checksum += result.get();
+      }
+      final long elapsedMillis = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      final long totalInterns = (long) numThreads * internsPerThread;
+      log.info("{} threads: {} interns in {} ms ({} interns/ms, checksum {})", numThreads,
+          totalInterns, elapsedMillis, totalInterns / elapsedMillis, checksum);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.bbn.bue.common.symbols;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class MappedSymbolDictionaryTest {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    // include non-ASCII and non-BMP strings to check the UTF-8 byte ordering is consistent
+    final ImmutableList<Symbol> symbols = SymbolUtils.listFrom(ImmutableList.of(
+        "doc3", "doc1", "", "été", "doc1", "😀smile", "doc10", "￯"));
+    final File file = File.createTempFile("symbols", ".dict");
+    file.deleteOnExit();
+    MappedSymbolDictionary.write(symbols, file);
+
+    final MappedSymbolDictionary dict = MappedSymbolDictionary.open(file);
+    // the duplicate doc1 is dropped
+    assertEquals(7, dict.size());
+    assertSame(Symbol.from("doc3"), dict.symbolForId(0));
+    assertSame(Symbol.from("😀smile"), dict.symbolForId(4));
+    for (int id = 0; id < dict.size(); ++id) {
+      assertEquals(id, dict.idOf(dict.symbolForId(id)));
+    }
+    assertEquals(2, dict.idOf(""));
+    assertEquals(SymbolTable.ABSENT, dict.idOf("doc2"));
+    assertEquals(SymbolTable.ABSENT, dict.idOf("doc100"));
+    assertFalse(dict.contains(Symbol.from("zzz")));
+    assertTrue(dict.contains(Symbol.from("doc10")));
+    assertEquals(dict.symbols(), dict.toSymbolTable().symbols());
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    final File file = File.createTempFile("symbols", ".dict");
+    file.deleteOnExit();
+    MappedSymbolDictionary.write(ImmutableList.<Symbol>of(), file);
+    final MappedSymbolDictionary dict = MappedSymbolDictionary.open(file);
+    assertEquals(0, dict.size());
+    assertEquals(SymbolTable.ABSENT, dict.idOf("foo"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherFiles() throws IOException {
+    final File file = File.createTempFile("symbols", ".dict");
+    file.deleteOnExit();
+    Files.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, file);
+    MappedSymbolDictionary.open(file);
+  }
+}
@@ -0,0 +1,105 @@
+package com.bbn.bue.common.symbols;
+
+import com.bbn.bue.common.io.ByteArraySink;
+import com.bbn.bue.common.serialization.jackson.JacksonSerializer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CharSource;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class SymbolTableTest {
+
+  private static final Symbol FOO = Symbol.from("foo");
+  private static final Symbol BAR = Symbol.from("bar");
+  private static final Symbol BAZ = Symbol.from("baz");
+
+  @Test
+  public void testDenseIds() {
+    final SymbolTable table = SymbolTable.create();
+    assertEquals(0, table.register(FOO));
+    assertEquals(1, table.register(BAR));
+    assertEquals(0, table.register(FOO));
+    assertEquals(2, table.size());
+    assertEquals(1, table.idOf(BAR));
+    assertEquals(SymbolTable.ABSENT, table.idOf(BAZ));
+    assertFalse(table.contains(BAZ));
+    assertSame(BAR, table.symbolForId(1));
+    assertEquals(ImmutableList.of(FOO, BAR), table.symbols());
+  }
+
+  @Test
+  public void testGrowth() {
+    final SymbolTable table = SymbolTable.create();
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(i, table.register(Symbol.from("sym" + i)));
+    }
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals("sym" + i, table.symbolForId(i).asString());
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testUnassignedId() {
+    SymbolTable.fromSymbols(ImmutableList.of(FOO)).symbolForId(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicatesRejected() {
+    SymbolTable.fromSymbols(ImmutableList.of(FOO, BAR, FOO));
+  }
+
+  @Test
+  public void testTextRoundTrip() throws IOException {
+    final SymbolTable table = SymbolTable.fromSymbols(ImmutableList.of(BAZ, FOO, BAR));
+    final File tmp = File.createTempFile("symbolTable", ".txt");
+    tmp.deleteOnExit();
+    table.writeTo(Files.asCharSink(tmp, Charsets.UTF_8));
+    final SymbolTable reloaded = SymbolTable.loadFrom(Files.asCharSource(tmp, Charsets.UTF_8));
+    assertEquals(table.symbols(), reloaded.symbols());
+    assertEquals(0, SymbolTable.loadFrom(CharSource.wrap("")).size());
+  }
+
+  @Test
+  public void testJavaSerialization() throws Exception {
+    final SymbolTable table = SymbolTable.fromSymbols(ImmutableList.of(BAR, FOO));
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(table);
+    }
+    final SymbolTable reloaded;
+    try (ObjectInputStream in =
+             new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      reloaded = (SymbolTable) in.readObject();
+    }
+    assertEquals(table.symbols(), reloaded.symbols());
+    assertEquals(1, reloaded.idOf(FOO));
+  }
+
+  @Test
+  public void testJacksonSerialization() throws IOException {
+    final SymbolTable table = SymbolTable.fromSymbols(ImmutableList.of(FOO, BAZ));
+    final JacksonSerializer serializer = JacksonSerializer.builder().forJson().build();
+    final ByteArraySink sink = ByteArraySink.create();
+    serializer.serializeTo(table, sink);
+    final SymbolTable reloaded =
+        (SymbolTable) serializer.deserializeFrom(ByteSource.wrap(sink.toByteArray()));
+    assertTrue(reloaded.contains(BAZ));
+    assertEquals(table.symbols(), reloaded.symbols());
+  }
+}
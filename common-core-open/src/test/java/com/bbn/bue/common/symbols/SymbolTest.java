@@ -0,0 +1,57 @@
+package com.bbn.bue.common.symbols;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public final class SymbolTest {
+
+  @Test
+  public void testIdentity() {
+    final Symbol foo = Symbol.from("foo");
+    assertSame(foo, Symbol.from(new String("foo")));
+    assertNotSame(foo, Symbol.from("bar"));
+    assertEquals("foo", foo.asString());
+  }
+
+  @Test
+  public void testConcurrentInterningYieldsOneSymbol() throws Exception {
+    final int numThreads = 8;
+    final int numStrings = 1000;
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      final List<Callable<List<Symbol>>> tasks = new ArrayList<Callable<List<Symbol>>>();
+      for (int t = 0; t < numThreads; ++t) {
+        tasks.add(new Callable<List<Symbol>>() {
+          @Override
+          public List<Symbol> call() {
+            final List<Symbol> ret = new ArrayList<Symbol>();
+            for (int i = 0; i < numStrings; ++i) {
+              ret.add(Symbol.from("concurrent-" + i));
+            }
+            return ret;
+          }
+        });
+      }
+      final List<Future<List<Symbol>>> results = executor.invokeAll(tasks);
+      final List<Symbol> reference = results.get(0).get();
+      for (final Future<List<Symbol>> result : results) {
+        final List<Symbol> symbols = result.get();
+        for (int i = 0; i < numStrings; ++i) {
+          assertSame(reference.get(i), symbols.get(i));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
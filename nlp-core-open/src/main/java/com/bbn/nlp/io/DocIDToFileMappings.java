@@ -1,5 +1,6 @@
 package com.bbn.nlp.io;
 
+import com.bbn.bue.common.files.CompactFileMap;
 import com.bbn.bue.common.symbols.Symbol;
 
 import com.google.common.base.Function;
@@ -28,12 +29,30 @@ public final class DocIDToFileMappings {
 
   /**
    * Gets a DocIDToFileMapping which does lookup in the provieded map and returns {@link
-   * com.google.common.base.Optional#absent()}  if no mapping is present.
+   * com.google.common.base.Optional#absent()}  if no mapping is present.  The map is copied unless
+   * it is a {@link CompactFileMap}, which is immutable and much smaller than a copy would be.
    */
   public static DocIDToFileMapping forMap(Map<Symbol, File> map) {
+    if (map instanceof CompactFileMap) {
+      return forCompactFileMap((CompactFileMap) map);
+    }
     return new ForMap(map);
   }
 
+  /**
+   * Gets a DocIDToFileMapping which does lookup in the provided compact map. This is suitable for
+   * maps of many millions of documents.
+   */
+  public static DocIDToFileMapping forCompactFileMap(final CompactFileMap map) {
+    checkNotNull(map);
+    return new DocIDToFileMapping() {
+      @Override
+      public Optional<File> fileForDocID(final Symbol docID) {
+        return map.fileForDocID(docID);
+      }
+    };
+  }
+
   /**
    * Returns a {@code DocIDToFileMapping} which calls the specified function.
    */